@@ -0,0 +1,137 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A to-one association declared in a DAO properties file, for example:
+ *
+ * <pre>
+ * association.party=PARTY_ID -&gt; /partydao.properties
+ * association.state=STATE_ID -&gt; /statedao.properties (ID)
+ * </pre>
+ *
+ * The property name after <code>association.</code> is the DTO property that
+ * receives the associated DTO. The left side of the arrow is the foreign key
+ * column of this DAO's table; the right side is the properties file of the
+ * associated DAO, optionally followed by the referenced key column (default
+ * <code>ID</code>).
+ *
+ * @author drothauser
+ */
+final class Association {
+
+	/**
+	 * Prefix of association properties.
+	 */
+	static final String PREFIX = "association.";
+
+	/**
+	 * Default referenced key column.
+	 */
+	private static final String DEFAULT_TARGET_KEY = "ID";
+
+	/**
+	 * Parses an association definition.
+	 */
+	private static final Pattern DEFINITION = Pattern
+	    .compile("\\s*(\\w+)\\s*->\\s*([^\\s(]+)\\s*(?:\\(\\s*(\\w+)\\s*\\))?\\s*");
+
+	/**
+	 * DTO property receiving the associated DTO.
+	 */
+	private final String name;
+
+	/**
+	 * Foreign key column.
+	 */
+	private final String foreignKeyColumn;
+
+	/**
+	 * Properties file of the associated DAO.
+	 */
+	private final String targetPropsFile;
+
+	/**
+	 * Referenced key column of the associated table.
+	 */
+	private final String targetKeyColumn;
+
+	/**
+	 * Construct an association from its name and definition.
+	 *
+	 * @param name
+	 *            DTO property receiving the associated DTO
+	 * @param definition
+	 *            <code>FK_COLUMN -&gt; propsFile [(KEY_COLUMN)]</code>
+	 */
+	Association(String name, String definition) {
+		Matcher matcher = DEFINITION.matcher(definition);
+		if (!matcher.matches()) {
+			throw new IllegalArgumentException(String.format(
+			    "Invalid association \"%s\": %s", name, definition));
+		}
+		this.name = name;
+		this.foreignKeyColumn = matcher.group(1);
+		this.targetPropsFile = matcher.group(2);
+		this.targetKeyColumn = matcher.group(3) == null ? DEFAULT_TARGET_KEY
+		    : matcher.group(3);
+	}
+
+	/**
+	 * Accessor for name.
+	 *
+	 * @return DTO property receiving the associated DTO
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Accessor for foreignKeyColumn.
+	 *
+	 * @return foreign key column
+	 */
+	String getForeignKeyColumn() {
+		return foreignKeyColumn;
+	}
+
+	/**
+	 * Return the DTO property holding the foreign key.
+	 *
+	 * @return foreign key property name
+	 */
+	String getForeignKeyProperty() {
+		return SqlStatements.toPropertyName(foreignKeyColumn);
+	}
+
+	/**
+	 * Accessor for targetPropsFile.
+	 *
+	 * @return properties file of the associated DAO
+	 */
+	String getTargetPropsFile() {
+		return targetPropsFile;
+	}
+
+	/**
+	 * Accessor for targetKeyColumn.
+	 *
+	 * @return referenced key column
+	 */
+	String getTargetKeyColumn() {
+		return targetKeyColumn;
+	}
+
+	/**
+	 * Return the associated DTO's key property.
+	 *
+	 * @return referenced key property name
+	 */
+	String getTargetKeyProperty() {
+		return SqlStatements.toPropertyName(targetKeyColumn);
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrent executions of one statement so that a
+ * spike in a single query can't take every pooled connection.
+ *
+ * @author drothauser
+ */
+final class Bulkhead {
+
+	/**
+	 * Execution slots.
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * Milliseconds to wait for a slot.
+	 */
+	private final long maxWait;
+
+	/**
+	 * Construct a bulkhead.
+	 *
+	 * @param maxConcurrent
+	 *            maximum number of concurrent executions
+	 * @param maxWait
+	 *            milliseconds to wait for a slot; 0 fails immediately
+	 */
+	Bulkhead(int maxConcurrent, long maxWait) {
+		this.permits = new Semaphore(maxConcurrent);
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Take an execution slot, waiting up to <code>maxWait</code>.
+	 *
+	 * @return true if a slot was taken, false if the bulkhead is saturated
+	 */
+	boolean tryAcquire() {
+		if (maxWait <= 0) {
+			return permits.tryAcquire();
+		}
+		try {
+			return permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Give back an execution slot.
+	 */
+	void release() {
+		permits.release();
+	}
+
+	/**
+	 * Return the number of free execution slots.
+	 *
+	 * @return number of free slots
+	 */
+	int availablePermits() {
+		return permits.availablePermits();
+	}
+}
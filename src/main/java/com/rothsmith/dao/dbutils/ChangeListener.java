@@ -0,0 +1,26 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.Set;
+
+/**
+ * Told about rows written by other DAO instances, as found in the change log
+ * (see {@link DbUtilsJdbcDao#addChangeListener(ChangeListener)}), so that an
+ * application cache can evict or reload them.
+ *
+ * @author drothauser
+ */
+public interface ChangeListener {
+
+	/**
+	 * Rows were inserted, updated or deleted.
+	 *
+	 * @param keys
+	 *            keys of the changed rows as strings; a null element means a
+	 *            row whose key wasn't known when it was written, so anything
+	 *            may have changed
+	 */
+	void changed(Set<String> keys);
+}
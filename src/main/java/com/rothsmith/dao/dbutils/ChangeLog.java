@@ -0,0 +1,406 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.beanutils.PropertyUtilsBean;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rothsmith.dao.DaoRuntimeException;
+
+/**
+ * Change log shared by every DAO instance, on every node, that caches the
+ * same data. Each insert, update and delete through a DAO also writes the
+ * changed row's key to a change-log table, in the write's own transaction,
+ * and every DAO polls the table for rows past its high-water mark and
+ * reloads its caches. Only the database is needed:
+ *
+ * <pre>
+ * CREATE TABLE DAO_CHANGE_LOG (
+ *     SEQ BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+ *     ENTITY VARCHAR(128) NOT NULL,
+ *     ENTITY_KEY VARCHAR(255)
+ * );
+ * </pre>
+ *
+ * The DAO properties name the table:
+ *
+ * <pre>
+ * changeLog.table=TEST.DAO_CHANGE_LOG
+ * changeLog.pollInterval=1000
+ * </pre>
+ *
+ * <ul>
+ * <li><code>changeLog.table</code> - the change-log table; enables logging
+ * <li><code>changeLog.entity</code> - name the DAO's changes are logged
+ * under, the same for every DAO caching the data (default the DTO class
+ * name)
+ * <li><code>changeLog.key</code> - key column logged (default the
+ * <code>cache.key</code> column or <code>ID</code>); a generated key is
+ * logged for an insert that didn't set it
+ * <li><code>changeLog.pollInterval</code> - milliseconds between polls; 0
+ * (the default) polls only on {@link DbUtilsJdbcDao#pollChanges()}
+ * <li><code>changeLog.gapTimeout</code> - milliseconds to keep looking for a
+ * skipped sequence number (default 10000)
+ * </ul>
+ *
+ * A poll is one range scan of the primary key, <code>SEQ &gt; ?</code>.
+ * Sequence numbers are taken when a row is inserted but become visible when
+ * its transaction commits, so a poll may see 7 before 6 commits. Numbers
+ * skipped below the high-water mark are remembered for
+ * <code>changeLog.gapTimeout</code> and looked for again by the following
+ * polls; numbers of rolled-back writes are never filled and are dropped
+ * after the timeout. Old rows can be deleted by a housekeeping job once they
+ * are older than the longest poll interval plus the gap timeout. Periodic
+ * polls run until the DAO is closed.
+ *
+ * @author drothauser
+ */
+final class ChangeLog {
+
+	/**
+	 * SLF4J Logger for ChangeLog.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(ChangeLog.class);
+
+	/**
+	 * Default milliseconds to keep looking for a skipped sequence number.
+	 */
+	private static final long DEFAULT_GAP_TIMEOUT = 10000L;
+
+	/**
+	 * Most skipped sequence numbers remembered from one jump of the
+	 * high-water mark; larger jumps (identity pre-allocation after a restart)
+	 * aren't gaps.
+	 */
+	private static final int MAX_GAPS = 1000;
+
+	/**
+	 * Scheduler running the periodic polls of all change logs.
+	 */
+	private static final ScheduledExecutorService SCHEDULER =
+	    newScheduler();
+
+	/**
+	 * Data source the change log is read from.
+	 */
+	private final DataSource dataSource;
+
+	/**
+	 * Name the DAO's changes are logged under.
+	 */
+	private final String entity;
+
+	/**
+	 * DTO property of the logged key.
+	 */
+	private final String keyProperty;
+
+	/**
+	 * INSERT of a change.
+	 */
+	private final String insertSql;
+
+	/**
+	 * SELECT of the changes after a sequence number.
+	 */
+	private final String pollSql;
+
+	/**
+	 * Milliseconds to keep looking for a skipped sequence number.
+	 */
+	private final long gapTimeout;
+
+	/**
+	 * Listeners told about changes.
+	 */
+	private final List<ChangeListener> listeners =
+	    new CopyOnWriteArrayList<ChangeListener>();
+
+	/**
+	 * Skipped sequence numbers below the high-water mark, with the
+	 * <code>System.nanoTime()</code> they were found.
+	 */
+	private final TreeMap<Long, Long> gaps = new TreeMap<Long, Long>();
+
+	/**
+	 * Highest sequence number seen.
+	 */
+	private long highWater;
+
+	/**
+	 * Periodic poll, or null if the change log is only polled on demand.
+	 */
+	private final ScheduledFuture<?> pollTask;
+
+	/**
+	 * Construct a change log positioned at the table's current end, so that
+	 * only changes made from now on are reported.
+	 *
+	 * @param properties
+	 *            DAO properties
+	 * @param dataSource
+	 *            data source the change log is read from
+	 * @param dtoType
+	 *            DTO class, naming the entity by default
+	 * @throws SQLException
+	 *             thrown if the table can't be read
+	 */
+	ChangeLog(Map<String, String> properties, DataSource dataSource,
+	    Class<?> dtoType) throws SQLException {
+
+		this.dataSource = dataSource;
+		String table = properties.get("changeLog.table").trim();
+		this.entity = StringUtils.defaultIfBlank(
+		    properties.get("changeLog.entity"), dtoType.getName()).trim();
+		this.keyProperty = SqlStatements.toPropertyName(
+		    StringUtils.defaultIfBlank(properties.get("changeLog.key"),
+		        StringUtils.defaultIfBlank(properties.get("cache.key"), "ID"))
+		        .toUpperCase(Locale.ROOT));
+		this.insertSql = "insert into " + table
+		    + " ( ENTITY , ENTITY_KEY ) values ( ? , ? )";
+		this.pollSql = "select SEQ , ENTITY , ENTITY_KEY from " + table
+		    + " where SEQ > ? order by SEQ";
+		this.gapTimeout = NumberUtils.toLong(
+		    properties.get("changeLog.gapTimeout"), DEFAULT_GAP_TIMEOUT);
+
+		try (Connection conn = dataSource.getConnection();
+		        Statement stmt = conn.createStatement();
+		        ResultSet rs =
+		            stmt.executeQuery("select max(SEQ) from " + table)) {
+			highWater = rs.next() ? rs.getLong(1) : 0L;
+		}
+
+		long interval =
+		    NumberUtils.toLong(properties.get("changeLog.pollInterval"));
+		if (interval <= 0) {
+			pollTask = null;
+		} else {
+			pollTask = SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						poll();
+					} catch (SQLException | RuntimeException e) {
+						LOGGER.warn("Change log poll failed: " + e);
+					}
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Return whether DAO properties enable the change log.
+	 *
+	 * @param properties
+	 *            DAO properties
+	 * @return true if <code>changeLog.table</code> is set
+	 */
+	static boolean isEnabled(Map<String, String> properties) {
+		return StringUtils.isNotBlank(properties.get("changeLog.table"));
+	}
+
+	/**
+	 * Cancel the periodic poll, releasing the change log (and through its
+	 * listeners the DAO) from the scheduler. The change log can still be
+	 * written and polled on demand.
+	 */
+	void close() {
+		if (pollTask != null) {
+			pollTask.cancel(false);
+		}
+	}
+
+	/**
+	 * Add a listener told about changes found by polls.
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	void addListener(ChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Return the key logged for a written DTO.
+	 *
+	 * @param dto
+	 *            the DTO
+	 * @param generatedKey
+	 *            key generated by an insert, or null
+	 * @return the key as a string, or null if it isn't known
+	 */
+	String keyOf(Object dto, Object generatedKey) {
+
+		Object key = null;
+		PropertyUtilsBean propertyUtilsBean = new PropertyUtilsBean();
+		if (dto != null && propertyUtilsBean.isReadable(dto, keyProperty)) {
+			try {
+				key = propertyUtilsBean.getProperty(dto, keyProperty);
+			} catch (IllegalAccessException | InvocationTargetException
+			        | NoSuchMethodException e) {
+				String msg = "Error with PropertyUtilsBean: " + e;
+				LOGGER.error(msg, e);
+				throw new DaoRuntimeException(msg, e);
+			}
+		}
+		if (key == null) {
+			key = generatedKey;
+		}
+
+		if (key instanceof Number) {
+			return new BigDecimal(key.toString()).stripTrailingZeros()
+			    .toPlainString();
+		}
+		return key == null ? null : key.toString();
+	}
+
+	/**
+	 * Log a change on the write's connection, inside its transaction.
+	 *
+	 * @param conn
+	 *            the write's connection
+	 * @param key
+	 *            key of the changed row, or null if it isn't known
+	 * @throws SQLException
+	 *             thrown if the change can't be logged
+	 */
+	void record(Connection conn, String key) throws SQLException {
+		try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
+			stmt.setString(1, entity);
+			stmt.setString(2, key);
+			stmt.executeUpdate();
+		}
+	}
+
+	/**
+	 * Read the changes logged since the last poll and tell the listeners
+	 * about those of this DAO's entity.
+	 *
+	 * @return number of changes to this DAO's entity
+	 * @throws SQLException
+	 *             thrown if the change log can't be read
+	 */
+	synchronized int poll() throws SQLException {
+
+		long now = System.nanoTime();
+		long from = gaps.isEmpty() ? highWater : gaps.firstKey() - 1;
+
+		Set<String> keys = new HashSet<String>();
+		int changes = 0;
+		try (Connection conn = dataSource.getConnection();
+		        PreparedStatement stmt = conn.prepareStatement(pollSql)) {
+			stmt.setLong(1, from);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					long seq = rs.getLong(1);
+					if (seq <= highWater) {
+						if (gaps.remove(seq) == null) {
+							continue;
+						}
+					} else {
+						if (seq - highWater <= MAX_GAPS) {
+							for (long gap = highWater + 1; gap < seq; gap++) {
+								gaps.put(gap, now);
+							}
+						}
+						highWater = seq;
+					}
+					if (entity.equals(rs.getString(2))) {
+						keys.add(rs.getString(3));
+						changes++;
+					}
+				}
+			}
+		}
+
+		long timeout = TimeUnit.MILLISECONDS.toNanos(gapTimeout);
+		for (Iterator<Long> found = gaps.values().iterator(); found
+		    .hasNext();) {
+			if (now - found.next() > timeout) {
+				found.remove();
+			}
+		}
+
+		if (!keys.isEmpty()) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug(String.format("%d changes to %s: %s", changes,
+				    entity, keys));
+			}
+			for (ChangeListener listener : listeners) {
+				listener.changed(keys);
+			}
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Return the connection of a logged write, rolling the write back if it
+	 * wasn't committed.
+	 *
+	 * @param conn
+	 *            the write's connection
+	 * @param committed
+	 *            true if the write was committed
+	 */
+	static void release(Connection conn, boolean committed) {
+		try {
+			if (!committed) {
+				conn.rollback();
+			}
+			conn.setAutoCommit(true);
+		} catch (SQLException e) {
+			LOGGER.warn("Couldn't reset change log connection: " + e);
+		} finally {
+			DbUtils.closeQuietly(conn);
+		}
+	}
+
+	/**
+	 * Create the daemon scheduler running periodic polls.
+	 *
+	 * @return the scheduler
+	 */
+	private static ScheduledExecutorService newScheduler() {
+		ScheduledThreadPoolExecutor scheduler =
+		    new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			    @Override
+			    public Thread newThread(Runnable r) {
+				    Thread thread = new Thread(r, "dao-change-log");
+				    thread.setDaemon(true);
+				    return thread;
+			    }
+		    });
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+}
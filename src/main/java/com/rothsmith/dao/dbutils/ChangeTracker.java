@@ -0,0 +1,399 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Tracks the column values of DTOs loaded through a DAO so that
+ * <code>update</code> can write only the columns that changed. The DAO's
+ * <code>query.update</code> statement is taken apart into its table, its SET
+ * assignments and its WHERE clause; a snapshot of the assigned properties is
+ * kept for each loaded DTO (weakly, by identity) and compared with the DTO's
+ * current values on update. The compact statement for each set of changed
+ * columns is built once and cached.
+ *
+ * @author drothauser
+ */
+final class ChangeTracker {
+
+	/**
+	 * Takes apart an UPDATE statement.
+	 */
+	private static final Pattern UPDATE = Pattern.compile(
+	    "(?is)^\\s*(update\\s+\\S+)\\s+set\\s+(.+?)\\s+(where\\s.+?)\\s*$");
+
+	/**
+	 * Matches a SET assignment of a named parameter.
+	 */
+	private static final Pattern ASSIGNMENT =
+	    Pattern.compile("(?s)\\s*(\\S+)\\s*=\\s*:(\\w+)\\s*");
+
+	/**
+	 * Matches a named parameter.
+	 */
+	private static final Pattern PARAMETER = Pattern.compile(":(\\w+)");
+
+	/**
+	 * "UPDATE table" part of the statement.
+	 */
+	private final String updateClause;
+
+	/**
+	 * WHERE clause with its <code>:name</code> parameters.
+	 */
+	private final String whereClause;
+
+	/**
+	 * SET assignments, for example <code>NAME = :name</code>.
+	 */
+	private final List<String> assignments = new ArrayList<String>();
+
+	/**
+	 * Getters of the assigned properties, in assignment order.
+	 */
+	private final List<Method> assignedGetters = new ArrayList<Method>();
+
+	/**
+	 * Getters of the WHERE clause parameters, in parameter order.
+	 */
+	private final List<Method> whereGetters = new ArrayList<Method>();
+
+	/**
+	 * Compact statements keyed by changed assignments.
+	 */
+	private final ConcurrentMap<BitSet, String> statements =
+	    new ConcurrentHashMap<BitSet, String>();
+
+	/**
+	 * Snapshots of the assigned values keyed by DTO identity.
+	 */
+	private final Map<IdentityKey, Object[]> snapshots =
+	    new HashMap<IdentityKey, Object[]>();
+
+	/**
+	 * Queue of DTOs that were garbage collected.
+	 */
+	private final ReferenceQueue<Object> collected =
+	    new ReferenceQueue<Object>();
+
+	/**
+	 * Construct a tracker for a DTO type and its update statement.
+	 *
+	 * @param type
+	 *            DTO type
+	 * @param updateSql
+	 *            the DAO's <code>query.update</code> statement
+	 * @throws IllegalArgumentException
+	 *             thrown if the statement is not of the form
+	 *             <code>update TABLE set COL = :prop, ... where ...</code> or
+	 *             names properties the DTO doesn't have
+	 */
+	ChangeTracker(Class<?> type, String updateSql) {
+
+		Matcher matcher = UPDATE.matcher(updateSql);
+		if (!matcher.matches()) {
+			throw new IllegalArgumentException(
+			    "Can't take apart update statement: " + updateSql);
+		}
+
+		Map<String, Method> getters = getters(type);
+
+		updateClause = matcher.group(1);
+		for (String assignment : matcher.group(2).split(",")) {
+			Matcher parts = ASSIGNMENT.matcher(assignment);
+			if (!parts.matches()) {
+				throw new IllegalArgumentException(
+				    "Can't take apart assignment: " + assignment);
+			}
+			assignments.add(parts.group(1) + " = :" + parts.group(2));
+			assignedGetters.add(getter(getters, type, parts.group(2)));
+		}
+
+		String where = matcher.group(3);
+		Matcher parameters = PARAMETER.matcher(where);
+		while (parameters.find()) {
+			whereGetters.add(getter(getters, type, parameters.group(1)));
+		}
+		whereClause = where;
+	}
+
+	/**
+	 * Remember the current values of a DTO.
+	 *
+	 * @param dto
+	 *            DTO loaded through or written by the DAO
+	 */
+	void track(Object dto) {
+		Object[] snapshot = values(dto, assignedGetters);
+		synchronized (snapshots) {
+			expunge();
+			snapshots.put(new IdentityKey(dto, collected), snapshot);
+		}
+	}
+
+	/**
+	 * Return the assignments whose values changed since the DTO was tracked.
+	 *
+	 * @param dto
+	 *            the DTO
+	 * @return changed assignment positions (empty if nothing changed), or null
+	 *         if the DTO is not tracked
+	 */
+	BitSet changes(Object dto) {
+
+		Object[] snapshot;
+		synchronized (snapshots) {
+			snapshot = snapshots.get(new IdentityKey(dto, null));
+		}
+		if (snapshot == null) {
+			return null;
+		}
+
+		Object[] current = values(dto, assignedGetters);
+		BitSet changed = new BitSet(current.length);
+		for (int i = 0; i < current.length; i++) {
+			if (!same(snapshot[i], current[i])) {
+				changed.set(i);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Return the compact UPDATE statement for a set of changed assignments.
+	 *
+	 * @param changed
+	 *            changed assignment positions, not empty
+	 * @return UPDATE statement with the <code>:name</code> parameters of the
+	 *         DAO's statement, so their declared types still apply
+	 */
+	String statement(BitSet changed) {
+
+		String statement = statements.get(changed);
+		if (statement == null) {
+			List<String> set = new ArrayList<String>(changed.cardinality());
+			for (int i = changed.nextSetBit(0); i >= 0; i =
+			    changed.nextSetBit(i + 1)) {
+				set.add(assignments.get(i));
+			}
+			statement = updateClause + " set " + StringUtils.join(set, " , ")
+			    + " " + whereClause;
+			statements.putIfAbsent((BitSet) changed.clone(), statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * Return the parameters of the compact UPDATE statement.
+	 *
+	 * @param dto
+	 *            the DTO
+	 * @param changed
+	 *            changed assignment positions
+	 * @return the changed values followed by the WHERE clause values
+	 */
+	Object[] parameters(Object dto, BitSet changed) {
+
+		List<Object> params = new ArrayList<Object>();
+		for (int i = changed.nextSetBit(0); i >= 0; i =
+		    changed.nextSetBit(i + 1)) {
+			params.add(invoke(assignedGetters.get(i), dto));
+		}
+		for (Method getter : whereGetters) {
+			params.add(invoke(getter, dto));
+		}
+		return params.toArray();
+	}
+
+	/**
+	 * Return the number of DTOs currently tracked.
+	 *
+	 * @return number of tracked DTOs
+	 */
+	int size() {
+		synchronized (snapshots) {
+			expunge();
+			return snapshots.size();
+		}
+	}
+
+	/**
+	 * Drop the snapshots of collected DTOs. Called with the snapshot map
+	 * locked.
+	 */
+	private void expunge() {
+		for (Reference<?> ref = collected.poll(); ref != null; ref =
+		    collected.poll()) {
+			snapshots.remove(ref);
+		}
+	}
+
+	/**
+	 * Read property values of a DTO. Mutable dates are copied so that
+	 * in-place changes show up as changes.
+	 *
+	 * @param dto
+	 *            the DTO
+	 * @param getters
+	 *            property getters
+	 * @return property values
+	 */
+	private static Object[] values(Object dto, List<Method> getters) {
+		Object[] values = new Object[getters.size()];
+		for (int i = 0; i < values.length; i++) {
+			Object value = invoke(getters.get(i), dto);
+			values[i] = value instanceof Date ? ((Date) value).clone() : value;
+		}
+		return values;
+	}
+
+	/**
+	 * Compare a snapshot value with a current value. Decimals are compared
+	 * by value, ignoring scale.
+	 *
+	 * @param before
+	 *            snapshot value
+	 * @param after
+	 *            current value
+	 * @return true if the column doesn't need to be written
+	 */
+	private static boolean same(Object before, Object after) {
+		if (before instanceof BigDecimal && after instanceof BigDecimal) {
+			return ((BigDecimal) before).compareTo((BigDecimal) after) == 0;
+		}
+		return Objects.equals(before, after);
+	}
+
+	/**
+	 * Invoke a getter.
+	 *
+	 * @param getter
+	 *            the getter
+	 * @param dto
+	 *            the DTO
+	 * @return property value
+	 */
+	private static Object invoke(Method getter, Object dto) {
+		try {
+			return getter.invoke(dto);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException(
+			    "Can't read " + getter.getName() + ": " + e, e);
+		}
+	}
+
+	/**
+	 * Return the getters of a DTO type keyed by property name.
+	 *
+	 * @param type
+	 *            DTO type
+	 * @return getters by property name
+	 */
+	private static Map<String, Method> getters(Class<?> type) {
+		try {
+			Map<String, Method> getters = new HashMap<String, Method>();
+			for (PropertyDescriptor pd : Introspector.getBeanInfo(type)
+			    .getPropertyDescriptors()) {
+				if (pd.getReadMethod() != null) {
+					getters.put(pd.getName(), pd.getReadMethod());
+				}
+			}
+			return getters;
+		} catch (IntrospectionException e) {
+			throw new IllegalArgumentException(
+			    "Can't introspect " + type.getName() + ": " + e, e);
+		}
+	}
+
+	/**
+	 * Return the getter of a property named in the update statement.
+	 *
+	 * @param getters
+	 *            getters by property name
+	 * @param type
+	 *            DTO type
+	 * @param property
+	 *            property name
+	 * @return the getter
+	 */
+	private static Method getter(Map<String, Method> getters, Class<?> type,
+	    String property) {
+		Method getter = getters.get(property);
+		if (getter == null) {
+			throw new IllegalArgumentException(String.format(
+			    "%s has no property \"%s\"", type.getName(), property));
+		}
+		return getter;
+	}
+
+	/**
+	 * Weak reference to a DTO that compares by the DTO's identity.
+	 */
+	private static final class IdentityKey extends WeakReference<Object> {
+
+		/**
+		 * Identity hash code of the DTO.
+		 */
+		private final int hash;
+
+		/**
+		 * Construct a key.
+		 *
+		 * @param dto
+		 *            the DTO
+		 * @param queue
+		 *            queue to enqueue the key on when the DTO is collected,
+		 *            or null for a lookup key
+		 */
+		IdentityKey(Object dto, ReferenceQueue<Object> queue) {
+			super(dto, queue);
+			this.hash = System.identityHashCode(dto);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof IdentityKey)) {
+				return false;
+			}
+			Object referent = get();
+			return referent != null && referent == ((IdentityKey) obj).get();
+		}
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+/**
+ * Told about the progress of a chunked UPDATE or DELETE (see
+ * {@link DbUtilsJdbcDao#executeChunked(String, Object, int, Object,
+ * ChunkListener)}).
+ *
+ * @author drothauser
+ */
+public interface ChunkListener {
+
+	/**
+	 * A chunk was committed.
+	 *
+	 * @param lastKey
+	 *            highest key of the chunk; passing it as
+	 *            <code>resumeAfter</code> continues with the next chunk
+	 * @param rows
+	 *            rows affected by the chunk
+	 * @param totalRows
+	 *            rows affected by all chunks so far
+	 */
+	void chunkCompleted(Object lastKey, int rows, long totalRows);
+}
@@ -0,0 +1,38 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a DAO interface whose implementation is generated at build time by
+ * {@link CompiledDaoProcessor} from a DAO properties file, for example:
+ *
+ * <pre>
+ * &#64;CompiledDao("/partydao.properties")
+ * public interface PartyDao extends JdbcDao&lt;PartyDto, PartyDto&gt; {
+ * }
+ * </pre>
+ *
+ * generates <code>PartyDaoImpl</code>, a {@link DbUtilsJdbcDao} whose
+ * statements bind parameters with direct getter calls and read rows by
+ * column index.
+ *
+ * @author drothauser
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface CompiledDao {
+
+	/**
+	 * Class path resource name of the DAO properties file, as passed to
+	 * {@link DbUtilsJdbcDao#DbUtilsJdbcDao(String)}.
+	 */
+	String value();
+}
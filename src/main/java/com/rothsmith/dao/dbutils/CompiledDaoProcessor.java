@@ -0,0 +1,587 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Annotation processor generating the implementation of each
+ * {@link CompiledDao} interface. The DAO properties file is read from the
+ * class path at build time and every <code>query.*</code> statement is
+ * compiled into a {@link CompiledStatement}:
+ * <ul>
+ * <li>the positional SQL is computed once, at build time;
+ * <li>parameters are read with direct calls to the DTO's getters;
+ * <li>rows of a query are read by column index with direct calls to the
+ * DTO's setters, provided every SELECT list item has a name and a supported
+ * property type. Other queries fall back to the bean processor at run time.
+ * </ul>
+ * A statement parameter without a DTO getter, or a SELECT list column without
+ * a DTO setter, fails the build.
+ * <p>
+ * The processor is registered in
+ * <code>META-INF/services/javax.annotation.processing.Processor</code>, so
+ * it runs whenever this library is on the compile class path.
+ *
+ * @author drothauser
+ */
+@SupportedAnnotationTypes("com.rothsmith.dao.dbutils.CompiledDao")
+public final class CompiledDaoProcessor extends AbstractProcessor {
+
+	/**
+	 * Matches a statement id (but not a statement setting such as
+	 * <code>query.select.queryTimeout</code>).
+	 */
+	private static final Pattern STATEMENT_ID =
+	    Pattern.compile("query\\.\\w+");
+
+	/**
+	 * Matches a named parameter and its declared SQL type, if any.
+	 */
+	private static final Pattern PARAMETER =
+	    Pattern.compile(":(\\w+)(?:\\{\\w+\\})?");
+
+	/**
+	 * Matches the start of a query.
+	 */
+	private static final Pattern QUERY =
+	    Pattern.compile("(?i)\\s*(select|with|values)\\s");
+
+	/**
+	 * Result set read expressions keyed by property type; <code>%d</code> is
+	 * the column index.
+	 */
+	private static final Map<String, String> READERS =
+	    new HashMap<String, String>();
+
+	static {
+		READERS.put("int", "rs.getInt(%d)");
+		READERS.put("long", "rs.getLong(%d)");
+		READERS.put("short", "rs.getShort(%d)");
+		READERS.put("byte", "rs.getByte(%d)");
+		READERS.put("double", "rs.getDouble(%d)");
+		READERS.put("float", "rs.getFloat(%d)");
+		READERS.put("boolean", "rs.getBoolean(%d)");
+		READERS.put("java.lang.Integer", "getInteger(rs, %d)");
+		READERS.put("java.lang.Long", "getLong(rs, %d)");
+		READERS.put("java.lang.Short", "getShort(rs, %d)");
+		READERS.put("java.lang.Byte", "getByte(rs, %d)");
+		READERS.put("java.lang.Double", "getDouble(rs, %d)");
+		READERS.put("java.lang.Float", "getFloat(rs, %d)");
+		READERS.put("java.lang.Boolean", "getBoolean(rs, %d)");
+		READERS.put("java.lang.String", "rs.getString(%d)");
+		READERS.put("java.math.BigDecimal", "rs.getBigDecimal(%d)");
+		READERS.put("java.util.Date", "rs.getTimestamp(%d)");
+		READERS.put("java.sql.Timestamp", "rs.getTimestamp(%d)");
+		READERS.put("java.sql.Date", "rs.getDate(%d)");
+		READERS.put("java.sql.Time", "rs.getTime(%d)");
+		READERS.put("byte[]", "rs.getBytes(%d)");
+		READERS.put("java.lang.Object", "rs.getObject(%d)");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+	    RoundEnvironment roundEnv) {
+
+		for (Element element : roundEnv
+		    .getElementsAnnotatedWith(CompiledDao.class)) {
+			if (element.getKind() != ElementKind.INTERFACE) {
+				error(element, "@CompiledDao is only allowed on interfaces");
+				continue;
+			}
+			try {
+				generate((TypeElement) element);
+			} catch (IOException e) {
+				error(element, "Couldn't generate DAO: " + e);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Generate the implementation of a DAO interface.
+	 *
+	 * @param dao
+	 *            the annotated interface
+	 * @throws IOException
+	 *             thrown if the source file can't be written
+	 */
+	private void generate(TypeElement dao) throws IOException {
+
+		String propsFile = dao.getAnnotation(CompiledDao.class).value();
+		Properties properties = loadProperties(propsFile);
+		if (properties == null) {
+			error(dao, "DAO properties file not found: " + propsFile);
+			return;
+		}
+
+		String dtoName = StringUtils.trim(properties.getProperty("dto"));
+		TypeElement dto = dtoName == null ? null
+		    : processingEnv.getElementUtils().getTypeElement(dtoName);
+		if (dto == null) {
+			error(dao, "DTO class of " + propsFile + " not found: " + dtoName);
+			return;
+		}
+		if (!hasPublicNoArgConstructor(dto)) {
+			error(dao, dtoName + " has no public no-argument constructor");
+			return;
+		}
+
+		String paramsType = paramsType(dao, dto);
+		if (paramsType == null) {
+			return;
+		}
+
+		Map<String, ExecutableElement> getters =
+		    new HashMap<String, ExecutableElement>();
+		Map<String, ExecutableElement> setters =
+		    new HashMap<String, ExecutableElement>();
+		for (ExecutableElement method : ElementFilter.methodsIn(
+		    processingEnv.getElementUtils().getAllMembers(dto))) {
+			collectAccessor(method, getters, setters);
+		}
+
+		Map<String, String> statements = new TreeMap<String, String>();
+		for (String key : properties.stringPropertyNames()) {
+			if (STATEMENT_ID.matcher(key).matches()
+			    && StringUtils.isNotBlank(properties.getProperty(key))) {
+				statements.put(key, properties.getProperty(key));
+			}
+		}
+
+		List<String> bodies = new ArrayList<String>();
+		boolean valid = true;
+		for (Map.Entry<String, String> statement : statements.entrySet()) {
+			String body = compileStatement(dao, dtoName, statement.getKey(),
+			    statement.getValue(), getters, setters);
+			valid &= body != null;
+			bodies.add(body);
+		}
+		if (!valid) {
+			return;
+		}
+
+		writeSource(dao, propsFile, dtoName, paramsType, bodies);
+	}
+
+	/**
+	 * Load a DAO properties file from the class output or the class path.
+	 *
+	 * @param propsFile
+	 *            class path resource name
+	 * @return the properties or null if the file wasn't found
+	 */
+	private Properties loadProperties(String propsFile) {
+
+		String name = StringUtils.removeStart(propsFile.trim(), "/");
+		StandardLocation[] locations = { StandardLocation.CLASS_OUTPUT,
+		    StandardLocation.SOURCE_PATH, StandardLocation.CLASS_PATH };
+
+		for (StandardLocation location : locations) {
+			try {
+				FileObject file =
+				    processingEnv.getFiler().getResource(location, "", name);
+				try (InputStream in = file.openInputStream();) {
+					Properties properties = new Properties();
+					properties.load(in);
+					return properties;
+				}
+			} catch (IOException | IllegalArgumentException e) {
+				// Not in this location (or the location isn't available).
+				continue;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Return the DAO's parameter type: the second type argument of the
+	 * <code>JdbcDao</code> interface it extends, or the DTO if it doesn't
+	 * extend <code>JdbcDao</code>.
+	 *
+	 * @param dao
+	 *            the annotated interface
+	 * @param dto
+	 *            the DTO class named in the properties file
+	 * @return the parameter type or null if the DAO's DTO type doesn't match
+	 */
+	private String paramsType(TypeElement dao, TypeElement dto) {
+
+		for (TypeMirror parent : dao.getInterfaces()) {
+			DeclaredType declared = (DeclaredType) parent;
+			String name = ((TypeElement) declared.asElement())
+			    .getQualifiedName().toString();
+			if (!"com.rothsmith.dao.JdbcDao".equals(name)
+			    || declared.getTypeArguments().size() != 2) {
+				continue;
+			}
+			String dtoType = declared.getTypeArguments().get(0).toString();
+			if (!dtoType.equals(dto.getQualifiedName().toString())) {
+				error(dao, "JdbcDao type " + dtoType
+				    + " doesn't match the properties file's DTO "
+				    + dto.getQualifiedName());
+				return null;
+			}
+			return declared.getTypeArguments().get(1).toString();
+		}
+
+		return dto.getQualifiedName().toString();
+	}
+
+	/**
+	 * Add a method to the DTO's getters or setters if it is a public bean
+	 * accessor.
+	 *
+	 * @param method
+	 *            DTO method
+	 * @param getters
+	 *            getters keyed by property name
+	 * @param setters
+	 *            setters keyed by lower case property name
+	 */
+	private static void collectAccessor(ExecutableElement method,
+	    Map<String, ExecutableElement> getters,
+	    Map<String, ExecutableElement> setters) {
+
+		Set<Modifier> modifiers = method.getModifiers();
+		if (!modifiers.contains(Modifier.PUBLIC)
+		    || modifiers.contains(Modifier.STATIC)) {
+			return;
+		}
+
+		String name = method.getSimpleName().toString();
+		int params = method.getParameters().size();
+		String returnType = method.getReturnType().toString();
+
+		if (params == 0 && name.startsWith("get") && name.length() > 3
+		    && !"void".equals(returnType) && !"getClass".equals(name)) {
+			getters.put(Introspector.decapitalize(name.substring(3)), method);
+		} else if (params == 0 && name.startsWith("is") && name.length() > 2
+		    && "boolean".equals(returnType)) {
+			getters.put(Introspector.decapitalize(name.substring(2)), method);
+		} else if (params == 1 && name.startsWith("set")
+		    && name.length() > 3) {
+			setters.put(Introspector.decapitalize(name.substring(3))
+			    .toLowerCase(Locale.ROOT), method);
+		}
+	}
+
+	/**
+	 * Compile one statement into the source of an anonymous
+	 * {@link CompiledStatement}, or of a {@link CompiledQuery} if its rows
+	 * can be read by column index.
+	 *
+	 * @param dao
+	 *            the annotated interface, for error messages
+	 * @param dtoName
+	 *            DTO class name
+	 * @param statementId
+	 *            statement id
+	 * @param sql
+	 *            statement with <code>:name</code> parameters
+	 * @param getters
+	 *            DTO getters keyed by property name
+	 * @param setters
+	 *            DTO setters keyed by lower case property name
+	 * @return the registration source, or null if the statement doesn't match
+	 *         the DTO
+	 */
+	private String compileStatement(TypeElement dao, String dtoName,
+	    String statementId, String sql, Map<String, ExecutableElement> getters,
+	    Map<String, ExecutableElement> setters) {
+
+		StringBuilder src = new StringBuilder(1024);
+		src.append("\t\t\t@Override\n")
+		    .append("\t\t\tpublic Object[] parameters(Object params) {\n");
+
+		List<String> getterCalls = new ArrayList<String>();
+		boolean valid = true;
+		Matcher parameter = PARAMETER.matcher(sql);
+		while (parameter.find()) {
+			ExecutableElement getter = getters.get(parameter.group(1));
+			if (getter == null) {
+				error(dao, String.format(
+				    "%s parameter :%s has no getter in %s", statementId,
+				    parameter.group(1), dtoName));
+				valid = false;
+			} else {
+				getterCalls.add("dto." + getter.getSimpleName() + "()");
+			}
+		}
+
+		if (getterCalls.isEmpty()) {
+			src.append("\t\t\t\treturn new Object[0];\n\t\t\t}\n");
+		} else {
+			src.append("\t\t\t\tif (!(params instanceof ").append(dtoName)
+			    .append(")) {\n\t\t\t\t\treturn null;\n\t\t\t\t}\n")
+			    .append("\t\t\t\t").append(dtoName).append(" dto = (")
+			    .append(dtoName).append(") params;\n")
+			    .append("\t\t\t\treturn new Object[] { ")
+			    .append(StringUtils.join(getterCalls, ", "))
+			    .append(" };\n\t\t\t}\n");
+		}
+
+		StringBuilder reader = new StringBuilder(512);
+		if (QUERY.matcher(sql).lookingAt()) {
+			valid &= compileReader(dao, dtoName, statementId, sql, setters,
+			    reader);
+		}
+
+		if (!valid) {
+			return null;
+		}
+
+		return "\t\tregisterStatement(" + literal(statementId) + ", new "
+		    + (reader.length() > 0 ? "CompiledQuery<" : "CompiledStatement<")
+		    + dtoName + ">(\n\t\t    "
+		    + literal(PARAMETER.matcher(sql).replaceAll("?")) + ") {\n" + src
+		    + reader + "\t\t});\n";
+	}
+
+	/**
+	 * Compile the column-index reader of a query.
+	 *
+	 * @param dao
+	 *            the annotated interface, for error messages
+	 * @param dtoName
+	 *            DTO class name
+	 * @param statementId
+	 *            statement id
+	 * @param sql
+	 *            the query
+	 * @param setters
+	 *            DTO setters keyed by lower case property name
+	 * @param src
+	 *            receives the reader's source, left empty if the rows can't
+	 *            be read by column index
+	 * @return false if a column doesn't match a DTO property
+	 */
+	private boolean compileReader(TypeElement dao, String dtoName,
+	    String statementId, String sql, Map<String, ExecutableElement> setters,
+	    StringBuilder src) {
+
+		List<String> columns = SqlStatements.selectColumns(sql);
+		if (columns == null) {
+			note(dao, statementId
+			    + " rows are mapped at run time: SELECT list not resolved");
+			return true;
+		}
+
+		StringBuilder reader = new StringBuilder(512);
+		boolean valid = true;
+		boolean supported = true;
+		for (int i = 0; i < columns.size(); i++) {
+			String column = columns.get(i);
+			ExecutableElement setter = setters
+			    .get(column.replace("_", "").toLowerCase(Locale.ROOT));
+			if (setter == null) {
+				error(dao, String.format("%s column %s has no setter in %s",
+				    statementId, column, dtoName));
+				valid = false;
+				continue;
+			}
+			String type = setter.getParameters().get(0).asType().toString();
+			String read = READERS.get(type);
+			if (read == null) {
+				note(dao, String.format(
+				    "%s rows are mapped at run time: %s is a %s",
+				    statementId, column, type));
+				supported = false;
+				continue;
+			}
+			reader.append("\t\t\t\tdto.").append(setter.getSimpleName())
+			    .append('(').append(String.format(read, i + 1))
+			    .append(");\n");
+		}
+
+		if (valid && supported) {
+			src.append("\n\t\t\t@Override\n\t\t\tpublic ").append(dtoName)
+			    .append(" read(ResultSet rs) throws SQLException {\n")
+			    .append("\t\t\t\t").append(dtoName).append(" dto = new ")
+			    .append(dtoName).append("();\n").append(reader)
+			    .append("\t\t\t\treturn dto;\n\t\t\t}\n");
+		}
+
+		return valid;
+	}
+
+	/**
+	 * Write the generated DAO class.
+	 *
+	 * @param dao
+	 *            the annotated interface
+	 * @param propsFile
+	 *            DAO properties file
+	 * @param dtoName
+	 *            DTO class name
+	 * @param paramsType
+	 *            DAO parameter type
+	 * @param statements
+	 *            statement registration sources
+	 * @throws IOException
+	 *             thrown if the source file can't be written
+	 */
+	private void writeSource(TypeElement dao, String propsFile,
+	    String dtoName, String paramsType, List<String> statements)
+	        throws IOException {
+
+		String packageName = processingEnv.getElementUtils()
+		    .getPackageOf(dao).getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils()
+		    .getBinaryName(dao).toString();
+		String simpleName = (packageName.isEmpty() ? binaryName
+		    : binaryName.substring(packageName.length() + 1)).replace('$',
+		        '_') + "Impl";
+		String qualifiedName = packageName.isEmpty() ? simpleName
+		    : packageName + '.' + simpleName;
+
+		JavaFileObject source =
+		    processingEnv.getFiler().createSourceFile(qualifiedName, dao);
+		try (PrintWriter out = new PrintWriter(source.openWriter());) {
+			if (!packageName.isEmpty()) {
+				out.print("package " + packageName + ";\n\n");
+			}
+			out.print("import java.sql.ResultSet;\n"
+			    + "import java.sql.SQLException;\n\n"
+			    + "import com.rothsmith.dao.dbutils.CompiledQuery;\n"
+			    + "import com.rothsmith.dao.dbutils.CompiledStatement;\n"
+			    + "import com.rothsmith.dao.dbutils.DbUtilsJdbcDao;\n\n");
+			out.print("/**\n * {@link " + dao.getQualifiedName()
+			    + "} generated by CompiledDaoProcessor from " + propsFile
+			    + ".\n * Do not edit.\n */\n");
+			out.print("@SuppressWarnings(\"unused\")\n");
+			out.print("public class " + simpleName + " extends DbUtilsJdbcDao<"
+			    + dtoName + ", " + paramsType + ">\n        implements "
+			    + dao.getQualifiedName() + " {\n\n");
+			out.print("\t/**\n\t * Construct the DAO.\n\t */\n");
+			out.print("\tpublic " + simpleName + "() {\n\t\tsuper("
+			    + literal(propsFile) + ", " + dtoName + ".class);\n");
+			for (String statement : statements) {
+				out.print('\n');
+				out.print(statement);
+			}
+			out.print("\t}\n}\n");
+		}
+	}
+
+	/**
+	 * Return whether a class can be instantiated by generated code.
+	 *
+	 * @param type
+	 *            the class
+	 * @return true if the class has a public no-argument constructor
+	 */
+	private static boolean hasPublicNoArgConstructor(TypeElement type) {
+		for (ExecutableElement constructor : ElementFilter
+		    .constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && constructor
+			    .getModifiers().contains(Modifier.PUBLIC)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return a Java string literal.
+	 *
+	 * @param value
+	 *            string value
+	 * @return quoted and escaped literal
+	 */
+	private static String literal(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+		for (char c : value.toCharArray()) {
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Report a build error.
+	 *
+	 * @param element
+	 *            element the error is reported on
+	 * @param msg
+	 *            message
+	 */
+	private void error(Element element, String msg) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, msg, element);
+	}
+
+	/**
+	 * Report a note.
+	 *
+	 * @param element
+	 *            element the note is reported on
+	 * @param msg
+	 *            message
+	 */
+	private void note(Element element, String msg) {
+		processingEnv.getMessager().printMessage(Kind.NOTE, msg, element);
+	}
+}
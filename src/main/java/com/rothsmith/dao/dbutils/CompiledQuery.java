@@ -0,0 +1,162 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A query compiled at build time by {@link CompiledDaoProcessor} whose rows
+ * are read by column index with direct calls to the DTO's setters. It is
+ * generated for each query whose SELECT list could be resolved against the
+ * DTO; other statements are plain {@link CompiledStatement}s.
+ *
+ * @param <T>
+ *            DTO class
+ *
+ * @author drothauser
+ */
+public abstract class CompiledQuery<T> extends CompiledStatement<T> {
+
+	/**
+	 * Construct a compiled query.
+	 *
+	 * @param sql
+	 *            the query with its <code>:name</code> parameters replaced by
+	 *            <code>?</code>
+	 */
+	protected CompiledQuery(String sql) {
+		super(sql);
+	}
+
+	/**
+	 * Read the current row into a new DTO.
+	 *
+	 * @param rs
+	 *            result set positioned on a row
+	 * @return the DTO
+	 * @throws SQLException
+	 *             thrown if the row can't be read
+	 */
+	public abstract T read(ResultSet rs) throws SQLException;
+
+	/**
+	 * Read a nullable INTEGER column.
+	 *
+	 * @param rs
+	 *            result set positioned on a row
+	 * @param column
+	 *            column index
+	 * @return the value or null
+	 * @throws SQLException
+	 *             thrown if the column can't be read
+	 */
+	protected static Integer getInteger(ResultSet rs, int column)
+	        throws SQLException {
+		int value = rs.getInt(column);
+		return rs.wasNull() ? null : Integer.valueOf(value);
+	}
+
+	/**
+	 * Read a nullable BIGINT column.
+	 *
+	 * @param rs
+	 *            result set positioned on a row
+	 * @param column
+	 *            column index
+	 * @return the value or null
+	 * @throws SQLException
+	 *             thrown if the column can't be read
+	 */
+	protected static Long getLong(ResultSet rs, int column)
+	        throws SQLException {
+		long value = rs.getLong(column);
+		return rs.wasNull() ? null : Long.valueOf(value);
+	}
+
+	/**
+	 * Read a nullable SMALLINT column.
+	 *
+	 * @param rs
+	 *            result set positioned on a row
+	 * @param column
+	 *            column index
+	 * @return the value or null
+	 * @throws SQLException
+	 *             thrown if the column can't be read
+	 */
+	protected static Short getShort(ResultSet rs, int column)
+	        throws SQLException {
+		short value = rs.getShort(column);
+		return rs.wasNull() ? null : Short.valueOf(value);
+	}
+
+	/**
+	 * Read a nullable TINYINT column.
+	 *
+	 * @param rs
+	 *            result set positioned on a row
+	 * @param column
+	 *            column index
+	 * @return the value or null
+	 * @throws SQLException
+	 *             thrown if the column can't be read
+	 */
+	protected static Byte getByte(ResultSet rs, int column)
+	        throws SQLException {
+		byte value = rs.getByte(column);
+		return rs.wasNull() ? null : Byte.valueOf(value);
+	}
+
+	/**
+	 * Read a nullable DOUBLE column.
+	 *
+	 * @param rs
+	 *            result set positioned on a row
+	 * @param column
+	 *            column index
+	 * @return the value or null
+	 * @throws SQLException
+	 *             thrown if the column can't be read
+	 */
+	protected static Double getDouble(ResultSet rs, int column)
+	        throws SQLException {
+		double value = rs.getDouble(column);
+		return rs.wasNull() ? null : Double.valueOf(value);
+	}
+
+	/**
+	 * Read a nullable REAL column.
+	 *
+	 * @param rs
+	 *            result set positioned on a row
+	 * @param column
+	 *            column index
+	 * @return the value or null
+	 * @throws SQLException
+	 *             thrown if the column can't be read
+	 */
+	protected static Float getFloat(ResultSet rs, int column)
+	        throws SQLException {
+		float value = rs.getFloat(column);
+		return rs.wasNull() ? null : Float.valueOf(value);
+	}
+
+	/**
+	 * Read a nullable BOOLEAN column.
+	 *
+	 * @param rs
+	 *            result set positioned on a row
+	 * @param column
+	 *            column index
+	 * @return the value or null
+	 * @throws SQLException
+	 *             thrown if the column can't be read
+	 */
+	protected static Boolean getBoolean(ResultSet rs, int column)
+	        throws SQLException {
+		boolean value = rs.getBoolean(column);
+		return rs.wasNull() ? null : Boolean.valueOf(value);
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+/**
+ * A DAO statement compiled at build time by {@link CompiledDaoProcessor}: its
+ * positional SQL and the getter calls binding its parameters. Queries whose
+ * SELECT list could be resolved are compiled into a {@link CompiledQuery},
+ * which also reads rows by column index. Generated DAOs register one per
+ * statement with
+ * {@link DbUtilsJdbcDao#registerStatement(String, CompiledStatement)}.
+ *
+ * @param <T>
+ *            DTO class
+ *
+ * @author drothauser
+ */
+public abstract class CompiledStatement<T> {
+
+	/**
+	 * Positional SQL.
+	 */
+	private final String sql;
+
+	/**
+	 * Construct a compiled statement.
+	 *
+	 * @param sql
+	 *            the statement with its <code>:name</code> parameters replaced
+	 *            by <code>?</code>
+	 */
+	protected CompiledStatement(String sql) {
+		this.sql = sql;
+	}
+
+	/**
+	 * Accessor for sql.
+	 *
+	 * @return positional SQL
+	 */
+	public final String getSql() {
+		return sql;
+	}
+
+	/**
+	 * Return the statement's parameter values read from a DTO.
+	 *
+	 * @param params
+	 *            statement parameters
+	 * @return parameter values in statement order, or null if the parameters
+	 *         aren't the DTO the statement was compiled for
+	 */
+	public abstract Object[] parameters(Object params);
+}
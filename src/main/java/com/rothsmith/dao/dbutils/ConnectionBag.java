@@ -0,0 +1,213 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free collection of {@link PoolEntry} objects. A borrower first tries
+ * the connections its own thread returned most recently, then scans the shared
+ * list, claiming an entry with a compare-and-set on its state. Threads that
+ * have to wait receive returned connections through a hand-off queue.
+ *
+ * @author drothauser
+ */
+final class ConnectionBag {
+
+	/**
+	 * Maximum number of recently returned entries remembered per thread.
+	 */
+	private static final int MAX_THREAD_ENTRIES = 16;
+
+	/**
+	 * Number of hand-off attempts before a returning thread gives up on
+	 * waiters (they rescan the shared list anyway).
+	 */
+	private static final int MAX_HANDOFF_ATTEMPTS = 64;
+
+	/**
+	 * How long a waiter blocks on the hand-off queue before rescanning.
+	 */
+	private static final long POLL_SLICE_NANOS =
+	    TimeUnit.MILLISECONDS.toNanos(10);
+
+	/**
+	 * All entries in the bag.
+	 */
+	private final CopyOnWriteArrayList<PoolEntry> shared =
+	    new CopyOnWriteArrayList<PoolEntry>();
+
+	/**
+	 * Entries most recently returned by the current thread.
+	 */
+	private final ThreadLocal<List<WeakReference<PoolEntry>>> threadEntries =
+	    new ThreadLocal<List<WeakReference<PoolEntry>>>() {
+		    @Override
+		    protected List<WeakReference<PoolEntry>> initialValue() {
+			    return new ArrayList<WeakReference<PoolEntry>>(
+			        MAX_THREAD_ENTRIES);
+		    }
+	    };
+
+	/**
+	 * Queue handing returned entries directly to waiting threads.
+	 */
+	private final SynchronousQueue<PoolEntry> handoff =
+	    new SynchronousQueue<PoolEntry>(true);
+
+	/**
+	 * Number of threads waiting for an entry.
+	 */
+	private final AtomicInteger waiters = new AtomicInteger();
+
+	/**
+	 * Claim an idle entry without waiting.
+	 *
+	 * @return a borrowed entry or null if none is idle
+	 */
+	PoolEntry tryBorrow() {
+
+		List<WeakReference<PoolEntry>> list = threadEntries.get();
+		for (int i = list.size() - 1; i >= 0; i--) {
+			PoolEntry entry = list.remove(i).get();
+			if (entry != null && entry.compareAndSet(PoolEntry.NOT_IN_USE,
+			    PoolEntry.IN_USE)) {
+				return entry;
+			}
+		}
+
+		for (PoolEntry entry : shared) {
+			if (entry.compareAndSet(PoolEntry.NOT_IN_USE, PoolEntry.IN_USE)) {
+				return entry;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Wait up to <code>timeoutNanos</code> for an entry to be returned.
+	 *
+	 * @param timeoutNanos
+	 *            maximum time to wait in nanoseconds
+	 * @return a borrowed entry or null if the timeout expired
+	 * @throws InterruptedException
+	 *             thrown if the waiting thread is interrupted
+	 */
+	PoolEntry await(long timeoutNanos) throws InterruptedException {
+
+		long deadline = System.nanoTime() + timeoutNanos;
+
+		waiters.incrementAndGet();
+		try {
+			while (true) {
+				PoolEntry entry = tryBorrow();
+				if (entry != null) {
+					return entry;
+				}
+
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return null;
+				}
+
+				entry = handoff.poll(Math.min(remaining, POLL_SLICE_NANOS),
+				    TimeUnit.NANOSECONDS);
+				if (entry != null && entry.compareAndSet(PoolEntry.NOT_IN_USE,
+				    PoolEntry.IN_USE)) {
+					return entry;
+				}
+			}
+		} finally {
+			waiters.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Return a borrowed entry, handing it straight to a waiting thread if
+	 * there is one.
+	 *
+	 * @param entry
+	 *            the entry to return
+	 */
+	void requite(PoolEntry entry) {
+
+		entry.setState(PoolEntry.NOT_IN_USE);
+
+		for (int i = 0; i < MAX_HANDOFF_ATTEMPTS && waiters.get() > 0; i++) {
+			if (entry.getState() != PoolEntry.NOT_IN_USE
+			    || handoff.offer(entry)) {
+				return;
+			}
+			Thread.yield();
+		}
+
+		List<WeakReference<PoolEntry>> list = threadEntries.get();
+		if (list.size() < MAX_THREAD_ENTRIES) {
+			list.add(new WeakReference<PoolEntry>(entry));
+		}
+	}
+
+	/**
+	 * Add a new entry to the bag.
+	 *
+	 * @param entry
+	 *            the entry to add
+	 */
+	void add(PoolEntry entry) {
+		shared.add(entry);
+	}
+
+	/**
+	 * Remove an entry from the bag.
+	 *
+	 * @param entry
+	 *            the entry to remove
+	 */
+	void remove(PoolEntry entry) {
+		entry.setState(PoolEntry.REMOVED);
+		shared.remove(entry);
+	}
+
+	/**
+	 * Return a snapshot of all entries.
+	 *
+	 * @return all entries in the bag
+	 */
+	List<PoolEntry> values() {
+		return new ArrayList<PoolEntry>(shared);
+	}
+
+	/**
+	 * Count the entries in the given state.
+	 *
+	 * @param state
+	 *            borrow state
+	 * @return number of entries in that state
+	 */
+	int count(int state) {
+		int count = 0;
+		for (PoolEntry entry : shared) {
+			if (entry.getState() == state) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return the number of threads waiting for an entry.
+	 *
+	 * @return number of waiting threads
+	 */
+	int getWaiters() {
+		return waiters.get();
+	}
+}
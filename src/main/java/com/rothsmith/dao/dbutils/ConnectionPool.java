@@ -0,0 +1,619 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lightweight connection pool for deployments without a JNDI data source.
+ * Borrowing and returning connections is lock-free (see
+ * {@link ConnectionBag}); idle connections are validated with
+ * {@link Connection#isValid(int)} only when they have been idle longer than
+ * the configured validation idle time.
+ *
+ * <p>
+ * DAOs whose <code>dataSource</code> property starts with <code>pool:</code>
+ * share one pool per URL and user, obtained from
+ * {@link #getPool(ConnectionPoolConfig)}. Their <code>pool.*</code> settings
+ * must agree, since only one of them can size the shared pool.
+ *
+ * @author drothauser
+ */
+public class ConnectionPool implements DataSource, Closeable {
+
+	/**
+	 * SLF4J Logger for ConnectionPool.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(ConnectionPool.class);
+
+	/**
+	 * SQL state class of connection exceptions.
+	 */
+	private static final String CONNECTION_EXCEPTION_CLASS = "08";
+
+	/**
+	 * Pools shared by DAOs, keyed by URL and user.
+	 */
+	private static final ConcurrentMap<String, ConnectionPool> POOLS =
+	    new ConcurrentHashMap<String, ConnectionPool>();
+
+	/**
+	 * Pool settings.
+	 */
+	private final ConnectionPoolConfig config;
+
+	/**
+	 * The pooled connections.
+	 */
+	private final ConnectionBag bag = new ConnectionBag();
+
+	/**
+	 * Number of physical connections, including ones being opened.
+	 */
+	private final AtomicInteger totalConnections = new AtomicInteger();
+
+	/**
+	 * Wait-time and usage counters.
+	 */
+	private final ConnectionPoolMetrics metrics = new ConnectionPoolMetrics();
+
+	/**
+	 * Nanoseconds an idle connection may sit before it is validated.
+	 */
+	private final long validationIdleNanos;
+
+	/**
+	 * Log writer required by the {@link DataSource} contract.
+	 */
+	private PrintWriter logWriter;
+
+	/**
+	 * True once the pool has been closed.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Create a pool and open its minimum number of idle connections.
+	 *
+	 * @param config
+	 *            pool settings
+	 * @throws SQLException
+	 *             thrown if the initial connections can't be opened
+	 */
+	public ConnectionPool(ConnectionPoolConfig config) throws SQLException {
+
+		if (config.getMaxSize() < 1
+		    || config.getMinIdle() > config.getMaxSize()) {
+			throw new IllegalArgumentException(String.format(
+			    "Invalid pool size: minIdle=%d, maxSize=%d",
+			    config.getMinIdle(), config.getMaxSize()));
+		}
+
+		this.config = config;
+		this.validationIdleNanos =
+		    TimeUnit.MILLISECONDS.toNanos(config.getValidationIdleTime());
+
+		for (int i = 0; i < config.getMinIdle(); i++) {
+			totalConnections.incrementAndGet();
+			bag.add(new PoolEntry(openConnection(), PoolEntry.NOT_IN_USE));
+		}
+	}
+
+	/**
+	 * Return the shared pool for a configuration's URL and user, creating it
+	 * on first use.
+	 *
+	 * @param config
+	 *            pool settings
+	 * @return the shared pool
+	 * @throws SQLException
+	 *             thrown if the pool's initial connections can't be opened
+	 * @throws IllegalArgumentException
+	 *             thrown if the shared pool was created with different
+	 *             settings
+	 */
+	public static ConnectionPool getPool(ConnectionPoolConfig config)
+	        throws SQLException {
+
+		String key = config.getPoolKey();
+		ConnectionPool pool = POOLS.get(key);
+		if (pool == null) {
+			ConnectionPool created = new ConnectionPool(config);
+			pool = POOLS.putIfAbsent(key, created);
+			if (pool == null) {
+				pool = created;
+			} else {
+				created.close();
+			}
+		}
+
+		if (!pool.config.hasSameSettings(config)) {
+			throw new IllegalArgumentException(String.format(
+			    "Pool for %s was created with other settings: maxSize=%d, "
+			        + "minIdle=%d, borrowTimeout=%d, failFast=%b",
+			    config.getUrl(), pool.config.getMaxSize(),
+			    pool.config.getMinIdle(), pool.config.getBorrowTimeout(),
+			    pool.config.isFailFast()));
+		}
+		return pool;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+
+		if (closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+
+		long start = System.nanoTime();
+		long timeoutNanos =
+		    TimeUnit.MILLISECONDS.toNanos(config.getBorrowTimeout());
+
+		try {
+			while (true) {
+				PoolEntry entry = bag.tryBorrow();
+
+				if (entry == null) {
+					entry = createEntry();
+				}
+
+				if (entry == null) {
+					entry = awaitEntry(timeoutNanos - (System.nanoTime() - start));
+				}
+
+				long now = System.nanoTime();
+				if (now - entry.getLastAccess() > validationIdleNanos
+				    && !isValid(entry)) {
+					evict(entry);
+					continue;
+				}
+
+				entry.touch(now);
+				metrics.recordBorrow(now - start);
+				return newProxy(entry);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a connection", e);
+		}
+	}
+
+	/**
+	 * Not supported: the pool's credentials come from its configuration.
+	 *
+	 * @param username
+	 *            ignored
+	 * @param password
+	 *            ignored
+	 * @return never returns
+	 * @throws SQLException
+	 *             always
+	 */
+	@Override
+	public Connection getConnection(String username, String password)
+	        throws SQLException {
+		throw new SQLFeatureNotSupportedException(
+		    "Pool credentials are fixed by its configuration");
+	}
+
+	/**
+	 * Close the pool. Idle connections are closed immediately, borrowed ones
+	 * when they are returned.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		POOLS.remove(config.getPoolKey(), this);
+		for (PoolEntry entry : bag.values()) {
+			if (entry.compareAndSet(PoolEntry.NOT_IN_USE, PoolEntry.REMOVED)) {
+				evict(entry);
+			}
+		}
+	}
+
+	/**
+	 * Accessor for metrics.
+	 *
+	 * @return wait-time and usage counters
+	 */
+	public ConnectionPoolMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Return the number of borrowed connections.
+	 *
+	 * @return number of active connections
+	 */
+	public int getActiveConnections() {
+		return bag.count(PoolEntry.IN_USE);
+	}
+
+	/**
+	 * Return the number of idle connections.
+	 *
+	 * @return number of idle connections
+	 */
+	public int getIdleConnections() {
+		return bag.count(PoolEntry.NOT_IN_USE);
+	}
+
+	/**
+	 * Return the number of physical connections.
+	 *
+	 * @return number of physical connections
+	 */
+	public int getTotalConnections() {
+		return totalConnections.get();
+	}
+
+	/**
+	 * Return the number of threads waiting for a connection.
+	 *
+	 * @return number of waiting threads
+	 */
+	public int getThreadsAwaitingConnection() {
+		return bag.getWaiters();
+	}
+
+	/**
+	 * Accessor for config.
+	 *
+	 * @return pool settings
+	 */
+	public ConnectionPoolConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return logWriter;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		this.logWriter = out;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		DriverManager.setLoginTimeout(seconds);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return DriverManager.getLoginTimeout();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public java.util.logging.Logger getParentLogger()
+	        throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("Not a wrapper for " + iface);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+		    "ConnectionPool[%s, active=%d, idle=%d, total=%d, waiting=%d]",
+		    config.getUrl(), getActiveConnections(), getIdleConnections(),
+		    getTotalConnections(), getThreadsAwaitingConnection());
+	}
+
+	/**
+	 * Open a new physical connection for the caller if the pool isn't full.
+	 *
+	 * @return a borrowed entry or null if the pool is at its maximum size
+	 * @throws SQLException
+	 *             thrown if the connection can't be opened
+	 */
+	private PoolEntry createEntry() throws SQLException {
+
+		int total = totalConnections.get();
+		while (total < config.getMaxSize()) {
+			if (totalConnections.compareAndSet(total, total + 1)) {
+				try {
+					PoolEntry entry =
+					    new PoolEntry(openConnection(), PoolEntry.IN_USE);
+					bag.add(entry);
+					return entry;
+				} catch (SQLException | RuntimeException e) {
+					totalConnections.decrementAndGet();
+					throw e;
+				}
+			}
+			total = totalConnections.get();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Wait for a connection to be returned to an exhausted pool, or fail
+	 * immediately if the pool is configured to fail fast.
+	 *
+	 * @param remainingNanos
+	 *            time left before the borrow times out
+	 * @return a borrowed entry
+	 * @throws SQLException
+	 *             thrown if the pool fails fast or the borrow times out
+	 * @throws InterruptedException
+	 *             thrown if the waiting thread is interrupted
+	 */
+	private PoolEntry awaitEntry(long remainingNanos)
+	        throws SQLException, InterruptedException {
+
+		if (config.isFailFast()) {
+			metrics.recordRejection();
+			throw new SQLTransientConnectionException(
+			    "Connection pool exhausted: " + this);
+		}
+
+		PoolEntry entry = remainingNanos > 0 ? bag.await(remainingNanos) : null;
+		if (entry == null) {
+			metrics.recordTimeout();
+			throw new SQLTransientConnectionException(String.format(
+			    "Timed out after %dms waiting for a connection: %s",
+			    config.getBorrowTimeout(), this));
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Open a physical connection.
+	 *
+	 * @return the physical connection
+	 * @throws SQLException
+	 *             thrown if the connection can't be opened
+	 */
+	private Connection openConnection() throws SQLException {
+
+		Connection conn = StringUtils.isEmpty(config.getUser())
+		    ? DriverManager.getConnection(config.getUrl())
+		    : DriverManager.getConnection(config.getUrl(), config.getUser(),
+		        config.getPassword());
+		metrics.recordCreated();
+
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Opened pooled connection: " + this);
+		}
+
+		return conn;
+	}
+
+	/**
+	 * Validate a connection that has been idle a while.
+	 *
+	 * @param entry
+	 *            the borrowed entry
+	 * @return true if the connection is usable
+	 */
+	private boolean isValid(PoolEntry entry) {
+		try {
+			return entry.getConnection().isValid(config.getValidationTimeout());
+		} catch (SQLException e) {
+			LOGGER.warn("Connection validation failed: " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Remove an entry from the pool and close its physical connection.
+	 *
+	 * @param entry
+	 *            the entry to evict
+	 */
+	private void evict(PoolEntry entry) {
+		bag.remove(entry);
+		totalConnections.decrementAndGet();
+		metrics.recordEvicted();
+		try {
+			entry.getConnection().close();
+		} catch (SQLException e) {
+			LOGGER.warn("Couldn't close pooled connection: " + e);
+		}
+	}
+
+	/**
+	 * Return a borrowed entry to the pool, resetting the connection's
+	 * transaction state.
+	 *
+	 * @param entry
+	 *            the borrowed entry
+	 * @param broken
+	 *            true if the connection threw a connection exception
+	 */
+	private void release(PoolEntry entry, boolean broken) {
+
+		long now = System.nanoTime();
+		metrics.recordUsage(now - entry.getLastAccess());
+		entry.touch(now);
+
+		boolean usable = !broken && !closed;
+		if (usable) {
+			Connection conn = entry.getConnection();
+			try {
+				if (!conn.getAutoCommit()) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				LOGGER.warn("Couldn't reset pooled connection: " + e);
+				usable = false;
+			}
+		}
+
+		if (usable) {
+			bag.requite(entry);
+		} else {
+			evict(entry);
+		}
+	}
+
+	/**
+	 * Create the logical connection handed to a borrower.
+	 *
+	 * @param entry
+	 *            the borrowed entry
+	 * @return connection proxy whose <code>close</code> returns the entry
+	 */
+	private Connection newProxy(PoolEntry entry) {
+		return (Connection) Proxy.newProxyInstance(
+		    ConnectionPool.class.getClassLoader(),
+		    new Class<?>[] { Connection.class }, new PooledHandler(entry));
+	}
+
+	/**
+	 * Logical connection. Two logical connections are equal when they share a
+	 * physical connection, which lets {@link StatementCachingDataSource} keep
+	 * its statement caches across borrows.
+	 */
+	private final class PooledHandler implements InvocationHandler {
+
+		/**
+		 * The borrowed entry.
+		 */
+		private final PoolEntry entry;
+
+		/**
+		 * True once the logical connection has been closed.
+		 */
+		private boolean released;
+
+		/**
+		 * True if the connection threw a connection exception.
+		 */
+		private boolean broken;
+
+		/**
+		 * Construct a handler for a borrowed entry.
+		 *
+		 * @param entry
+		 *            the borrowed entry
+		 */
+		PooledHandler(PoolEntry entry) {
+			this.entry = entry;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+		        throws Throwable {
+
+			String name = method.getName();
+
+			if ("close".equals(name)) {
+				if (!released) {
+					released = true;
+					release(entry, broken);
+				}
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return released;
+			} else if ("equals".equals(name)) {
+				return sharesEntry(args[0]);
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(entry);
+			} else if ("toString".equals(name)) {
+				return "Pooled[" + entry.getConnection() + "]";
+			}
+
+			if (released) {
+				throw new SQLException("Connection is closed");
+			}
+
+			try {
+				return method.invoke(entry.getConnection(), args);
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof SQLException && StringUtils.startsWith(
+				    ((SQLException) cause).getSQLState(),
+				    CONNECTION_EXCEPTION_CLASS)) {
+					broken = true;
+				}
+				throw cause;
+			}
+		}
+
+		/**
+		 * Return true if another object is a logical connection for the same
+		 * physical connection.
+		 *
+		 * @param other
+		 *            object to compare
+		 * @return true if both share a pool entry
+		 */
+		private boolean sharesEntry(Object other) {
+			if (other == null || !Proxy.isProxyClass(other.getClass())) {
+				return false;
+			}
+			InvocationHandler handler = Proxy.getInvocationHandler(other);
+			return handler instanceof PooledHandler
+			    && ((PooledHandler) handler).entry == entry;
+		}
+	}
+}
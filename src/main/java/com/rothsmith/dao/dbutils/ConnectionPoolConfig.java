@@ -0,0 +1,335 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * Settings for a {@link ConnectionPool}. A DAO properties file selects the
+ * built-in pool with a <code>pool:</code> data source and configures it with
+ * <code>pool.*</code> properties, for example:
+ *
+ * <pre>
+ * dataSource=pool:jdbc:derby:memory:testdb;create=true
+ * pool.user=test
+ * pool.password=test
+ * pool.minIdle=2
+ * pool.maxSize=20
+ * pool.borrowTimeout=30000
+ * pool.failFast=false
+ * </pre>
+ *
+ * @author drothauser
+ */
+public final class ConnectionPoolConfig {
+
+	/**
+	 * Prefix of a data source name that selects the built-in pool.
+	 */
+	public static final String POOL_PREFIX = "pool:";
+
+	/**
+	 * Default maximum number of connections.
+	 */
+	private static final int DEFAULT_MAX_SIZE = 10;
+
+	/**
+	 * Default time to wait for a connection in milliseconds.
+	 */
+	private static final long DEFAULT_BORROW_TIMEOUT = 30000L;
+
+	/**
+	 * Default time a connection may sit idle before it is validated on borrow.
+	 */
+	private static final long DEFAULT_VALIDATION_IDLE = 500L;
+
+	/**
+	 * Default <code>Connection.isValid</code> timeout in seconds.
+	 */
+	private static final int DEFAULT_VALIDATION_TIMEOUT = 5;
+
+	/**
+	 * JDBC URL.
+	 */
+	private String url;
+
+	/**
+	 * Database user or null to connect without credentials.
+	 */
+	private String user;
+
+	/**
+	 * Database password.
+	 */
+	private String password;
+
+	/**
+	 * Number of connections opened when the pool starts.
+	 */
+	private int minIdle;
+
+	/**
+	 * Maximum number of connections.
+	 */
+	private int maxSize = DEFAULT_MAX_SIZE;
+
+	/**
+	 * Milliseconds to wait for a connection before giving up.
+	 */
+	private long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+
+	/**
+	 * Milliseconds a connection may sit idle before it is validated on borrow.
+	 */
+	private long validationIdleTime = DEFAULT_VALIDATION_IDLE;
+
+	/**
+	 * Seconds to wait for <code>Connection.isValid</code>.
+	 */
+	private int validationTimeout = DEFAULT_VALIDATION_TIMEOUT;
+
+	/**
+	 * If true an exhausted pool fails immediately instead of waiting.
+	 */
+	private boolean failFast;
+
+	/**
+	 * Build a pool configuration from DAO properties.
+	 *
+	 * @param properties
+	 *            DAO properties; <code>dataSource</code> must start with
+	 *            <code>pool:</code>
+	 * @return the pool configuration
+	 */
+	public static ConnectionPoolConfig fromProperties(
+	    Map<String, String> properties) {
+
+		String dataSource = properties.get("dataSource");
+		if (!StringUtils.startsWith(dataSource, POOL_PREFIX)) {
+			throw new IllegalArgumentException(
+			    "Not a connection pool data source: " + dataSource);
+		}
+
+		ConnectionPoolConfig config = new ConnectionPoolConfig();
+		config.setUrl(StringUtils.removeStart(dataSource, POOL_PREFIX).trim());
+		config.setUser(properties.get("pool.user"));
+		config.setPassword(properties.get("pool.password"));
+		config.setMinIdle(NumberUtils.toInt(properties.get("pool.minIdle"),
+		    config.getMinIdle()));
+		config.setMaxSize(NumberUtils.toInt(properties.get("pool.maxSize"),
+		    config.getMaxSize()));
+		config.setBorrowTimeout(NumberUtils.toLong(
+		    properties.get("pool.borrowTimeout"), config.getBorrowTimeout()));
+		config.setValidationIdleTime(
+		    NumberUtils.toLong(properties.get("pool.validationIdleTime"),
+		        config.getValidationIdleTime()));
+		config.setValidationTimeout(
+		    NumberUtils.toInt(properties.get("pool.validationTimeout"),
+		        config.getValidationTimeout()));
+		config.setFailFast(
+		    Boolean.parseBoolean(properties.get("pool.failFast")));
+
+		return config;
+	}
+
+	/**
+	 * Return true if another configuration sizes and times a pool the same
+	 * way as this one.
+	 *
+	 * @param other
+	 *            configuration to compare
+	 * @return true if all settings other than the credentials are equal
+	 */
+	boolean hasSameSettings(ConnectionPoolConfig other) {
+		return minIdle == other.minIdle && maxSize == other.maxSize
+		    && borrowTimeout == other.borrowTimeout
+		    && validationIdleTime == other.validationIdleTime
+		    && validationTimeout == other.validationTimeout
+		    && failFast == other.failFast;
+	}
+
+	/**
+	 * Return the key identifying pools that share this configuration's
+	 * database and credentials.
+	 *
+	 * @return pool registry key
+	 */
+	String getPoolKey() {
+		return url + '\n' + StringUtils.defaultString(user);
+	}
+
+	/**
+	 * Accessor for url.
+	 *
+	 * @return JDBC URL
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Mutator for url.
+	 *
+	 * @param url
+	 *            JDBC URL
+	 */
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	/**
+	 * Accessor for user.
+	 *
+	 * @return database user
+	 */
+	public String getUser() {
+		return user;
+	}
+
+	/**
+	 * Mutator for user.
+	 *
+	 * @param user
+	 *            database user
+	 */
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	/**
+	 * Accessor for password.
+	 *
+	 * @return database password
+	 */
+	public String getPassword() {
+		return password;
+	}
+
+	/**
+	 * Mutator for password.
+	 *
+	 * @param password
+	 *            database password
+	 */
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	/**
+	 * Accessor for minIdle.
+	 *
+	 * @return number of connections opened when the pool starts
+	 */
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * Mutator for minIdle.
+	 *
+	 * @param minIdle
+	 *            number of connections opened when the pool starts
+	 */
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	/**
+	 * Accessor for maxSize.
+	 *
+	 * @return maximum number of connections
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Mutator for maxSize.
+	 *
+	 * @param maxSize
+	 *            maximum number of connections
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Accessor for borrowTimeout.
+	 *
+	 * @return milliseconds to wait for a connection
+	 */
+	public long getBorrowTimeout() {
+		return borrowTimeout;
+	}
+
+	/**
+	 * Mutator for borrowTimeout.
+	 *
+	 * @param borrowTimeout
+	 *            milliseconds to wait for a connection
+	 */
+	public void setBorrowTimeout(long borrowTimeout) {
+		this.borrowTimeout = borrowTimeout;
+	}
+
+	/**
+	 * Accessor for validationIdleTime.
+	 *
+	 * @return milliseconds a connection may sit idle before it is validated
+	 */
+	public long getValidationIdleTime() {
+		return validationIdleTime;
+	}
+
+	/**
+	 * Mutator for validationIdleTime.
+	 *
+	 * @param validationIdleTime
+	 *            milliseconds a connection may sit idle before it is validated
+	 */
+	public void setValidationIdleTime(long validationIdleTime) {
+		this.validationIdleTime = validationIdleTime;
+	}
+
+	/**
+	 * Accessor for validationTimeout.
+	 *
+	 * @return seconds to wait for <code>Connection.isValid</code>
+	 */
+	public int getValidationTimeout() {
+		return validationTimeout;
+	}
+
+	/**
+	 * Mutator for validationTimeout.
+	 *
+	 * @param validationTimeout
+	 *            seconds to wait for <code>Connection.isValid</code>
+	 */
+	public void setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+	}
+
+	/**
+	 * Accessor for failFast.
+	 *
+	 * @return true if an exhausted pool fails immediately
+	 */
+	public boolean isFailFast() {
+		return failFast;
+	}
+
+	/**
+	 * Mutator for failFast.
+	 *
+	 * @param failFast
+	 *            true if an exhausted pool should fail immediately
+	 */
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wait-time and usage counters of a {@link ConnectionPool}. Counters are
+ * cumulative since the pool was created.
+ *
+ * @author drothauser
+ */
+public final class ConnectionPoolMetrics {
+
+	/**
+	 * Number of successful borrows.
+	 */
+	private final LongAdder borrows = new LongAdder();
+
+	/**
+	 * Total nanoseconds spent obtaining connections.
+	 */
+	private final LongAdder waitNanos = new LongAdder();
+
+	/**
+	 * Longest time spent obtaining a connection, in nanoseconds.
+	 */
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * Total nanoseconds connections were held by borrowers.
+	 */
+	private final LongAdder usageNanos = new LongAdder();
+
+	/**
+	 * Number of borrows that timed out.
+	 */
+	private final LongAdder timeouts = new LongAdder();
+
+	/**
+	 * Number of borrows rejected immediately because the pool was exhausted.
+	 */
+	private final LongAdder rejections = new LongAdder();
+
+	/**
+	 * Number of physical connections opened.
+	 */
+	private final LongAdder created = new LongAdder();
+
+	/**
+	 * Number of physical connections closed because they failed validation or
+	 * broke while in use.
+	 */
+	private final LongAdder evicted = new LongAdder();
+
+	/**
+	 * Record a successful borrow.
+	 *
+	 * @param nanos
+	 *            time spent obtaining the connection
+	 */
+	void recordBorrow(long nanos) {
+		borrows.increment();
+		waitNanos.add(nanos);
+		long max = maxWaitNanos.get();
+		while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos)) {
+			max = maxWaitNanos.get();
+		}
+	}
+
+	/**
+	 * Record the return of a connection.
+	 *
+	 * @param nanos
+	 *            time the connection was held
+	 */
+	void recordUsage(long nanos) {
+		usageNanos.add(nanos);
+	}
+
+	/**
+	 * Record a borrow timeout.
+	 */
+	void recordTimeout() {
+		timeouts.increment();
+	}
+
+	/**
+	 * Record a fail-fast rejection.
+	 */
+	void recordRejection() {
+		rejections.increment();
+	}
+
+	/**
+	 * Record a new physical connection.
+	 */
+	void recordCreated() {
+		created.increment();
+	}
+
+	/**
+	 * Record an evicted physical connection.
+	 */
+	void recordEvicted() {
+		evicted.increment();
+	}
+
+	/**
+	 * Accessor for borrows.
+	 *
+	 * @return number of successful borrows
+	 */
+	public long getBorrows() {
+		return borrows.sum();
+	}
+
+	/**
+	 * Return the total time spent obtaining connections.
+	 *
+	 * @return total wait time in milliseconds
+	 */
+	public double getTotalWaitMillis() {
+		return nanosToMillis(waitNanos.sum());
+	}
+
+	/**
+	 * Return the mean time spent obtaining a connection.
+	 *
+	 * @return mean wait time in milliseconds
+	 */
+	public double getMeanWaitMillis() {
+		long count = borrows.sum();
+		return count == 0 ? 0d : nanosToMillis(waitNanos.sum()) / count;
+	}
+
+	/**
+	 * Return the longest time spent obtaining a connection.
+	 *
+	 * @return maximum wait time in milliseconds
+	 */
+	public double getMaxWaitMillis() {
+		return nanosToMillis(maxWaitNanos.get());
+	}
+
+	/**
+	 * Return the mean time a connection was held by a borrower.
+	 *
+	 * @return mean usage time in milliseconds
+	 */
+	public double getMeanUsageMillis() {
+		long count = borrows.sum();
+		return count == 0 ? 0d : nanosToMillis(usageNanos.sum()) / count;
+	}
+
+	/**
+	 * Accessor for timeouts.
+	 *
+	 * @return number of borrows that timed out
+	 */
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	/**
+	 * Accessor for rejections.
+	 *
+	 * @return number of fail-fast rejections
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * Accessor for created.
+	 *
+	 * @return number of physical connections opened
+	 */
+	public long getCreated() {
+		return created.sum();
+	}
+
+	/**
+	 * Accessor for evicted.
+	 *
+	 * @return number of physical connections evicted
+	 */
+	public long getEvicted() {
+		return evicted.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+		    "borrows=%d, meanWait=%.3fms, maxWait=%.3fms, meanUsage=%.3fms, "
+		        + "timeouts=%d, rejections=%d, created=%d, evicted=%d",
+		    getBorrows(), getMeanWaitMillis(), getMaxWaitMillis(),
+		    getMeanUsageMillis(), getTimeouts(), getRejections(), getCreated(),
+		    getEvicted());
+	}
+
+	/**
+	 * Convert nanoseconds to fractional milliseconds.
+	 *
+	 * @param nanos
+	 *            nanoseconds
+	 * @return milliseconds
+	 */
+	private static double nanosToMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
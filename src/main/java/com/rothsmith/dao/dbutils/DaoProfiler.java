@@ -0,0 +1,393 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in profiler of the DAO statements a thread executes between
+ * {@link #begin(String)} and {@link #end()}, typically one request:
+ *
+ * <pre>
+ * DaoProfiler.begin("GET /presidents");
+ * try {
+ * 	...
+ * } finally {
+ * 	ProfileReport report = DaoProfiler.end();
+ * }
+ * </pre>
+ *
+ * Every execution of every {@link DbUtilsJdbcDao} on the thread is recorded
+ * by statement id and number of parameters. A shape executed at least the
+ * threshold number of times in the scope is flagged as a suspected N+1
+ * pattern and logged with a suggested alternative from the DAO's own
+ * statements. Outside a scope a DAO execution costs one thread-local read,
+ * so production code can profile a sample of its requests with
+ * {@link #sample(String, int)}.
+ *
+ * @author drothauser
+ */
+public final class DaoProfiler {
+
+	/**
+	 * Default number of executions of one shape flagged as N+1.
+	 */
+	public static final int DEFAULT_THRESHOLD = 10;
+
+	/**
+	 * SLF4J Logger for DaoProfiler.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(DaoProfiler.class);
+
+	/**
+	 * Scope of the current thread, or null if it isn't profiled.
+	 */
+	private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<Scope>();
+
+	/**
+	 * Pattern of a column compared to a parameter.
+	 */
+	private static final Pattern KEY_PREDICATE = Pattern.compile(
+	    "\\bwhere\\s+(?:\\w+\\.)?(\\w+)\\s*=\\s*:\\w+",
+	    Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Pattern of an equality predicate, which selects a few rows.
+	 */
+	private static final Pattern EQUALITY = Pattern.compile("(?<![<>!])=");
+
+	/**
+	 * Pattern of the first table selected from.
+	 */
+	private static final Pattern FROM_TABLE = Pattern
+	    .compile("\\bfrom\\s+([\\w.]+)", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Static class.
+	 */
+	private DaoProfiler() {
+	}
+
+	/**
+	 * Begin a scope named after the current thread.
+	 */
+	public static void begin() {
+		begin(Thread.currentThread().getName());
+	}
+
+	/**
+	 * Begin a scope with the default threshold.
+	 *
+	 * @param name
+	 *            scope name, e.g. the request
+	 */
+	public static void begin(String name) {
+		begin(name, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Begin a scope on the current thread. If the thread already has a scope,
+	 * the new one is part of it and its {@link #end()} returns null.
+	 *
+	 * @param name
+	 *            scope name, e.g. the request
+	 * @param threshold
+	 *            number of executions of one shape flagged as N+1
+	 */
+	public static void begin(String name, int threshold) {
+		Scope scope = SCOPE.get();
+		if (scope == null) {
+			SCOPE.set(new Scope(name, threshold));
+		} else {
+			scope.depth++;
+		}
+	}
+
+	/**
+	 * Begin a scope for one in <code>oneIn</code> calls.
+	 *
+	 * @param name
+	 *            scope name, e.g. the request
+	 * @param oneIn
+	 *            sampling rate; 1 profiles every call
+	 * @return true if a scope was begun and {@link #end()} will report it
+	 */
+	public static boolean sample(String name, int oneIn) {
+		if (oneIn < 1 || SCOPE.get() != null
+		    || ThreadLocalRandom.current().nextInt(oneIn) != 0) {
+			return false;
+		}
+		begin(name);
+		return true;
+	}
+
+	/**
+	 * Tell whether the current thread is profiled.
+	 *
+	 * @return true inside a scope
+	 */
+	public static boolean isActive() {
+		return SCOPE.get() != null;
+	}
+
+	/**
+	 * End the current thread's scope, logging its suspected N+1 patterns.
+	 *
+	 * @return the scope's report, or null if the thread has no scope or the
+	 *         scope is nested in another
+	 */
+	public static ProfileReport end() {
+		Scope scope = SCOPE.get();
+		if (scope == null) {
+			return null;
+		}
+		if (scope.depth > 0) {
+			scope.depth--;
+			return null;
+		}
+		SCOPE.remove();
+
+		for (Map.Entry<Shape, StatementProfile> entry : scope.profiles
+		    .entrySet()) {
+			StatementProfile profile = entry.getValue();
+			if (profile.getExecutions() >= scope.threshold) {
+				profile.flag(suggest(entry.getKey().properties, profile));
+			}
+		}
+
+		ProfileReport report = new ProfileReport(scope.name,
+		    System.nanoTime() - scope.start,
+		    new ArrayList<StatementProfile>(scope.profiles.values()));
+		for (StatementProfile suspect : report.getSuspects()) {
+			LOGGER.warn("Suspected N+1 in {}: {}", scope.name, suspect);
+		}
+		return report;
+	}
+
+	/**
+	 * Record a DAO execution in the current thread's scope, if it has one.
+	 *
+	 * @param properties
+	 *            properties of the executing DAO, or null
+	 * @param statementId
+	 *            the statement id
+	 * @param params
+	 *            statement parameters, or null if not known
+	 * @param nanos
+	 *            execution time in nanoseconds
+	 * @param failed
+	 *            true if the execution threw an exception
+	 */
+	static void record(Map<String, String> properties, String statementId,
+	    Object[] params, long nanos, boolean failed) {
+		Scope scope = SCOPE.get();
+		if (scope == null) {
+			return;
+		}
+		Shape shape = new Shape(properties, statementId,
+		    params == null ? 0 : params.length);
+		StatementProfile profile = scope.profiles.get(shape);
+		if (profile == null) {
+			String dto = properties == null ? null : properties.get("dto");
+			profile = new StatementProfile(
+			    dto == null ? "" : StringUtils.substringAfterLast(dto, "."),
+			    statementId, shape.parameterCount);
+			scope.profiles.put(shape, profile);
+		}
+		profile.record(params, nanos, failed);
+	}
+
+	/**
+	 * Suggest an alternative to a repeated statement from the DAO's other
+	 * statements.
+	 *
+	 * @param properties
+	 *            properties of the executing DAO, or null
+	 * @param profile
+	 *            the repeated statement
+	 * @return the suggestion, or null if there is none
+	 */
+	private static String suggest(Map<String, String> properties,
+	    StatementProfile profile) {
+
+		String statementId = profile.getStatementId();
+		String sql = properties == null ? null : properties.get(statementId);
+		if (sql == null) {
+			return null;
+		}
+
+		if (profile.getExecutions() > 1
+		    && profile.getDistinctParameters() == 1) {
+			return "same parameters on every execution: hoist the call out "
+			    + "of the loop or cache the result (cache=reference)";
+		}
+
+		String verb = StringUtils.substringBefore(sql.trim(), " ");
+		if (!"select".equalsIgnoreCase(verb)) {
+			return "batch the writes with writeBehind()";
+		}
+
+		Matcher key = KEY_PREDICATE.matcher(sql);
+		Matcher from = FROM_TABLE.matcher(sql);
+		if (!key.find() || !from.find()) {
+			return null;
+		}
+		String column = key.group(1);
+		String table = from.group(1);
+
+		Pattern inList = Pattern.compile(
+		    "\\b" + Pattern.quote(column) + "\\s+in\\s*\\(",
+		    Pattern.CASE_INSENSITIVE);
+		String unfiltered = null;
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			String id = entry.getKey();
+			String other = entry.getValue();
+			if (id.equals(statementId) || !id.startsWith("query.")
+			    || !sameTable(other, table)) {
+				continue;
+			}
+			if (inList.matcher(other).find()) {
+				return String.format("select the %s values at once with %s",
+				    column, id);
+			}
+			if (unfiltered == null && other.indexOf(':') < 0
+			    && !EQUALITY.matcher(StringUtils.substringAfter(
+			        other.toLowerCase(), " where ")).find()) {
+				unfiltered = id;
+			}
+		}
+		if (unfiltered != null) {
+			return String.format("select once with %s and index the rows "
+			    + "by %s", unfiltered, column);
+		}
+		return String.format("select many %s values in one statement "
+		    + "(%s in (...)), or load them as an association with "
+		    + "loadAssociations", column, column);
+	}
+
+	/**
+	 * Tell whether a statement selects from a table.
+	 *
+	 * @param sql
+	 *            the statement
+	 * @param table
+	 *            the table
+	 * @return true if the statement is a select from the table
+	 */
+	private static boolean sameTable(String sql, String table) {
+		Matcher from = FROM_TABLE.matcher(sql);
+		return StringUtils.startsWithIgnoreCase(sql.trim(), "select")
+		    && from.find() && from.group(1).equalsIgnoreCase(table);
+	}
+
+	/**
+	 * Statement shape: a DAO's statement id and number of parameters.
+	 */
+	private static final class Shape {
+
+		/**
+		 * Properties of the DAO, compared by identity.
+		 */
+		private final Map<String, String> properties;
+
+		/**
+		 * The statement id.
+		 */
+		private final String statementId;
+
+		/**
+		 * Number of parameters.
+		 */
+		private final int parameterCount;
+
+		/**
+		 * Construct a shape.
+		 *
+		 * @param properties
+		 *            properties of the DAO
+		 * @param statementId
+		 *            the statement id
+		 * @param parameterCount
+		 *            number of parameters
+		 */
+		Shape(Map<String, String> properties, String statementId,
+		    int parameterCount) {
+			this.properties = properties;
+			this.statementId = statementId;
+			this.parameterCount = parameterCount;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Shape)) {
+				return false;
+			}
+			Shape other = (Shape) obj;
+			return properties == other.properties
+			    && parameterCount == other.parameterCount
+			    && statementId.equals(other.statementId);
+		}
+
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(properties) * 31
+			    + statementId.hashCode()) * 31 + parameterCount;
+		}
+	}
+
+	/**
+	 * A thread's profiling scope.
+	 */
+	private static final class Scope {
+
+		/**
+		 * Scope name.
+		 */
+		private final String name;
+
+		/**
+		 * Number of executions of one shape flagged as N+1.
+		 */
+		private final int threshold;
+
+		/**
+		 * Start of the scope (System.nanoTime()).
+		 */
+		private final long start = System.nanoTime();
+
+		/**
+		 * Executions by shape, in order of first execution.
+		 */
+		private final Map<Shape, StatementProfile> profiles =
+		    new LinkedHashMap<Shape, StatementProfile>();
+
+		/**
+		 * Number of nested scopes begun and not ended.
+		 */
+		private int depth;
+
+		/**
+		 * Construct a scope.
+		 *
+		 * @param name
+		 *            scope name
+		 * @param threshold
+		 *            number of executions of one shape flagged as N+1
+		 */
+		Scope(String name, int threshold) {
+			this.name = name;
+			this.threshold = threshold;
+		}
+	}
+}
@@ -0,0 +1,526 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
+
+/**
+ * {@link QueryRunner} that applies the {@link StatementSettings} of the
+ * statement being executed to each {@link PreparedStatement} it prepares,
+ * and binds parameters by their SQL types (see {@link ParameterTypes})
+ * instead of asking the driver for parameter metadata.
+ *
+ * @author drothauser
+ */
+class DaoQueryRunner extends QueryRunner {
+
+	/**
+	 * Settings of the statement the current thread is executing.
+	 */
+	private final ThreadLocal<StatementSettings> currentSettings =
+	    new ThreadLocal<StatementSettings>();
+
+	/**
+	 * Most positional statements whose parameter types are kept.
+	 */
+	private static final int MAX_TYPED_STATEMENTS = 1024;
+
+	/**
+	 * SQL types of the DAO's named parameters.
+	 */
+	private final ParameterTypes parameterTypes;
+
+	/**
+	 * Parameter SQL types by positional statement; {@link Types#NULL} for a
+	 * parameter whose type isn't known.
+	 */
+	private final ConcurrentMap<String, int[]> statementTypes =
+	    new ConcurrentHashMap<String, int[]>();
+
+	/**
+	 * Statement last prepared by the current thread, with its SQL, so that
+	 * the statement's parameter types are found when it is filled.
+	 */
+	private final ThreadLocal<Prepared> lastPrepared =
+	    new ThreadLocal<Prepared>();
+
+	/**
+	 * Construct the query runner.
+	 *
+	 * @param ds
+	 *            the data source to get connections from
+	 * @param pmdKnownBroken
+	 *            true if the driver's ParameterMetaData is unusable
+	 * @param parameterTypes
+	 *            SQL types of the DAO's named parameters
+	 */
+	DaoQueryRunner(DataSource ds, boolean pmdKnownBroken,
+	    ParameterTypes parameterTypes) {
+		super(ds, pmdKnownBroken);
+		this.parameterTypes = parameterTypes;
+	}
+
+	/**
+	 * Convert a statement's named parameters to positional ones, recording
+	 * their SQL types for binding.
+	 *
+	 * @param sql
+	 *            statement with <code>:name</code> parameters, optionally
+	 *            with declared types
+	 * @return positional SQL
+	 */
+	String positional(String sql) {
+		String positional = ParameterTypes.positional(sql);
+		declare(positional, sql);
+		return positional;
+	}
+
+	/**
+	 * Record the parameter types of a positional statement from the named
+	 * statement it was derived from.
+	 *
+	 * @param positional
+	 *            positional SQL
+	 * @param sql
+	 *            the statement with <code>:name</code> parameters
+	 */
+	void declare(String positional, String sql) {
+		if (!statementTypes.containsKey(positional)
+		    && statementTypes.size() < MAX_TYPED_STATEMENTS) {
+			statementTypes.putIfAbsent(positional, parameterTypes.of(sql));
+		}
+	}
+
+	/**
+	 * Run a query with the given statement settings.
+	 *
+	 * @param <R>
+	 *            the handler's result type
+	 * @param settings
+	 *            settings to apply to the statement
+	 * @param sql
+	 *            positional SQL
+	 * @param rsh
+	 *            result set handler
+	 * @param params
+	 *            statement parameters
+	 * @return the handler's result
+	 * @throws SQLException
+	 *             thrown if the query fails
+	 */
+	<R> R query(StatementSettings settings, String sql,
+	    ResultSetHandler<R> rsh, Object... params) throws SQLException {
+		StatementSettings previous = currentSettings.get();
+		currentSettings.set(settings);
+		try {
+			return query(sql, rsh, params);
+		} finally {
+			restore(previous);
+		}
+	}
+
+	/**
+	 * Run an insert, update or delete with the given statement settings.
+	 *
+	 * @param settings
+	 *            settings to apply to the statement
+	 * @param sql
+	 *            positional SQL
+	 * @param params
+	 *            statement parameters
+	 * @return number of rows affected
+	 * @throws SQLException
+	 *             thrown if the statement fails
+	 */
+	int update(StatementSettings settings, String sql, Object... params)
+	        throws SQLException {
+		StatementSettings previous = currentSettings.get();
+		currentSettings.set(settings);
+		try {
+			return update(sql, params);
+		} finally {
+			restore(previous);
+		}
+	}
+
+	/**
+	 * Run an insert with the given statement settings, returning the
+	 * generated key.
+	 *
+	 * @param <R>
+	 *            the handler's result type
+	 * @param settings
+	 *            settings to apply to the statement
+	 * @param sql
+	 *            positional SQL
+	 * @param rsh
+	 *            handler for the generated keys
+	 * @param params
+	 *            statement parameters
+	 * @return the handler's result
+	 * @throws SQLException
+	 *             thrown if the statement fails
+	 */
+	<R> R insert(StatementSettings settings, String sql,
+	    ResultSetHandler<R> rsh, Object... params) throws SQLException {
+		StatementSettings previous = currentSettings.get();
+		currentSettings.set(settings);
+		try {
+			return insert(sql, rsh, params);
+		} finally {
+			restore(previous);
+		}
+	}
+
+	/**
+	 * Run an insert, update or delete on the caller's connection with the
+	 * given statement settings.
+	 *
+	 * @param settings
+	 *            settings to apply to the statement
+	 * @param conn
+	 *            connection to run the statement on
+	 * @param sql
+	 *            positional SQL
+	 * @param params
+	 *            statement parameters
+	 * @return number of rows affected
+	 * @throws SQLException
+	 *             thrown if the statement fails
+	 */
+	int update(StatementSettings settings, Connection conn, String sql,
+	    Object... params) throws SQLException {
+		StatementSettings previous = currentSettings.get();
+		currentSettings.set(settings);
+		try {
+			return update(conn, sql, params);
+		} finally {
+			restore(previous);
+		}
+	}
+
+	/**
+	 * Run an insert on the caller's connection with the given statement
+	 * settings, returning the generated key.
+	 *
+	 * @param <R>
+	 *            the handler's result type
+	 * @param settings
+	 *            settings to apply to the statement
+	 * @param conn
+	 *            connection to run the statement on
+	 * @param sql
+	 *            positional SQL
+	 * @param rsh
+	 *            handler for the generated keys
+	 * @param params
+	 *            statement parameters
+	 * @return the handler's result
+	 * @throws SQLException
+	 *             thrown if the statement fails
+	 */
+	<R> R insert(StatementSettings settings, Connection conn, String sql,
+	    ResultSetHandler<R> rsh, Object... params) throws SQLException {
+		StatementSettings previous = currentSettings.get();
+		currentSettings.set(settings);
+		try {
+			return insert(conn, sql, rsh, params);
+		} finally {
+			restore(previous);
+		}
+	}
+
+	/**
+	 * Run a JDBC batch on the caller's connection with the given statement
+	 * settings.
+	 *
+	 * @param settings
+	 *            settings to apply to the statement
+	 * @param conn
+	 *            connection to run the batch on
+	 * @param sql
+	 *            positional SQL
+	 * @param params
+	 *            statement parameters, one row per batch entry
+	 * @return number of rows affected by each entry
+	 * @throws SQLException
+	 *             thrown if the batch fails
+	 */
+	int[] batch(StatementSettings settings, Connection conn, String sql,
+	    Object[][] params) throws SQLException {
+		StatementSettings previous = currentSettings.get();
+		currentSettings.set(settings);
+		try {
+			return batch(conn, sql, params);
+		} finally {
+			restore(previous);
+		}
+	}
+
+	/**
+	 * Prepare a statement with the given statement settings, for callers
+	 * that manage the statement and its connection themselves.
+	 *
+	 * @param settings
+	 *            settings to apply to the statement
+	 * @param conn
+	 *            connection to prepare the statement on
+	 * @param sql
+	 *            positional SQL
+	 * @return the prepared statement
+	 * @throws SQLException
+	 *             thrown if the statement can't be prepared
+	 */
+	PreparedStatement prepareStatement(StatementSettings settings,
+	    Connection conn, String sql) throws SQLException {
+		StatementSettings previous = currentSettings.get();
+		currentSettings.set(settings);
+		try {
+			return prepareStatement(conn, sql);
+		} finally {
+			restore(previous);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected PreparedStatement prepareStatement(Connection conn, String sql)
+	        throws SQLException {
+		PreparedStatement stmt = super.prepareStatement(conn, sql);
+		configure(stmt);
+		lastPrepared.set(new Prepared(stmt, sql));
+		return stmt;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected PreparedStatement prepareStatement(Connection conn, String sql,
+	    int returnedKeys) throws SQLException {
+		PreparedStatement stmt =
+		    super.prepareStatement(conn, sql, returnedKeys);
+		configure(stmt);
+		lastPrepared.set(new Prepared(stmt, sql));
+		return stmt;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Values are bound with the setter of their class. A null is bound with
+	 * <code>setNull</code> and the parameter's declared or inferred SQL type;
+	 * parameter metadata is read only for a parameter whose type isn't known,
+	 * once per statement, and never if the driver's metadata is broken
+	 * (<code>VARCHAR</code> is used). <code>InputStream</code> and
+	 * <code>ReadableByteChannel</code> parameters are bound with
+	 * <code>setBinaryStream</code> and <code>Reader</code> parameters with
+	 * <code>setCharacterStream</code>, so the driver reads them as it sends
+	 * the statement instead of the caller materializing them.
+	 */
+	@Override
+	public void fillStatement(PreparedStatement stmt, Object... params)
+	        throws SQLException {
+
+		if (params == null) {
+			return;
+		}
+
+		Prepared prepared = lastPrepared.get();
+		String sql =
+		    prepared != null && prepared.stmt == stmt ? prepared.sql : null;
+		int[] types = sql == null ? null : statementTypes.get(sql);
+
+		for (int i = 0; i < params.length; i++) {
+			Object param = params[i];
+			int type = types != null && i < types.length ? types[i]
+			    : Types.NULL;
+			if (param != null) {
+				bind(stmt, i + 1, param, type);
+				continue;
+			}
+			if (type == Types.NULL) {
+				types = resolveTypes(stmt, sql, types, params.length);
+				type = types[i];
+			}
+			stmt.setNull(i + 1, type);
+		}
+	}
+
+	/**
+	 * Bind a value with the setter of its class, or as its parameter's SQL
+	 * type if its class has no specific setter.
+	 *
+	 * @param stmt
+	 *            the statement
+	 * @param index
+	 *            parameter index, from 1
+	 * @param param
+	 *            the value, not null
+	 * @param type
+	 *            the parameter's SQL type, or {@link Types#NULL}
+	 * @throws SQLException
+	 *             thrown if the driver rejects the value
+	 */
+	private static void bind(PreparedStatement stmt, int index, Object param,
+	    int type) throws SQLException {
+		if (param instanceof String) {
+			stmt.setString(index, (String) param);
+		} else if (param instanceof Integer) {
+			stmt.setInt(index, (Integer) param);
+		} else if (param instanceof Long) {
+			stmt.setLong(index, (Long) param);
+		} else if (param instanceof BigDecimal) {
+			stmt.setBigDecimal(index, (BigDecimal) param);
+		} else if (param instanceof Timestamp) {
+			stmt.setTimestamp(index, (Timestamp) param);
+		} else if (param instanceof InputStream) {
+			stmt.setBinaryStream(index, (InputStream) param);
+		} else if (param instanceof ReadableByteChannel) {
+			stmt.setBinaryStream(index,
+			    Channels.newInputStream((ReadableByteChannel) param));
+		} else if (param instanceof Reader) {
+			stmt.setCharacterStream(index, (Reader) param);
+		} else if (param.getClass() == java.util.Date.class) {
+			stmt.setTimestamp(index,
+			    new Timestamp(((java.util.Date) param).getTime()));
+		} else if (type == Types.NULL) {
+			stmt.setObject(index, param);
+		} else {
+			stmt.setObject(index, param, type);
+		}
+	}
+
+	/**
+	 * Fill in the unknown parameter types of a statement from the driver's
+	 * parameter metadata, keeping them for the statement's next executions.
+	 *
+	 * @param stmt
+	 *            the statement
+	 * @param sql
+	 *            the statement's positional SQL, or null if not known
+	 * @param types
+	 *            known parameter types, or null
+	 * @param count
+	 *            number of parameters
+	 * @return the parameter types, <code>VARCHAR</code> where they can't be
+	 *         found
+	 */
+	private int[] resolveTypes(PreparedStatement stmt, String sql,
+	    int[] types, int count) {
+
+		int[] resolved = types == null ? new int[count]
+		    : Arrays.copyOf(types, Math.max(types.length, count));
+		ParameterMetaData pmd = null;
+		if (!isPmdKnownBroken()) {
+			try {
+				pmd = stmt.getParameterMetaData();
+			} catch (SQLException e) {
+				pmd = null;
+			}
+		}
+		for (int i = 0; i < resolved.length; i++) {
+			if (resolved[i] != Types.NULL) {
+				continue;
+			}
+			resolved[i] = Types.VARCHAR;
+			if (pmd != null) {
+				try {
+					resolved[i] = pmd.getParameterType(i + 1);
+				} catch (SQLException e) {
+					pmd = null;
+				}
+			}
+		}
+
+		if (sql != null && (statementTypes.containsKey(sql)
+		    || statementTypes.size() < MAX_TYPED_STATEMENTS)) {
+			statementTypes.put(sql, resolved);
+		}
+		return resolved;
+	}
+
+	/**
+	 * Apply the current thread's statement settings to a statement. Every
+	 * setting is set, 0 where it is unset, so a statement reused from a
+	 * statement cache doesn't keep the settings of its previous execution.
+	 *
+	 * @param stmt
+	 *            the statement to configure
+	 * @throws SQLException
+	 *             thrown if the driver rejects a setting
+	 */
+	private void configure(PreparedStatement stmt) throws SQLException {
+		StatementSettings settings = currentSettings.get();
+		if (settings == null) {
+			settings = StatementSettings.DEFAULT;
+		}
+		stmt.setQueryTimeout(settings.getQueryTimeout());
+		stmt.setMaxRows(settings.getMaxRows());
+		stmt.setFetchSize(settings.getFetchSize());
+	}
+
+	/**
+	 * Restore the settings of an enclosing execution.
+	 *
+	 * @param previous
+	 *            settings to restore, or null
+	 */
+	private void restore(StatementSettings previous) {
+		if (previous == null) {
+			currentSettings.remove();
+		} else {
+			currentSettings.set(previous);
+		}
+	}
+
+	/**
+	 * A prepared statement and its SQL.
+	 */
+	private static final class Prepared {
+
+		/**
+		 * The statement.
+		 */
+		private final PreparedStatement stmt;
+
+		/**
+		 * The statement's positional SQL.
+		 */
+		private final String sql;
+
+		/**
+		 * Construct the pair.
+		 *
+		 * @param stmt
+		 *            the statement
+		 * @param sql
+		 *            the statement's positional SQL
+		 */
+		Prepared(PreparedStatement stmt, String sql) {
+			this.stmt = stmt;
+			this.sql = sql;
+		}
+	}
+}
@@ -3,29 +3,53 @@
  */
 package com.rothsmith.dao.dbutils;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigDecimal;
+import java.nio.file.Paths;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
+import org.apache.commons.beanutils.BeanUtilsBean;
 import org.apache.commons.beanutils.PropertyUtilsBean;
 import org.apache.commons.dbutils.BasicRowProcessor;
-import org.apache.commons.dbutils.GenerousBeanProcessor;
+import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.dbutils.QueryLoader;
-import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
 import org.apache.commons.dbutils.handlers.BeanListHandler;
 import org.apache.commons.dbutils.handlers.MapListHandler;
 import org.apache.commons.dbutils.handlers.ScalarHandler;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,7 +68,7 @@ import com.rothsmith.utils.database.JDBCServiceLocator;
  * 
  * @author drothauser
  */
-public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
+public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P>, Closeable {
 
 	/**
 	 * SLF4J Logger for DbUtilsJdbcDao.
@@ -52,6 +76,54 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 	private static final Logger LOGGER =
 	    LoggerFactory.getLogger(DbUtilsJdbcDao.class);
 
+	/**
+	 * Statement id under which SQL passed directly to the DAO is recorded.
+	 */
+	private static final String AD_HOC_STATEMENT = "sql";
+
+	/**
+	 * Maximum number of keys bound in one association IN-list.
+	 */
+	private static final int MAX_IN_LIST = 500;
+
+	/**
+	 * Number of sampled plan captures that may wait for the explain thread.
+	 */
+	private static final int EXPLAIN_QUEUE_SIZE = 16;
+
+	/**
+	 * Matches the start of a query.
+	 */
+	private static final Pattern QUERY =
+	    Pattern.compile("(?i)\\s*(select|with|values)\\s");
+
+	/**
+	 * Matches an UPDATE or DELETE statement, capturing its table.
+	 */
+	private static final Pattern CHUNKED_DML = Pattern.compile(
+	    "(?i)^\\s*(?:delete\\s+from|update)\\s+([\\w.]+)");
+
+	/**
+	 * Matches a <code>:name</code> parameter.
+	 */
+	private static final Pattern NAMED_PARAM = Pattern.compile(":(\\w+)");
+
+	/**
+	 * Default number of publisher executor threads.
+	 */
+	private static final int DEFAULT_PUBLISHER_THREADS = 4;
+
+	/**
+	 * Default number of publisher tasks that may wait for a thread.
+	 */
+	private static final int DEFAULT_PUBLISHER_QUEUE_SIZE = 1000;
+
+	/**
+	 * Default estimated heap bytes of a buffered result before rows are
+	 * spilled to disk (16 MiB).
+	 */
+	private static final long DEFAULT_BUFFER_MEMORY = 16L * 1024L * 1024L;
+
 	/**
 	 * JDBC {@link DataSource}.
 	 */
@@ -72,9 +144,84 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 	private Class<T> type;
 
 	/**
-	 * Instance of {@link QueryRunner}.
+	 * Instance of {@link DaoQueryRunner}.
+	 */
+	private DaoQueryRunner queryRunner;
+
+	/**
+	 * DAOs of associated tables keyed by association name.
+	 */
+	private final ConcurrentMap<String, DbUtilsJdbcDao<Object, Object>> associationDaos =
+	    new ConcurrentHashMap<String, DbUtilsJdbcDao<Object, Object>>();
+
+	/**
+	 * Settings, concurrency limits and metrics keyed by statement id.
+	 */
+	private final ConcurrentMap<String, StatementContext> statementContexts =
+	    new ConcurrentHashMap<String, StatementContext>();
+
+	/**
+	 * SQL derived from statements (projections with a trimmed SELECT list,
+	 * counts and existence checks) keyed by statement id and derivation.
+	 */
+	private final ConcurrentMap<String, String> derivedStatements =
+	    new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Statements compiled at build time keyed by statement id; registered by
+	 * DAOs generated by {@link CompiledDaoProcessor}.
+	 */
+	private final ConcurrentMap<String, CompiledStatement<T>> compiledStatements =
+	    new ConcurrentHashMap<String, CompiledStatement<T>>();
+
+	/**
+	 * In-memory copy of the table if the DAO is in reference mode
+	 * (<code>cache=reference</code>), otherwise null.
+	 */
+	private ReferenceCache<T> referenceCache;
+
+	/**
+	 * Name of the <code>query.select</code> parameter answered from the
+	 * reference cache, or null if <code>query.select</code> goes to the
+	 * database.
+	 */
+	private String referenceKeyParam;
+
+	/**
+	 * Change tracker for partial updates, or null if changes aren't tracked.
+	 */
+	private ChangeTracker changeTracker;
+
+	/**
+	 * Change log writes are recorded in and polled from, if
+	 * <code>changeLog.table</code> is set.
+	 */
+	private ChangeLog changeLog;
+
+	/**
+	 * Write-behind writer, created on first use.
+	 */
+	private WriteBehindWriter<T> writeBehindWriter;
+
+	/**
+	 * Executor running the JDBC work of publishers, created on first use.
+	 */
+	private volatile Executor publisherExecutor;
+
+	/**
+	 * Executor capturing sampled execution plans, created on first use.
+	 */
+	private volatile Executor explainExecutor;
+
+	/**
+	 * Dialect of the data source's database, determined on first use.
+	 */
+	private volatile SqlDialect dialect;
+
+	/**
+	 * Binary format of spilled rows, created on first use.
 	 */
-	private QueryRunner queryRunner;
+	private volatile RowCodec<T> rowCodec;
 
 	/**
 	 * SQL statement {@link Map}.
@@ -97,43 +244,174 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 	 * @param propsFile
 	 *            Properties file
 	 */
-	@SuppressWarnings("unchecked")
 	public DbUtilsJdbcDao(final String propsFile) {
+		this(propsFile, null);
+	}
+
+	/**
+	 * Construct DAO initializing it with parameters from a properties file and
+	 * a DTO type known at compile time, as DAOs generated by
+	 * {@link CompiledDaoProcessor} do.
+	 * 
+	 * @param propsFile
+	 *            Properties file
+	 * @param type
+	 *            Type of DTO or null to load the class named by the
+	 *            <code>dto</code> property
+	 */
+	protected DbUtilsJdbcDao(final String propsFile, final Class<T> type) {
 
 		QueryLoader loader = QueryLoader.instance();
 		try {
 			statementMap = loader.load(propsFile);
+			initialize(type, lookupDataSource(statementMap));
+		} catch (ClassNotFoundException | IOException | NamingException
+		        | SQLException e) {
+			String msg = "Constructor Error: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+
+	}
+
+	/**
+	 * Construct DAO from already loaded properties over a given data source,
+	 * as each shard of a {@link ShardedJdbcDao} is. The <code>dataSource</code>
+	 * property is ignored.
+	 * 
+	 * @param statementMap
+	 *            DAO properties; copied
+	 * @param dataSource
+	 *            data source the DAO's statements run on
+	 */
+	DbUtilsJdbcDao(final Map<String, String> statementMap,
+	    final DataSource dataSource) {
+
+		this.statementMap = new HashMap<String, String>(statementMap);
+		try {
+			initialize(null, dataSource);
+		} catch (ClassNotFoundException | SQLException e) {
+			String msg = "Constructor Error: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+
+	}
+
+	/**
+	 * Look up the data source named by the <code>dataSource</code> property:
+	 * a JNDI name or a <code>pool:</code> name of a {@link ConnectionPool}.
+	 * 
+	 * @param properties
+	 *            DAO properties
+	 * @return the data source
+	 * @throws NamingException
+	 *             thrown if the JNDI name isn't found
+	 * @throws SQLException
+	 *             thrown if the pool can't be created
+	 */
+	private static DataSource lookupDataSource(Map<String, String> properties)
+	        throws NamingException, SQLException {
+
+		String dataSourceName = properties.get("dataSource");
+		if (StringUtils.startsWith(dataSourceName,
+		    ConnectionPoolConfig.POOL_PREFIX)) {
+			return ConnectionPool
+			    .getPool(ConnectionPoolConfig.fromProperties(properties));
+		}
+
+		return JDBCServiceLocator.getInstance().getDataSource(dataSourceName);
+	}
+
+	/**
+	 * Set the DAO up from its loaded properties: DTO type, statement cache,
+	 * query runner, change tracking and reference cache.
+	 * 
+	 * @param dtoType
+	 *            Type of DTO or null to load the class named by the
+	 *            <code>dto</code> property
+	 * @param baseDataSource
+	 *            data source the DAO's statements run on
+	 * @throws ClassNotFoundException
+	 *             thrown if the DTO class isn't found
+	 * @throws SQLException
+	 *             thrown if the data source can't be set up
+	 */
+	@SuppressWarnings("unchecked")
+	private void initialize(Class<T> dtoType, DataSource baseDataSource)
+	        throws ClassNotFoundException, SQLException {
+
+		ParameterTypes.extractDeclarations(statementMap);
 
+		if (dtoType == null) {
 			String dto = statementMap.get("dto");
-			type = (Class<T>) Class.forName(dto);
+			this.type = (Class<T>) Class.forName(dto);
+		} else {
+			this.type = dtoType;
+		}
 
-			String jndiName = statementMap.get("dataSource");
-			dataSource =
-			    JDBCServiceLocator.getInstance().getDataSource(jndiName);
+		dataSource = baseDataSource;
 
-			boolean pmdKnownBroken = false;
-			try (Connection conn = dataSource.getConnection();) {
-				String dbProductName =
-				    conn.getMetaData().getDatabaseProductName();
-				if (LOGGER.isDebugEnabled()) {
-					LOGGER.debug("Database production name: " + dbProductName);
-				}
-				pmdKnownBroken =
-				    StringUtils.equalsIgnoreCase(dbProductName, "Oracle");
-			} catch (SQLException e) {
-				LOGGER.warn(
-				    "Couldn't get database product name from connection: " + e);
+		int statementCacheSize =
+		    NumberUtils.toInt(statementMap.get("statementCache.size"));
+		if (statementCacheSize > 0) {
+			dataSource = new StatementCachingDataSource(dataSource,
+			    statementCacheSize);
+		}
+
+		boolean pmdKnownBroken = false;
+		try (Connection conn = dataSource.getConnection();) {
+			String dbProductName =
+			    conn.getMetaData().getDatabaseProductName();
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Database production name: " + dbProductName);
 			}
+			pmdKnownBroken =
+			    StringUtils.equalsIgnoreCase(dbProductName, "Oracle");
+			dialect = SqlDialect.forConnection(conn);
+		} catch (SQLException e) {
+			LOGGER.warn(
+			    "Couldn't get database product name from connection: " + e);
+		}
 
-			this.queryRunner = new QueryRunner(dataSource, pmdKnownBroken);
+		this.queryRunner = new DaoQueryRunner(dataSource, pmdKnownBroken,
+		    new ParameterTypes(statementMap, this.type));
 
-			statementMap.remove("type");
-			statementMap.remove("datasource");
+		if (Boolean.parseBoolean(statementMap.get("update.trackChanges"))
+		    && statementMap.containsKey("query.update")) {
+			try {
+				changeTracker = new ChangeTracker(this.type,
+				    statementMap.get("query.update"));
+			} catch (IllegalArgumentException e) {
+				LOGGER.warn("Change tracking disabled: " + e.getMessage());
+			}
+		}
 
-		} catch (ClassNotFoundException | IOException | NamingException e) {
-			String msg = "Constructor Error: " + e;
-			LOGGER.error(msg, e);
-			throw new DaoRuntimeException(msg, e);
+		statementMap.remove("type");
+		statementMap.remove("datasource");
+
+		if (ReferenceCache.isEnabled(statementMap)) {
+			referenceCache =
+			    new ReferenceCache<T>(statementMap, referenceLoader());
+			Matcher matcher = Pattern
+			    .compile("(?i)\\swhere\\s+(?:\\w+\\.)?"
+			        + referenceCache.getKeyColumn()
+			        + "\\s*=\\s*:(\\w+)\\s*$")
+			    .matcher(StringUtils.defaultString(
+			        statementMap.get("query.select")));
+			if (matcher.find()) {
+				referenceKeyParam = matcher.group(1);
+			}
+		}
+
+		if (ChangeLog.isEnabled(statementMap)) {
+			changeLog = new ChangeLog(statementMap, dataSource, this.type);
+			changeLog.addListener(new ChangeListener() {
+				@Override
+				public void changed(Set<String> keys) {
+					reloadReferenceCache();
+				}
+			});
 		}
 
 	}
@@ -147,10 +425,29 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 
 	/**
 	 * {@inheritDoc}
+	 * <p>
+	 * In reference mode (<code>cache=reference</code>) a
+	 * <code>query.select</code> by key is answered from memory with a copy
+	 * of the cached DTO, so the caller may modify and update it like any
+	 * selected DTO.
 	 */
 	@Override
 	public List<T> select(P params) {
 
+		if (referenceKeyParam != null) {
+			Object[] key = params instanceof Object[] ? (Object[]) params
+			    : fetchParamValues(":" + referenceKeyParam, params);
+			if (key.length == 1 && key[0] instanceof Number) {
+				List<T> results = new ArrayList<T>(1);
+				T row = referenceCache.get(((Number) key[0]).intValue());
+				if (row != null) {
+					results.add(copyOf(row));
+				}
+				trackChanges(results);
+				return results;
+			}
+		}
+
 		return selectByStatement("query.select", params);
 
 	}
@@ -172,20 +469,21 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 		BigDecimal id = BigDecimal.ZERO;
 		try {
 
-			@SuppressWarnings("unchecked")
-			Object[] paramArray = fetchParamValues(sql, (P) dto);
+			Object[] paramArray = statementParams(statementId, dto);
 
-			String statement = sql.replaceAll(":(\\w+)", "?");
+			String statement = positionalSql(statementId, sql);
 
 			if (queryRunner.isPmdKnownBroken()) {
-				queryRunner.update(statement, paramArray);
+				executeUpdate(statementId, dto, statement, paramArray);
 			} else {
-				id = queryRunner.insert(statement,
+				id = executeInsert(statementId, dto, statement,
 				    new ScalarHandler<BigDecimal>(), paramArray);
 			}
 
 			LOGGER.info("newkey = " + id);
 
+			reloadReferenceCache();
+
 		} catch (SQLException e) {
 			String msg = "SQLException caught: " + e;
 			LOGGER.error(msg, e);
@@ -197,6 +495,11 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 
 	/**
 	 * {@inheritDoc}
+	 * <p>
+	 * With <code>update.trackChanges=true</code>, a DTO loaded or updated
+	 * through this DAO is written with a compact UPDATE of only the columns
+	 * that changed since, and an unchanged DTO isn't written at all (0 is
+	 * returned).
 	 */
 	@Override
 	public int update(T dto) {
@@ -208,15 +511,37 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 			    "No sql statement found for statement \"%s\"", statementId));
 		}
 
+		BitSet changed =
+		    changeTracker == null ? null : changeTracker.changes(dto);
+		if (changed != null && changed.isEmpty()) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("No changes to update: " + dto);
+			}
+			return 0;
+		}
+
 		int recordCount = 0;
 		try {
 
-			@SuppressWarnings("unchecked")
-			Object[] paramArray = fetchParamValues(sql, (P) dto);
+			Object[] paramArray;
+			String statement;
+			if (changed == null) {
+				paramArray = statementParams(statementId, dto);
+				statement = positionalSql(statementId, sql);
+			} else {
+				paramArray = changeTracker.parameters(dto, changed);
+				statement =
+				    queryRunner.positional(changeTracker.statement(changed));
+			}
+
+			recordCount =
+			    executeUpdate(statementId, dto, statement, paramArray);
 
-			String statement = sql.replaceAll(":(\\w+)", "?");
+			if (changeTracker != null) {
+				changeTracker.track(dto);
+			}
 
-			recordCount = queryRunner.update(statement, paramArray);
+			reloadReferenceCache();
 
 		} catch (SQLException e) {
 			String msg = "SQLException caught: " + e;
@@ -245,12 +570,14 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 		int recordCount = 0;
 		try {
 
-			@SuppressWarnings("unchecked")
-			Object[] paramArray = fetchParamValues(sql, (P) dto);
+			Object[] paramArray = statementParams(statementId, dto);
+
+			String statement = positionalSql(statementId, sql);
 
-			String statement = sql.replaceAll(":(\\w+)", "?");
+			recordCount =
+			    executeUpdate(statementId, dto, statement, paramArray);
 
-			recordCount = queryRunner.update(statement, paramArray);
+			reloadReferenceCache();
 
 		} catch (SQLException e) {
 			String msg = "SQLException caught: " + e;
@@ -272,11 +599,12 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 
 			Object[] paramArray = fetchParamValues(sql, params);
 
-			String query = sql.replaceAll(":(\\w+)", "?");
+			String query = queryRunner.positional(sql);
 
 			BeanListHandler<T> rsh = new BeanListHandler<T>(type,
-			    new BasicRowProcessor(new GenerousBeanProcessor()));
-			results = queryRunner.query(query, rsh, paramArray);
+			    new BasicRowProcessor(new LobBeanProcessor(false)));
+			results = executeQuery(null, query, rsh, paramArray);
+			trackChanges(results);
 
 		} catch (SQLException e) {
 			String msg = "SQLException caught: " + e;
@@ -298,8 +626,9 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 		try {
 
 			BeanListHandler<T> rsh = new BeanListHandler<T>(type,
-			    new BasicRowProcessor(new GenerousBeanProcessor()));
-			results = queryRunner.query(sql, rsh);
+			    new BasicRowProcessor(new LobBeanProcessor(false)));
+			results = executeQuery(null, sql, rsh);
+			trackChanges(results);
 
 		} catch (SQLException e) {
 			String msg = "SQLException caught: " + e;
@@ -320,7 +649,7 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 		try {
 
 			MapListHandler rsh = new MapListHandler();
-			results = queryRunner.query(sql, rsh);
+			results = executeQuery(null, sql, rsh);
 
 		} catch (SQLException e) {
 			String msg = "SQLException caught: " + e;
@@ -332,6 +661,292 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 
 	}
 
+	/**
+	 * Reactive Streams version of {@link #selectByStatement(String, Object)}.
+	 * Rows are read from an open cursor only as fast as the subscriber
+	 * requests them; the connection is held until the stream completes, fails
+	 * or is cancelled.
+	 * 
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @return publisher of the selected DTOs
+	 */
+	public Publisher<T> publishByStatement(String statementId, P params) {
+
+		String sql = statementMap.get(statementId);
+		if (StringUtils.isEmpty(sql)) {
+			throw new IllegalArgumentException(String.format(
+			    "No sql statement found for statement \"%s\"", statementId));
+		}
+
+		return new ResultSetPublisher<T>(queryRunner,
+		    statementContext(statementId), positionalSql(statementId, sql),
+		    paramValues(statementId, sql, params),
+		    beanReader(statementId, true), publisherExecutor());
+	}
+
+	/**
+	 * Reactive Streams version of {@link #select(String, Object)}.
+	 * 
+	 * @param sql
+	 *            SELECT statement with <code>:name</code> parameters
+	 * @param params
+	 *            statement parameters
+	 * @return publisher of the selected DTOs
+	 */
+	public Publisher<T> publish(String sql, P params) {
+
+		return new ResultSetPublisher<T>(queryRunner, statementContext(null),
+		    queryRunner.positional(sql), fetchParamValues(sql, params),
+		    beanReader(null, true), publisherExecutor());
+	}
+
+	/**
+	 * Reactive Streams version of {@link #selectAsMap(String)}.
+	 * 
+	 * @param sql
+	 *            SELECT statement
+	 * @return publisher of the selected rows as maps
+	 */
+	public Publisher<Map<String, Object>> publishAsMap(String sql) {
+
+		final BasicRowProcessor rowProcessor = new BasicRowProcessor();
+		ResultSetPublisher.RowReader<Map<String, Object>> reader =
+		    new ResultSetPublisher.RowReader<Map<String, Object>>() {
+			    @Override
+			    public Map<String, Object> read(ResultSet rs)
+			            throws SQLException {
+				    return rowProcessor.toMap(rs);
+			    }
+		    };
+
+		return new ResultSetPublisher<Map<String, Object>>(queryRunner,
+		    statementContext(null), sql, null, reader, publisherExecutor());
+	}
+
+	/**
+	 * Mutator for publisherExecutor. By default publishers run on a bounded
+	 * pool of daemon threads sized by the <code>publisher.threads</code> and
+	 * <code>publisher.queueSize</code> properties.
+	 * 
+	 * @param publisherExecutor
+	 *            executor running the JDBC work of publishers
+	 */
+	public void setPublisherExecutor(Executor publisherExecutor) {
+		this.publisherExecutor = publisherExecutor;
+	}
+
+	/**
+	 * Return a reader mapping rows of a statement into the DAO's DTO.
+	 * 
+	 * @param statementId
+	 *            statement id or null for SQL passed directly to the DAO
+	 * @param track
+	 *            true to snapshot the DTOs if changes are tracked
+	 * @return DTO row reader
+	 */
+	private ResultSetPublisher.RowReader<T> beanReader(String statementId,
+	    final boolean track) {
+
+		final CompiledQuery<T> compiled = compiledQuery(statementId);
+		final BasicRowProcessor rowProcessor =
+		    new BasicRowProcessor(new LobBeanProcessor(false));
+
+		return new ResultSetPublisher.RowReader<T>() {
+			@Override
+			public T read(ResultSet rs) throws SQLException {
+				T dto = compiled != null ? compiled.read(rs)
+				    : rowProcessor.toBean(rs, type);
+				if (track && changeTracker != null) {
+					changeTracker.track(dto);
+				}
+				return dto;
+			}
+		};
+	}
+
+	/**
+	 * Return the publisher executor, creating it on first use.
+	 * 
+	 * @return executor running the JDBC work of publishers
+	 */
+	private Executor publisherExecutor() {
+
+		Executor executor = publisherExecutor;
+		if (executor == null) {
+			synchronized (this) {
+				executor = publisherExecutor;
+				if (executor == null) {
+					int threads = DEFAULT_PUBLISHER_THREADS;
+					int queueSize = DEFAULT_PUBLISHER_QUEUE_SIZE;
+					if (statementMap != null) {
+						threads = NumberUtils.toInt(
+						    statementMap.get("publisher.threads"), threads);
+						queueSize = NumberUtils.toInt(
+						    statementMap.get("publisher.queueSize"), queueSize);
+					}
+					executor =
+					    daemonPool("dao-publisher-", threads, queueSize);
+					publisherExecutor = executor;
+				}
+			}
+		}
+
+		return executor;
+	}
+
+	/**
+	 * Return the executor capturing sampled execution plans, creating it on
+	 * first use.
+	 * 
+	 * @return single-threaded executor with a short queue
+	 */
+	private Executor explainExecutor() {
+
+		Executor executor = explainExecutor;
+		if (executor == null) {
+			synchronized (this) {
+				executor = explainExecutor;
+				if (executor == null) {
+					executor = daemonPool("dao-explain-", 1,
+					    EXPLAIN_QUEUE_SIZE);
+					explainExecutor = executor;
+				}
+			}
+		}
+
+		return executor;
+	}
+
+	/**
+	 * Create a bounded pool of daemon threads that exit when idle.
+	 * 
+	 * @param namePrefix
+	 *            thread name prefix
+	 * @param threads
+	 *            number of threads
+	 * @param queueSize
+	 *            number of tasks that may wait for a thread
+	 * @return the pool
+	 */
+	static ThreadPoolExecutor daemonPool(final String namePrefix,
+	    int threads, int queueSize) {
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L,
+		    TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+		    new ThreadFactory() {
+			    private final AtomicInteger count = new AtomicInteger();
+
+			    @Override
+			    public Thread newThread(Runnable r) {
+				    Thread thread =
+				        new Thread(r, namePrefix + count.incrementAndGet());
+				    thread.setDaemon(true);
+				    return thread;
+			    }
+		    });
+		pool.allowCoreThreadTimeOut(true);
+
+		return pool;
+	}
+
+	/**
+	 * Capture the execution plan of a query statement and keep it with the
+	 * statement's metrics. The query is run with the given parameters on a
+	 * connection of its own. On Derby, runtime statistics are switched on for
+	 * the run and read back with <code>SYSCS_GET_RUNTIMESTATISTICS</code>; on
+	 * H2 and PostgreSQL <code>EXPLAIN ANALYZE</code> is used and on MySQL
+	 * <code>EXPLAIN</code>. Other databases only report the rows returned.
+	 * <p>
+	 * Plans of every n-th execution are also captured automatically, in the
+	 * background, for statements with an <code>explainEvery</code> setting.
+	 * 
+	 * @param statementId
+	 *            id of a SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @return the captured plan
+	 */
+	public ExecutionPlan explain(String statementId, P params) {
+
+		String sql = requiredStatement(statementId);
+		if (!QUERY.matcher(sql).lookingAt()) {
+			throw new IllegalArgumentException(String.format(
+			    "Statement \"%s\" is not a query", statementId));
+		}
+
+		try {
+			return capturePlan(statementId, positionalSql(statementId, sql),
+			    paramValues(statementId, sql, params));
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+	}
+
+	/**
+	 * Capture the execution plan of a query and keep it with the statement's
+	 * metrics.
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @param query
+	 *            positional SQL
+	 * @param params
+	 *            statement parameters
+	 * @return the captured plan
+	 * @throws SQLException
+	 *             thrown if the plan can't be captured
+	 */
+	private ExecutionPlan capturePlan(String statementId, String query,
+	    Object[] params) throws SQLException {
+
+		try (Connection conn = dataSource.getConnection();) {
+			ExecutionPlan plan = PlanDialect.forConnection(conn)
+			    .explain(conn, queryRunner, statementId, query, params);
+			statementContext(statementId).getMetrics().setLastPlan(plan);
+			if (plan.hasTableScan()) {
+				LOGGER.warn("Table scan in plan of " + plan);
+			} else if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Captured plan of " + plan);
+			}
+			return plan;
+		}
+	}
+
+	/**
+	 * Capture a query's plan in the background; the capture is skipped if the
+	 * executor is busy.
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @param query
+	 *            positional SQL
+	 * @param params
+	 *            statement parameters
+	 */
+	private void capturePlanLater(final String statementId,
+	    final String query, final Object[] params) {
+		try {
+			explainExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						capturePlan(statementId, query, params);
+					} catch (SQLException | RuntimeException e) {
+						LOGGER.warn("Couldn't capture plan of " + statementId
+						    + ": " + e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			LOGGER.debug("Plan capture skipped for " + statementId);
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -361,12 +976,37 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 
 	/**
 	 * {@inheritDoc}
+	 * <p>
+	 * The DAO's queries run on the new data source from then on.
 	 */
 	@Override
 	public void setDataSource(DataSource dataSource) {
 
 		this.dataSource = dataSource;
+		this.queryRunner = new DaoQueryRunner(dataSource,
+		    queryRunner != null && queryRunner.isPmdKnownBroken(),
+		    new ParameterTypes(statementMap == null
+		        ? Collections.<String, String> emptyMap() : statementMap,
+		        type));
+		this.dialect = null;
+
+	}
+
+	/**
+	 * Return the prepared statement cache counters, keyed by SQL, when the
+	 * DAO was configured with a <code>statementCache.size</code>.
+	 * 
+	 * @return statement cache counters or an empty map if statements aren't
+	 *         cached
+	 */
+	public Map<String, StatementCacheStats> getStatementCacheStats() {
+
+		if (dataSource instanceof StatementCachingDataSource) {
+			return ((StatementCachingDataSource) dataSource)
+			    .getStatementCacheStats();
+		}
 
+		return Collections.emptyMap();
 	}
 
 	/**
@@ -401,13 +1041,12 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 		List<T> results = null;
 		try {
 
-			Object[] paramArray = fetchParamValues(sql, params);
+			Object[] paramArray = paramValues(statementId, sql, params);
 
-			String query = sql.replaceAll(":(\\w+)", "?");
+			String query = positionalSql(statementId, sql);
 
-			BeanListHandler<T> rsh = new BeanListHandler<T>(type,
-			    new BasicRowProcessor(new GenerousBeanProcessor()));
-			results = queryRunner.query(query, rsh, paramArray);
+			results = selectRows(statementId, query, paramArray);
+			trackChanges(results);
 
 		} catch (SQLException e) {
 			String msg = "SQLException caught: " + e;
@@ -435,9 +1074,8 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 		List<T> results = null;
 		try {
 
-			BeanListHandler<T> rsh = new BeanListHandler<T>(type,
-			    new BasicRowProcessor(new GenerousBeanProcessor()));
-			results = queryRunner.query(sql, rsh);
+			results = selectRows(statementId, sql);
+			trackChanges(results);
 
 		} catch (SQLException e) {
 			String msg = "SQLException caught: " + e;
@@ -448,6 +1086,1537 @@ public class DbUtilsJdbcDao<T, P> implements JdbcDao<T, P> {
 		return results;
 	}
 
+	/**
+	 * Select rows with a statement into a list that keeps at most a memory
+	 * budget of rows on the heap and spills the rest to a memory-mapped
+	 * temporary file, for the occasional result too large for the heap that
+	 * callers still need as a re-iterable list. The budget and the file's
+	 * directory can be given per statement or for the whole DAO:
+	 * 
+	 * <pre>
+	 * buffer.memory=16777216
+	 * query.selectReport.buffer.memory=67108864
+	 * buffer.directory=/var/tmp
+	 * </pre>
+	 * 
+	 * The budget is in estimated heap bytes of the DTOs (default 16 MiB); the
+	 * directory defaults to <code>java.io.tmpdir</code>. Spilled rows are
+	 * decoded into new DTOs each time they are read and aren't tracked for
+	 * <code>update.trackChanges</code>. The caller must close the list to
+	 * delete the file.
+	 * 
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @return selected DTOs
+	 */
+	public SpillingList<T> selectBuffered(String statementId, P params) {
+
+		String sql = statementMap.get(statementId);
+		if (StringUtils.isEmpty(sql)) {
+			throw new IllegalArgumentException(String.format(
+			    "No sql statement found for statement \"%s\"", statementId));
+		}
+
+		long memory = StatementSettings.setting(statementMap, statementId,
+		    "buffer.memory");
+		String directory = statementMap.get(statementId + ".buffer.directory");
+		if (directory == null) {
+			directory = statementMap.get("buffer.directory");
+		}
+
+		RowCodec<T> codec = rowCodec;
+		if (codec == null) {
+			codec = new RowCodec<T>(type);
+			rowCodec = codec;
+		}
+
+		SpillingList<T> results = null;
+		try {
+
+			Object[] paramArray = paramValues(statementId, sql, params);
+
+			String query = positionalSql(statementId, sql);
+
+			results = executeQuery(statementId, query,
+			    SpillingList.handler(beanReader(statementId, false), codec,
+			        memory > 0 ? memory : DEFAULT_BUFFER_MEMORY,
+			        Paths.get(StringUtils.defaultIfBlank(directory,
+			            System.getProperty("java.io.tmpdir")).trim())),
+			    paramArray);
+
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Run a SELECT statement and pass each row to a callback while the
+	 * row's cursor is open, for rows with large objects. DTO properties of
+	 * type <code>InputStream</code>, <code>Reader</code> or
+	 * <code>ReadableByteChannel</code> mapped from BLOB and CLOB columns are
+	 * streams over the LOB locators, opened on their first read, so a
+	 * document is never materialized on the heap; {@link Lobs} copies them in
+	 * chunks. The query runs in its own transaction, and the streams are
+	 * valid until it ends, when this method returns.
+	 * 
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @param callback
+	 *            processes each row
+	 * @return number of rows processed
+	 */
+	public int streamByStatement(String statementId, P params,
+	    RowCallback<T> callback) {
+
+		String sql = statementMap.get(statementId);
+		if (StringUtils.isEmpty(sql)) {
+			throw new IllegalArgumentException(String.format(
+			    "No sql statement found for statement \"%s\"", statementId));
+		}
+
+		Object[] paramArray = paramValues(statementId, sql, params);
+		String query = positionalSql(statementId, sql);
+		BasicRowProcessor rowProcessor =
+		    new BasicRowProcessor(new LobBeanProcessor(true));
+
+		StatementContext context = statementContext(statementId);
+		context.acquire();
+
+		long start = System.nanoTime();
+		boolean failed = true;
+		int rows = 0;
+		Connection conn = null;
+		try {
+			conn = dataSource.getConnection();
+			conn.setAutoCommit(false);
+			try (PreparedStatement stmt = queryRunner
+			    .prepareStatement(context.getSettings(), conn, query)) {
+				queryRunner.fillStatement(stmt, paramArray);
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						callback.process(rowProcessor.toBean(rs, type));
+						rows++;
+					}
+				}
+			}
+			conn.commit();
+			failed = false;
+
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		} catch (IOException e) {
+			String msg = "IOException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		} finally {
+			if (conn != null) {
+				endTransaction(conn, !failed);
+			}
+			context.release(System.nanoTime() - start, failed, paramArray);
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Return the connection of a transaction, rolling it back if it wasn't
+	 * committed.
+	 * 
+	 * @param conn
+	 *            the transaction's connection
+	 * @param committed
+	 *            true if the transaction was committed
+	 */
+	private static void endTransaction(Connection conn, boolean committed) {
+		try {
+			if (!committed) {
+				conn.rollback();
+			}
+			conn.setAutoCommit(true);
+		} catch (SQLException e) {
+			LOGGER.warn("Couldn't reset connection: " + e);
+		} finally {
+			DbUtils.closeQuietly(conn);
+		}
+	}
+
+	/**
+	 * Run an UPDATE or DELETE statement in key-ordered chunks, each in its
+	 * own transaction (see
+	 * {@link #executeChunked(String, Object, int, Object, ChunkListener)}).
+	 * 
+	 * @param statementId
+	 *            id of the UPDATE or DELETE statement
+	 * @param params
+	 *            statement parameters
+	 * @param chunkSize
+	 *            most keys written per chunk
+	 * @return number of rows affected
+	 */
+	public long executeChunked(String statementId, P params, int chunkSize) {
+		return executeChunked(statementId, params, chunkSize, null, null);
+	}
+
+	/**
+	 * Run an UPDATE or DELETE statement in key-ordered chunks, each in its
+	 * own short transaction, so that a large purge or backfill doesn't hold
+	 * locks on the whole range or grow the transaction log while live
+	 * traffic runs. Each chunk selects the next <code>chunkSize</code> keys
+	 * matching the statement's WHERE clause, then runs the statement limited
+	 * to the range up to the last of them and commits:
+	 * 
+	 * <pre>
+	 * delete from TEST.PARTY where (ID &gt; ?) and ID &gt; ? and ID &lt;= ?
+	 * </pre>
+	 * 
+	 * The statement's properties may set:
+	 * <ul>
+	 * <li><code>chunk.key</code> - indexed, ordered key column the chunks
+	 * are ranges of (default <code>ID</code>); rows with a null key are not
+	 * written
+	 * <li><code>chunk.pause</code> - milliseconds to wait between chunks,
+	 * throttling the statement
+	 * </ul>
+	 * If a chunk fails, the chunks before it stay committed and the run can
+	 * be resumed after the last key the listener was told about. An
+	 * interrupt stops the run between chunks.
+	 * 
+	 * @param statementId
+	 *            id of the UPDATE or DELETE statement
+	 * @param params
+	 *            statement parameters
+	 * @param chunkSize
+	 *            most keys written per chunk
+	 * @param resumeAfter
+	 *            key to continue after, or null to start at the lowest key
+	 * @param listener
+	 *            told about each committed chunk, or null
+	 * @return number of rows affected
+	 */
+	public long executeChunked(String statementId, P params, int chunkSize,
+	    Object resumeAfter, ChunkListener listener) {
+
+		String sql = requiredStatement(statementId);
+		Matcher dml = CHUNKED_DML.matcher(sql);
+		if (!dml.find()) {
+			throw new IllegalArgumentException(String.format(
+			    "Statement \"%s\" is not an UPDATE or DELETE", statementId));
+		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException(
+			    "Chunk size must be positive: " + chunkSize);
+		}
+
+		String key = statementMap.get(statementId + ".chunk.key");
+		if (key == null) {
+			key = statementMap.get("chunk.key");
+		}
+		key = StringUtils.defaultIfBlank(key, "ID").trim();
+		long pause =
+		    StatementSettings.setting(statementMap, statementId, "chunk.pause");
+
+		String body = SqlStatements.stripWhere(sql);
+		String condition = StringUtils.removeStartIgnoreCase(
+		    SqlStatements.whereClause(sql), "where").trim();
+		String filter = condition.isEmpty() ? "" : "(" + condition + ") and ";
+		String keyQuery = String.format("select %s from %s where %s%s",
+		    key, dml.group(1), filter, key);
+		String statement = String.format("%s where %s", body, filter);
+
+		Object[] values = paramValues(statementId, sql, params);
+		int setCount = 0;
+		for (Matcher named = NAMED_PARAM.matcher(body); named.find();) {
+			setCount++;
+		}
+		List<Object> setValues =
+		    Arrays.asList(values).subList(0, setCount);
+		List<Object> whereValues =
+		    Arrays.asList(values).subList(setCount, values.length);
+
+		StatementContext context = statementContext(statementId);
+		Object after = resumeAfter;
+		long total = 0;
+		try {
+			while (true) {
+				List<Object> keyValues = new ArrayList<Object>(whereValues);
+				List<Object> dmlValues = new ArrayList<Object>(values.length);
+				dmlValues.addAll(setValues);
+				dmlValues.addAll(whereValues);
+				if (after != null) {
+					keyValues.add(after);
+					dmlValues.add(after);
+				}
+
+				context.acquire();
+				long start = System.nanoTime();
+				boolean committed = false;
+				Object last = null;
+				int keys = 0;
+				int rows = 0;
+				Connection conn = null;
+				try {
+					conn = dataSource.getConnection();
+					conn.setAutoCommit(false);
+					try (PreparedStatement stmt = queryRunner.prepareStatement(
+					    context.getSettings(), conn,
+					    queryRunner.positional(keyQuery
+					        + (after == null ? " is not null"
+					            : " > :chunkAfter")
+					        + " order by " + key))) {
+						stmt.setMaxRows(chunkSize);
+						queryRunner.fillStatement(stmt, keyValues.toArray());
+						try (ResultSet rs = stmt.executeQuery()) {
+							while (rs.next()) {
+								last = rs.getObject(1);
+								keys++;
+							}
+						}
+					}
+					if (keys > 0) {
+						dmlValues.add(last);
+						rows = queryRunner.update(context.getSettings(), conn,
+						    queryRunner.positional(statement
+						        + (after == null ? ""
+						            : key + " > :chunkAfter and ")
+						        + key + " <= :chunkLast"),
+						    dmlValues.toArray());
+						if (changeLog != null && rows > 0) {
+							changeLog.record(conn, null);
+						}
+					}
+					conn.commit();
+					committed = true;
+				} finally {
+					if (conn != null) {
+						endTransaction(conn, committed);
+					}
+					context.release(System.nanoTime() - start, !committed,
+					    dmlValues.toArray());
+				}
+
+				if (keys == 0) {
+					break;
+				}
+				total += rows;
+				after = last;
+				if (listener != null) {
+					listener.chunkCompleted(last, rows, total);
+				}
+				if (keys < chunkSize) {
+					break;
+				}
+				if (pause > 0) {
+					Thread.sleep(pause);
+				}
+			}
+
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.warn(String.format(
+			    "Chunked statement \"%s\" interrupted after key %s",
+			    statementId, after));
+		} finally {
+			if (total > 0) {
+				reloadReferenceCache();
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * Select rows with a statement into a lightweight projection instead of
+	 * the DAO's DTO. The projection may be:
+	 * <ul>
+	 * <li>an interface of getters, answered by a proxy over the row's values;
+	 * <li>a record; or
+	 * <li>a class with a constructor annotated with
+	 * {@link java.beans.ConstructorProperties}, with {@link ProjectionColumn}
+	 * parameters, or compiled with <code>-parameters</code>.
+	 * </ul>
+	 * Properties map to columns by the <code>partyId</code> &rarr;
+	 * <code>PARTY_ID</code> convention unless annotated with
+	 * {@link ProjectionColumn}. The statement's SELECT list is trimmed to the
+	 * projection's columns where that can be done safely, so only the columns
+	 * needed are fetched.
+	 * 
+	 * @param <R>
+	 *            projection type
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @param projectionType
+	 *            projection type
+	 * @return selected projections
+	 */
+	public <R> List<R> selectProjection(String statementId, P params,
+	    Class<R> projectionType) {
+
+		String sql = statementMap.get(statementId);
+		if (StringUtils.isEmpty(sql)) {
+			throw new IllegalArgumentException(String.format(
+			    "No sql statement found for statement \"%s\"", statementId));
+		}
+
+		ProjectionMapper<R> mapper = ProjectionMapper.forType(projectionType);
+
+		String key = statementId + '\n' + projectionType.getName();
+		String projectionSql = derivedStatements.get(key);
+		if (projectionSql == null) {
+			projectionSql = queryRunner.positional(
+			    SqlStatements.trimSelectList(sql, mapper.getColumns()));
+			derivedStatements.putIfAbsent(key, projectionSql);
+		}
+
+		List<R> results = null;
+		try {
+
+			Object[] paramArray = fetchParamValues(sql, params);
+			results = executeQuery(statementId, projectionSql,
+			    mapper.listHandler(), paramArray);
+
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Select the first column of a statement's first row as an
+	 * <code>int</code>, without boxing.
+	 * 
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @return the value, 0 if there is no row or the value is NULL
+	 */
+	public int selectInt(String statementId, P params) {
+		return queryStatement(statementId, params,
+		    new PrimitiveHandlers.IntValue()).get();
+	}
+
+	/**
+	 * Select the first column of a statement's first row as a
+	 * <code>long</code>, without boxing.
+	 * 
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @return the value, 0 if there is no row or the value is NULL
+	 */
+	public long selectLong(String statementId, P params) {
+		return queryStatement(statementId, params,
+		    new PrimitiveHandlers.LongValue()).get();
+	}
+
+	/**
+	 * Select the first column of every row of a statement into an
+	 * <code>int</code> array, without boxing or an intermediate list.
+	 * 
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @return the values in row order; NULLs are read as 0
+	 */
+	public int[] selectIntArray(String statementId, P params) {
+		return queryStatement(statementId, params,
+		    new PrimitiveHandlers.IntArray());
+	}
+
+	/**
+	 * Select the first column of every row of a statement into a
+	 * <code>long</code> array, without boxing or an intermediate list.
+	 * 
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @return the values in row order; NULLs are read as 0
+	 */
+	public long[] selectLongArray(String statementId, P params) {
+		return queryStatement(statementId, params,
+		    new PrimitiveHandlers.LongArray());
+	}
+
+	/**
+	 * Count the rows a query statement would return, without fetching them:
+	 * the statement is wrapped in <code>select count(*) from (...)</code>.
+	 * The count runs under the statement's settings and metrics.
+	 * 
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @return number of rows
+	 */
+	public long count(String statementId, P params) {
+
+		String sql = requiredStatement(statementId);
+		String key = statementId + "\ncount";
+		String countSql = derivedStatements.get(key);
+		if (countSql == null) {
+			countSql = "select count(*) from ("
+			    + SqlStatements.stripOrderBy(positionalSql(statementId, sql))
+			    + ") q";
+			queryRunner.declare(countSql, sql);
+			derivedStatements.putIfAbsent(key, countSql);
+		}
+
+		return queryUnchecked(statementId, countSql,
+		    new PrimitiveHandlers.LongValue(),
+		    paramValues(statementId, sql, params)).get();
+	}
+
+	/**
+	 * Return whether a query statement returns any row. The statement is
+	 * limited to one row with the database's row-limiting syntax
+	 * (<code>FETCH FIRST 1 ROWS ONLY</code>, <code>LIMIT 1</code> on MySQL or
+	 * a <code>ROWNUM</code> filter on Oracle before 12c), or with
+	 * <code>setMaxRows(1)</code> on other databases, so the database can stop
+	 * at the first match.
+	 * 
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @return true if the statement returns a row
+	 */
+	public boolean exists(String statementId, P params) {
+
+		String sql = requiredStatement(statementId);
+		String key = statementId + "\nexists";
+		SqlDialect sqlDialect = dialect();
+		String existsSql = derivedStatements.get(key);
+		if (existsSql == null) {
+			existsSql = sqlDialect.limitToFirstRow(
+			    SqlStatements.stripOrderBy(positionalSql(statementId, sql)));
+			queryRunner.declare(existsSql, sql);
+			derivedStatements.putIfAbsent(key, existsSql);
+		}
+
+		try {
+			return executeQuery(statementId, existsSql,
+			    new PrimitiveHandlers.Exists(),
+			    sqlDialect == SqlDialect.GENERIC ? 1 : 0,
+			    paramValues(statementId, sql, params)).booleanValue();
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+	}
+
+	/**
+	 * Run a query statement with a result set handler.
+	 * 
+	 * @param <R>
+	 *            the handler's result type
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @param rsh
+	 *            result set handler
+	 * @return the handler's result
+	 */
+	private <R> R queryStatement(String statementId, P params,
+	    ResultSetHandler<R> rsh) {
+		String sql = requiredStatement(statementId);
+		return queryUnchecked(statementId, positionalSql(statementId, sql),
+		    rsh, paramValues(statementId, sql, params));
+	}
+
+	/**
+	 * Run a query under its statement's settings and concurrency limit,
+	 * wrapping a failure in a {@link DaoRuntimeException}.
+	 * 
+	 * @param <R>
+	 *            the handler's result type
+	 * @param statementId
+	 *            statement id
+	 * @param query
+	 *            positional SQL
+	 * @param rsh
+	 *            result set handler
+	 * @param params
+	 *            statement parameters
+	 * @return the handler's result
+	 */
+	private <R> R queryUnchecked(String statementId, String query,
+	    ResultSetHandler<R> rsh, Object[] params) {
+		try {
+			return executeQuery(statementId, query, rsh, params);
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+	}
+
+	/**
+	 * Return the dialect of the data source's database.
+	 * 
+	 * @return the dialect
+	 */
+	private SqlDialect dialect() {
+
+		SqlDialect current = dialect;
+		if (current == null) {
+			try (Connection conn = dataSource.getConnection();) {
+				current = SqlDialect.forConnection(conn);
+			} catch (SQLException e) {
+				String msg = "SQLException caught: " + e;
+				LOGGER.error(msg, e);
+				throw new DaoRuntimeException(msg, e);
+			}
+			dialect = current;
+		}
+
+		return current;
+	}
+
+	/**
+	 * Select DTOs with a statement and load all their associations declared
+	 * with <code>association.*</code> properties. Each association is loaded
+	 * with one IN-list query over the distinct foreign keys of the result.
+	 * 
+	 * @param statementId
+	 *            id of the SELECT statement
+	 * @param params
+	 *            statement parameters
+	 * @return selected DTOs with their associated DTOs set
+	 */
+	public List<T> selectWithAssociations(String statementId, P params) {
+
+		List<T> results = selectByStatement(statementId, params);
+		loadAssociations(results);
+
+		return results;
+	}
+
+	/**
+	 * Load associated DTOs into already selected DTOs. Each association is
+	 * loaded with one IN-list query over the distinct foreign keys of the
+	 * given DTOs (split into several queries only for very large lists).
+	 * 
+	 * @param dtos
+	 *            DTOs to load associations for
+	 * @param names
+	 *            names of the associations to load; all declared associations
+	 *            if none are given
+	 */
+	public void loadAssociations(List<T> dtos, String... names) {
+
+		Map<String, Association> associations =
+		    new LinkedHashMap<String, Association>();
+		for (Map.Entry<String, String> entry : statementMap.entrySet()) {
+			if (entry.getKey().startsWith(Association.PREFIX)) {
+				String name = StringUtils.removeStart(entry.getKey(),
+				    Association.PREFIX);
+				associations.put(name,
+				    new Association(name, entry.getValue()));
+			}
+		}
+
+		if (names.length > 0) {
+			associations.keySet().retainAll(Arrays.asList(names));
+			if (associations.size() < names.length) {
+				throw new IllegalArgumentException(String.format(
+				    "Unknown association in %s",
+				    Arrays.toString(names)));
+			}
+		}
+
+		for (Association association : associations.values()) {
+			loadAssociation(dtos, association);
+		}
+	}
+
+	/**
+	 * Load one association into the given DTOs.
+	 * 
+	 * @param dtos
+	 *            DTOs to load the association for
+	 * @param association
+	 *            the association
+	 */
+	private void loadAssociation(List<T> dtos, Association association) {
+
+		PropertyUtilsBean propertyUtilsBean = new PropertyUtilsBean();
+
+		try {
+			Map<Object, List<T>> parentsByKey =
+			    new LinkedHashMap<Object, List<T>>();
+			List<Object> keys = new ArrayList<Object>();
+			for (T dto : dtos) {
+				Object key = propertyUtilsBean.getProperty(dto,
+				    association.getForeignKeyProperty());
+				if (key == null) {
+					continue;
+				}
+				List<T> parents = parentsByKey.get(normalizeKey(key));
+				if (parents == null) {
+					parents = new ArrayList<T>();
+					parentsByKey.put(normalizeKey(key), parents);
+					keys.add(key);
+				}
+				parents.add(dto);
+			}
+
+			if (keys.isEmpty()) {
+				return;
+			}
+
+			DbUtilsJdbcDao<Object, Object> targetDao =
+			    associationDao(association);
+			String selectSql = targetDao.getStatementMap().get("query.select");
+			if (StringUtils.isEmpty(selectSql)) {
+				throw new IllegalArgumentException(String.format(
+				    "No query.select statement in %s for association \"%s\"",
+				    association.getTargetPropsFile(), association.getName()));
+			}
+			String baseSql = SqlStatements.stripWhere(selectSql);
+			String keyParameter = ":" + association.getTargetKeyProperty();
+
+			for (int from = 0; from < keys.size(); from += MAX_IN_LIST) {
+				List<Object> chunk = keys.subList(from,
+				    Math.min(from + MAX_IN_LIST, keys.size()));
+				String sql = targetDao.queryRunner.positional(String.format(
+				    "%s where %s in (%s)", baseSql,
+				    association.getTargetKeyColumn(),
+				    StringUtils.repeat(keyParameter, ", ", chunk.size())));
+
+				List<Object> children = targetDao.executeQuery(
+				    Association.PREFIX + association.getName(), sql,
+				    new BeanListHandler<Object>(targetDao.getType(),
+				        new BasicRowProcessor(new LobBeanProcessor(false))),
+				    chunk.toArray());
+
+				for (Object child : children) {
+					Object key = propertyUtilsBean.getProperty(child,
+					    association.getTargetKeyProperty());
+					List<T> parents = parentsByKey.get(normalizeKey(key));
+					if (parents == null) {
+						continue;
+					}
+					for (T parent : parents) {
+						propertyUtilsBean.setProperty(parent,
+						    association.getName(), child);
+					}
+				}
+			}
+
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		} catch (IllegalAccessException | InvocationTargetException
+		        | NoSuchMethodException e) {
+			String msg = "Error with PropertyUtilsBean: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+	}
+
+	/**
+	 * Return the DAO of an association's table, creating it on first use.
+	 * 
+	 * @param association
+	 *            the association
+	 * @return DAO of the associated table
+	 */
+	private DbUtilsJdbcDao<Object, Object> associationDao(
+	    Association association) {
+
+		DbUtilsJdbcDao<Object, Object> dao =
+		    associationDaos.get(association.getName());
+		if (dao == null) {
+			DbUtilsJdbcDao<Object, Object> created =
+			    new DbUtilsJdbcDao<Object, Object>(
+			        association.getTargetPropsFile());
+			dao = associationDaos.putIfAbsent(association.getName(), created);
+			if (dao == null) {
+				dao = created;
+			}
+		}
+
+		return dao;
+	}
+
+	/**
+	 * Normalize a key value so that keys of different numeric types (for
+	 * example an <code>Integer</code> foreign key and a <code>Long</code>
+	 * primary key) compare equal.
+	 * 
+	 * @param key
+	 *            key value
+	 * @return normalized key
+	 */
+	private static Object normalizeKey(Object key) {
+		if (key instanceof Number) {
+			return new BigDecimal(key.toString()).stripTrailingZeros();
+		}
+		return key;
+	}
+
+	/**
+	 * Return a copy of a cached DTO.
+	 * 
+	 * @param row
+	 *            the cached DTO
+	 * @return a shallow copy of the DTO
+	 */
+	@SuppressWarnings("unchecked")
+	private T copyOf(T row) {
+		try {
+			return (T) BeanUtilsBean.getInstance().cloneBean(row);
+		} catch (ReflectiveOperationException e) {
+			String msg = "Error with BeanUtilsBean: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+	}
+
+	/**
+	 * Look a row of a reference table up by key, in memory. Requires
+	 * <code>cache=reference</code> (see {@link ReferenceCache}); the returned
+	 * DTO is shared and must not be modified.
+	 * 
+	 * @param key
+	 *            value of the <code>cache.key</code> column
+	 * @return the row or null if there is none
+	 */
+	public T lookup(int key) {
+		return requiredReferenceCache().get(key);
+	}
+
+	/**
+	 * Look a row of a reference table up by the value of a column listed in
+	 * <code>cache.indexes</code>, in memory. The returned DTO is shared and
+	 * must not be modified.
+	 * 
+	 * @param column
+	 *            index column
+	 * @param value
+	 *            column value
+	 * @return the row or null if there is none
+	 */
+	public T lookup(String column, Object value) {
+		return requiredReferenceCache().get(column, value);
+	}
+
+	/**
+	 * Return every row of a reference table, in memory.
+	 * 
+	 * @return unmodifiable list of shared DTOs
+	 */
+	public List<T> lookupAll() {
+		return requiredReferenceCache().getAll();
+	}
+
+	/**
+	 * Reload a reference table, for example after it was changed by another
+	 * application. Writes through this DAO reload it automatically.
+	 */
+	public void refreshReferenceCache() {
+		requiredReferenceCache().refresh();
+	}
+
+	/**
+	 * Return the reference cache.
+	 * 
+	 * @return the reference cache
+	 * @throws IllegalStateException
+	 *             thrown if the DAO isn't in reference mode
+	 */
+	private ReferenceCache<T> requiredReferenceCache() {
+		if (referenceCache == null) {
+			throw new IllegalStateException(
+			    "DAO is not configured with cache=reference");
+		}
+		return referenceCache;
+	}
+
+	/**
+	 * Reload the reference cache, if there is one, after a write.
+	 */
+	void reloadReferenceCache() {
+		if (referenceCache != null) {
+			referenceCache.refresh();
+		}
+	}
+
+	/**
+	 * Return the loader of the reference cache: the statement named by
+	 * <code>cache.statement</code> or <code>query.select</code> without its
+	 * WHERE clause.
+	 * 
+	 * @return reference table loader
+	 */
+	private ReferenceCache.Loader<T> referenceLoader() {
+
+		final String statementId =
+		    StringUtils.defaultIfBlank(statementMap.get("cache.statement"),
+		        "cache.reference");
+		final String sql = statementMap.containsKey("cache.statement")
+		    ? requiredStatement(statementId)
+		    : SqlStatements.stripWhere(requiredStatement("query.select"));
+
+		return new ReferenceCache.Loader<T>() {
+			@Override
+			public List<T> load() throws SQLException {
+				return executeQuery(statementId, sql,
+				    listHandler(statementId));
+			}
+		};
+	}
+
+	/**
+	 * Return the DAO's write-behind writer, creating it on first use. The
+	 * writer queues inserts and updates and writes them in batches in the
+	 * background; it is configured with the
+	 * <code>writeBehind.queueSize</code>, <code>writeBehind.batchSize</code>,
+	 * <code>writeBehind.flushInterval</code> and
+	 * <code>writeBehind.offerTimeout</code> properties.
+	 * 
+	 * @return the write-behind writer
+	 */
+	public synchronized WriteBehindWriter<T> writeBehind() {
+		if (writeBehindWriter == null) {
+			Map<String, String> properties = statementMap == null
+			    ? Collections.<String, String> emptyMap() : statementMap;
+			writeBehindWriter = new WriteBehindWriter<T>(this, properties);
+		}
+		return writeBehindWriter;
+	}
+
+	/**
+	 * Stop the DAO's background work: cancel the periodic reloads of its
+	 * reference cache (<code>cache.refreshInterval</code>) and polls of its
+	 * change log (<code>changeLog.pollInterval</code>), and flush and close
+	 * its write-behind writer. Until it is closed, a DAO with periodic work
+	 * stays reachable from the shared scheduler and is never collected. The
+	 * DAO's statements can still be run afterwards.
+	 * 
+	 * @throws WriteBehindException
+	 *             thrown if write-behind batches failed since the last flush
+	 */
+	@Override
+	public synchronized void close() {
+		if (referenceCache != null) {
+			referenceCache.close();
+		}
+		if (changeLog != null) {
+			changeLog.close();
+		}
+		if (writeBehindWriter != null) {
+			writeBehindWriter.close();
+		}
+	}
+
+	/**
+	 * Return an empty pipeline of writes executed together on one connection
+	 * in one transaction, with consecutive steps of the same statement sent
+	 * as one JDBC batch. Steps may use any DAO of the same database; they run
+	 * on a connection from this DAO's data source.
+	 * 
+	 * @return a new pipeline
+	 */
+	public StatementPipeline pipeline() {
+		return new StatementPipeline(dataSource);
+	}
+
+	/**
+	 * Tell whether a statement is a query.
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @return true if the statement starts with SELECT, WITH or VALUES
+	 */
+	boolean isQuery(String statementId) {
+		return QUERY.matcher(requiredStatement(statementId)).lookingAt();
+	}
+
+	/**
+	 * Return the values of a statement's parameters for a DTO.
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @param dto
+	 *            the DTO
+	 * @return parameter values in statement order
+	 */
+	@SuppressWarnings("unchecked")
+	Object[] statementParams(String statementId, T dto) {
+		return paramValues(statementId, requiredStatement(statementId),
+		    (P) dto);
+	}
+
+	/**
+	 * Return the key of the row a DTO updates: the values of the parameters
+	 * in the WHERE clause of <code>query.update</code>.
+	 * 
+	 * @param dto
+	 *            the DTO
+	 * @return row key
+	 */
+	@SuppressWarnings("unchecked")
+	List<Object> updateKey(T dto) {
+
+		String where =
+		    SqlStatements.whereClause(requiredStatement("query.update"));
+		if (where.isEmpty()) {
+			throw new IllegalArgumentException(
+			    "query.update has no WHERE clause identifying the row");
+		}
+
+		List<Object> key = new ArrayList<Object>();
+		for (Object value : fetchParamValues(where, (P) dto)) {
+			key.add(normalizeKey(value));
+		}
+		return key;
+	}
+
+	/**
+	 * Run a statement as a JDBC batch on the caller's connection, under the
+	 * statement's settings and concurrency limit.
+	 * 
+	 * @param conn
+	 *            connection to run the batch on
+	 * @param statementId
+	 *            statement id
+	 * @param params
+	 *            statement parameters, one array per batch entry
+	 * @return number of rows affected by each entry
+	 * @throws SQLException
+	 *             thrown if the batch fails
+	 */
+	int[] executeBatch(Connection conn, String statementId,
+	    List<Object[]> params) throws SQLException {
+
+		String statement =
+		    positionalSql(statementId, requiredStatement(statementId));
+
+		StatementContext context = statementContext(statementId);
+		context.acquire();
+
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			int[] counts = queryRunner.batch(context.getSettings(), conn,
+			    statement, params.toArray(new Object[params.size()][]));
+			failed = false;
+			return counts;
+		} finally {
+			context.release(System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * Register a statement compiled at build time. DAOs generated by
+	 * {@link CompiledDaoProcessor} register their statements in their
+	 * constructor; registered statements bind parameters and read rows
+	 * without reflection.
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @param statement
+	 *            the compiled statement
+	 */
+	protected final void registerStatement(String statementId,
+	    CompiledStatement<T> statement) {
+		compiledStatements.put(statementId, statement);
+	}
+
+	/**
+	 * Return the compiled version of a statement.
+	 * 
+	 * @param statementId
+	 *            statement id or null for SQL passed directly to the DAO
+	 * @return the compiled statement or null if the statement isn't compiled
+	 */
+	private CompiledStatement<T> compiledStatement(String statementId) {
+		return statementId == null ? null
+		    : compiledStatements.get(statementId);
+	}
+
+	/**
+	 * Return the compiled version of a query if it reads rows by column
+	 * index.
+	 * 
+	 * @param statementId
+	 *            statement id or null for SQL passed directly to the DAO
+	 * @return the compiled query or null if the statement isn't compiled
+	 *         with a reader
+	 */
+	private CompiledQuery<T> compiledQuery(String statementId) {
+		CompiledStatement<T> compiled = compiledStatement(statementId);
+		return compiled instanceof CompiledQuery
+		    ? (CompiledQuery<T>) compiled : null;
+	}
+
+	/**
+	 * Return a statement's positional SQL.
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @param sql
+	 *            the statement with <code>:name</code> parameters
+	 * @return the statement with its parameters replaced by <code>?</code>
+	 */
+	private String positionalSql(String statementId, String sql) {
+		CompiledStatement<T> compiled = compiledStatement(statementId);
+		if (compiled == null) {
+			return queryRunner.positional(sql);
+		}
+		queryRunner.declare(compiled.getSql(), sql);
+		return compiled.getSql();
+	}
+
+	/**
+	 * Return the values of a statement's parameters, read with the compiled
+	 * statement's getter calls when possible.
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @param sql
+	 *            the statement with <code>:name</code> parameters
+	 * @param params
+	 *            statement parameters
+	 * @return parameter values in statement order
+	 */
+	private Object[] paramValues(String statementId, String sql, P params) {
+		CompiledStatement<T> compiled = compiledStatement(statementId);
+		Object[] values = compiled == null || params instanceof Object[]
+		    ? null : compiled.parameters(params);
+		return values == null ? fetchParamValues(sql, params) : values;
+	}
+
+	/**
+	 * Return a handler reading a statement's rows into DTOs: by column index
+	 * if the statement is compiled with a reader, otherwise with the bean
+	 * processor.
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @return DTO list handler
+	 */
+	private ResultSetHandler<List<T>> listHandler(String statementId) {
+
+		final CompiledQuery<T> compiled = compiledQuery(statementId);
+		if (compiled == null) {
+			return new BeanListHandler<T>(type,
+			    new BasicRowProcessor(new LobBeanProcessor(false)));
+		}
+
+		return new ResultSetHandler<List<T>>() {
+			@Override
+			public List<T> handle(ResultSet rs) throws SQLException {
+				List<T> rows = new ArrayList<T>();
+				while (rs.next()) {
+					rows.add(compiled.read(rs));
+				}
+				return rows;
+			}
+		};
+	}
+
+	/**
+	 * Return a statement from the statement map.
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @return the statement
+	 * @throws IllegalArgumentException
+	 *             thrown if there is no such statement
+	 */
+	private String requiredStatement(String statementId) {
+		String sql = statementMap.get(statementId);
+		if (StringUtils.isEmpty(sql)) {
+			throw new IllegalArgumentException(String.format(
+			    "No sql statement found for statement \"%s\"", statementId));
+		}
+		return sql;
+	}
+
+	/**
+	 * Read the change log for changes made through other DAO instances since
+	 * the last poll, and reload this DAO's caches if there are any. DAOs with
+	 * a <code>changeLog.pollInterval</code> also poll in the background.
+	 * 
+	 * @return number of changes found
+	 * @throws IllegalStateException
+	 *             thrown if <code>changeLog.table</code> isn't set
+	 */
+	public int pollChanges() {
+		try {
+			return requiredChangeLog().poll();
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+	}
+
+	/**
+	 * Add a listener told about the keys of changed rows found by polls of
+	 * the change log, for caches kept outside the DAO.
+	 * 
+	 * @param listener
+	 *            the listener
+	 * @throws IllegalStateException
+	 *             thrown if <code>changeLog.table</code> isn't set
+	 */
+	public void addChangeListener(ChangeListener listener) {
+		requiredChangeLog().addListener(listener);
+	}
+
+	/**
+	 * Log written DTOs on the caller's connection, inside its transaction,
+	 * if the DAO has a change log.
+	 * 
+	 * @param conn
+	 *            the writes' connection
+	 * @param dtos
+	 *            the DTOs written
+	 * @throws SQLException
+	 *             thrown if the changes can't be logged
+	 */
+	void logChanges(Connection conn, List<T> dtos) throws SQLException {
+		if (changeLog != null) {
+			for (T dto : dtos) {
+				changeLog.record(conn, changeLog.keyOf(dto, null));
+			}
+		}
+	}
+
+	/**
+	 * Return the change log.
+	 * 
+	 * @return the change log
+	 * @throws IllegalStateException
+	 *             thrown if <code>changeLog.table</code> isn't set
+	 */
+	private ChangeLog requiredChangeLog() {
+		if (changeLog == null) {
+			throw new IllegalStateException(
+			    "DAO is not configured with changeLog.table");
+		}
+		return changeLog;
+	}
+
+	/**
+	 * Snapshot loaded DTOs if changes are tracked
+	 * (<code>update.trackChanges=true</code>), so that {@link #update(Object)}
+	 * writes only the columns changed after loading.
+	 * 
+	 * @param dtos
+	 *            loaded DTOs
+	 */
+	private void trackChanges(List<T> dtos) {
+		if (changeTracker != null) {
+			for (T dto : dtos) {
+				changeTracker.track(dto);
+			}
+		}
+	}
+
+	/**
+	 * Return the execution counters of a statement.
+	 * 
+	 * @param statementId
+	 *            statement id, or <code>"sql"</code> for SQL passed directly
+	 *            to the DAO
+	 * @return the statement's execution counters
+	 */
+	public StatementMetrics getStatementMetrics(String statementId) {
+		return statementContext(statementId).getMetrics();
+	}
+
+	/**
+	 * Return the execution counters of every statement executed so far.
+	 * 
+	 * @return execution counters keyed by statement id
+	 */
+	public Map<String, StatementMetrics> getStatementMetrics() {
+		Map<String, StatementMetrics> metrics =
+		    new TreeMap<String, StatementMetrics>();
+		for (Map.Entry<String, StatementContext> entry : statementContexts
+		    .entrySet()) {
+			metrics.put(entry.getKey(), entry.getValue().getMetrics());
+		}
+		return metrics;
+	}
+
+	/**
+	 * Return the context (settings, concurrency limit and metrics) of a
+	 * statement, creating it on first use.
+	 * 
+	 * @param statementId
+	 *            statement id or null for SQL passed directly to the DAO
+	 * @return the statement's context
+	 */
+	private StatementContext statementContext(String statementId) {
+
+		String id = statementId == null ? AD_HOC_STATEMENT : statementId;
+
+		StatementContext context = statementContexts.get(id);
+		if (context == null) {
+			StatementContext created =
+			    new StatementContext(statementMap, id, statementId != null);
+			context = statementContexts.putIfAbsent(id, created);
+			if (context == null) {
+				context = created;
+			}
+		}
+
+		return context;
+	}
+
+	/**
+	 * Run a query under its statement's settings and concurrency limit. If
+	 * the statement's fetch size is adaptive, the rows the query returns are
+	 * recorded to size the next fetch.
+	 * 
+	 * @param <R>
+	 *            the handler's result type
+	 * @param statementId
+	 *            statement id or null for SQL passed directly to the DAO
+	 * @param query
+	 *            positional SQL
+	 * @param rsh
+	 *            result set handler
+	 * @param params
+	 *            statement parameters
+	 * @return the handler's result
+	 * @throws SQLException
+	 *             thrown if the query fails
+	 */
+	private <R> R executeQuery(String statementId, String query,
+	    ResultSetHandler<R> rsh, Object... params) throws SQLException {
+		return executeQuery(statementId, query, rsh, 0, params);
+	}
+
+	/**
+	 * Run a query under its statement's settings and concurrency limit,
+	 * returning at most the given number of rows.
+	 * 
+	 * @param <R>
+	 *            the handler's result type
+	 * @param statementId
+	 *            statement id or null for SQL passed directly to the DAO
+	 * @param query
+	 *            positional SQL
+	 * @param rsh
+	 *            result set handler
+	 * @param maxRows
+	 *            row cap applied with <code>setMaxRows</code> if lower than
+	 *            the statement's own; 0 for the statement's own
+	 * @param params
+	 *            statement parameters
+	 * @return the handler's result
+	 * @throws SQLException
+	 *             thrown if the query fails
+	 */
+	private <R> R executeQuery(String statementId, String query,
+	    ResultSetHandler<R> rsh, int maxRows, Object[] params)
+	        throws SQLException {
+
+		StatementContext context = statementContext(statementId);
+		context.acquire();
+
+		StatementSettings settings = context.getSettings();
+		if (maxRows > 0 && (settings.getMaxRows() == 0
+		    || settings.getMaxRows() > maxRows)) {
+			settings = settings.withMaxRows(maxRows);
+		}
+		FetchSizer fetchSizer = context.getFetchSizer();
+
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			R result = queryRunner.query(settings, query,
+			    fetchSizer == null ? rsh : fetchSizer.measuring(rsh), params);
+			failed = false;
+			if (fetchSizer != null) {
+				int rows = FetchSizer.rowCount(result);
+				if (rows >= 0) {
+					fetchSizer.record(rows);
+				}
+			}
+			if (statementId != null && context.sampleExplain()) {
+				capturePlanLater(statementId, query, params);
+			}
+			return result;
+		} finally {
+			context.release(System.nanoTime() - start, failed, params);
+		}
+	}
+
+	/**
+	 * Select a statement's rows into DTOs. If the statement has a
+	 * <code>singleFlight</code> mode, a call made while the same query with
+	 * the same parameters is running joins that execution (see
+	 * {@link SingleFlight}).
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @param query
+	 *            positional SQL
+	 * @param params
+	 *            statement parameters
+	 * @return selected rows
+	 * @throws SQLException
+	 *             thrown if the query fails
+	 */
+	private List<T> selectRows(final String statementId, final String query,
+	    final Object... params) throws SQLException {
+
+		SingleFlight singleFlight =
+		    statementContext(statementId).getSingleFlight();
+		if (singleFlight == null) {
+			return executeQuery(statementId, query, listHandler(statementId),
+			    params);
+		}
+
+		return singleFlight.execute(query, params, new Callable<List<T>>() {
+			@Override
+			public List<T> call() throws SQLException {
+				return executeQuery(statementId, query,
+				    listHandler(statementId), params);
+			}
+		});
+	}
+
+	/**
+	 * Run an insert, update or delete under its statement's settings and
+	 * concurrency limit, logging the change in the same transaction if the
+	 * DAO has a change log.
+	 * 
+	 * @param statementId
+	 *            statement id
+	 * @param dto
+	 *            the DTO written
+	 * @param statement
+	 *            positional SQL
+	 * @param params
+	 *            statement parameters
+	 * @return number of rows affected
+	 * @throws SQLException
+	 *             thrown if the statement fails
+	 */
+	private int executeUpdate(String statementId, T dto, String statement,
+	    Object... params) throws SQLException {
+
+		StatementContext context = statementContext(statementId);
+		context.acquire();
+
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			int count;
+			if (changeLog == null) {
+				count = queryRunner.update(context.getSettings(), statement,
+				    params);
+			} else {
+				Connection conn = dataSource.getConnection();
+				boolean committed = false;
+				try {
+					conn.setAutoCommit(false);
+					count = queryRunner.update(context.getSettings(), conn,
+					    statement, params);
+					if (count > 0) {
+						changeLog.record(conn, changeLog.keyOf(dto, null));
+					}
+					conn.commit();
+					committed = true;
+				} finally {
+					ChangeLog.release(conn, committed);
+				}
+			}
+			failed = false;
+			return count;
+		} finally {
+			context.release(System.nanoTime() - start, failed, params);
+		}
+	}
+
+	/**
+	 * Run an insert under its statement's settings and concurrency limit,
+	 * returning the generated key and logging the change in the same
+	 * transaction if the DAO has a change log.
+	 * 
+	 * @param <R>
+	 *            the key handler's result type
+	 * @param statementId
+	 *            statement id
+	 * @param dto
+	 *            the DTO inserted
+	 * @param statement
+	 *            positional SQL
+	 * @param rsh
+	 *            handler for the generated keys
+	 * @param params
+	 *            statement parameters
+	 * @return the generated key
+	 * @throws SQLException
+	 *             thrown if the statement fails
+	 */
+	private <R> R executeInsert(String statementId, T dto, String statement,
+	    ResultSetHandler<R> rsh, Object... params) throws SQLException {
+
+		StatementContext context = statementContext(statementId);
+		context.acquire();
+
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			R key;
+			if (changeLog == null) {
+				key = queryRunner.insert(context.getSettings(), statement, rsh,
+				    params);
+			} else {
+				Connection conn = dataSource.getConnection();
+				boolean committed = false;
+				try {
+					conn.setAutoCommit(false);
+					key = queryRunner.insert(context.getSettings(), conn,
+					    statement, rsh, params);
+					changeLog.record(conn, changeLog.keyOf(dto, key));
+					conn.commit();
+					committed = true;
+				} finally {
+					ChangeLog.release(conn, committed);
+				}
+			}
+			failed = false;
+			return key;
+		} finally {
+			context.release(System.nanoTime() - start, failed, params);
+		}
+	}
+
 	/**
 	 * This method parses the parameter fields from the query (identified by
 	 * :string pattern) and returns an array from their values in the given
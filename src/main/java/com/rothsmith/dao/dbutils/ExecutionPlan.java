@@ -0,0 +1,165 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Execution plan and runtime statistics captured for one execution of a
+ * statement. The plan text is the database's own output; the table scans,
+ * index scans and rows examined are read from it where the dialect reports
+ * them.
+ *
+ * @author drothauser
+ */
+public final class ExecutionPlan {
+
+	/**
+	 * The statement id.
+	 */
+	private final String statementId;
+
+	/**
+	 * Database product the plan was captured on.
+	 */
+	private final String database;
+
+	/**
+	 * The database's plan output.
+	 */
+	private final String text;
+
+	/**
+	 * Tables read with a full table scan.
+	 */
+	private final List<String> tableScans;
+
+	/**
+	 * Indexes used.
+	 */
+	private final List<String> indexScans;
+
+	/**
+	 * Rows examined, or -1 if the database doesn't report it.
+	 */
+	private final long rowsExamined;
+
+	/**
+	 * Time the plan was captured, in milliseconds since the epoch.
+	 */
+	private final long capturedAt;
+
+	/**
+	 * Construct an execution plan.
+	 *
+	 * @param statementId
+	 *            the statement id
+	 * @param database
+	 *            database product the plan was captured on
+	 * @param text
+	 *            the database's plan output
+	 * @param tableScans
+	 *            tables read with a full table scan
+	 * @param indexScans
+	 *            indexes used
+	 * @param rowsExamined
+	 *            rows examined, or -1 if unknown
+	 */
+	ExecutionPlan(String statementId, String database, String text,
+	    List<String> tableScans, List<String> indexScans, long rowsExamined) {
+		this.statementId = statementId;
+		this.database = database;
+		this.text = text;
+		this.tableScans = Collections
+		    .unmodifiableList(new ArrayList<String>(tableScans));
+		this.indexScans = Collections
+		    .unmodifiableList(new ArrayList<String>(indexScans));
+		this.rowsExamined = rowsExamined;
+		this.capturedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Accessor for statementId.
+	 *
+	 * @return the statement id
+	 */
+	public String getStatementId() {
+		return statementId;
+	}
+
+	/**
+	 * Accessor for database.
+	 *
+	 * @return database product the plan was captured on
+	 */
+	public String getDatabase() {
+		return database;
+	}
+
+	/**
+	 * Accessor for text.
+	 *
+	 * @return the database's plan output
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Accessor for tableScans.
+	 *
+	 * @return tables read with a full table scan
+	 */
+	public List<String> getTableScans() {
+		return tableScans;
+	}
+
+	/**
+	 * Accessor for indexScans.
+	 *
+	 * @return indexes used
+	 */
+	public List<String> getIndexScans() {
+		return indexScans;
+	}
+
+	/**
+	 * Accessor for rowsExamined.
+	 *
+	 * @return rows examined, or -1 if the database doesn't report it
+	 */
+	public long getRowsExamined() {
+		return rowsExamined;
+	}
+
+	/**
+	 * Accessor for capturedAt.
+	 *
+	 * @return time the plan was captured, in milliseconds since the epoch
+	 */
+	public long getCapturedAt() {
+		return capturedAt;
+	}
+
+	/**
+	 * Return whether the plan reads any table with a full scan.
+	 *
+	 * @return true if a table is scanned in full
+	 */
+	public boolean hasTableScan() {
+		return !tableScans.isEmpty();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+		    "%s on %s: tableScans=%s, indexScans=%s, rowsExamined=%d",
+		    statementId, database, tableScans, indexScans, rowsExamined);
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+/**
+ * Adaptive fetch size of one query statement. The sizer keeps a moving
+ * average and mean deviation of the rows each execution returns, in the
+ * manner of TCP's round-trip estimator, and sizes the next fetch to cover a
+ * typical execution in one round trip: <code>mean + 2 * deviation + 1</code>
+ * rows. The size is bounded by settings that can be given per statement or
+ * for the whole DAO:
+ *
+ * <pre>
+ * fetchSize.min=1
+ * fetchSize.max=1000
+ * fetchSize.memory=1048576
+ * query.selectMaxId.fetchSize.adaptive=false
+ * </pre>
+ *
+ * <ul>
+ * <li><code>fetchSize.min</code>, <code>fetchSize.max</code> - bounds of the
+ * fetch size (defaults 1 and 1000)
+ * <li><code>fetchSize.memory</code> - bytes of driver buffer one fetch may
+ * use, divided by the row width estimated from the result set metadata
+ * (default 1 MiB)
+ * <li><code>fetchSize.adaptive</code> - false leaves the driver default
+ * </ul>
+ *
+ * A fixed <code>fetchSize</code> setting turns adaptive sizing off for the
+ * statement. Estimates are updated without locking; a sample lost to a race
+ * doesn't matter.
+ *
+ * @author drothauser
+ */
+final class FetchSizer {
+
+	/**
+	 * Default smallest fetch size.
+	 */
+	private static final int DEFAULT_MIN = 1;
+
+	/**
+	 * Default largest fetch size.
+	 */
+	private static final int DEFAULT_MAX = 1000;
+
+	/**
+	 * Default driver buffer budget of one fetch in bytes.
+	 */
+	private static final long DEFAULT_MEMORY = 1024L * 1024L;
+
+	/**
+	 * Weight of a new sample in the moving average (1/8).
+	 */
+	private static final double MEAN_GAIN = 0.125;
+
+	/**
+	 * Weight of a new sample in the moving deviation (1/4).
+	 */
+	private static final double DEVIATION_GAIN = 0.25;
+
+	/**
+	 * Estimated bytes per declared character of a character column.
+	 */
+	private static final int BYTES_PER_CHAR = 2;
+
+	/**
+	 * Cap on the estimated bytes of one column (LOB locators, long strings).
+	 */
+	private static final int MAX_COLUMN_BYTES = 8192;
+
+	/**
+	 * Estimated bytes of a fixed-size column.
+	 */
+	private static final int FIXED_COLUMN_BYTES = 16;
+
+	/**
+	 * Settings the fetch size is applied to.
+	 */
+	private final StatementSettings base;
+
+	/**
+	 * Counters showing the current fetch size.
+	 */
+	private final StatementMetrics metrics;
+
+	/**
+	 * Smallest fetch size.
+	 */
+	private final int min;
+
+	/**
+	 * Largest fetch size.
+	 */
+	private final int max;
+
+	/**
+	 * Driver buffer budget of one fetch in bytes.
+	 */
+	private final long memory;
+
+	/**
+	 * Moving average of the rows returned.
+	 */
+	private volatile double mean = -1d;
+
+	/**
+	 * Moving mean deviation of the rows returned.
+	 */
+	private volatile double deviation;
+
+	/**
+	 * Estimated bytes per row, 0 until the first result set is seen.
+	 */
+	private volatile int rowWidth;
+
+	/**
+	 * Settings with the current fetch size.
+	 */
+	private volatile StatementSettings settings;
+
+	/**
+	 * Construct a sizer.
+	 *
+	 * @param base
+	 *            settings the fetch size is applied to
+	 * @param metrics
+	 *            counters showing the current fetch size
+	 * @param min
+	 *            smallest fetch size
+	 * @param max
+	 *            largest fetch size
+	 * @param memory
+	 *            driver buffer budget of one fetch in bytes
+	 */
+	FetchSizer(StatementSettings base, StatementMetrics metrics, int min,
+	    int max, long memory) {
+		this.base = base;
+		this.metrics = metrics;
+		this.min = Math.max(min, 1);
+		this.max = Math.max(max, this.min);
+		this.memory = memory;
+		this.settings = base;
+	}
+
+	/**
+	 * Create the sizer of a statement.
+	 *
+	 * @param properties
+	 *            DAO properties
+	 * @param statementId
+	 *            statement id
+	 * @param base
+	 *            the statement's settings
+	 * @param metrics
+	 *            the statement's counters
+	 * @return the sizer or null if the statement has a fixed fetch size or
+	 *         adaptive sizing is off
+	 */
+	static FetchSizer forStatement(Map<String, String> properties,
+	    String statementId, StatementSettings base, StatementMetrics metrics) {
+
+		if (base.getFetchSize() > 0) {
+			metrics.setFetchSize(base.getFetchSize());
+			return null;
+		}
+
+		String adaptive = properties.get(statementId + ".fetchSize.adaptive");
+		if (adaptive == null) {
+			adaptive = properties.get("fetchSize.adaptive");
+		}
+		if (adaptive != null && !Boolean.parseBoolean(adaptive.trim())) {
+			return null;
+		}
+
+		long min = StatementSettings.setting(properties, statementId,
+		    "fetchSize.min");
+		long max = StatementSettings.setting(properties, statementId,
+		    "fetchSize.max");
+		long memory = StatementSettings.setting(properties, statementId,
+		    "fetchSize.memory");
+
+		return new FetchSizer(base, metrics,
+		    min > 0 ? (int) min : DEFAULT_MIN,
+		    max > 0 ? (int) max : DEFAULT_MAX,
+		    memory > 0 ? memory : DEFAULT_MEMORY);
+	}
+
+	/**
+	 * Return the statement's settings with the current fetch size.
+	 *
+	 * @return settings for the next execution
+	 */
+	StatementSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * Return a handler that estimates the row width from the result set
+	 * metadata before delegating, until the width is known.
+	 *
+	 * @param <R>
+	 *            the handler's result type
+	 * @param rsh
+	 *            result set handler
+	 * @return the handler to run the query with
+	 */
+	<R> ResultSetHandler<R> measuring(final ResultSetHandler<R> rsh) {
+
+		if (rowWidth > 0) {
+			return rsh;
+		}
+
+		return new ResultSetHandler<R>() {
+			@Override
+			public R handle(ResultSet rs) throws SQLException {
+				rowWidth = rowWidth(rs.getMetaData());
+				return rsh.handle(rs);
+			}
+		};
+	}
+
+	/**
+	 * Record the rows returned by an execution and resize the next fetch if
+	 * the estimate moved by more than a quarter.
+	 *
+	 * @param rows
+	 *            rows returned
+	 */
+	void record(int rows) {
+
+		double currentMean = mean;
+		if (currentMean < 0) {
+			mean = rows;
+			deviation = rows / 2d;
+		} else {
+			double error = rows - currentMean;
+			mean = currentMean + MEAN_GAIN * error;
+			deviation += DEVIATION_GAIN * (Math.abs(error) - deviation);
+		}
+
+		long target = (long) Math.ceil(mean + 2 * deviation) + 1;
+		if (rowWidth > 0) {
+			target = Math.min(target, memory / rowWidth);
+		}
+		int size = (int) Math.max(min, Math.min(max, target));
+
+		int current = settings.getFetchSize();
+		if (current == 0 || Math.abs(size - current) * 4 > current) {
+			settings = base.withFetchSize(size);
+			metrics.setFetchSize(size);
+		}
+	}
+
+	/**
+	 * Return the number of rows in a query result, if the result is a list
+	 * or array of rows.
+	 *
+	 * @param result
+	 *            a result set handler's result
+	 * @return number of rows or -1 if the result isn't a list of rows
+	 */
+	static int rowCount(Object result) {
+		if (result instanceof Collection) {
+			return ((Collection<?>) result).size();
+		} else if (result instanceof int[]) {
+			return ((int[]) result).length;
+		} else if (result instanceof long[]) {
+			return ((long[]) result).length;
+		} else if (result instanceof Object[]) {
+			return ((Object[]) result).length;
+		}
+		return -1;
+	}
+
+	/**
+	 * Estimate the bytes a driver buffers per row.
+	 *
+	 * @param md
+	 *            result set metadata
+	 * @return estimated bytes per row
+	 * @throws SQLException
+	 *             thrown if the metadata can't be read
+	 */
+	static int rowWidth(ResultSetMetaData md) throws SQLException {
+
+		int width = FIXED_COLUMN_BYTES;
+		for (int i = 1; i <= md.getColumnCount(); i++) {
+			switch (md.getColumnType(i)) {
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.NCHAR:
+			case Types.NVARCHAR:
+			case Types.LONGNVARCHAR:
+				width += Math.min(
+				    BYTES_PER_CHAR * Math.max(md.getColumnDisplaySize(i), 1),
+				    MAX_COLUMN_BYTES);
+				break;
+			case Types.BINARY:
+			case Types.VARBINARY:
+			case Types.LONGVARBINARY:
+				width += Math.min(Math.max(md.getColumnDisplaySize(i), 1),
+				    MAX_COLUMN_BYTES);
+				break;
+			case Types.BLOB:
+			case Types.CLOB:
+			case Types.NCLOB:
+				width += MAX_COLUMN_BYTES;
+				break;
+			default:
+				width += FIXED_COLUMN_BYTES;
+			}
+		}
+
+		return width;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+/**
+ * Open-addressing hash map from primitive <code>int</code> keys to objects.
+ * Keys are never boxed and lookups allocate nothing. The map is filled once
+ * and then only read; it is not thread safe while being filled and must be
+ * published safely (for example through a volatile field) afterwards.
+ *
+ * @param <V>
+ *            value type
+ *
+ * @author drothauser
+ */
+final class IntObjectMap<V> {
+
+	/**
+	 * Multiplier spreading sequential keys over the table (the golden ratio
+	 * in fixed point).
+	 */
+	private static final int SPREAD = 0x9E3779B9;
+
+	/**
+	 * Keys; 0 marks an empty slot, so a 0 key is kept on the side.
+	 */
+	private final int[] keys;
+
+	/**
+	 * Values by slot.
+	 */
+	private final Object[] values;
+
+	/**
+	 * Table size minus one.
+	 */
+	private final int mask;
+
+	/**
+	 * Number of keys that fit while keeping the table at most half full.
+	 */
+	private final int capacity;
+
+	/**
+	 * Value of the 0 key.
+	 */
+	private Object zeroValue;
+
+	/**
+	 * True if the map holds the 0 key.
+	 */
+	private boolean hasZero;
+
+	/**
+	 * Number of keys.
+	 */
+	private int size;
+
+	/**
+	 * Construct an empty map.
+	 *
+	 * @param expectedSize
+	 *            number of keys the map must hold
+	 */
+	IntObjectMap(int expectedSize) {
+		int tableSize = 2;
+		while (tableSize < expectedSize * 2) {
+			tableSize <<= 1;
+		}
+		keys = new int[tableSize];
+		values = new Object[tableSize];
+		mask = tableSize - 1;
+		capacity = tableSize / 2;
+	}
+
+	/**
+	 * Add or replace a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the key's previous value or null
+	 */
+	@SuppressWarnings("unchecked")
+	V put(int key, V value) {
+
+		if (key == 0) {
+			V previous = (V) zeroValue;
+			if (!hasZero) {
+				hasZero = true;
+				size++;
+			}
+			zeroValue = value;
+			return previous;
+		}
+
+		int slot = slot(key);
+		while (keys[slot] != 0) {
+			if (keys[slot] == key) {
+				V previous = (V) values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (size >= capacity) {
+			throw new IllegalStateException(
+			    "IntObjectMap sized for " + capacity + " keys is full");
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		return null;
+	}
+
+	/**
+	 * Look up a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the key's value or null if the key isn't in the map
+	 */
+	@SuppressWarnings("unchecked")
+	V get(int key) {
+
+		if (key == 0) {
+			return (V) zeroValue;
+		}
+
+		int slot = slot(key);
+		int probe;
+		while ((probe = keys[slot]) != 0) {
+			if (probe == key) {
+				return (V) values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Return the number of keys.
+	 *
+	 * @return number of keys
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Return the home slot of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return slot index
+	 */
+	private int slot(int key) {
+		int hash = key * SPREAD;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+}
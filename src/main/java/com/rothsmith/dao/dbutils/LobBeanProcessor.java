@@ -0,0 +1,134 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.apache.commons.dbutils.GenerousBeanProcessor;
+
+/**
+ * {@link GenerousBeanProcessor} that also maps columns into DTO properties
+ * of type <code>InputStream</code>, <code>Reader</code> and
+ * <code>ReadableByteChannel</code>. In lazy mode a BLOB or CLOB column
+ * becomes a stream over the LOB locator, opened on its first read, which is
+ * valid only while the query's transaction is open. Otherwise the LOB is read
+ * into memory when the row is mapped, so the DTO can outlive the query.
+ * Columns that aren't LOBs are always read into memory.
+ *
+ * @author drothauser
+ */
+final class LobBeanProcessor extends GenerousBeanProcessor {
+
+	/**
+	 * True to map LOBs into streams over their locators.
+	 */
+	private final boolean lazy;
+
+	/**
+	 * Construct the processor.
+	 *
+	 * @param lazy
+	 *            true to map LOBs into streams over their locators, false to
+	 *            read them into memory
+	 */
+	LobBeanProcessor(boolean lazy) {
+		super();
+		this.lazy = lazy;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected Object processColumn(ResultSet rs, int index, Class<?> propType)
+	        throws SQLException {
+
+		if (propType == InputStream.class) {
+			return binaryStream(rs, index);
+		} else if (propType == ReadableByteChannel.class) {
+			InputStream in = binaryStream(rs, index);
+			return in == null ? null : Channels.newChannel(in);
+		} else if (propType == Reader.class) {
+			return characterStream(rs, index);
+		}
+		return super.processColumn(rs, index, propType);
+	}
+
+	/**
+	 * Read a column as a binary stream.
+	 *
+	 * @param rs
+	 *            result set positioned on the row
+	 * @param index
+	 *            column index
+	 * @return the stream or null if the column is null
+	 * @throws SQLException
+	 *             thrown if the column can't be read
+	 */
+	private InputStream binaryStream(ResultSet rs, int index)
+	        throws SQLException {
+
+		if (rs.getMetaData().getColumnType(index) != Types.BLOB) {
+			byte[] bytes = rs.getBytes(index);
+			return bytes == null ? null : new ByteArrayInputStream(bytes);
+		}
+
+		Blob blob = rs.getBlob(index);
+		if (blob == null) {
+			return null;
+		} else if (lazy) {
+			return Lobs.binaryStream(blob);
+		}
+		try {
+			return new ByteArrayInputStream(
+			    blob.getBytes(1, Math.toIntExact(blob.length())));
+		} finally {
+			blob.free();
+		}
+	}
+
+	/**
+	 * Read a column as a character stream.
+	 *
+	 * @param rs
+	 *            result set positioned on the row
+	 * @param index
+	 *            column index
+	 * @return the reader or null if the column is null
+	 * @throws SQLException
+	 *             thrown if the column can't be read
+	 */
+	private Reader characterStream(ResultSet rs, int index)
+	        throws SQLException {
+
+		int columnType = rs.getMetaData().getColumnType(index);
+		if (columnType != Types.CLOB && columnType != Types.NCLOB) {
+			String value = rs.getString(index);
+			return value == null ? null : new StringReader(value);
+		}
+
+		Clob clob = rs.getClob(index);
+		if (clob == null) {
+			return null;
+		} else if (lazy) {
+			return Lobs.characterStream(clob);
+		}
+		try {
+			return new StringReader(
+			    clob.getSubString(1, Math.toIntExact(clob.length())));
+		} finally {
+			clob.free();
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+
+/**
+ * Helpers for streaming large objects. DTO properties of type
+ * <code>InputStream</code>, <code>Reader</code> or
+ * <code>ReadableByteChannel</code> are bound with
+ * <code>setBinaryStream</code> or <code>setCharacterStream</code> when
+ * written, and read from BLOB and CLOB columns as streams (see
+ * {@link DbUtilsJdbcDao#streamByStatement(String, Object, RowCallback)}).
+ * The copy methods move a stream in fixed-size chunks, so a document of any
+ * size takes one chunk of heap.
+ *
+ * @author drothauser
+ */
+public final class Lobs {
+
+	/**
+	 * Bytes or characters copied per chunk.
+	 */
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Utility class; not instantiated.
+	 */
+	private Lobs() {
+	}
+
+	/**
+	 * Copy a stream to a channel in chunks. The stream isn't closed.
+	 *
+	 * @param in
+	 *            stream to copy
+	 * @param out
+	 *            channel to copy to
+	 * @return number of bytes copied
+	 * @throws IOException
+	 *             thrown if reading or writing fails
+	 */
+	public static long copy(InputStream in, WritableByteChannel out)
+	        throws IOException {
+		return copy(Channels.newChannel(in), out);
+	}
+
+	/**
+	 * Copy a channel to another channel in chunks. The source isn't closed.
+	 *
+	 * @param in
+	 *            channel to copy
+	 * @param out
+	 *            channel to copy to
+	 * @return number of bytes copied
+	 * @throws IOException
+	 *             thrown if reading or writing fails
+	 */
+	public static long copy(ReadableByteChannel in, WritableByteChannel out)
+	        throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+		long copied = 0;
+		while (in.read(buffer) >= 0) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				copied += out.write(buffer);
+			}
+			buffer.clear();
+		}
+		return copied;
+	}
+
+	/**
+	 * Copy a reader to a writer in chunks. The reader isn't closed.
+	 *
+	 * @param in
+	 *            reader to copy
+	 * @param out
+	 *            writer to copy to
+	 * @return number of characters copied
+	 * @throws IOException
+	 *             thrown if reading or writing fails
+	 */
+	public static long copy(Reader in, Writer out) throws IOException {
+
+		char[] buffer = new char[CHUNK_SIZE];
+		long copied = 0;
+		for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+			out.write(buffer, 0, read);
+			copied += read;
+		}
+		return copied;
+	}
+
+	/**
+	 * Return a stream over a BLOB that is opened on the first read, and frees
+	 * the BLOB when closed.
+	 *
+	 * @param blob
+	 *            the BLOB
+	 * @return the stream
+	 */
+	static InputStream binaryStream(final Blob blob) {
+
+		return new InputStream() {
+
+			private InputStream in;
+
+			@Override
+			public int read() throws IOException {
+				return open().read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return open().read(b, off, len);
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				return open().skip(n);
+			}
+
+			@Override
+			public int available() throws IOException {
+				return in == null ? 0 : in.available();
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					if (in != null) {
+						in.close();
+					}
+				} finally {
+					free(blob);
+				}
+			}
+
+			private InputStream open() throws IOException {
+				if (in == null) {
+					try {
+						in = blob.getBinaryStream();
+					} catch (SQLException e) {
+						throw new IOException("Can't open BLOB: " + e, e);
+					}
+				}
+				return in;
+			}
+		};
+	}
+
+	/**
+	 * Return a reader over a CLOB that is opened on the first read, and frees
+	 * the CLOB when closed.
+	 *
+	 * @param clob
+	 *            the CLOB
+	 * @return the reader
+	 */
+	static Reader characterStream(final Clob clob) {
+
+		return new Reader() {
+
+			private Reader in;
+
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				return open().read(cbuf, off, len);
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				return open().skip(n);
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					if (in != null) {
+						in.close();
+					}
+				} finally {
+					free(clob);
+				}
+			}
+
+			private Reader open() throws IOException {
+				if (in == null) {
+					try {
+						in = clob.getCharacterStream();
+					} catch (SQLException e) {
+						throw new IOException("Can't open CLOB: " + e, e);
+					}
+				}
+				return in;
+			}
+		};
+	}
+
+	/**
+	 * Free a BLOB's resources.
+	 *
+	 * @param blob
+	 *            the BLOB
+	 * @throws IOException
+	 *             thrown if the driver fails to free it
+	 */
+	static void free(Blob blob) throws IOException {
+		try {
+			blob.free();
+		} catch (SQLException e) {
+			throw new IOException("Can't free BLOB: " + e, e);
+		}
+	}
+
+	/**
+	 * Free a CLOB's resources.
+	 *
+	 * @param clob
+	 *            the CLOB
+	 * @throws IOException
+	 *             thrown if the driver fails to free it
+	 */
+	static void free(Clob clob) throws IOException {
+		try {
+			clob.free();
+		} catch (SQLException e) {
+			throw new IOException("Can't free CLOB: " + e, e);
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.beans.PropertyDescriptor;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.ReadableByteChannel;
+import java.sql.JDBCType;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.beanutils.PropertyUtilsBean;
+import org.apache.commons.lang3.ClassUtils;
+
+/**
+ * SQL types of a DAO's named parameters, used to bind null values with
+ * <code>setNull</code> without asking the driver for parameter metadata. A
+ * type is declared after the parameter in a statement, or for every
+ * statement with a <code>parameterType</code> property:
+ *
+ * <pre>
+ * query.update=update TEST.PARTY set END_YEAR =:endYear{INTEGER} where ID=:id
+ * parameterType.foundedYear=INTEGER
+ * </pre>
+ *
+ * Type names are those of {@link JDBCType}. Declarations in statements are
+ * moved to <code>parameterType</code> properties when the DAO is loaded, so
+ * that the statements are plain SQL with <code>:name</code> parameters. A
+ * parameter without a declaration takes the type of the DTO property of the
+ * same name, if it has one.
+ *
+ * @author drothauser
+ */
+final class ParameterTypes {
+
+	/**
+	 * Prefix of the properties declaring parameter types.
+	 */
+	static final String PREFIX = "parameterType.";
+
+	/**
+	 * Matches a parameter with a declared type.
+	 */
+	private static final Pattern DECLARED =
+	    Pattern.compile(":(\\w+)\\{(\\w+)\\}");
+
+	/**
+	 * Matches a parameter, with or without a declared type.
+	 */
+	private static final Pattern PARAMETER =
+	    Pattern.compile(":(\\w+)(?:\\{(\\w+)\\})?");
+
+	/**
+	 * SQL types of Java classes.
+	 */
+	private static final Map<Class<?>, Integer> CLASS_TYPES = classTypes();
+
+	/**
+	 * DAO properties.
+	 */
+	private final Map<String, String> properties;
+
+	/**
+	 * DTO class, or null.
+	 */
+	private final Class<?> dtoType;
+
+	/**
+	 * Resolved types by parameter name; {@link Types#NULL} if unknown.
+	 */
+	private final ConcurrentMap<String, Integer> types =
+	    new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Construct the parameter types of a DAO.
+	 *
+	 * @param properties
+	 *            DAO properties, with declarations already extracted
+	 * @param dtoType
+	 *            DTO class, or null
+	 */
+	ParameterTypes(Map<String, String> properties, Class<?> dtoType) {
+		this.properties = properties;
+		this.dtoType = dtoType;
+	}
+
+	/**
+	 * Move the types declared in a DAO's statements to
+	 * <code>parameterType</code> properties, leaving plain statements.
+	 *
+	 * @param properties
+	 *            DAO properties; changed in place
+	 * @throws IllegalArgumentException
+	 *             thrown if a type isn't a JDBC type name or a parameter is
+	 *             declared with two types
+	 */
+	static void extractDeclarations(Map<String, String> properties) {
+
+		Map<String, String> declared = new HashMap<String, String>();
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			String value = entry.getValue();
+			if (value == null || value.indexOf('{') < 0) {
+				continue;
+			}
+			Matcher matcher = DECLARED.matcher(value);
+			StringBuffer sql = new StringBuffer(value.length());
+			while (matcher.find()) {
+				String name = matcher.group(1);
+				String type = matcher.group(2).toUpperCase(Locale.ROOT);
+				sqlType(type);
+				String other = declared.put(name, type);
+				if (other != null && !other.equals(type)) {
+					throw new IllegalArgumentException(String.format(
+					    "Parameter :%s declared as both %s and %s", name,
+					    other, type));
+				}
+				matcher.appendReplacement(sql, ":" + name);
+			}
+			matcher.appendTail(sql);
+			entry.setValue(sql.toString());
+		}
+
+		for (Map.Entry<String, String> entry : declared.entrySet()) {
+			String key = PREFIX + entry.getKey();
+			if (!properties.containsKey(key)) {
+				properties.put(key, entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Replace the named parameters of a statement, with or without declared
+	 * types, by positional ones.
+	 *
+	 * @param sql
+	 *            statement with <code>:name</code> parameters
+	 * @return positional SQL
+	 */
+	static String positional(String sql) {
+		return PARAMETER.matcher(sql).replaceAll("?");
+	}
+
+	/**
+	 * Return the SQL types of a statement's parameters in statement order.
+	 *
+	 * @param sql
+	 *            statement with <code>:name</code> parameters
+	 * @return SQL type of each parameter; {@link Types#NULL} if unknown
+	 */
+	int[] of(String sql) {
+		int count = 0;
+		for (Matcher matcher = PARAMETER.matcher(sql); matcher.find();) {
+			count++;
+		}
+		int[] sqlTypes = new int[count];
+		Matcher matcher = PARAMETER.matcher(sql);
+		for (int i = 0; matcher.find(); i++) {
+			sqlTypes[i] = matcher.group(2) == null ? typeOf(matcher.group(1))
+			    : sqlType(matcher.group(2).toUpperCase(Locale.ROOT));
+		}
+		return sqlTypes;
+	}
+
+	/**
+	 * Return the SQL type of a named parameter.
+	 *
+	 * @param name
+	 *            parameter name
+	 * @return declared type, else the type of the DTO property, else
+	 *         {@link Types#NULL}
+	 */
+	int typeOf(String name) {
+		Integer type = types.get(name);
+		if (type == null) {
+			String declared = properties.get(PREFIX + name);
+			type = declared == null ? propertyType(name)
+			    : sqlType(declared.trim().toUpperCase(Locale.ROOT));
+			types.putIfAbsent(name, type);
+		}
+		return type;
+	}
+
+	/**
+	 * Return the SQL type of a DTO property.
+	 *
+	 * @param name
+	 *            property name
+	 * @return SQL type of the property's class, or {@link Types#NULL}
+	 */
+	private int propertyType(String name) {
+		if (dtoType == null || Map.class.isAssignableFrom(dtoType)) {
+			return Types.NULL;
+		}
+		for (PropertyDescriptor descriptor : new PropertyUtilsBean()
+		    .getPropertyDescriptors(dtoType)) {
+			if (descriptor.getName().equals(name)) {
+				return forClass(descriptor.getPropertyType());
+			}
+		}
+		return Types.NULL;
+	}
+
+	/**
+	 * Return the SQL type a Java class is bound as.
+	 *
+	 * @param type
+	 *            Java class, or null
+	 * @return SQL type, or {@link Types#NULL} if there is no standard one
+	 */
+	static int forClass(Class<?> type) {
+		if (type == null) {
+			return Types.NULL;
+		}
+		Integer sqlType = CLASS_TYPES.get(ClassUtils.primitiveToWrapper(type));
+		if (sqlType != null) {
+			return sqlType;
+		}
+		if (InputStream.class.isAssignableFrom(type)
+		    || ReadableByteChannel.class.isAssignableFrom(type)) {
+			return Types.BLOB;
+		}
+		if (Reader.class.isAssignableFrom(type)) {
+			return Types.CLOB;
+		}
+		if (java.util.Date.class.isAssignableFrom(type)) {
+			return Types.TIMESTAMP;
+		}
+		return Types.NULL;
+	}
+
+	/**
+	 * Return the SQL type of a JDBC type name.
+	 *
+	 * @param name
+	 *            upper-case {@link JDBCType} name
+	 * @return SQL type
+	 * @throws IllegalArgumentException
+	 *             thrown if the name isn't a JDBC type
+	 */
+	private static int sqlType(String name) {
+		try {
+			return JDBCType.valueOf(name).getVendorTypeNumber();
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(
+			    "Unknown parameter type: " + name, e);
+		}
+	}
+
+	/**
+	 * Build the SQL types of Java classes.
+	 *
+	 * @return SQL types by class
+	 */
+	private static Map<Class<?>, Integer> classTypes() {
+		Map<Class<?>, Integer> classTypes = new HashMap<Class<?>, Integer>();
+		classTypes.put(String.class, Types.VARCHAR);
+		classTypes.put(Integer.class, Types.INTEGER);
+		classTypes.put(Long.class, Types.BIGINT);
+		classTypes.put(Short.class, Types.SMALLINT);
+		classTypes.put(Byte.class, Types.TINYINT);
+		classTypes.put(BigDecimal.class, Types.DECIMAL);
+		classTypes.put(BigInteger.class, Types.NUMERIC);
+		classTypes.put(Double.class, Types.DOUBLE);
+		classTypes.put(Float.class, Types.REAL);
+		classTypes.put(Boolean.class, Types.BOOLEAN);
+		classTypes.put(java.sql.Date.class, Types.DATE);
+		classTypes.put(java.sql.Time.class, Types.TIME);
+		classTypes.put(java.sql.Timestamp.class, Types.TIMESTAMP);
+		classTypes.put(byte[].class, Types.VARBINARY);
+		return classTypes;
+	}
+}
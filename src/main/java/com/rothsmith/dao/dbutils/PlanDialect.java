@@ -0,0 +1,438 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * How to capture an execution plan on each supported database.
+ *
+ * @author drothauser
+ */
+enum PlanDialect {
+
+	/**
+	 * Apache Derby: run the query with runtime statistics switched on and read
+	 * <code>SYSCS_UTIL.SYSCS_GET_RUNTIMESTATISTICS()</code>.
+	 */
+	DERBY("Apache Derby") {
+
+		/**
+		 * Matches a scan node of Derby's runtime statistics.
+		 */
+		private final Pattern scan = Pattern.compile(
+		    "(Table|Index) Scan ResultSet for (\\w+)"
+		        + "(?: using (?:index|constraint) (\\w+))?");
+
+		/**
+		 * Matches the rows visited by a scan.
+		 */
+		private final Pattern rowsVisited =
+		    Pattern.compile("Number of rows visited=(\\d+)");
+
+		@Override
+		ExecutionPlan explain(Connection conn, DaoQueryRunner queryRunner,
+		    String statementId, String sql, Object[] params)
+		        throws SQLException {
+
+			String text;
+			execute(conn, "CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(1)");
+			try {
+				runQuery(conn, queryRunner, sql, params);
+				text = firstColumn(conn,
+				    "VALUES SYSCS_UTIL.SYSCS_GET_RUNTIMESTATISTICS()");
+			} finally {
+				execute(conn,
+				    "CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(0)");
+			}
+
+			List<String> tableScans = new ArrayList<String>();
+			List<String> indexScans = new ArrayList<String>();
+			Matcher matcher = scan.matcher(text);
+			while (matcher.find()) {
+				if ("Table".equals(matcher.group(1))) {
+					tableScans.add(matcher.group(2));
+				} else {
+					indexScans.add(matcher.group(3) == null ? matcher.group(2)
+					    : matcher.group(3));
+				}
+			}
+
+			return new ExecutionPlan(statementId, getProductName(), text,
+			    tableScans, indexScans, sum(rowsVisited, text));
+		}
+	},
+
+	/**
+	 * H2: <code>EXPLAIN ANALYZE</code> runs the query and annotates the plan
+	 * with the scan counts.
+	 */
+	H2("H2") {
+
+		/**
+		 * Matches a table scan comment.
+		 */
+		private final Pattern tableScan =
+		    Pattern.compile("/\\* [\\w.]*?(\\w+)\\.tableScan");
+
+		/**
+		 * Matches an index comment.
+		 */
+		private final Pattern indexScan =
+		    Pattern.compile("/\\* [\\w.]*?(\\w+)(?:: [^*]*)? \\*/");
+
+		/**
+		 * Matches a scan count.
+		 */
+		private final Pattern scanCount =
+		    Pattern.compile("scanCount: (\\d+)");
+
+		@Override
+		ExecutionPlan explain(Connection conn, DaoQueryRunner queryRunner,
+		    String statementId, String sql, Object[] params)
+		        throws SQLException {
+
+			String text = planText(conn, queryRunner, "EXPLAIN ANALYZE " + sql,
+			    params);
+
+			List<String> tableScans = matches(tableScan, text);
+			List<String> indexScans = new ArrayList<String>();
+			for (String index : matches(indexScan, text)) {
+				if (!"tableScan".equals(index) && !"scanCount".equals(index)) {
+					indexScans.add(index);
+				}
+			}
+
+			return new ExecutionPlan(statementId, getProductName(), text,
+			    tableScans, indexScans, sum(scanCount, text));
+		}
+	},
+
+	/**
+	 * MySQL and MariaDB: <code>EXPLAIN</code> returns one row per table with
+	 * the access type, the key used and the estimated rows.
+	 */
+	MYSQL("MySQL") {
+
+		@Override
+		ExecutionPlan explain(Connection conn, DaoQueryRunner queryRunner,
+		    String statementId, String sql, Object[] params)
+		        throws SQLException {
+
+			StringBuilder text = new StringBuilder();
+			List<String> tableScans = new ArrayList<String>();
+			List<String> indexScans = new ArrayList<String>();
+			long rows = 0;
+
+			PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + sql);
+			ResultSet rs = null;
+			try {
+				queryRunner.fillStatement(stmt, params);
+				rs = stmt.executeQuery();
+				ResultSetMetaData metaData = rs.getMetaData();
+				while (rs.next()) {
+					for (int i = 1; i <= metaData.getColumnCount(); i++) {
+						text.append(i > 1 ? ", " : "")
+						    .append(metaData.getColumnLabel(i)).append('=')
+						    .append(rs.getString(i));
+					}
+					text.append('\n');
+					if ("ALL".equalsIgnoreCase(rs.getString("type"))) {
+						tableScans.add(rs.getString("table"));
+					}
+					if (rs.getString("key") != null) {
+						indexScans.add(rs.getString("key"));
+					}
+					rows += rs.getLong("rows");
+				}
+			} finally {
+				DbUtils.closeQuietly(rs);
+				DbUtils.closeQuietly(stmt);
+			}
+
+			return new ExecutionPlan(statementId, getProductName(),
+			    text.toString(), tableScans, indexScans, rows);
+		}
+	},
+
+	/**
+	 * PostgreSQL: <code>EXPLAIN ANALYZE</code> runs the query and reports the
+	 * scan nodes with their actual rows.
+	 */
+	POSTGRESQL("PostgreSQL") {
+
+		/**
+		 * Matches a sequential scan node.
+		 */
+		private final Pattern seqScan = Pattern.compile("Seq Scan on (\\w+)");
+
+		/**
+		 * Matches an index scan node.
+		 */
+		private final Pattern indexScan =
+		    Pattern.compile("Index (?:Only )?Scan using (\\w+)");
+
+		/**
+		 * Matches the actual rows of a scan node.
+		 */
+		private final Pattern actualRows = Pattern.compile(
+		    "Scan .*?\\(actual time=[\\d.]+\\.\\.[\\d.]+ rows=(\\d+)");
+
+		@Override
+		ExecutionPlan explain(Connection conn, DaoQueryRunner queryRunner,
+		    String statementId, String sql, Object[] params)
+		        throws SQLException {
+
+			String text = planText(conn, queryRunner, "EXPLAIN ANALYZE " + sql,
+			    params);
+
+			return new ExecutionPlan(statementId, getProductName(), text,
+			    matches(seqScan, text), matches(indexScan, text),
+			    sum(actualRows, text));
+		}
+	},
+
+	/**
+	 * Any other database: the query is run and timed, but no plan is
+	 * available.
+	 */
+	GENERIC("") {
+
+		@Override
+		ExecutionPlan explain(Connection conn, DaoQueryRunner queryRunner,
+		    String statementId, String sql, Object[] params)
+		        throws SQLException {
+
+			String product = conn.getMetaData().getDatabaseProductName();
+			long rows = runQuery(conn, queryRunner, sql, params);
+			return new ExecutionPlan(statementId, product,
+			    "Execution plans are not supported on " + product,
+			    new ArrayList<String>(), new ArrayList<String>(), rows);
+		}
+	};
+
+	/**
+	 * Prefix of the database product name the dialect applies to.
+	 */
+	private final String productName;
+
+	/**
+	 * Construct a dialect.
+	 *
+	 * @param productName
+	 *            prefix of the database product name
+	 */
+	PlanDialect(String productName) {
+		this.productName = productName;
+	}
+
+	/**
+	 * Capture the plan of a query.
+	 *
+	 * @param conn
+	 *            connection to run on
+	 * @param queryRunner
+	 *            query runner used to bind parameters
+	 * @param statementId
+	 *            statement id
+	 * @param sql
+	 *            positional SQL
+	 * @param params
+	 *            statement parameters
+	 * @return the captured plan
+	 * @throws SQLException
+	 *             thrown if the plan can't be captured
+	 */
+	abstract ExecutionPlan explain(Connection conn, DaoQueryRunner queryRunner,
+	    String statementId, String sql, Object[] params) throws SQLException;
+
+	/**
+	 * Accessor for productName.
+	 *
+	 * @return prefix of the database product name
+	 */
+	String getProductName() {
+		return productName;
+	}
+
+	/**
+	 * Return the dialect of a connection's database.
+	 *
+	 * @param conn
+	 *            the connection
+	 * @return the dialect, {@link #GENERIC} if the database isn't supported
+	 * @throws SQLException
+	 *             thrown if the database metadata can't be read
+	 */
+	static PlanDialect forConnection(Connection conn) throws SQLException {
+		String product = conn.getMetaData().getDatabaseProductName();
+		if (StringUtils.startsWithIgnoreCase(product, "MariaDB")) {
+			return MYSQL;
+		}
+		for (PlanDialect dialect : values()) {
+			if (dialect != GENERIC && StringUtils
+			    .startsWithIgnoreCase(product, dialect.productName)) {
+				return dialect;
+			}
+		}
+		return GENERIC;
+	}
+
+	/**
+	 * Run a query and read all its rows.
+	 *
+	 * @param conn
+	 *            connection to run on
+	 * @param queryRunner
+	 *            query runner used to bind parameters
+	 * @param sql
+	 *            positional SQL
+	 * @param params
+	 *            statement parameters
+	 * @return number of rows returned
+	 * @throws SQLException
+	 *             thrown if the query fails
+	 */
+	static long runQuery(Connection conn, DaoQueryRunner queryRunner,
+	    String sql, Object[] params) throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement(sql);
+		ResultSet rs = null;
+		try {
+			queryRunner.fillStatement(stmt, params);
+			rs = stmt.executeQuery();
+			long rows = 0;
+			while (rs.next()) {
+				rows++;
+			}
+			return rows;
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Run an EXPLAIN statement and join its first column into text.
+	 *
+	 * @param conn
+	 *            connection to run on
+	 * @param queryRunner
+	 *            query runner used to bind parameters
+	 * @param sql
+	 *            positional EXPLAIN statement
+	 * @param params
+	 *            statement parameters
+	 * @return plan text
+	 * @throws SQLException
+	 *             thrown if the statement fails
+	 */
+	static String planText(Connection conn, DaoQueryRunner queryRunner,
+	    String sql, Object[] params) throws SQLException {
+		StringBuilder text = new StringBuilder();
+		PreparedStatement stmt = conn.prepareStatement(sql);
+		ResultSet rs = null;
+		try {
+			queryRunner.fillStatement(stmt, params);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				text.append(rs.getString(1)).append('\n');
+			}
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Run a statement without parameters.
+	 *
+	 * @param conn
+	 *            connection to run on
+	 * @param sql
+	 *            the statement
+	 * @throws SQLException
+	 *             thrown if the statement fails
+	 */
+	static void execute(Connection conn, String sql) throws SQLException {
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute(sql);
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Return the first column of the first row of a query.
+	 *
+	 * @param conn
+	 *            connection to run on
+	 * @param sql
+	 *            the query
+	 * @return the value as a string, or an empty string if there are no rows
+	 * @throws SQLException
+	 *             thrown if the query fails
+	 */
+	static String firstColumn(Connection conn, String sql)
+	        throws SQLException {
+		Statement stmt = conn.createStatement();
+		ResultSet rs = null;
+		try {
+			rs = stmt.executeQuery(sql);
+			return rs.next() ? StringUtils.defaultString(rs.getString(1)) : "";
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Return the first group of every match of a pattern.
+	 *
+	 * @param pattern
+	 *            pattern with one group
+	 * @param text
+	 *            text to search
+	 * @return the matched groups
+	 */
+	static List<String> matches(Pattern pattern, String text) {
+		List<String> groups = new ArrayList<String>();
+		Matcher matcher = pattern.matcher(text);
+		while (matcher.find()) {
+			groups.add(matcher.group(1));
+		}
+		return groups;
+	}
+
+	/**
+	 * Sum the numbers captured by every match of a pattern.
+	 *
+	 * @param pattern
+	 *            pattern with one numeric group
+	 * @param text
+	 *            text to search
+	 * @return the sum, or -1 if the pattern doesn't match
+	 */
+	static long sum(Pattern pattern, String text) {
+		long total = -1;
+		Matcher matcher = pattern.matcher(text);
+		while (matcher.find()) {
+			total = Math.max(total, 0) + Long.parseLong(matcher.group(1));
+		}
+		return total;
+	}
+}
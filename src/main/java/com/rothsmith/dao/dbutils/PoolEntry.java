@@ -0,0 +1,121 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A physical connection in a {@link ConnectionPool} and its borrow state.
+ * Ownership changes with a compare-and-set on the state so that borrowing
+ * never takes a lock.
+ *
+ * @author drothauser
+ */
+final class PoolEntry {
+
+	/**
+	 * State of an idle connection.
+	 */
+	static final int NOT_IN_USE = 0;
+
+	/**
+	 * State of a borrowed connection.
+	 */
+	static final int IN_USE = 1;
+
+	/**
+	 * State of a connection removed from the pool.
+	 */
+	static final int REMOVED = -1;
+
+	/**
+	 * The physical connection.
+	 */
+	private final Connection connection;
+
+	/**
+	 * Borrow state.
+	 */
+	private final AtomicInteger state;
+
+	/**
+	 * {@link System#nanoTime()} of the last borrow or return.
+	 */
+	private volatile long lastAccess;
+
+	/**
+	 * Construct an entry for a physical connection.
+	 *
+	 * @param connection
+	 *            the physical connection
+	 * @param initialState
+	 *            initial borrow state
+	 */
+	PoolEntry(Connection connection, int initialState) {
+		this.connection = connection;
+		this.state = new AtomicInteger(initialState);
+		this.lastAccess = System.nanoTime();
+	}
+
+	/**
+	 * Atomically change the borrow state.
+	 *
+	 * @param expect
+	 *            expected state
+	 * @param update
+	 *            new state
+	 * @return true if the state was changed
+	 */
+	boolean compareAndSet(int expect, int update) {
+		return state.compareAndSet(expect, update);
+	}
+
+	/**
+	 * Accessor for state.
+	 *
+	 * @return the borrow state
+	 */
+	int getState() {
+		return state.get();
+	}
+
+	/**
+	 * Mutator for state.
+	 *
+	 * @param newState
+	 *            the borrow state
+	 */
+	void setState(int newState) {
+		state.set(newState);
+	}
+
+	/**
+	 * Accessor for connection.
+	 *
+	 * @return the physical connection
+	 */
+	Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Accessor for lastAccess.
+	 *
+	 * @return {@link System#nanoTime()} of the last borrow or return
+	 */
+	long getLastAccess() {
+		return lastAccess;
+	}
+
+	/**
+	 * Record a borrow or return.
+	 *
+	 * @param now
+	 *            current {@link System#nanoTime()}
+	 */
+	void touch(long now) {
+		lastAccess = now;
+	}
+}
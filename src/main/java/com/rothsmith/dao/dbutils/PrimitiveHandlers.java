@@ -0,0 +1,156 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+/**
+ * Result set handlers reading the first column straight into primitives,
+ * without boxing and without an intermediate list.
+ *
+ * @author drothauser
+ */
+final class PrimitiveHandlers {
+
+	/**
+	 * Initial capacity of the arrays read by the array handlers.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Private constructor to thwart instantiation.
+	 */
+	private PrimitiveHandlers() {
+		// Utility class should not be instantiated.
+	}
+
+	/**
+	 * Reads the first column of the first row as an <code>int</code>. The
+	 * handler returns itself; the value is read with {@link #get()}.
+	 */
+	static final class IntValue implements ResultSetHandler<IntValue> {
+
+		/**
+		 * Value read, 0 if there was no row or the column was NULL.
+		 */
+		private int value;
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public IntValue handle(ResultSet rs) throws SQLException {
+			if (rs.next()) {
+				value = rs.getInt(1);
+			}
+			return this;
+		}
+
+		/**
+		 * Return the value read.
+		 *
+		 * @return the value, 0 if there was no row or the column was NULL
+		 */
+		int get() {
+			return value;
+		}
+	}
+
+	/**
+	 * Reads the first column of the first row as a <code>long</code>. The
+	 * handler returns itself; the value is read with {@link #get()}.
+	 */
+	static final class LongValue implements ResultSetHandler<LongValue> {
+
+		/**
+		 * Value read, 0 if there was no row or the column was NULL.
+		 */
+		private long value;
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public LongValue handle(ResultSet rs) throws SQLException {
+			if (rs.next()) {
+				value = rs.getLong(1);
+			}
+			return this;
+		}
+
+		/**
+		 * Return the value read.
+		 *
+		 * @return the value, 0 if there was no row or the column was NULL
+		 */
+		long get() {
+			return value;
+		}
+	}
+
+	/**
+	 * Reads the first column of every row into an <code>int[]</code>; NULLs
+	 * are read as 0.
+	 */
+	static final class IntArray implements ResultSetHandler<int[]> {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int[] handle(ResultSet rs) throws SQLException {
+			int[] values = new int[INITIAL_CAPACITY];
+			int size = 0;
+			while (rs.next()) {
+				if (size == values.length) {
+					values = Arrays.copyOf(values, size * 2);
+				}
+				values[size++] = rs.getInt(1);
+			}
+			return size == values.length ? values : Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Reads the first column of every row into a <code>long[]</code>; NULLs
+	 * are read as 0.
+	 */
+	static final class LongArray implements ResultSetHandler<long[]> {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long[] handle(ResultSet rs) throws SQLException {
+			long[] values = new long[INITIAL_CAPACITY];
+			int size = 0;
+			while (rs.next()) {
+				if (size == values.length) {
+					values = Arrays.copyOf(values, size * 2);
+				}
+				values[size++] = rs.getLong(1);
+			}
+			return size == values.length ? values : Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Answers whether a query returned a row, reading nothing but the first
+	 * row.
+	 */
+	static final class Exists implements ResultSetHandler<Boolean> {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Boolean handle(ResultSet rs) throws SQLException {
+			return rs.next() ? Boolean.TRUE : Boolean.FALSE;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DAO executions of one {@link DaoProfiler} scope: round trips, database
+ * time and the statement shapes executed, with suspected N+1 patterns
+ * flagged.
+ *
+ * @author drothauser
+ */
+public final class ProfileReport {
+
+	/**
+	 * Scope name.
+	 */
+	private final String name;
+
+	/**
+	 * Elapsed time of the scope in nanoseconds.
+	 */
+	private final long elapsedNanos;
+
+	/**
+	 * Statement shapes in order of first execution.
+	 */
+	private final List<StatementProfile> statements;
+
+	/**
+	 * Construct a report.
+	 *
+	 * @param name
+	 *            scope name
+	 * @param elapsedNanos
+	 *            elapsed time of the scope in nanoseconds
+	 * @param statements
+	 *            statement shapes in order of first execution
+	 */
+	ProfileReport(String name, long elapsedNanos,
+	    List<StatementProfile> statements) {
+		this.name = name;
+		this.elapsedNanos = elapsedNanos;
+		this.statements = Collections.unmodifiableList(statements);
+	}
+
+	/**
+	 * Accessor for name.
+	 *
+	 * @return scope name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Return the number of statements executed.
+	 *
+	 * @return round trips to the database
+	 */
+	public int getRoundTrips() {
+		int roundTrips = 0;
+		for (StatementProfile statement : statements) {
+			roundTrips += statement.getExecutions();
+		}
+		return roundTrips;
+	}
+
+	/**
+	 * Return the time spent executing statements.
+	 *
+	 * @return database time in milliseconds
+	 */
+	public double getDbMillis() {
+		long nanos = 0;
+		for (StatementProfile statement : statements) {
+			nanos += statement.getNanos();
+		}
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Return the elapsed time of the scope.
+	 *
+	 * @return elapsed time in milliseconds
+	 */
+	public double getElapsedMillis() {
+		return elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Accessor for statements.
+	 *
+	 * @return statement shapes in order of first execution
+	 */
+	public List<StatementProfile> getStatements() {
+		return statements;
+	}
+
+	/**
+	 * Return the statement shapes flagged as suspected N+1 patterns.
+	 *
+	 * @return suspected shapes
+	 */
+	public List<StatementProfile> getSuspects() {
+		List<StatementProfile> suspects = new ArrayList<StatementProfile>();
+		for (StatementProfile statement : statements) {
+			if (statement.isSuspect()) {
+				suspects.add(statement);
+			}
+		}
+		return suspects;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder(String.format(
+		    "%s: roundTrips=%d, db=%.3fms, elapsed=%.3fms", name,
+		    getRoundTrips(), getDbMillis(), getElapsedMillis()));
+		for (StatementProfile statement : statements) {
+			report.append(System.lineSeparator()).append("  ")
+			    .append(statement);
+		}
+		return report.toString();
+	}
+}
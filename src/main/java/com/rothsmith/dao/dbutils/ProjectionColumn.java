@@ -0,0 +1,28 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Names the column a projection getter or constructor parameter is mapped
+ * from when it doesn't follow the <code>partyId</code> &rarr;
+ * <code>PARTY_ID</code> naming convention.
+ *
+ * @author drothauser
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.PARAMETER })
+public @interface ProjectionColumn {
+
+	/**
+	 * Column name or label.
+	 */
+	String value();
+}
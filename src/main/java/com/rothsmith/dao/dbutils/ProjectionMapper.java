@@ -0,0 +1,552 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.beans.ConstructorProperties;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Maps result set rows into a projection type: an interface of getters
+ * (backed by a proxy), a record, or a class with a constructor whose
+ * parameters name the columns (through {@link ConstructorProperties},
+ * {@link ProjectionColumn} or parameter names compiled with
+ * <code>-parameters</code>). The columns, their types and the constructor
+ * handle are resolved once per projection type; mapping a row only reads the
+ * columns by position and invokes the handle.
+ *
+ * @param <R>
+ *            projection type
+ *
+ * @author drothauser
+ */
+final class ProjectionMapper<R> {
+
+	/**
+	 * Mappers keyed by projection type.
+	 */
+	private static final ClassValue<ProjectionMapper<?>> MAPPERS =
+	    new ClassValue<ProjectionMapper<?>>() {
+		    @Override
+		    protected ProjectionMapper<?> computeValue(Class<?> type) {
+			    return new ProjectionMapper<Object>(type);
+		    }
+	    };
+
+	/**
+	 * Projection type.
+	 */
+	private final Class<?> type;
+
+	/**
+	 * Upper case column names in constructor argument order.
+	 */
+	private final List<String> columns;
+
+	/**
+	 * Argument types in constructor argument order.
+	 */
+	private final Class<?>[] argumentTypes;
+
+	/**
+	 * Handle creating a projection from an <code>Object[]</code> of column
+	 * values.
+	 */
+	private final MethodHandle factory;
+
+	/**
+	 * Construct the mapper of a projection type.
+	 *
+	 * @param type
+	 *            projection type
+	 */
+	private ProjectionMapper(Class<?> type) {
+
+		this.type = type;
+
+		List<String> names = new ArrayList<String>();
+		List<Class<?>> types = new ArrayList<Class<?>>();
+		try {
+			if (type.isInterface()) {
+				factory = interfaceFactory(type, names, types);
+			} else {
+				factory = constructorFactory(type, names, types);
+			}
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException(
+			    "Can't map projection " + type.getName() + ": " + e, e);
+		}
+
+		this.columns = Collections.unmodifiableList(names);
+		this.argumentTypes = types.toArray(new Class<?>[types.size()]);
+	}
+
+	/**
+	 * Return the mapper of a projection type.
+	 *
+	 * @param <R>
+	 *            projection type
+	 * @param type
+	 *            projection type
+	 * @return the type's mapper
+	 */
+	@SuppressWarnings("unchecked")
+	static <R> ProjectionMapper<R> forType(Class<R> type) {
+		return (ProjectionMapper<R>) MAPPERS.get(type);
+	}
+
+	/**
+	 * Return the columns the projection is mapped from.
+	 *
+	 * @return upper case column names
+	 */
+	List<String> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Return a handler mapping every row of a result set into a projection.
+	 *
+	 * @return result set handler
+	 */
+	ResultSetHandler<List<R>> listHandler() {
+		return new ResultSetHandler<List<R>>() {
+			@Override
+			public List<R> handle(ResultSet rs) throws SQLException {
+				int[] positions = positions(rs.getMetaData());
+				List<R> rows = new ArrayList<R>();
+				while (rs.next()) {
+					rows.add(toProjection(rs, positions));
+				}
+				return rows;
+			}
+		};
+	}
+
+	/**
+	 * Find the result set position of each projection column.
+	 *
+	 * @param metaData
+	 *            result set metadata
+	 * @return 1-based positions in constructor argument order
+	 * @throws SQLException
+	 *             thrown if the metadata can't be read
+	 */
+	private int[] positions(ResultSetMetaData metaData) throws SQLException {
+
+		Map<String, Integer> byLabel = new HashMap<String, Integer>();
+		for (int i = metaData.getColumnCount(); i > 0; i--) {
+			byLabel.put(metaData.getColumnLabel(i).toUpperCase(Locale.ROOT),
+			    i);
+		}
+
+		int[] positions = new int[columns.size()];
+		for (int i = 0; i < positions.length; i++) {
+			Integer position = byLabel.get(columns.get(i));
+			if (position == null) {
+				throw new IllegalArgumentException(String.format(
+				    "Column %s of projection %s is not in the result %s",
+				    columns.get(i), type.getName(), byLabel.keySet()));
+			}
+			positions[i] = position;
+		}
+
+		return positions;
+	}
+
+	/**
+	 * Map the current row.
+	 *
+	 * @param rs
+	 *            result set positioned on a row
+	 * @param positions
+	 *            column positions from {@link #positions(ResultSetMetaData)}
+	 * @return the projection
+	 * @throws SQLException
+	 *             thrown if a column can't be read
+	 */
+	@SuppressWarnings("unchecked")
+	private R toProjection(ResultSet rs, int[] positions) throws SQLException {
+
+		Object[] values = new Object[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			values[i] = convert(rs.getObject(positions[i]), argumentTypes[i]);
+		}
+
+		try {
+			Object projection = factory.invokeExact(values);
+			return (R) projection;
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(
+			    "Can't create projection " + type.getName() + ": " + e, e);
+		}
+	}
+
+	/**
+	 * Build the factory of an interface projection: a proxy answering each
+	 * getter from the row's values.
+	 *
+	 * @param iface
+	 *            projection interface
+	 * @param names
+	 *            receives the column names
+	 * @param types
+	 *            receives the getter return types
+	 * @return factory handle
+	 * @throws ReflectiveOperationException
+	 *             thrown if the proxy class can't be created
+	 */
+	private static MethodHandle interfaceFactory(Class<?> iface,
+	    List<String> names, List<Class<?>> types)
+	        throws ReflectiveOperationException {
+
+		// Sort the getters so that the trimmed SELECT list is stable.
+		Method[] methods = iface.getMethods();
+		Arrays.sort(methods, new Comparator<Method>() {
+			@Override
+			public int compare(Method m1, Method m2) {
+				return m1.getName().compareTo(m2.getName());
+			}
+		});
+
+		final Map<Method, Integer> indexes = new HashMap<Method, Integer>();
+		for (Method method : methods) {
+			if (method.isDefault() || Modifier.isStatic(method.getModifiers())
+			    || method.getParameterTypes().length > 0
+			    || method.getReturnType() == void.class) {
+				continue;
+			}
+			String property = propertyName(method.getName());
+			if (property == null) {
+				throw new IllegalArgumentException(String.format(
+				    "%s.%s is not a getter", iface.getName(),
+				    method.getName()));
+			}
+			indexes.put(method, names.size());
+			names.add(columnName(method.getAnnotation(ProjectionColumn.class),
+			    property));
+			types.add(method.getReturnType());
+		}
+
+		final String typeName = iface.getSimpleName();
+		final List<String> columns = new ArrayList<String>(names);
+		MethodHandle create = MethodHandles.lookup().findStatic(
+		    ProjectionMapper.class, "newProxy",
+		    MethodType.methodType(Object.class, Constructor.class, Map.class,
+		        List.class, String.class, Object[].class));
+		Constructor<?> proxyConstructor =
+		    Proxy.getProxyClass(iface.getClassLoader(), iface)
+		        .getConstructor(InvocationHandler.class);
+
+		return MethodHandles.insertArguments(create, 0, proxyConstructor,
+		    indexes, columns, typeName);
+	}
+
+	/**
+	 * Create a proxy over one row's values.
+	 *
+	 * @param proxyConstructor
+	 *            proxy class constructor
+	 * @param indexes
+	 *            value index of each getter
+	 * @param columns
+	 *            column names, for <code>toString</code>
+	 * @param typeName
+	 *            projection name, for <code>toString</code>
+	 * @param values
+	 *            the row's values
+	 * @return the proxy
+	 * @throws ReflectiveOperationException
+	 *             thrown if the proxy can't be created
+	 */
+	@SuppressWarnings("unused")
+	private static Object newProxy(Constructor<?> proxyConstructor,
+	    final Map<Method, Integer> indexes, final List<String> columns,
+	    final String typeName, final Object[] values)
+	        throws ReflectiveOperationException {
+
+		return proxyConstructor.newInstance(new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				Integer index = indexes.get(method);
+				if (index != null) {
+					return values[index];
+				}
+				switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					StringBuilder sb = new StringBuilder(typeName).append('[');
+					for (int i = 0; i < values.length; i++) {
+						sb.append(i == 0 ? "" : ", ").append(columns.get(i))
+						    .append('=').append(values[i]);
+					}
+					return sb.append(']').toString();
+				default:
+					throw new UnsupportedOperationException(
+					    method.toString());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Build the factory of a record or class projection from its mapping
+	 * constructor.
+	 *
+	 * @param type
+	 *            projection class
+	 * @param names
+	 *            receives the column names
+	 * @param types
+	 *            receives the constructor parameter types
+	 * @return factory handle
+	 * @throws ReflectiveOperationException
+	 *             thrown if the constructor can't be found or accessed
+	 */
+	private static MethodHandle constructorFactory(Class<?> type,
+	    List<String> names, List<Class<?>> types)
+	        throws ReflectiveOperationException {
+
+		Constructor<?> constructor = null;
+		String[] properties = recordComponents(type);
+		if (properties != null) {
+			Class<?>[] componentTypes = new Class<?>[properties.length];
+			Object[] components = (Object[]) Class.class
+			    .getMethod("getRecordComponents").invoke(type);
+			for (int i = 0; i < components.length; i++) {
+				componentTypes[i] = (Class<?>) components[i].getClass()
+				    .getMethod("getType").invoke(components[i]);
+			}
+			constructor = type.getDeclaredConstructor(componentTypes);
+		} else {
+			for (Constructor<?> candidate : type.getDeclaredConstructors()) {
+				String[] candidateProperties = constructorProperties(candidate);
+				if (candidateProperties != null && (properties == null
+				    || candidateProperties.length > properties.length)) {
+					constructor = candidate;
+					properties = candidateProperties;
+				}
+			}
+		}
+
+		if (constructor == null) {
+			throw new IllegalArgumentException(String.format(
+			    "%s needs a constructor annotated with @ConstructorProperties"
+			        + " or with @ProjectionColumn parameters",
+			    type.getName()));
+		}
+
+		Parameter[] parameters = constructor.getParameters();
+		for (int i = 0; i < parameters.length; i++) {
+			names.add(columnName(
+			    parameters[i].getAnnotation(ProjectionColumn.class),
+			    properties[i]));
+			types.add(parameters[i].getType());
+		}
+
+		constructor.setAccessible(true);
+		return MethodHandles.lookup().unreflectConstructor(constructor)
+		    .asSpreader(Object[].class, parameters.length)
+		    .asType(MethodType.methodType(Object.class, Object[].class));
+	}
+
+	/**
+	 * Return the component names of a record, or null if the type is not a
+	 * record (or the runtime predates records).
+	 *
+	 * @param type
+	 *            projection class
+	 * @return component names or null
+	 * @throws ReflectiveOperationException
+	 *             thrown if the components can't be read
+	 */
+	private static String[] recordComponents(Class<?> type)
+	        throws ReflectiveOperationException {
+
+		Method getRecordComponents;
+		try {
+			getRecordComponents = Class.class.getMethod("getRecordComponents");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+
+		Object[] components = (Object[]) getRecordComponents.invoke(type);
+		if (components == null) {
+			return null;
+		}
+
+		String[] names = new String[components.length];
+		for (int i = 0; i < components.length; i++) {
+			names[i] = (String) components[i].getClass().getMethod("getName")
+			    .invoke(components[i]);
+		}
+		return names;
+	}
+
+	/**
+	 * Return the property names of a constructor's parameters, or null if
+	 * they can't be determined.
+	 *
+	 * @param constructor
+	 *            candidate constructor
+	 * @return property names or null
+	 */
+	private static String[] constructorProperties(Constructor<?> constructor) {
+
+		Parameter[] parameters = constructor.getParameters();
+		if (parameters.length == 0) {
+			return null;
+		}
+
+		ConstructorProperties annotation =
+		    constructor.getAnnotation(ConstructorProperties.class);
+		if (annotation != null) {
+			return annotation.value();
+		}
+
+		String[] properties = new String[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			ProjectionColumn column =
+			    parameters[i].getAnnotation(ProjectionColumn.class);
+			if (column != null) {
+				properties[i] = column.value();
+			} else if (parameters[i].isNamePresent()) {
+				properties[i] = parameters[i].getName();
+			} else {
+				return null;
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Return the property name of a getter.
+	 *
+	 * @param methodName
+	 *            method name
+	 * @return property name, or null if the method is not a getter
+	 */
+	private static String propertyName(String methodName) {
+		String property = null;
+		if (methodName.startsWith("get") && methodName.length() > 3) {
+			property = methodName.substring(3);
+		} else if (methodName.startsWith("is") && methodName.length() > 2) {
+			property = methodName.substring(2);
+		}
+		return property == null ? null : StringUtils.uncapitalize(property);
+	}
+
+	/**
+	 * Return the column a property is mapped from.
+	 *
+	 * @param column
+	 *            explicit column annotation or null
+	 * @param property
+	 *            property name
+	 * @return upper case column name
+	 */
+	private static String columnName(ProjectionColumn column,
+	    String property) {
+		String name = column == null ? SqlStatements.toColumnName(property)
+		    : column.value();
+		return name.toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * Convert a column value to a projection argument type. Numbers are
+	 * converted between numeric types and SQL NULL becomes the default value
+	 * of a primitive.
+	 *
+	 * @param value
+	 *            column value
+	 * @param target
+	 *            argument type
+	 * @return converted value
+	 */
+	private static Object convert(Object value, Class<?> target) {
+
+		Class<?> wrapper = ClassUtils.primitiveToWrapper(target);
+		if (value == null) {
+			return target.isPrimitive() ? defaultValue(wrapper) : null;
+		}
+		if (wrapper.isInstance(value) || !(value instanceof Number)) {
+			return value;
+		}
+
+		Number number = (Number) value;
+		Object converted = value;
+		if (wrapper == Integer.class) {
+			converted = number.intValue();
+		} else if (wrapper == Long.class) {
+			converted = number.longValue();
+		} else if (wrapper == Short.class) {
+			converted = number.shortValue();
+		} else if (wrapper == Byte.class) {
+			converted = number.byteValue();
+		} else if (wrapper == Double.class) {
+			converted = number.doubleValue();
+		} else if (wrapper == Float.class) {
+			converted = number.floatValue();
+		} else if (wrapper == BigDecimal.class) {
+			converted = new BigDecimal(number.toString());
+		} else if (wrapper == BigInteger.class) {
+			converted = new BigDecimal(number.toString()).toBigInteger();
+		}
+		return converted;
+	}
+
+	/**
+	 * Return the default value of a primitive type.
+	 *
+	 * @param wrapper
+	 *            wrapper class of the primitive
+	 * @return the default value
+	 */
+	private static Object defaultValue(Class<?> wrapper) {
+		if (wrapper == Boolean.class) {
+			return Boolean.FALSE;
+		}
+		if (wrapper == Character.class) {
+			return Character.valueOf('\0');
+		}
+		return convert(Integer.valueOf(0), wrapper);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return type.getName() + Arrays.toString(argumentTypes) + columns;
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.beanutils.PropertyUtilsBean;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rothsmith.dao.DaoRuntimeException;
+
+/**
+ * In-memory copy of a small, rarely changing reference table such as STATE
+ * or PARTY. A DAO is put in reference mode with <code>cache=reference</code>
+ * in its properties file:
+ *
+ * <pre>
+ * cache=reference
+ * cache.key=ID
+ * cache.indexes=ABBREVIATION, NAME
+ * cache.refreshInterval=600000
+ * </pre>
+ *
+ * <ul>
+ * <li><code>cache.key</code> - integer key column (default <code>ID</code>)
+ * <li><code>cache.indexes</code> - further unique columns to look rows up by
+ * <li><code>cache.refreshInterval</code> - milliseconds between reloads; 0
+ * (the default) reloads only after writes through the DAO
+ * <li><code>cache.statement</code> - id of the statement loading the table;
+ * by default <code>query.select</code> without its WHERE clause
+ * </ul>
+ *
+ * The whole table is loaded when the DAO is created into an immutable
+ * snapshot indexed by an {@link IntObjectMap} on the key. Each reload builds a
+ * new snapshot and swaps it in with a single volatile write, so lookups never
+ * lock and, by key, allocate nothing. The cached DTOs are shared by all
+ * callers and must not be modified. Periodic reloads run until the DAO is
+ * closed.
+ *
+ * @param <T>
+ *            DTO class
+ *
+ * @author drothauser
+ */
+final class ReferenceCache<T> {
+
+	/**
+	 * SLF4J Logger for ReferenceCache.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(ReferenceCache.class);
+
+	/**
+	 * Value of the <code>cache</code> property selecting reference mode.
+	 */
+	static final String REFERENCE = "reference";
+
+	/**
+	 * Scheduler running the periodic reloads of all reference caches.
+	 */
+	private static final ScheduledExecutorService SCHEDULER =
+	    newScheduler();
+
+	/**
+	 * Loads the rows of the table.
+	 *
+	 * @param <T>
+	 *            DTO class
+	 */
+	interface Loader<T> {
+
+		/**
+		 * Load every row of the table.
+		 *
+		 * @return the rows
+		 * @throws SQLException
+		 *             thrown if the rows can't be loaded
+		 */
+		List<T> load() throws SQLException;
+	}
+
+	/**
+	 * Immutable contents of the cache.
+	 *
+	 * @param <T>
+	 *            DTO class
+	 */
+	private static final class Snapshot<T> {
+
+		/**
+		 * Rows by key.
+		 */
+		private final IntObjectMap<T> byKey;
+
+		/**
+		 * Rows by value, keyed by upper case index column.
+		 */
+		private final Map<String, Map<Object, T>> byColumn;
+
+		/**
+		 * All rows in load order.
+		 */
+		private final List<T> rows;
+
+		/**
+		 * Construct a snapshot.
+		 *
+		 * @param byKey
+		 *            rows by key
+		 * @param byColumn
+		 *            rows by value, keyed by upper case index column
+		 * @param rows
+		 *            all rows in load order
+		 */
+		Snapshot(IntObjectMap<T> byKey, Map<String, Map<Object, T>> byColumn,
+		    List<T> rows) {
+			this.byKey = byKey;
+			this.byColumn = byColumn;
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * Loads the rows of the table.
+	 */
+	private final Loader<T> loader;
+
+	/**
+	 * Upper case key column.
+	 */
+	private final String keyColumn;
+
+	/**
+	 * Upper case index columns.
+	 */
+	private final List<String> indexColumns = new ArrayList<String>();
+
+	/**
+	 * Current contents.
+	 */
+	private volatile Snapshot<T> snapshot;
+
+	/**
+	 * Periodic reload, or null if the cache is only reloaded after writes.
+	 */
+	private final ScheduledFuture<?> refreshTask;
+
+	/**
+	 * Construct a cache and load the table.
+	 *
+	 * @param properties
+	 *            DAO properties
+	 * @param loader
+	 *            loads the rows of the table
+	 */
+	ReferenceCache(Map<String, String> properties, Loader<T> loader) {
+
+		this.loader = loader;
+		this.keyColumn = StringUtils
+		    .defaultIfBlank(properties.get("cache.key"), "ID").trim()
+		    .toUpperCase(Locale.ROOT);
+		for (String column : StringUtils
+		    .split(StringUtils.defaultString(properties.get("cache.indexes")),
+		        ", ")) {
+			indexColumns.add(column.toUpperCase(Locale.ROOT));
+		}
+
+		refresh();
+
+		long interval =
+		    NumberUtils.toLong(properties.get("cache.refreshInterval"));
+		if (interval <= 0) {
+			refreshTask = null;
+		} else {
+			refreshTask = SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						refresh();
+					} catch (RuntimeException e) {
+						LOGGER.warn("Reference cache refresh failed: " + e);
+					}
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Return whether DAO properties select reference mode.
+	 *
+	 * @param properties
+	 *            DAO properties
+	 * @return true if <code>cache=reference</code>
+	 */
+	static boolean isEnabled(Map<String, String> properties) {
+		return REFERENCE.equalsIgnoreCase(StringUtils.trim(properties
+		    .get("cache")));
+	}
+
+	/**
+	 * Cancel the periodic reload, releasing the cache (and through its loader
+	 * the DAO) from the scheduler. The cache can still be read and reloaded
+	 * with {@link #refresh()}.
+	 */
+	void close() {
+		if (refreshTask != null) {
+			refreshTask.cancel(false);
+		}
+	}
+
+	/**
+	 * Reload the table and swap the new snapshot in. Readers keep using the
+	 * previous snapshot until the swap.
+	 */
+	synchronized void refresh() {
+
+		PropertyUtilsBean propertyUtilsBean = new PropertyUtilsBean();
+
+		try {
+			List<T> rows = loader.load();
+
+			IntObjectMap<T> byKey = new IntObjectMap<T>(rows.size());
+			Map<String, Map<Object, T>> byColumn =
+			    new HashMap<String, Map<Object, T>>();
+			for (String column : indexColumns) {
+				byColumn.put(column, new HashMap<Object, T>());
+			}
+
+			String keyProperty = SqlStatements.toPropertyName(keyColumn);
+			for (T row : rows) {
+				Object key = propertyUtilsBean.getProperty(row, keyProperty);
+				if (!(key instanceof Number)) {
+					throw new IllegalArgumentException(String.format(
+					    "Reference cache key %s must be an integer: %s",
+					    keyColumn, key));
+				}
+				byKey.put(((Number) key).intValue(), row);
+				for (Map.Entry<String, Map<Object, T>> index : byColumn
+				    .entrySet()) {
+					Object value = propertyUtilsBean.getProperty(row,
+					    SqlStatements.toPropertyName(index.getKey()));
+					if (value != null) {
+						index.getValue().put(value, row);
+					}
+				}
+			}
+
+			snapshot = new Snapshot<T>(byKey, byColumn,
+			    Collections.unmodifiableList(rows));
+
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Reference cache loaded " + rows.size() + " rows");
+			}
+
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		} catch (IllegalAccessException | InvocationTargetException
+		        | NoSuchMethodException e) {
+			String msg = "Error with PropertyUtilsBean: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+	}
+
+	/**
+	 * Look a row up by key.
+	 *
+	 * @param key
+	 *            key value
+	 * @return the row or null if there is none
+	 */
+	T get(int key) {
+		return snapshot.byKey.get(key);
+	}
+
+	/**
+	 * Look a row up by the value of an index column.
+	 *
+	 * @param column
+	 *            index column
+	 * @param value
+	 *            column value
+	 * @return the row or null if there is none
+	 * @throws IllegalArgumentException
+	 *             thrown if the column isn't indexed
+	 */
+	T get(String column, Object value) {
+		Map<Object, T> index = snapshot.byColumn.get(column);
+		if (index == null) {
+			index = snapshot.byColumn.get(column.toUpperCase(Locale.ROOT));
+			if (index == null) {
+				throw new IllegalArgumentException(
+				    "Not a reference cache index: " + column);
+			}
+		}
+		return index.get(value);
+	}
+
+	/**
+	 * Return every row.
+	 *
+	 * @return unmodifiable list of the rows in load order
+	 */
+	List<T> getAll() {
+		return snapshot.rows;
+	}
+
+	/**
+	 * Accessor for keyColumn.
+	 *
+	 * @return upper case key column
+	 */
+	String getKeyColumn() {
+		return keyColumn;
+	}
+
+	/**
+	 * Create the daemon scheduler running periodic reloads.
+	 *
+	 * @return the scheduler
+	 */
+	private static ScheduledExecutorService newScheduler() {
+		ScheduledThreadPoolExecutor scheduler =
+		    new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			    @Override
+			    public Thread newThread(Runnable r) {
+				    Thread thread = new Thread(r, "dao-reference-cache");
+				    thread.setDaemon(true);
+				    return thread;
+			    }
+		    });
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+}
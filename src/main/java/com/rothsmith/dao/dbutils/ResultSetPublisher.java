@@ -0,0 +1,397 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rothsmith.dao.DaoRuntimeException;
+
+/**
+ * Reactive Streams {@link Publisher} of the rows of a query. Each
+ * subscription runs the query on its own connection and reads rows from the
+ * open cursor only as fast as the subscriber requests them. All JDBC work runs
+ * on the DAO's publisher executor, never on the subscriber's thread; the
+ * cursor, statement and connection are closed as soon as the stream
+ * completes, fails or is cancelled.
+ *
+ * @param <R>
+ *            row type
+ *
+ * @author drothauser
+ */
+final class ResultSetPublisher<R> implements Publisher<R> {
+
+	/**
+	 * SLF4J Logger for ResultSetPublisher.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(ResultSetPublisher.class);
+
+	/**
+	 * Largest fetch size requested from the driver, however large the demand.
+	 */
+	static final int MAX_FETCH_SIZE = 500;
+
+	/**
+	 * Reads one row of a result set.
+	 *
+	 * @param <R>
+	 *            row type
+	 */
+	interface RowReader<R> {
+
+		/**
+		 * Read the current row.
+		 *
+		 * @param rs
+		 *            result set positioned on a row
+		 * @return the row
+		 * @throws SQLException
+		 *             thrown if the row can't be read
+		 */
+		R read(ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * Query runner whose data source supplies the connections.
+	 */
+	private final DaoQueryRunner queryRunner;
+
+	/**
+	 * Settings, concurrency limit and metrics of the statement.
+	 */
+	private final StatementContext context;
+
+	/**
+	 * Positional SQL.
+	 */
+	private final String sql;
+
+	/**
+	 * Statement parameters.
+	 */
+	private final Object[] params;
+
+	/**
+	 * Row reader.
+	 */
+	private final RowReader<R> reader;
+
+	/**
+	 * Executor running the JDBC work.
+	 */
+	private final Executor executor;
+
+	/**
+	 * Construct a publisher.
+	 *
+	 * @param queryRunner
+	 *            query runner whose data source supplies the connections
+	 * @param context
+	 *            settings, concurrency limit and metrics of the statement
+	 * @param sql
+	 *            positional SQL
+	 * @param params
+	 *            statement parameters
+	 * @param reader
+	 *            row reader
+	 * @param executor
+	 *            executor running the JDBC work
+	 */
+	ResultSetPublisher(DaoQueryRunner queryRunner, StatementContext context,
+	    String sql, Object[] params, RowReader<R> reader, Executor executor) {
+		this.queryRunner = queryRunner;
+		this.context = context;
+		this.sql = sql;
+		this.params = params == null ? new Object[0] : params.clone();
+		this.reader = reader;
+		this.executor = executor;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void subscribe(Subscriber<? super R> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("subscriber");
+		}
+		subscriber.onSubscribe(new CursorSubscription(subscriber));
+	}
+
+	/**
+	 * A subscription reading from its own cursor. Demand and cancellation are
+	 * recorded by the subscriber's thread and acted upon by a drain task on
+	 * the executor; the work-in-progress counter ensures only one drain runs
+	 * at a time, so the JDBC objects are only ever used by one thread at a
+	 * time and signals to the subscriber are serialized.
+	 */
+	private final class CursorSubscription implements Subscription, Runnable {
+
+		/**
+		 * The subscriber.
+		 */
+		private final Subscriber<? super R> subscriber;
+
+		/**
+		 * Outstanding demand; Long.MAX_VALUE means unbounded.
+		 */
+		private final AtomicLong requested = new AtomicLong();
+
+		/**
+		 * Number of drain requests not yet handled.
+		 */
+		private final AtomicInteger wip = new AtomicInteger();
+
+		/**
+		 * Set by {@link #cancel()}.
+		 */
+		private volatile boolean cancelled;
+
+		/**
+		 * Set when the subscriber requested a non-positive number of rows.
+		 */
+		private volatile boolean badRequest;
+
+		/**
+		 * True once a terminal signal was sent or the stream was cancelled.
+		 */
+		private boolean done;
+
+		/**
+		 * True while holding the statement's execution slot.
+		 */
+		private boolean acquired;
+
+		/**
+		 * Time the query was started.
+		 */
+		private long start;
+
+		/**
+		 * Fetch size last given to the driver.
+		 */
+		private int fetchSize;
+
+		/**
+		 * Open connection.
+		 */
+		private Connection conn;
+
+		/**
+		 * Open statement.
+		 */
+		private PreparedStatement stmt;
+
+		/**
+		 * Open cursor.
+		 */
+		private ResultSet rs;
+
+		/**
+		 * Construct a subscription.
+		 *
+		 * @param subscriber
+		 *            the subscriber
+		 */
+		CursorSubscription(Subscriber<? super R> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				badRequest = true;
+			} else {
+				long current;
+				long next;
+				do {
+					current = requested.get();
+					next = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while (!requested.compareAndSet(current, next));
+			}
+			schedule();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void cancel() {
+			cancelled = true;
+			schedule();
+		}
+
+		/**
+		 * Make sure a drain runs after this call.
+		 */
+		private void schedule() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				// No drain is running, so this thread may finish the stream.
+				fail(new DaoRuntimeException(
+				    "Publisher executor rejected the query: " + e, e));
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		/**
+		 * Act on cancellation and emit as many rows as requested.
+		 */
+		private void drain() {
+
+			if (done) {
+				return;
+			}
+			if (cancelled) {
+				done = true;
+				close(false);
+				return;
+			}
+			if (badRequest) {
+				fail(new IllegalArgumentException(
+				    "Rule 3.9: request must be positive"));
+				return;
+			}
+
+			long demand = requested.get();
+			if (demand == 0) {
+				return;
+			}
+
+			try {
+				if (rs == null) {
+					open();
+				}
+				adjustFetchSize(demand);
+
+				long emitted = 0;
+				while (emitted != demand) {
+					if (cancelled) {
+						done = true;
+						close(false);
+						return;
+					}
+					if (!rs.next()) {
+						done = true;
+						close(false);
+						subscriber.onComplete();
+						return;
+					}
+					subscriber.onNext(reader.read(rs));
+					emitted++;
+				}
+
+				if (demand != Long.MAX_VALUE) {
+					requested.addAndGet(-emitted);
+				}
+
+			} catch (SQLException e) {
+				String msg = "SQLException caught: " + e;
+				LOGGER.error(msg, e);
+				fail(new DaoRuntimeException(msg, e));
+			} catch (RuntimeException e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Run the query.
+		 *
+		 * @throws SQLException
+		 *             thrown if the query fails
+		 */
+		private void open() throws SQLException {
+			context.acquire();
+			acquired = true;
+			start = System.nanoTime();
+
+			conn = queryRunner.getDataSource().getConnection();
+			stmt = queryRunner.prepareStatement(context.getSettings(), conn,
+			    sql);
+			queryRunner.fillStatement(stmt, params);
+			rs = stmt.executeQuery();
+		}
+
+		/**
+		 * Match the driver's fetch size to the outstanding demand so that a
+		 * subscriber requesting a few rows at a time doesn't make the driver
+		 * buffer many more.
+		 *
+		 * @param demand
+		 *            outstanding demand
+		 * @throws SQLException
+		 *             thrown if the driver rejects the fetch size
+		 */
+		private void adjustFetchSize(long demand) throws SQLException {
+			int size = (int) Math.min(demand, MAX_FETCH_SIZE);
+			if (size != fetchSize) {
+				rs.setFetchSize(size);
+				fetchSize = size;
+			}
+		}
+
+		/**
+		 * Close the cursor and signal an error.
+		 *
+		 * @param error
+		 *            the error
+		 */
+		private void fail(Throwable error) {
+			done = true;
+			close(true);
+			subscriber.onError(error);
+		}
+
+		/**
+		 * Close the cursor, statement and connection and give back the
+		 * statement's execution slot.
+		 *
+		 * @param failed
+		 *            true if the stream failed
+		 */
+		private void close(boolean failed) {
+			DbUtils.closeQuietly(conn, stmt, rs);
+			rs = null;
+			stmt = null;
+			conn = null;
+			if (acquired) {
+				acquired = false;
+				context.release(System.nanoTime() - start, failed);
+			}
+		}
+	}
+}
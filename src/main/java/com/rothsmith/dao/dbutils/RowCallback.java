@@ -0,0 +1,32 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Processes the rows of a query one at a time while its cursor is open (see
+ * {@link DbUtilsJdbcDao#streamByStatement(String, Object, RowCallback)}).
+ *
+ * @param <T>
+ *            DTO type
+ *
+ * @author drothauser
+ */
+public interface RowCallback<T> {
+
+	/**
+	 * Process a row. Streams in the DTO are valid until the query completes
+	 * and must not be kept.
+	 *
+	 * @param row
+	 *            the row
+	 * @throws IOException
+	 *             thrown if a stream fails; stops the query
+	 * @throws SQLException
+	 *             thrown if the database fails; stops the query
+	 */
+	void process(T row) throws IOException, SQLException;
+}
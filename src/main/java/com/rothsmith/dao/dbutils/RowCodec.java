@@ -0,0 +1,590 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.rothsmith.dao.DaoRuntimeException;
+
+/**
+ * Compact binary format of a DTO's bean properties, used to spill rows of a
+ * {@link SpillingList} to disk. A row is its readable and writable
+ * properties in name order, each a one-byte type tag followed by the value:
+ * integers as zig-zag variable-length integers, strings as UTF-8 with a
+ * variable-length byte count, decimals as scale and unscaled bytes, dates as
+ * epoch milliseconds. Other serializable values fall back to Java
+ * serialization. Nothing but the values is written; the codec of the DTO
+ * class supplies the property names.
+ *
+ * @param <T>
+ *            DTO type
+ *
+ * @author drothauser
+ */
+final class RowCodec<T> {
+
+	/**
+	 * Tag of a null value.
+	 */
+	private static final byte NULL = 0;
+
+	/**
+	 * Tag of a String.
+	 */
+	private static final byte STRING = 1;
+
+	/**
+	 * Tag of an Integer.
+	 */
+	private static final byte INT = 2;
+
+	/**
+	 * Tag of a Long.
+	 */
+	private static final byte LONG = 3;
+
+	/**
+	 * Tag of a Short.
+	 */
+	private static final byte SHORT = 4;
+
+	/**
+	 * Tag of a Byte.
+	 */
+	private static final byte BYTE = 5;
+
+	/**
+	 * Tag of a BigDecimal.
+	 */
+	private static final byte DECIMAL = 6;
+
+	/**
+	 * Tag of a BigInteger.
+	 */
+	private static final byte BIG_INTEGER = 7;
+
+	/**
+	 * Tag of a Double.
+	 */
+	private static final byte DOUBLE = 8;
+
+	/**
+	 * Tag of a Float.
+	 */
+	private static final byte FLOAT = 9;
+
+	/**
+	 * Tag of Boolean.TRUE.
+	 */
+	private static final byte TRUE = 10;
+
+	/**
+	 * Tag of Boolean.FALSE.
+	 */
+	private static final byte FALSE = 11;
+
+	/**
+	 * Tag of a java.sql.Timestamp.
+	 */
+	private static final byte TIMESTAMP = 12;
+
+	/**
+	 * Tag of a java.sql.Date.
+	 */
+	private static final byte SQL_DATE = 13;
+
+	/**
+	 * Tag of a java.sql.Time.
+	 */
+	private static final byte SQL_TIME = 14;
+
+	/**
+	 * Tag of a java.util.Date.
+	 */
+	private static final byte DATE = 15;
+
+	/**
+	 * Tag of a byte array.
+	 */
+	private static final byte BYTES = 16;
+
+	/**
+	 * Tag of a Character.
+	 */
+	private static final byte CHAR = 17;
+
+	/**
+	 * Tag of any other serializable value.
+	 */
+	private static final byte SERIALIZED = 127;
+
+	/**
+	 * Estimated heap bytes of an object header and reference.
+	 */
+	private static final int OBJECT_BYTES = 24;
+
+	/**
+	 * Estimated heap bytes of a String besides its characters.
+	 */
+	private static final int STRING_BYTES = 48;
+
+	/**
+	 * Bits of a variable-length integer byte holding data.
+	 */
+	private static final int VAR_BITS = 7;
+
+	/**
+	 * Data bits of a variable-length integer byte.
+	 */
+	private static final int VAR_MASK = 0x7F;
+
+	/**
+	 * Continuation bit of a variable-length integer byte.
+	 */
+	private static final int VAR_MORE = 0x80;
+
+	/**
+	 * DTO class.
+	 */
+	private final Class<T> type;
+
+	/**
+	 * Getters of the coded properties.
+	 */
+	private final Method[] getters;
+
+	/**
+	 * Setters of the coded properties.
+	 */
+	private final Method[] setters;
+
+	/**
+	 * Construct the codec of a DTO class.
+	 *
+	 * @param type
+	 *            DTO class, a bean with a public no-argument constructor
+	 * @throws IllegalArgumentException
+	 *             thrown if the class can't be introspected
+	 */
+	RowCodec(Class<T> type) {
+
+		this.type = type;
+
+		PropertyDescriptor[] descriptors;
+		try {
+			descriptors = Introspector.getBeanInfo(type, Object.class)
+			    .getPropertyDescriptors();
+		} catch (IntrospectionException e) {
+			throw new IllegalArgumentException(
+			    "Can't introspect " + type.getName() + ": " + e, e);
+		}
+
+		List<Method> readers = new ArrayList<Method>();
+		List<Method> writers = new ArrayList<Method>();
+		for (PropertyDescriptor descriptor : descriptors) {
+			if (descriptor.getReadMethod() != null
+			    && descriptor.getWriteMethod() != null) {
+				readers.add(descriptor.getReadMethod());
+				writers.add(descriptor.getWriteMethod());
+			}
+		}
+		this.getters = readers.toArray(new Method[readers.size()]);
+		this.setters = writers.toArray(new Method[writers.size()]);
+	}
+
+	/**
+	 * Estimate the heap bytes a DTO takes.
+	 *
+	 * @param dto
+	 *            the DTO
+	 * @return estimated bytes
+	 */
+	long heapSize(T dto) {
+
+		long size = OBJECT_BYTES + (long) Integer.BYTES * getters.length;
+		for (Method getter : getters) {
+			Object value = get(getter, dto);
+			if (value instanceof String) {
+				size += STRING_BYTES + 2L * ((String) value).length();
+			} else if (value instanceof byte[]) {
+				size += OBJECT_BYTES + ((byte[]) value).length;
+			} else if (value instanceof BigDecimal
+			    || value instanceof BigInteger) {
+				size += 2 * OBJECT_BYTES + value.toString().length() / 2;
+			} else if (value != null) {
+				size += OBJECT_BYTES;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Append a DTO's properties to a buffer.
+	 *
+	 * @param dto
+	 *            the DTO
+	 * @param out
+	 *            buffer the row is appended to
+	 */
+	void encode(T dto, ByteArrayOutputStream out) {
+		for (Method getter : getters) {
+			writeValue(get(getter, dto), out);
+		}
+	}
+
+	/**
+	 * Read a DTO from a buffer positioned at the start of its row.
+	 *
+	 * @param in
+	 *            buffer holding the row
+	 * @return a new DTO
+	 */
+	T decode(ByteBuffer in) {
+
+		T dto;
+		try {
+			dto = type.newInstance();
+			for (Method setter : setters) {
+				Object value = readValue(in);
+				if (value != null) {
+					setter.invoke(dto, convert(value,
+					    setter.getParameterTypes()[0]));
+				}
+			}
+		} catch (ReflectiveOperationException e) {
+			throw new DaoRuntimeException(
+			    "Error decoding " + type.getName() + ": " + e, e);
+		}
+		return dto;
+	}
+
+	/**
+	 * Call a getter.
+	 *
+	 * @param getter
+	 *            the getter
+	 * @param dto
+	 *            the DTO
+	 * @return the property's value
+	 */
+	private static Object get(Method getter, Object dto) {
+		try {
+			return getter.invoke(dto);
+		} catch (ReflectiveOperationException e) {
+			throw new DaoRuntimeException(
+			    "Error reading " + getter.getName() + ": " + e, e);
+		}
+	}
+
+	/**
+	 * Append one value.
+	 *
+	 * @param value
+	 *            the value
+	 * @param out
+	 *            buffer the value is appended to
+	 */
+	private static void writeValue(Object value, ByteArrayOutputStream out) {
+
+		if (value == null) {
+			out.write(NULL);
+		} else if (value instanceof String) {
+			out.write(STRING);
+			writeBytes(((String) value).getBytes(StandardCharsets.UTF_8), out);
+		} else if (value instanceof Integer) {
+			out.write(INT);
+			writeVarLong(zigZag((Integer) value), out);
+		} else if (value instanceof Long) {
+			out.write(LONG);
+			writeVarLong(zigZag((Long) value), out);
+		} else if (value instanceof Short) {
+			out.write(SHORT);
+			writeVarLong(zigZag((Short) value), out);
+		} else if (value instanceof Byte) {
+			out.write(BYTE);
+			out.write((Byte) value);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal) value;
+			out.write(DECIMAL);
+			writeVarLong(zigZag(decimal.scale()), out);
+			writeBytes(decimal.unscaledValue().toByteArray(), out);
+		} else if (value instanceof BigInteger) {
+			out.write(BIG_INTEGER);
+			writeBytes(((BigInteger) value).toByteArray(), out);
+		} else if (value instanceof Double) {
+			out.write(DOUBLE);
+			writeFixedLong(Double.doubleToLongBits((Double) value), out);
+		} else if (value instanceof Float) {
+			out.write(FLOAT);
+			writeVarLong(Float.floatToIntBits((Float) value) & 0xFFFFFFFFL,
+			    out);
+		} else if (value instanceof Boolean) {
+			out.write((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof java.sql.Timestamp) {
+			java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+			out.write(TIMESTAMP);
+			writeVarLong(zigZag(timestamp.getTime()), out);
+			writeVarLong(timestamp.getNanos(), out);
+		} else if (value instanceof java.sql.Date) {
+			out.write(SQL_DATE);
+			writeVarLong(zigZag(((java.util.Date) value).getTime()), out);
+		} else if (value instanceof java.sql.Time) {
+			out.write(SQL_TIME);
+			writeVarLong(zigZag(((java.util.Date) value).getTime()), out);
+		} else if (value.getClass() == java.util.Date.class) {
+			out.write(DATE);
+			writeVarLong(zigZag(((java.util.Date) value).getTime()), out);
+		} else if (value instanceof byte[]) {
+			out.write(BYTES);
+			writeBytes((byte[]) value, out);
+		} else if (value instanceof Character) {
+			out.write(CHAR);
+			writeVarLong((Character) value, out);
+		} else if (value instanceof Serializable) {
+			out.write(SERIALIZED);
+			writeBytes(serialize(value), out);
+		} else {
+			throw new IllegalArgumentException(
+			    "Can't spill a " + value.getClass().getName());
+		}
+	}
+
+	/**
+	 * Read one value.
+	 *
+	 * @param in
+	 *            buffer positioned at the value's tag
+	 * @return the value
+	 */
+	private static Object readValue(ByteBuffer in) {
+
+		byte tag = in.get();
+		switch (tag) {
+		case NULL:
+			return null;
+		case STRING:
+			return new String(readBytes(in), StandardCharsets.UTF_8);
+		case INT:
+			return (int) unZigZag(readVarLong(in));
+		case LONG:
+			return unZigZag(readVarLong(in));
+		case SHORT:
+			return (short) unZigZag(readVarLong(in));
+		case BYTE:
+			return in.get();
+		case DECIMAL:
+			int scale = (int) unZigZag(readVarLong(in));
+			return new BigDecimal(new BigInteger(readBytes(in)), scale);
+		case BIG_INTEGER:
+			return new BigInteger(readBytes(in));
+		case DOUBLE:
+			return Double.longBitsToDouble(in.getLong());
+		case FLOAT:
+			return Float.intBitsToFloat((int) readVarLong(in));
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case TIMESTAMP:
+			java.sql.Timestamp timestamp =
+			    new java.sql.Timestamp(unZigZag(readVarLong(in)));
+			timestamp.setNanos((int) readVarLong(in));
+			return timestamp;
+		case SQL_DATE:
+			return new java.sql.Date(unZigZag(readVarLong(in)));
+		case SQL_TIME:
+			return new java.sql.Time(unZigZag(readVarLong(in)));
+		case DATE:
+			return new java.util.Date(unZigZag(readVarLong(in)));
+		case BYTES:
+			return readBytes(in);
+		case CHAR:
+			return (char) readVarLong(in);
+		case SERIALIZED:
+			return deserialize(readBytes(in));
+		default:
+			throw new DaoRuntimeException("Corrupt spilled row, tag " + tag);
+		}
+	}
+
+	/**
+	 * Convert a decoded value to a setter's parameter type, for primitive
+	 * properties and numbers read into a differently typed property.
+	 *
+	 * @param value
+	 *            decoded value
+	 * @param target
+	 *            parameter type
+	 * @return the value to pass to the setter
+	 */
+	private static Object convert(Object value, Class<?> target) {
+
+		if (!(value instanceof Number) || target.isInstance(value)) {
+			return value;
+		}
+
+		Number number = (Number) value;
+		if (target == int.class || target == Integer.class) {
+			return number.intValue();
+		} else if (target == long.class || target == Long.class) {
+			return number.longValue();
+		} else if (target == short.class || target == Short.class) {
+			return number.shortValue();
+		} else if (target == byte.class || target == Byte.class) {
+			return number.byteValue();
+		} else if (target == double.class || target == Double.class) {
+			return number.doubleValue();
+		} else if (target == float.class || target == Float.class) {
+			return number.floatValue();
+		}
+		return value;
+	}
+
+	/**
+	 * Zig-zag encode a signed integer so small magnitudes stay small.
+	 *
+	 * @param value
+	 *            signed value
+	 * @return unsigned encoding
+	 */
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> (Long.SIZE - 1));
+	}
+
+	/**
+	 * Decode a zig-zag encoded integer.
+	 *
+	 * @param value
+	 *            unsigned encoding
+	 * @return signed value
+	 */
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Append a variable-length integer, seven bits per byte.
+	 *
+	 * @param value
+	 *            the value, treated as unsigned
+	 * @param out
+	 *            buffer the value is appended to
+	 */
+	private static void writeVarLong(long value, ByteArrayOutputStream out) {
+		long remaining = value;
+		while ((remaining & ~VAR_MASK) != 0) {
+			out.write((int) (remaining & VAR_MASK) | VAR_MORE);
+			remaining >>>= VAR_BITS;
+		}
+		out.write((int) remaining);
+	}
+
+	/**
+	 * Read a variable-length integer.
+	 *
+	 * @param in
+	 *            buffer positioned at the integer
+	 * @return the value
+	 */
+	private static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0;; shift += VAR_BITS) {
+			int b = in.get();
+			value |= (long) (b & VAR_MASK) << shift;
+			if ((b & VAR_MORE) == 0) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Append eight bytes, most significant first.
+	 *
+	 * @param value
+	 *            the value
+	 * @param out
+	 *            buffer the value is appended to
+	 */
+	private static void writeFixedLong(long value, ByteArrayOutputStream out) {
+		for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -=
+		    Byte.SIZE) {
+			out.write((int) (value >>> shift));
+		}
+	}
+
+	/**
+	 * Append a byte count and the bytes.
+	 *
+	 * @param bytes
+	 *            the bytes
+	 * @param out
+	 *            buffer the bytes are appended to
+	 */
+	private static void writeBytes(byte[] bytes, ByteArrayOutputStream out) {
+		writeVarLong(bytes.length, out);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Read a byte count and the bytes.
+	 *
+	 * @param in
+	 *            buffer positioned at the byte count
+	 * @return the bytes
+	 */
+	private static byte[] readBytes(ByteBuffer in) {
+		byte[] bytes = new byte[(int) readVarLong(in)];
+		in.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Serialize a value with Java serialization.
+	 *
+	 * @param value
+	 *            the value
+	 * @return serialized bytes
+	 */
+	private static byte[] serialize(Object value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		} catch (IOException e) {
+			throw new DaoRuntimeException("Error serializing " + value, e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserialize a value written with Java serialization.
+	 *
+	 * @param bytes
+	 *            serialized bytes
+	 * @return the value
+	 */
+	private static Object deserialize(byte[] bytes) {
+		try (ObjectInputStream in =
+		    new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		} catch (IOException | ClassNotFoundException e) {
+			throw new DaoRuntimeException(
+			    "Error deserializing spilled value: " + e, e);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring placing shard keys on shards. Each shard is put on the
+ * ring at a number of virtual points hashed from its name, and a key belongs
+ * to the shard owning the first point at or after the key's hash. Adding a
+ * shard therefore moves only the keys falling just before its points, about
+ * one in n of them, instead of rehashing every key.
+ *
+ * @author drothauser
+ */
+final class ShardRing {
+
+	/**
+	 * FNV-1a 32-bit offset basis.
+	 */
+	private static final int FNV_OFFSET = 0x811C9DC5;
+
+	/**
+	 * FNV-1a 32-bit prime.
+	 */
+	private static final int FNV_PRIME = 0x01000193;
+
+	/**
+	 * First multiplier of the MurmurHash3 finalizer.
+	 */
+	private static final int MIX1 = 0x85EBCA6B;
+
+	/**
+	 * Second multiplier of the MurmurHash3 finalizer.
+	 */
+	private static final int MIX2 = 0xC2B2AE35;
+
+	/**
+	 * Shard index by ring point.
+	 */
+	private final TreeMap<Integer, Integer> points =
+	    new TreeMap<Integer, Integer>();
+
+	/**
+	 * Construct a ring.
+	 *
+	 * @param shardNames
+	 *            names of the shards, placing them on the ring; a shard keeps
+	 *            its keys as long as its name doesn't change
+	 * @param virtualNodes
+	 *            points per shard
+	 */
+	ShardRing(List<String> shardNames, int virtualNodes) {
+		for (int shard = 0; shard < shardNames.size(); shard++) {
+			for (int node = 0; node < virtualNodes; node++) {
+				points.put(hash(shardNames.get(shard) + "#" + node), shard);
+			}
+		}
+	}
+
+	/**
+	 * Return the shard of a key.
+	 *
+	 * @param key
+	 *            shard key value; numbers of any type with the same value
+	 *            land on the same shard
+	 * @return shard index
+	 */
+	int shardFor(Object key) {
+		Map.Entry<Integer, Integer> point =
+		    points.ceilingEntry(hash(keyString(key)));
+		return (point == null ? points.firstEntry() : point).getValue();
+	}
+
+	/**
+	 * Return the string hashed for a key.
+	 *
+	 * @param key
+	 *            shard key value
+	 * @return the key as a string, numbers in plain notation
+	 */
+	private static String keyString(Object key) {
+		if (key instanceof Number) {
+			return new BigDecimal(key.toString()).stripTrailingZeros()
+			    .toPlainString();
+		}
+		return String.valueOf(key);
+	}
+
+	/**
+	 * Hash a string with FNV-1a over its UTF-8 bytes followed by the
+	 * MurmurHash3 finalizer, which spreads short, similar keys such as
+	 * sequential ids over the whole ring.
+	 *
+	 * @param value
+	 *            the string
+	 * @return 32-bit hash
+	 */
+	static int hash(String value) {
+		int h = FNV_OFFSET;
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			h ^= b & 0xFF;
+			h *= FNV_PRIME;
+		}
+		h ^= h >>> 16;
+		h *= MIX1;
+		h ^= h >>> 13;
+		h *= MIX2;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -0,0 +1,872 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.apache.commons.beanutils.PropertyUtilsBean;
+import org.apache.commons.dbutils.QueryLoader;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rothsmith.dao.DaoRuntimeException;
+import com.rothsmith.dao.JdbcDao;
+import com.rothsmith.utils.database.JDBCServiceLocator;
+
+/**
+ * A DAO over a table split horizontally across several databases. The shards
+ * are listed as JNDI data source names and rows are placed by a shard key
+ * column:
+ *
+ * <pre>
+ * shards=java:/comp/env/jdbc/Shard0, java:/comp/env/jdbc/Shard1
+ * shard.key=STATE_ID
+ * shard.maxConnections=8
+ * </pre>
+ *
+ * <ul>
+ * <li><code>shards</code> - JNDI names of the shards' data sources. A shard's
+ * place on the {@link ShardRing consistent hash ring} comes from its name, so
+ * adding a shard moves only about one in n keys.
+ * <li><code>shard.key</code> - shard key column; every DTO written must have
+ * the matching property set
+ * <li><code>shard.virtualNodes</code> - ring points per shard (default 128)
+ * <li><code>shard.maxConnections</code> - statements that may run on one
+ * shard at a time, bounding the connections this DAO takes from each shard
+ * (default 8)
+ * <li><code>shard.maxWait</code> - milliseconds to wait for a shard's slot
+ * before a {@link StatementRejectedException} (default 30000)
+ * <li><code>shard.threads</code> - threads running the shards of a scattered
+ * query (default twice the number of shards)
+ * </ul>
+ *
+ * Inserts, updates and deletes go to the shard of the DTO's key. A query
+ * whose WHERE clause pins the key with <code>KEY = :param</code> (and no
+ * <code>OR</code>) runs on that key's shard only. Any other query is
+ * scattered to all shards in parallel and the results gathered: merged in
+ * the query's ORDER BY order when it sorts by plain columns, otherwise
+ * concatenated in shard order. A statement's <code>maxRows</code> is applied
+ * on every shard and again to the gathered rows, so no shard returns more
+ * rows than can be used.
+ * <p>
+ * Each shard is served by its own {@link DbUtilsJdbcDao} built from the same
+ * properties, with its own statement settings and metrics; see
+ * {@link #getShard(int)}.
+ *
+ * @param <T>
+ *            DTO class.
+ * @param <P>
+ *            Parameter list.
+ *
+ * @author drothauser
+ */
+public class ShardedJdbcDao<T, P> implements JdbcDao<T, P> {
+
+	/**
+	 * SLF4J Logger for ShardedJdbcDao.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(ShardedJdbcDao.class);
+
+	/**
+	 * Default ring points per shard.
+	 */
+	private static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	/**
+	 * Default statements that may run on one shard at a time.
+	 */
+	private static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+	/**
+	 * Default milliseconds to wait for a shard's slot.
+	 */
+	private static final long DEFAULT_MAX_WAIT = 30000L;
+
+	/**
+	 * Number of scattered shard queries that may wait for a thread.
+	 */
+	private static final int QUEUE_SIZE = 1000;
+
+	/**
+	 * Matches a named statement parameter.
+	 */
+	private static final Pattern PARAM = Pattern.compile(":(\\w+)");
+
+	/**
+	 * Matches an <code>OR</code>, which keeps a key predicate from pinning a
+	 * query to one shard.
+	 */
+	private static final Pattern OR = Pattern.compile("(?i)\\sor\\s");
+
+	/**
+	 * Matches a trailing ORDER BY clause outside parentheses.
+	 */
+	private static final Pattern ORDER_BY =
+	    Pattern.compile("(?is)\\sorder\\s+by\\s([^()]*)$");
+
+	/**
+	 * Matches an ORDER BY item that can be merged on: a column, alias or
+	 * select list position with an optional direction.
+	 */
+	private static final Pattern ORDER_ITEM = Pattern.compile(
+	    "(?is)(?:\\w+\\.)?\"?(\\w+)\"?(?:\\s+(asc|desc))?"
+	        + "(?:\\s+nulls\\s+(?:first|last))?");
+
+	/**
+	 * Calls a shard's DAO.
+	 *
+	 * @param <T>
+	 *            DTO class
+	 * @param <P>
+	 *            Parameter list
+	 * @param <R>
+	 *            result type
+	 */
+	private interface ShardCall<T, P, R> {
+
+		/**
+		 * Call the shard.
+		 *
+		 * @param dao
+		 *            the shard's DAO
+		 * @return the result
+		 */
+		R call(DbUtilsJdbcDao<T, P> dao);
+	}
+
+	/**
+	 * Position in one shard's sorted rows during a merge.
+	 *
+	 * @param <T>
+	 *            DTO class
+	 */
+	private static final class Cursor<T> {
+
+		/**
+		 * The shard's rows.
+		 */
+		private final List<T> rows;
+
+		/**
+		 * Index of the shard, breaking ties.
+		 */
+		private final int shard;
+
+		/**
+		 * Index of the current row.
+		 */
+		private int position;
+
+		/**
+		 * Sort key values of the current row.
+		 */
+		private Object[] key;
+
+		/**
+		 * Construct a cursor on the first row.
+		 *
+		 * @param rows
+		 *            the shard's rows
+		 * @param shard
+		 *            index of the shard
+		 */
+		Cursor(List<T> rows, int shard) {
+			this.rows = rows;
+			this.shard = shard;
+		}
+	}
+
+	/**
+	 * DAO properties.
+	 */
+	private Map<String, String> statementMap;
+
+	/**
+	 * Data source JNDI names by shard.
+	 */
+	private final List<String> shardNames;
+
+	/**
+	 * DAOs by shard.
+	 */
+	private final List<DbUtilsJdbcDao<T, P>> shards =
+	    new ArrayList<DbUtilsJdbcDao<T, P>>();
+
+	/**
+	 * Per-shard concurrency limits.
+	 */
+	private final List<Bulkhead> bulkheads = new ArrayList<Bulkhead>();
+
+	/**
+	 * Places keys on shards.
+	 */
+	private final ShardRing ring;
+
+	/**
+	 * Upper case shard key column.
+	 */
+	private final String keyColumn;
+
+	/**
+	 * DTO property of the shard key.
+	 */
+	private final String keyProperty;
+
+	/**
+	 * Matches a WHERE clause pinning the shard key to a parameter.
+	 */
+	private final Pattern keyPredicate;
+
+	/**
+	 * Runs the shards of scattered queries.
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Construct DAO initializing it with parameters from a properties file.
+	 *
+	 * @param propsFile
+	 *            Properties file
+	 */
+	public ShardedJdbcDao(final String propsFile) {
+
+		try {
+			statementMap = QueryLoader.instance().load(propsFile);
+			ParameterTypes.extractDeclarations(statementMap);
+		} catch (IOException e) {
+			String msg = "Constructor Error: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+
+		String[] names =
+		    StringUtils.split(StringUtils.defaultString(statementMap
+		        .get("shards")), ", ");
+		if (names.length == 0) {
+			throw new IllegalArgumentException(
+			    "No shards listed in " + propsFile);
+		}
+		shardNames = Collections
+		    .unmodifiableList(Arrays.asList(names));
+
+		keyColumn = StringUtils.trimToEmpty(statementMap.get("shard.key"))
+		    .toUpperCase(Locale.ROOT);
+		if (keyColumn.isEmpty()) {
+			throw new IllegalArgumentException(
+			    "No shard.key given in " + propsFile);
+		}
+		keyProperty = SqlStatements.toPropertyName(keyColumn);
+		keyPredicate = Pattern.compile("(?is)\\swhere\\s.*?(?<![\\w.])"
+		    + "(?:\\w+\\.)?" + keyColumn + "\\s*=\\s*:(\\w+)");
+
+		ring = new ShardRing(shardNames, NumberUtils.toInt(
+		    statementMap.get("shard.virtualNodes"), DEFAULT_VIRTUAL_NODES));
+
+		int maxConnections = NumberUtils.toInt(
+		    statementMap.get("shard.maxConnections"), DEFAULT_MAX_CONNECTIONS);
+		long maxWait = NumberUtils.toLong(statementMap.get("shard.maxWait"),
+		    DEFAULT_MAX_WAIT);
+
+		try {
+			for (String name : shardNames) {
+				DataSource dataSource =
+				    JDBCServiceLocator.getInstance().getDataSource(name);
+				shards.add(new DbUtilsJdbcDao<T, P>(statementMap, dataSource));
+				bulkheads.add(new Bulkhead(maxConnections, maxWait));
+			}
+		} catch (NamingException e) {
+			String msg = "Constructor Error: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+
+		executor = DbUtilsJdbcDao.daemonPool("dao-shard-",
+		    NumberUtils.toInt(statementMap.get("shard.threads"),
+		        2 * shards.size()),
+		    QUEUE_SIZE);
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<T> select(P params) {
+		return selectByStatement("query.select", params);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The row is inserted on the shard of its key.
+	 */
+	@Override
+	public int insert(final T dto) {
+		return onShard(shardOf(dto), new ShardCall<T, P, Integer>() {
+			@Override
+			public Integer call(DbUtilsJdbcDao<T, P> dao) {
+				return dao.insert(dto);
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The row is updated on the shard of its key; the key itself can't be
+	 * changed by an update.
+	 */
+	@Override
+	public int update(final T dto) {
+		return onShard(shardOf(dto), new ShardCall<T, P, Integer>() {
+			@Override
+			public Integer call(DbUtilsJdbcDao<T, P> dao) {
+				return dao.update(dto);
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The row is deleted on the shard of its key.
+	 */
+	@Override
+	public int delete(final T dto) {
+		return onShard(shardOf(dto), new ShardCall<T, P, Integer>() {
+			@Override
+			public Integer call(DbUtilsJdbcDao<T, P> dao) {
+				return dao.delete(dto);
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<T> select(final String sql, final P params) {
+		return query(null, sql, params, new ShardCall<T, P, List<T>>() {
+			@Override
+			public List<T> call(DbUtilsJdbcDao<T, P> dao) {
+				return dao.select(sql, params);
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<T> select(final String sql) {
+		return query(null, sql, null, new ShardCall<T, P, List<T>>() {
+			@Override
+			public List<T> call(DbUtilsJdbcDao<T, P> dao) {
+				return dao.select(sql);
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<T> selectByStatement(final String statementId,
+	    final P params) {
+		return query(statementId, requiredStatement(statementId), params,
+		    new ShardCall<T, P, List<T>>() {
+			    @Override
+			    public List<T> call(DbUtilsJdbcDao<T, P> dao) {
+				    return dao.selectByStatement(statementId, params);
+			    }
+		    });
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<T> selectByStatement(final String statementId) {
+		return query(statementId, requiredStatement(statementId), null,
+		    new ShardCall<T, P, List<T>>() {
+			    @Override
+			    public List<T> call(DbUtilsJdbcDao<T, P> dao) {
+				    return dao.selectByStatement(statementId);
+			    }
+		    });
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Class<T> getType() {
+		return shards.get(0).getType();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setType(Class<T> type) {
+		for (DbUtilsJdbcDao<T, P> shard : shards) {
+			shard.setType(type);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * A sharded DAO has no single data source; use {@link #getShard(int)}.
+	 *
+	 * @return null
+	 */
+	@Override
+	public DataSource getDataSource() {
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws UnsupportedOperationException
+	 *             always; a sharded DAO's data sources are its
+	 *             <code>shards</code>
+	 */
+	@Override
+	public void setDataSource(DataSource dataSource) {
+		throw new UnsupportedOperationException(
+		    "Sharded DAO data sources are set with the shards property");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, String> getStatementMap() {
+		return statementMap;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The statements are given to every shard.
+	 */
+	@Override
+	public void setStatementMap(Map<String, String> statementMap) {
+		this.statementMap = statementMap;
+		for (DbUtilsJdbcDao<T, P> shard : shards) {
+			shard.setStatementMap(new HashMap<String, String>(statementMap));
+		}
+	}
+
+	/**
+	 * Return the number of shards.
+	 *
+	 * @return number of shards
+	 */
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	/**
+	 * Return the DAO of one shard, for its statement metrics or for work
+	 * that must run on every shard in turn.
+	 *
+	 * @param shard
+	 *            shard index, in <code>shards</code> order
+	 * @return the shard's DAO
+	 */
+	public DbUtilsJdbcDao<T, P> getShard(int shard) {
+		return shards.get(shard);
+	}
+
+	/**
+	 * Return the shard a shard key value belongs to.
+	 *
+	 * @param key
+	 *            shard key value
+	 * @return shard index, in <code>shards</code> order
+	 */
+	public int shardFor(Object key) {
+		return ring.shardFor(key);
+	}
+
+	/**
+	 * Run a query on the shard its key predicate pins it to, or on all
+	 * shards and gather the rows.
+	 *
+	 * @param statementId
+	 *            statement id or null for SQL passed directly to the DAO
+	 * @param sql
+	 *            the query with <code>:name</code> parameters
+	 * @param params
+	 *            statement parameters or null
+	 * @param call
+	 *            runs the query on a shard's DAO
+	 * @return selected rows
+	 */
+	private List<T> query(String statementId, String sql, P params,
+	    ShardCall<T, P, List<T>> call) {
+
+		Object key = params == null ? null : keyValue(sql, params);
+		if (key != null) {
+			return onShard(ring.shardFor(key), call);
+		}
+
+		int maxRows = StatementSettings
+		    .fromProperties(statementMap, statementId).getMaxRows();
+
+		return gather(sql, maxRows, onAllShards(call));
+	}
+
+	/**
+	 * Return the shard key value a query is pinned to.
+	 *
+	 * @param sql
+	 *            the query with <code>:name</code> parameters
+	 * @param params
+	 *            statement parameters
+	 * @return the key value or null if the query isn't pinned to one key
+	 */
+	private Object keyValue(String sql, P params) {
+
+		Matcher matcher = keyPredicate.matcher(sql);
+		if (!matcher.find()
+		    || OR.matcher(SqlStatements.whereClause(sql)).find()) {
+			return null;
+		}
+
+		if (params instanceof Object[]) {
+			Object[] values = (Object[]) params;
+			Matcher param = PARAM.matcher(sql);
+			for (int i = 0; param.find(); i++) {
+				if (param.start(1) == matcher.start(1)) {
+					return i < values.length ? values[i] : null;
+				}
+			}
+			return null;
+		}
+
+		return property(params, matcher.group(1));
+	}
+
+	/**
+	 * Return the shard of a DTO.
+	 *
+	 * @param dto
+	 *            the DTO
+	 * @return shard index
+	 * @throws IllegalArgumentException
+	 *             thrown if the DTO's shard key isn't set
+	 */
+	private int shardOf(T dto) {
+		Object key = property(dto, keyProperty);
+		if (key == null) {
+			throw new IllegalArgumentException(String.format(
+			    "Shard key %s is not set: %s", keyColumn, dto));
+		}
+		return ring.shardFor(key);
+	}
+
+	/**
+	 * Read a bean property.
+	 *
+	 * @param bean
+	 *            the bean
+	 * @param name
+	 *            property name
+	 * @return the property value
+	 */
+	private static Object property(Object bean, String name) {
+		try {
+			return new PropertyUtilsBean().getProperty(bean, name);
+		} catch (IllegalAccessException | InvocationTargetException
+		        | NoSuchMethodException e) {
+			String msg = "Error with PropertyUtilsBean: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		}
+	}
+
+	/**
+	 * Call one shard within its concurrency limit.
+	 *
+	 * @param <R>
+	 *            result type
+	 * @param shard
+	 *            shard index
+	 * @param call
+	 *            the call
+	 * @return the call's result
+	 * @throws StatementRejectedException
+	 *             thrown if the shard's <code>maxConnections</code> statements
+	 *             are already running
+	 */
+	private <R> R onShard(int shard, ShardCall<T, P, R> call) {
+
+		Bulkhead bulkhead = bulkheads.get(shard);
+		if (!bulkhead.tryAcquire()) {
+			throw new StatementRejectedException(String.format(
+			    "Shard \"%s\" rejected: its connection limit is reached",
+			    shardNames.get(shard)));
+		}
+
+		try {
+			return call.call(shards.get(shard));
+		} finally {
+			bulkhead.release();
+		}
+	}
+
+	/**
+	 * Call every shard in parallel. The first shard is called on the calling
+	 * thread and so is any shard the executor can't take.
+	 *
+	 * @param call
+	 *            the call
+	 * @return results in shard order
+	 */
+	private List<List<T>> onAllShards(final ShardCall<T, P, List<T>> call) {
+
+		List<Future<List<T>>> futures =
+		    new ArrayList<Future<List<T>>>(shards.size());
+		for (int shard = 1; shard < shards.size(); shard++) {
+			final int index = shard;
+			FutureTask<List<T>> task =
+			    new FutureTask<List<T>>(new Callable<List<T>>() {
+				    @Override
+				    public List<T> call() {
+					    return onShard(index, call);
+				    }
+			    });
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				task.run();
+			}
+			futures.add(task);
+		}
+
+		List<List<T>> results = new ArrayList<List<T>>(shards.size());
+		try {
+			results.add(onShard(0, call));
+			for (Future<List<T>> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DaoRuntimeException("Interrupted gathering shards", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			String msg = "Shard query failed: " + cause;
+			LOGGER.error(msg, cause);
+			throw new DaoRuntimeException(msg, cause);
+		} finally {
+			for (Future<List<T>> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Gather the rows of a scattered query: merged in its ORDER BY order if
+	 * it sorts by columns of the result, otherwise concatenated.
+	 *
+	 * @param sql
+	 *            the query
+	 * @param maxRows
+	 *            most rows to return, 0 for all
+	 * @param parts
+	 *            rows of each shard
+	 * @return gathered rows
+	 */
+	private List<T> gather(String sql, int maxRows, List<List<T>> parts) {
+
+		int total = 0;
+		for (List<T> part : parts) {
+			total += part.size();
+		}
+		int limit = maxRows > 0 ? Math.min(maxRows, total) : total;
+		List<T> rows = new ArrayList<T>(limit);
+
+		final List<String> sortProperties = new ArrayList<String>();
+		final List<Boolean> descending = new ArrayList<Boolean>();
+		if (!orderBy(sql, sortProperties, descending)) {
+			for (List<T> part : parts) {
+				for (T row : part) {
+					if (rows.size() == limit) {
+						return rows;
+					}
+					rows.add(row);
+				}
+			}
+			return rows;
+		}
+
+		PriorityQueue<Cursor<T>> heads = new PriorityQueue<Cursor<T>>(
+		    Math.max(parts.size(), 1), new Comparator<Cursor<T>>() {
+			    @Override
+			    public int compare(Cursor<T> a, Cursor<T> b) {
+				    int c = compareKeys(a.key, b.key, descending);
+				    return c != 0 ? c : Integer.compare(a.shard, b.shard);
+			    }
+		    });
+		for (int shard = 0; shard < parts.size(); shard++) {
+			Cursor<T> cursor = new Cursor<T>(parts.get(shard), shard);
+			if (!cursor.rows.isEmpty()) {
+				cursor.key = sortKey(cursor.rows.get(0), sortProperties);
+				heads.add(cursor);
+			}
+		}
+
+		while (rows.size() < limit) {
+			Cursor<T> cursor = heads.poll();
+			rows.add(cursor.rows.get(cursor.position++));
+			if (cursor.position < cursor.rows.size()) {
+				cursor.key = sortKey(cursor.rows.get(cursor.position),
+				    sortProperties);
+				heads.add(cursor);
+			}
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Parse a query's ORDER BY clause into sort properties.
+	 *
+	 * @param sql
+	 *            the query
+	 * @param properties
+	 *            receives the DTO properties sorted on
+	 * @param descending
+	 *            receives whether each property is sorted descending
+	 * @return true if the query is sorted by columns of its result
+	 */
+	private static boolean orderBy(String sql, List<String> properties,
+	    List<Boolean> descending) {
+
+		Matcher matcher = ORDER_BY.matcher(sql);
+		if (!matcher.find()) {
+			return false;
+		}
+
+		for (String item : StringUtils.split(matcher.group(1), ',')) {
+			Matcher orderItem = ORDER_ITEM.matcher(item.trim());
+			if (!orderItem.matches()) {
+				LOGGER.debug("Not merging on ORDER BY item: " + item);
+				return false;
+			}
+			String column = orderItem.group(1);
+			if (StringUtils.isNumeric(column)) {
+				List<String> columns = SqlStatements.selectColumns(sql);
+				int position = Integer.parseInt(column);
+				if (columns == null || position < 1
+				    || position > columns.size()) {
+					return false;
+				}
+				column = columns.get(position - 1);
+			}
+			properties.add(SqlStatements.toPropertyName(column));
+			descending.add("desc".equalsIgnoreCase(orderItem.group(2)));
+		}
+
+		return true;
+	}
+
+	/**
+	 * Read a row's sort key.
+	 *
+	 * @param row
+	 *            the row
+	 * @param properties
+	 *            DTO properties sorted on
+	 * @return the property values
+	 */
+	private static Object[] sortKey(Object row, List<String> properties) {
+		Object[] key = new Object[properties.size()];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = property(row, properties.get(i));
+		}
+		return key;
+	}
+
+	/**
+	 * Compare sort keys the way the databases sorted them, with NULLs
+	 * sorting high.
+	 *
+	 * @param a
+	 *            first key
+	 * @param b
+	 *            second key
+	 * @param descending
+	 *            whether each value is sorted descending
+	 * @return negative, zero or positive as the first key sorts before, with
+	 *         or after the second
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compareKeys(Object[] a, Object[] b,
+	    List<Boolean> descending) {
+		for (int i = 0; i < a.length; i++) {
+			int c;
+			if (a[i] == null || b[i] == null) {
+				c = a[i] == null ? (b[i] == null ? 0 : 1) : -1;
+			} else {
+				c = ((Comparable) a[i]).compareTo(b[i]);
+			}
+			if (c != 0) {
+				return descending.get(i) ? -c : c;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Return a statement from the statement map.
+	 *
+	 * @param statementId
+	 *            statement id
+	 * @return the statement
+	 * @throws IllegalArgumentException
+	 *             thrown if there is no such statement
+	 */
+	private String requiredStatement(String statementId) {
+		String sql = statementMap.get(statementId);
+		if (StringUtils.isEmpty(sql)) {
+			throw new IllegalArgumentException(String.format(
+			    "No sql statement found for statement \"%s\"", statementId));
+		}
+		return sql;
+	}
+}
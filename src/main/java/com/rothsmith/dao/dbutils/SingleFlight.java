@@ -0,0 +1,345 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.lang.reflect.Array;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.beanutils.BeanUtilsBean;
+import org.apache.commons.lang3.StringUtils;
+
+import com.rothsmith.dao.DaoRuntimeException;
+
+/**
+ * Coalesces concurrent executions of one query statement. A call made while
+ * an execution with the same SQL and parameters is running doesn't run the
+ * query again: it waits for the running execution and receives its result.
+ * Nothing is kept once the execution completes, so this is not a cache. The
+ * mode is chosen per statement:
+ *
+ * <pre>
+ * query.select.singleFlight=shared
+ * query.selectByStateId.singleFlight=copy
+ * </pre>
+ *
+ * <ul>
+ * <li><code>shared</code> - every caller receives the same unmodifiable list
+ * and the same DTOs, which must not be modified
+ * <li><code>copy</code> - every caller, including the one that ran the
+ * query, receives its own new list of copies of the DTOs, or of the maps if
+ * the rows are maps; the query's own result is kept as the snapshot they are
+ * copied from and never handed out
+ * </ul>
+ *
+ * Waiting callers take neither a connection nor an execution slot. They
+ * wait at most the statement's <code>queryTimeout</code> plus its
+ * <code>maxWait</code>, then fail with a <code>SQLTimeoutException</code>;
+ * without a query timeout they wait as long as the execution runs. If the
+ * execution fails, every waiting caller fails with it.
+ *
+ * @author drothauser
+ */
+final class SingleFlight {
+
+	/**
+	 * Property value sharing one result between callers.
+	 */
+	static final String SHARED = "shared";
+
+	/**
+	 * Property value giving waiting callers copies of the result.
+	 */
+	static final String COPY = "copy";
+
+	/**
+	 * Running executions by SQL and parameters.
+	 */
+	private final ConcurrentMap<List<Object>, FutureTask<Object>> flights =
+	    new ConcurrentHashMap<List<Object>, FutureTask<Object>>();
+
+	/**
+	 * True if waiting callers receive copies.
+	 */
+	private final boolean copy;
+
+	/**
+	 * Milliseconds a waiting caller waits, 0 for as long as the execution
+	 * runs.
+	 */
+	private final long timeout;
+
+	/**
+	 * Counters of the statement.
+	 */
+	private final StatementMetrics metrics;
+
+	/**
+	 * Construct a single-flight group.
+	 *
+	 * @param copy
+	 *            true if waiting callers receive copies
+	 * @param timeout
+	 *            milliseconds a waiting caller waits, 0 for as long as the
+	 *            execution runs
+	 * @param metrics
+	 *            counters of the statement
+	 */
+	SingleFlight(boolean copy, long timeout, StatementMetrics metrics) {
+		this.copy = copy;
+		this.timeout = timeout;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Create the single-flight group of a statement.
+	 *
+	 * @param properties
+	 *            DAO properties
+	 * @param statementId
+	 *            statement id
+	 * @param settings
+	 *            the statement's settings
+	 * @param metrics
+	 *            the statement's counters
+	 * @return the group or null if the statement doesn't coalesce calls
+	 * @throws IllegalArgumentException
+	 *             thrown if the mode is neither shared nor copy
+	 */
+	static SingleFlight forStatement(Map<String, String> properties,
+	    String statementId, StatementSettings settings,
+	    StatementMetrics metrics) {
+
+		String mode = StringUtils.trimToNull(
+		    properties.get(statementId + ".singleFlight"));
+		if (mode == null || "false".equalsIgnoreCase(mode)) {
+			return null;
+		}
+
+		mode = mode.toLowerCase(Locale.ROOT);
+		if (!SHARED.equals(mode) && !COPY.equals(mode)) {
+			throw new IllegalArgumentException(String.format(
+			    "%s.singleFlight must be %s or %s: %s", statementId, SHARED,
+			    COPY, mode));
+		}
+
+		long timeout = settings.getQueryTimeout() > 0
+		    ? TimeUnit.SECONDS.toMillis(settings.getQueryTimeout())
+		        + settings.getMaxWait()
+		    : 0L;
+
+		return new SingleFlight(COPY.equals(mode), timeout, metrics);
+	}
+
+	/**
+	 * Run a query, or join the running execution of the same query.
+	 *
+	 * @param <R>
+	 *            result type
+	 * @param sql
+	 *            the query's SQL
+	 * @param params
+	 *            the query's parameters
+	 * @param query
+	 *            runs the query
+	 * @return the query's result
+	 * @throws SQLException
+	 *             thrown if the execution fails or a waiting caller times out
+	 */
+	@SuppressWarnings("unchecked")
+	<R> R execute(String sql, Object[] params, final Callable<R> query)
+	        throws SQLException {
+
+		List<Object> key = new ArrayList<Object>(params.length + 1);
+		key.add(sql);
+		Collections.addAll(key, params);
+
+		FutureTask<Object> flight =
+		    new FutureTask<Object>(new Callable<Object>() {
+			    @Override
+			    public Object call() throws Exception {
+				    // In copy mode the result stays private to the flight:
+				    // callers get copies, so none of them can change it
+				    // while another is copying it.
+				    Object result = query.call();
+				    return copy ? result : share(result);
+			    }
+		    });
+
+		FutureTask<Object> running = flights.putIfAbsent(key, flight);
+		if (running == null) {
+			try {
+				flight.run();
+			} finally {
+				flights.remove(key, flight);
+			}
+			Object result = leaderResult(flight);
+			return (R) (copy ? copyOf(result) : result);
+		}
+
+		metrics.recordCoalesced();
+		Object result = await(running, sql);
+		return (R) (copy ? copyOf(result) : result);
+	}
+
+	/**
+	 * Return the result of the execution this caller ran, throwing its
+	 * exception unchanged.
+	 *
+	 * @param flight
+	 *            the completed execution
+	 * @return its result
+	 * @throws SQLException
+	 *             thrown if the execution failed
+	 */
+	private static Object leaderResult(FutureTask<Object> flight)
+	        throws SQLException {
+		try {
+			return flight.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted", e);
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		}
+	}
+
+	/**
+	 * Wait for another caller's execution.
+	 *
+	 * @param running
+	 *            the execution
+	 * @param sql
+	 *            the query's SQL, for messages
+	 * @return its result
+	 * @throws SQLException
+	 *             thrown if the execution failed, with the failure as its
+	 *             cause, or if the wait timed out
+	 */
+	private Object await(FutureTask<Object> running, String sql)
+	        throws SQLException {
+		try {
+			return timeout > 0 ? running.get(timeout, TimeUnit.MILLISECONDS)
+			    : running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(
+			    "Interrupted waiting for in-flight query: " + sql, e);
+		} catch (TimeoutException e) {
+			throw new SQLTimeoutException(String.format(
+			    "Timed out after %dms waiting for in-flight query: %s",
+			    timeout, sql), e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				SQLException failure = (SQLException) cause;
+				throw new SQLException(
+				    "In-flight query failed: " + failure.getMessage(),
+				    failure.getSQLState(), failure.getErrorCode(), failure);
+			}
+			throw rethrow(cause);
+		}
+	}
+
+	/**
+	 * Rethrow an execution's failure.
+	 *
+	 * @param cause
+	 *            the failure
+	 * @return never returns; declared so callers can <code>throw</code>
+	 * @throws SQLException
+	 *             thrown if the failure is a SQLException
+	 */
+	private static SQLException rethrow(Throwable cause) throws SQLException {
+		if (cause instanceof SQLException) {
+			throw (SQLException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		throw new DaoRuntimeException("In-flight query failed: " + cause,
+		    cause);
+	}
+
+	/**
+	 * Make a result safe to hand to several callers.
+	 *
+	 * @param result
+	 *            the query's result
+	 * @return an unmodifiable view of a list, otherwise the result itself
+	 */
+	private static Object share(Object result) {
+		return result instanceof List
+		    ? Collections.unmodifiableList((List<?>) result) : result;
+	}
+
+	/**
+	 * Copy a result for one caller.
+	 *
+	 * @param result
+	 *            the query's result
+	 * @return a new list of copied beans, a copied array or the result
+	 *         itself if it is neither
+	 */
+	private static Object copyOf(Object result) {
+
+		if (result instanceof List) {
+			List<?> rows = (List<?>) result;
+			List<Object> copies = new ArrayList<Object>(rows.size());
+			for (Object row : rows) {
+				copies.add(copyOfRow(row));
+			}
+			return copies;
+		}
+
+		if (result != null && result.getClass().isArray()) {
+			int length = Array.getLength(result);
+			Object copies =
+			    Array.newInstance(result.getClass().getComponentType(), length);
+			System.arraycopy(result, 0, copies, 0, length);
+			return copies;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Copy one row of a result.
+	 *
+	 * @param row
+	 *            the row
+	 * @return a shallow copy of a DTO or map, or the row itself if it is an
+	 *         immutable value
+	 */
+	private static Object copyOfRow(Object row) {
+
+		if (row == null || row instanceof Number || row instanceof String) {
+			return row;
+		}
+
+		if (row instanceof Map) {
+			return new LinkedHashMap<Object, Object>((Map<?, ?>) row);
+		}
+
+		try {
+			return BeanUtilsBean.getInstance().cloneBean(row);
+		} catch (ReflectiveOperationException e) {
+			throw new DaoRuntimeException("Error copying row: " + e, e);
+		}
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only list of query results that keeps rows on the heap up to a memory
+ * budget and spills the rest to a temporary file (see
+ * {@link DbUtilsJdbcDao#selectBuffered(String, Object)}). Spilled rows are
+ * written in {@link RowCodec}'s compact binary format; once the result is
+ * read the file is memory-mapped and a spilled row is decoded each time it is
+ * read, so <code>get(i)</code> of a spilled row returns a new DTO on every
+ * call. The heap holds the rows within the budget plus one file offset per
+ * spilled row.
+ * <p>
+ * The list must be closed to delete its file; closing with
+ * try-with-resources is the usual pattern. A list whose rows all fit the
+ * budget has no file and closing it only releases the rows. Reads may run
+ * concurrently; reads after {@link #close()} throw
+ * <code>IllegalStateException</code>.
+ *
+ * @param <T>
+ *            DTO type
+ *
+ * @author drothauser
+ */
+public final class SpillingList<T> extends AbstractList<T>
+        implements RandomAccess, Closeable {
+
+	/**
+	 * SLF4J Logger for SpillingList.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(SpillingList.class);
+
+	/**
+	 * Largest memory mapping of the spill file; a file larger than this is
+	 * mapped in several segments, each holding whole rows.
+	 */
+	static final long SEGMENT_BYTES = 1L << 30;
+
+	/**
+	 * Bytes of the buffer spilled rows are written through.
+	 */
+	private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+	/**
+	 * Initial capacity of the spilled row offsets.
+	 */
+	private static final int INITIAL_OFFSETS = 1024;
+
+	/**
+	 * Format of the spilled rows.
+	 */
+	private final RowCodec<T> codec;
+
+	/**
+	 * Estimated heap bytes rows may take before they are spilled.
+	 */
+	private final long memory;
+
+	/**
+	 * Directory the spill file is created in.
+	 */
+	private final Path directory;
+
+	/**
+	 * Rows kept on the heap.
+	 */
+	private List<T> heapRows = new ArrayList<T>();
+
+	/**
+	 * Estimated heap bytes of the rows kept on the heap.
+	 */
+	private long heapBytes;
+
+	/**
+	 * Spill file, or null if no row was spilled.
+	 */
+	private Path file;
+
+	/**
+	 * Stream spilled rows are written to while the result is read.
+	 */
+	private OutputStream out;
+
+	/**
+	 * Buffer a spilled row is encoded into.
+	 */
+	private ByteArrayOutputStream row;
+
+	/**
+	 * File offset of each spilled row, followed by the file's length once
+	 * the result is read.
+	 */
+	private long[] offsets = new long[0];
+
+	/**
+	 * Number of spilled rows.
+	 */
+	private int spilled;
+
+	/**
+	 * Memory mappings of the spill file.
+	 */
+	private MappedByteBuffer[] segments;
+
+	/**
+	 * File offset of each mapping.
+	 */
+	private long[] segmentStarts;
+
+	/**
+	 * True once closed.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Construct an empty list.
+	 *
+	 * @param codec
+	 *            format of spilled rows
+	 * @param memory
+	 *            estimated heap bytes rows may take before they are spilled
+	 * @param directory
+	 *            directory the spill file is created in
+	 */
+	SpillingList(RowCodec<T> codec, long memory, Path directory) {
+		this.codec = codec;
+		this.memory = memory;
+		this.directory = directory;
+	}
+
+	/**
+	 * Return a handler reading a result set into a spilling list.
+	 *
+	 * @param <T>
+	 *            DTO type
+	 * @param reader
+	 *            maps a row into a DTO
+	 * @param codec
+	 *            format of spilled rows
+	 * @param memory
+	 *            estimated heap bytes rows may take before they are spilled
+	 * @param directory
+	 *            directory the spill file is created in
+	 * @return the handler
+	 */
+	static <T> ResultSetHandler<SpillingList<T>> handler(
+	    final ResultSetPublisher.RowReader<T> reader, final RowCodec<T> codec,
+	    final long memory, final Path directory) {
+
+		return new ResultSetHandler<SpillingList<T>>() {
+			@Override
+			public SpillingList<T> handle(ResultSet rs) throws SQLException {
+				SpillingList<T> list =
+				    new SpillingList<T>(codec, memory, directory);
+				boolean complete = false;
+				try {
+					while (rs.next()) {
+						list.append(reader.read(rs));
+					}
+					list.finish();
+					complete = true;
+					return list;
+				} catch (IOException e) {
+					throw new SQLException("Error spilling rows: " + e, e);
+				} finally {
+					if (!complete) {
+						list.close();
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Add a row while the result is read.
+	 *
+	 * @param dto
+	 *            the row
+	 * @throws IOException
+	 *             thrown if the row can't be spilled
+	 */
+	void append(T dto) throws IOException {
+
+		if (out == null) {
+			long size = codec.heapSize(dto);
+			if (heapBytes + size <= memory) {
+				heapRows.add(dto);
+				heapBytes += size;
+				return;
+			}
+			file = Files.createTempFile(directory, "dao-spill-", ".rows");
+			out = new BufferedOutputStream(Files.newOutputStream(file),
+			    WRITE_BUFFER_BYTES);
+			row = new ByteArrayOutputStream();
+			offsets = new long[INITIAL_OFFSETS];
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug(String.format(
+				    "Spilling rows after %d (%d bytes) to %s", heapRows.size(),
+				    heapBytes, file));
+			}
+		}
+
+		if (spilled + 1 >= offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		}
+		row.reset();
+		codec.encode(dto, row);
+		row.writeTo(out);
+		offsets[spilled + 1] = offsets[spilled] + row.size();
+		spilled++;
+	}
+
+	/**
+	 * Finish reading the result: close the spill file and map it.
+	 *
+	 * @throws IOException
+	 *             thrown if the file can't be mapped
+	 */
+	void finish() throws IOException {
+
+		if (out == null) {
+			return;
+		}
+		out.close();
+		out = null;
+		row = null;
+
+		List<Long> starts = new ArrayList<Long>();
+		starts.add(0L);
+		for (int i = 0; i < spilled; i++) {
+			long start = starts.get(starts.size() - 1);
+			if (offsets[i + 1] - start > SEGMENT_BYTES) {
+				starts.add(offsets[i]);
+			}
+		}
+
+		long length = offsets[spilled];
+		segmentStarts = new long[starts.size()];
+		segments = new MappedByteBuffer[starts.size()];
+		try (FileChannel channel =
+		    FileChannel.open(file, StandardOpenOption.READ)) {
+			for (int i = 0; i < segments.length; i++) {
+				segmentStarts[i] = starts.get(i);
+				long end = i + 1 < segments.length ? starts.get(i + 1) : length;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+				    segmentStarts[i], end - segmentStarts[i]);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * A spilled row is decoded on every call.
+	 */
+	@Override
+	public T get(int index) {
+
+		if (closed) {
+			throw new IllegalStateException("SpillingList is closed");
+		}
+
+		int heapSize = heapRows.size();
+		if (index < heapSize) {
+			return heapRows.get(index);
+		}
+
+		int spilledIndex = index - heapSize;
+		if (spilledIndex >= spilled) {
+			throw new IndexOutOfBoundsException(
+			    "Index: " + index + ", Size: " + size());
+		}
+
+		long offset = offsets[spilledIndex];
+		int segment = Arrays.binarySearch(segmentStarts, offset);
+		if (segment < 0) {
+			segment = -segment - 2;
+		}
+		ByteBuffer in = segments[segment].duplicate();
+		in.position((int) (offset - segmentStarts[segment]));
+		return codec.decode(in);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return heapRows.size() + spilled;
+	}
+
+	/**
+	 * Return the number of rows spilled to disk.
+	 *
+	 * @return spilled rows, 0 if every row is on the heap
+	 */
+	public int getSpilledRows() {
+		return spilled;
+	}
+
+	/**
+	 * Return the size of the spill file.
+	 *
+	 * @return bytes of spilled rows
+	 */
+	public long getSpilledBytes() {
+		return spilled == 0 ? 0L : offsets[spilled];
+	}
+
+	/**
+	 * Release the rows and delete the spill file, leaving the list empty.
+	 * Closing again does nothing.
+	 */
+	@Override
+	public void close() {
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		heapRows = new ArrayList<T>();
+		spilled = 0;
+		segments = null;
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				LOGGER.warn("Couldn't close spill file: " + e);
+			}
+			out = null;
+		}
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// A mapped file can't be deleted on some platforms until
+				// the mapping is collected.
+				LOGGER.warn("Couldn't delete spill file, deleting on exit: "
+				    + e);
+				file.toFile().deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Return the spill file.
+	 *
+	 * @return the file, or null if no row was spilled
+	 */
+	Path getFile() {
+		return file;
+	}
+}
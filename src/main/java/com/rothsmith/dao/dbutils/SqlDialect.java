@@ -0,0 +1,110 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * How to limit a query to its first row on each supported database, so that
+ * the database can stop at the first match.
+ *
+ * @author drothauser
+ */
+enum SqlDialect {
+
+	/**
+	 * The SQL:2008 <code>FETCH FIRST</code> clause: Derby, H2, PostgreSQL, DB2
+	 * and Oracle 12c and later.
+	 */
+	STANDARD {
+
+		@Override
+		String limitToFirstRow(String sql) {
+			return sql + " FETCH FIRST 1 ROWS ONLY";
+		}
+	},
+
+	/**
+	 * MySQL and MariaDB: <code>LIMIT</code>.
+	 */
+	MYSQL {
+
+		@Override
+		String limitToFirstRow(String sql) {
+			return sql + " LIMIT 1";
+		}
+	},
+
+	/**
+	 * Oracle before 12c: the query is wrapped in a <code>ROWNUM</code>
+	 * filter.
+	 */
+	ORACLE_ROWNUM {
+
+		@Override
+		String limitToFirstRow(String sql) {
+			return "select * from ( " + sql + " ) where ROWNUM <= 1";
+		}
+	},
+
+	/**
+	 * Any other database: the query is left unchanged and the caller limits
+	 * the statement with <code>setMaxRows(1)</code>.
+	 */
+	GENERIC {
+
+		@Override
+		String limitToFirstRow(String sql) {
+			return sql;
+		}
+	};
+
+	/**
+	 * Oracle's first major version supporting <code>FETCH FIRST</code>.
+	 */
+	private static final int ORACLE_FETCH_FIRST_VERSION = 12;
+
+	/**
+	 * Limit a query to its first row.
+	 *
+	 * @param sql
+	 *            query without ORDER BY, OFFSET or FETCH clauses
+	 * @return the limited query; unchanged for {@link #GENERIC}
+	 */
+	abstract String limitToFirstRow(String sql);
+
+	/**
+	 * Return the dialect of a connection's database.
+	 *
+	 * @param conn
+	 *            the connection
+	 * @return the dialect, {@link #GENERIC} if the database isn't known
+	 * @throws SQLException
+	 *             thrown if the database metadata can't be read
+	 */
+	static SqlDialect forConnection(Connection conn) throws SQLException {
+		DatabaseMetaData metaData = conn.getMetaData();
+		String product = metaData.getDatabaseProductName();
+		if (StringUtils.startsWithIgnoreCase(product, "MySQL")
+		    || StringUtils.startsWithIgnoreCase(product, "MariaDB")) {
+			return MYSQL;
+		}
+		if (StringUtils.startsWithIgnoreCase(product, "Oracle")) {
+			return metaData
+			    .getDatabaseMajorVersion() >= ORACLE_FETCH_FIRST_VERSION
+			        ? STANDARD : ORACLE_ROWNUM;
+		}
+		for (String standard : new String[] { "Apache Derby", "H2",
+		    "PostgreSQL", "DB2" }) {
+			if (StringUtils.startsWithIgnoreCase(product, standard)) {
+				return STANDARD;
+			}
+		}
+		return GENERIC;
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Helpers for taking apart the simple SQL statements found in DAO properties
+ * files.
+ *
+ * @author drothauser
+ */
+final class SqlStatements {
+
+	/**
+	 * Matches the start of a statement's WHERE clause.
+	 */
+	private static final Pattern WHERE = Pattern.compile("(?i)\\swhere\\s");
+
+	/**
+	 * Matches a trailing ORDER BY clause outside parentheses.
+	 */
+	private static final Pattern ORDER_BY =
+	    Pattern.compile("(?is)\\sorder\\s+by\\s[^()]*$");
+
+	/**
+	 * Matches a statement's SELECT list.
+	 */
+	private static final Pattern SELECT_LIST =
+	    Pattern.compile("(?is)^\\s*select\\s+(.+?)\\s+from\\s");
+
+	/**
+	 * Matches the output name of a SELECT list item: its alias or the last
+	 * part of its column name.
+	 */
+	private static final Pattern OUTPUT_NAME = Pattern
+	    .compile("(?is)(?:^|[\\s.])(?:as\\s+)?\"?(\\w+)\"?\\s*$");
+
+	/**
+	 * Matches a SELECT list item whose output name is known without running
+	 * the query: a plain column, a column with an alias, or any expression
+	 * with an <code>AS</code> alias.
+	 */
+	private static final Pattern NAMED_ITEM = Pattern.compile(
+	    "(?is)(?:[\\w.\"]+|[\\w.\"]+\\s+\"?\\w+\"?|.+\\sas\\s+\"?\\w+\"?)");
+
+	/**
+	 * Private constructor to thwart instantiation.
+	 */
+	private SqlStatements() {
+		// Utility class should not be instantiated.
+	}
+
+	/**
+	 * Convert a column name such as <code>PARTY_ID</code> to the matching bean
+	 * property name, <code>partyId</code>.
+	 *
+	 * @param column
+	 *            column name
+	 * @return bean property name
+	 */
+	static String toPropertyName(String column) {
+		StringBuilder sb = new StringBuilder(column.length());
+		boolean upper = false;
+		for (char c : column.trim().toCharArray()) {
+			if (c == '_') {
+				upper = sb.length() > 0;
+			} else if (upper) {
+				sb.append(Character.toUpperCase(c));
+				upper = false;
+			} else {
+				sb.append(Character.toLowerCase(c));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Return a statement without its WHERE clause (and anything after it).
+	 *
+	 * @param sql
+	 *            SQL statement
+	 * @return the statement up to its WHERE clause
+	 */
+	static String stripWhere(String sql) {
+		Matcher matcher = WHERE.matcher(sql);
+		return StringUtils.trim(matcher.find() ? sql.substring(0, matcher
+		    .start()) : sql);
+	}
+
+	/**
+	 * Return a statement's WHERE clause (and anything after it).
+	 *
+	 * @param sql
+	 *            SQL statement
+	 * @return the WHERE clause, or an empty string if there is none
+	 */
+	static String whereClause(String sql) {
+		Matcher matcher = WHERE.matcher(sql);
+		return matcher.find() ? sql.substring(matcher.start()).trim() : "";
+	}
+
+	/**
+	 * Return a query without its trailing ORDER BY clause, for wrapping it in
+	 * a query where row order doesn't matter.
+	 *
+	 * @param sql
+	 *            SQL query
+	 * @return the query without ORDER BY
+	 */
+	static String stripOrderBy(String sql) {
+		Matcher matcher = ORDER_BY.matcher(sql);
+		return StringUtils.trim(matcher.find() ? sql.substring(0, matcher
+		    .start()) : sql);
+	}
+
+	/**
+	 * Convert a bean property name such as <code>partyId</code> to the
+	 * matching column name, <code>PARTY_ID</code>.
+	 *
+	 * @param property
+	 *            bean property name
+	 * @return column name
+	 */
+	static String toColumnName(String property) {
+		StringBuilder sb = new StringBuilder(property.length() + 4);
+		for (char c : property.trim().toCharArray()) {
+			if (Character.isUpperCase(c) && sb.length() > 0) {
+				sb.append('_');
+			}
+			sb.append(Character.toUpperCase(c));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Trim a statement's SELECT list to the given columns. The statement is
+	 * returned unchanged if its SELECT list can't safely be trimmed: it uses
+	 * DISTINCT, contains expressions with parentheses or named parameters
+	 * (dropping those would shift the positions of the parameters that
+	 * follow), or lacks one of the columns.
+	 *
+	 * @param sql
+	 *            SQL statement
+	 * @param columns
+	 *            upper case names of the columns needed
+	 * @return the statement selecting only the given columns
+	 */
+	static String trimSelectList(String sql, List<String> columns) {
+
+		Matcher matcher = SELECT_LIST.matcher(sql);
+		if (!matcher.find()) {
+			return sql;
+		}
+
+		String selectList = matcher.group(1).trim();
+		if (selectList.indexOf('(') >= 0 || selectList.indexOf(':') >= 0
+		    || StringUtils.startsWithIgnoreCase(selectList, "distinct")) {
+			return sql;
+		}
+
+		List<String> items = new ArrayList<String>(columns.size());
+		if ("*".equals(selectList)) {
+			items.addAll(columns);
+		} else {
+			Map<String, String> byName = new HashMap<String, String>();
+			for (String item : selectList.split(",")) {
+				Matcher name = OUTPUT_NAME.matcher(item.trim());
+				if (name.find()) {
+					byName.put(name.group(1).toUpperCase(Locale.ROOT),
+					    item.trim());
+				}
+			}
+			for (String column : columns) {
+				String item = byName.get(column);
+				if (item == null) {
+					return sql;
+				}
+				items.add(item);
+			}
+		}
+
+		return sql.substring(0, matcher.start(1))
+		    + StringUtils.join(items, " , ") + sql.substring(matcher.end(1));
+	}
+
+	/**
+	 * Return the output names of a query's SELECT list items, in order. Names
+	 * can't be determined for <code>SELECT *</code>, for qualified stars or
+	 * for expressions without an <code>AS</code> alias.
+	 *
+	 * @param sql
+	 *            SQL query
+	 * @return upper case output names, or null if they can't be determined
+	 */
+	static List<String> selectColumns(String sql) {
+
+		Matcher matcher = SELECT_LIST.matcher(sql);
+		if (!matcher.find()) {
+			return null;
+		}
+
+		String selectList =
+		    matcher.group(1).trim().replaceFirst("(?i)^(distinct|all)\\s+", "");
+
+		List<String> items = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < selectList.length(); i++) {
+			char c = selectList.charAt(i);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth < 0) {
+				return null;
+			} else if (c == ',' && depth == 0) {
+				items.add(selectList.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+		if (depth != 0) {
+			return null;
+		}
+		items.add(selectList.substring(start).trim());
+
+		List<String> columns = new ArrayList<String>(items.size());
+		for (String item : items) {
+			if (item.endsWith("*") || !NAMED_ITEM.matcher(item).matches()) {
+				return null;
+			}
+			Matcher name = OUTPUT_NAME.matcher(item);
+			if (!name.find()) {
+				return null;
+			}
+			columns.add(name.group(1).toUpperCase(Locale.ROOT));
+		}
+
+		return columns;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least recently used cache of idle {@link PreparedStatement}s belonging to a
+ * single physical connection. A statement is removed from the cache while it
+ * is checked out and put back when its logical handle is closed, so the cache
+ * never hands the same statement to two callers.
+ *
+ * <p>
+ * Instances are not thread safe; a physical connection is only ever used by
+ * one thread at a time and so is its cache.
+ *
+ * @author drothauser
+ */
+class StatementCache {
+
+	/**
+	 * SLF4J Logger for StatementCache.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(StatementCache.class);
+
+	/**
+	 * Idle statements keyed by SQL, in access order.
+	 */
+	private final LinkedHashMap<String, PreparedStatement> statements;
+
+	/**
+	 * Maximum number of idle statements to keep.
+	 */
+	private final int maxSize;
+
+	/**
+	 * True while the owning physical connection is checked out.
+	 */
+	private boolean inUse;
+
+	/**
+	 * Construct a cache holding at most <code>maxSize</code> statements.
+	 *
+	 * @param maxSize
+	 *            maximum number of idle statements to keep
+	 */
+	StatementCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.statements =
+		    new LinkedHashMap<String, PreparedStatement>(maxSize, 0.75f, true);
+	}
+
+	/**
+	 * Check out the idle statement prepared for the given key.
+	 *
+	 * @param key
+	 *            SQL statement key
+	 * @return the cached statement or null if there isn't an idle one
+	 */
+	PreparedStatement take(String key) {
+		return statements.remove(key);
+	}
+
+	/**
+	 * Return a statement to the cache. Its parameters are cleared and its
+	 * query timeout, max rows and fetch size reset to 0, so that the next
+	 * caller starts clean. The least recently used statement is closed if the
+	 * cache is full.
+	 *
+	 * @param key
+	 *            SQL statement key
+	 * @param stmt
+	 *            the statement to cache
+	 * @return true if the statement was cached, false if the caller should
+	 *         close it
+	 */
+	boolean offer(String key, PreparedStatement stmt) {
+
+		if (statements.containsKey(key)) {
+			return false;
+		}
+
+		try {
+			stmt.clearParameters();
+			stmt.setQueryTimeout(0);
+			stmt.setMaxRows(0);
+			stmt.setFetchSize(0);
+		} catch (SQLException e) {
+			LOGGER.warn("Couldn't reset statement: " + e);
+			return false;
+		}
+
+		statements.put(key, stmt);
+
+		if (statements.size() > maxSize) {
+			Iterator<Map.Entry<String, PreparedStatement>> eldest =
+			    statements.entrySet().iterator();
+			PreparedStatement evicted = eldest.next().getValue();
+			eldest.remove();
+			closeQuietly(evicted);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Close and discard all cached statements.
+	 */
+	void clear() {
+		List<PreparedStatement> idle =
+		    new ArrayList<PreparedStatement>(statements.values());
+		statements.clear();
+		for (PreparedStatement stmt : idle) {
+			closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Return the number of idle statements cached.
+	 *
+	 * @return the number of idle statements cached
+	 */
+	int size() {
+		return statements.size();
+	}
+
+	/**
+	 * Accessor for inUse.
+	 *
+	 * @return true if the owning physical connection is checked out
+	 */
+	boolean isInUse() {
+		return inUse;
+	}
+
+	/**
+	 * Mutator for inUse.
+	 *
+	 * @param inUse
+	 *            true if the owning physical connection is checked out
+	 */
+	void setInUse(boolean inUse) {
+		this.inUse = inUse;
+	}
+
+	/**
+	 * Close a statement, logging rather than throwing any error.
+	 *
+	 * @param stmt
+	 *            statement to close
+	 */
+	private static void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			LOGGER.warn("Couldn't close cached statement: " + e);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit and miss counters for one SQL statement in a
+ * {@link StatementCachingDataSource}.
+ *
+ * @author drothauser
+ */
+public final class StatementCacheStats {
+
+	/**
+	 * The SQL statement the counters belong to.
+	 */
+	private final String sql;
+
+	/**
+	 * Number of prepares satisfied from the cache.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Number of prepares that went to the driver.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Construct counters for a SQL statement.
+	 *
+	 * @param sql
+	 *            the SQL statement
+	 */
+	StatementCacheStats(String sql) {
+		this.sql = sql;
+	}
+
+	/**
+	 * Record a cache hit.
+	 */
+	void hit() {
+		hits.incrementAndGet();
+	}
+
+	/**
+	 * Record a cache miss.
+	 */
+	void miss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Accessor for sql.
+	 *
+	 * @return the SQL statement
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * Accessor for hits.
+	 *
+	 * @return number of prepares satisfied from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Accessor for misses.
+	 *
+	 * @return number of prepares that went to the driver
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Return the fraction of prepares satisfied from the cache.
+	 *
+	 * @return hit rate between 0 and 1
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0d : (double) h / total;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format("hits=%d, misses=%d, hitRate=%.3f: %s",
+		    getHits(), getMisses(), getHitRate(), sql);
+	}
+}
@@ -0,0 +1,650 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * {@link DataSource} wrapper that keeps a least recently used cache of
+ * {@link PreparedStatement}s for every physical connection handed out by the
+ * wrapped (pooling) data source. Closing a statement obtained from one of its
+ * connections returns the statement to the cache instead of closing it, so
+ * that the next <code>prepareStatement</code> call for the same SQL on the
+ * same physical connection skips the driver's parse step.
+ *
+ * <p>
+ * Pools hand out a new wrapper object for every checkout, so the physical
+ * connection is looked up through the wrapper's {@link DatabaseMetaData},
+ * whose <code>getConnection</code> the driver answers with the physical
+ * connection. Metadata wrapped by DBCP is unwrapped with its
+ * <code>getInnermostDelegate</code> method. If a pool wraps the metadata in
+ * some other way, the connection objects returned by the wrapped data source
+ * are compared with <code>equals</code>, and the cache only works if the pool
+ * makes its wrappers of one physical connection equal (as
+ * {@link ConnectionPool} does); otherwise every checkout misses the cache.
+ *
+ * @author drothauser
+ */
+public class StatementCachingDataSource implements DataSource {
+
+	/**
+	 * Default number of physical connections to keep caches for.
+	 */
+	private static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+	/**
+	 * Key suffix separating SQL from the auto generated keys flag.
+	 */
+	private static final String KEYS_SUFFIX = "\n#autoGeneratedKeys=";
+
+	/**
+	 * DBCP's <code>getInnermostDelegate</code> method of metadata wrapper
+	 * classes, or null for other classes.
+	 */
+	private static final ClassValue<Method> INNERMOST_DELEGATE =
+	    new ClassValue<Method>() {
+		    @Override
+		    protected Method computeValue(Class<?> type) {
+			    try {
+				    Method method = type.getMethod("getInnermostDelegate");
+				    return DatabaseMetaData.class
+				        .isAssignableFrom(method.getReturnType()) ? method
+				            : null;
+			    } catch (NoSuchMethodException e) {
+				    return null;
+			    }
+		    }
+	    };
+
+	/**
+	 * The wrapped data source.
+	 */
+	private final DataSource delegate;
+
+	/**
+	 * Maximum number of idle statements cached per physical connection.
+	 */
+	private final int cacheSize;
+
+	/**
+	 * Maximum number of physical connections to keep caches for.
+	 */
+	private final int maxConnections;
+
+	/**
+	 * Statement caches keyed by physical connection, in access order.
+	 */
+	private final LinkedHashMap<Object, StatementCache> caches =
+	    new LinkedHashMap<Object, StatementCache>(16, 0.75f, true);
+
+	/**
+	 * Hit/miss counters keyed by SQL statement.
+	 */
+	private final ConcurrentMap<String, StatementCacheStats> stats =
+	    new ConcurrentHashMap<String, StatementCacheStats>();
+
+	/**
+	 * Wrap a data source, caching up to <code>cacheSize</code> statements per
+	 * physical connection.
+	 *
+	 * @param delegate
+	 *            the data source to wrap
+	 * @param cacheSize
+	 *            maximum number of statements to cache per connection
+	 */
+	public StatementCachingDataSource(DataSource delegate, int cacheSize) {
+		this(delegate, cacheSize, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Wrap a data source, caching up to <code>cacheSize</code> statements for
+	 * each of up to <code>maxConnections</code> physical connections.
+	 *
+	 * @param delegate
+	 *            the data source to wrap
+	 * @param cacheSize
+	 *            maximum number of statements to cache per connection
+	 * @param maxConnections
+	 *            maximum number of physical connections to keep caches for
+	 */
+	public StatementCachingDataSource(DataSource delegate, int cacheSize,
+	    int maxConnections) {
+		if (cacheSize < 1 || maxConnections < 1) {
+			throw new IllegalArgumentException(String.format(
+			    "Invalid statement cache size %d for %d connections",
+			    cacheSize, maxConnections));
+		}
+		this.delegate = delegate;
+		this.cacheSize = cacheSize;
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Return the cache counters for every SQL statement prepared through this
+	 * data source.
+	 *
+	 * @return unmodifiable map of counters keyed by SQL
+	 */
+	public Map<String, StatementCacheStats> getStatementCacheStats() {
+		return Collections.unmodifiableMap(stats);
+	}
+
+	/**
+	 * Accessor for delegate.
+	 *
+	 * @return the wrapped data source
+	 */
+	public DataSource getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		return wrap(delegate.getConnection());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Connection getConnection(String username, String password)
+	        throws SQLException {
+		return wrap(delegate.getConnection(username, password));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return delegate.getLogWriter();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		delegate.setLogWriter(out);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		delegate.setLoginTimeout(seconds);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return delegate.getLoginTimeout();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return delegate.getParentLogger();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return delegate.unwrap(iface);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || delegate.isWrapperFor(iface);
+	}
+
+	/**
+	 * Wrap a physical connection in a logical connection that prepares
+	 * statements through the connection's cache.
+	 *
+	 * @param physical
+	 *            connection returned by the wrapped data source
+	 * @return logical connection proxy
+	 */
+	private Connection wrap(Connection physical) {
+		Object key = physicalKey(physical);
+		StatementCache cache = checkOut(key);
+		ConnectionHandler handler =
+		    new ConnectionHandler(physical, key, cache);
+		handler.proxy = (Connection) Proxy.newProxyInstance(
+		    StatementCachingDataSource.class.getClassLoader(),
+		    new Class<?>[] { Connection.class }, handler);
+		return handler.proxy;
+	}
+
+	/**
+	 * Return the object identifying the physical connection behind a
+	 * connection returned by the wrapped data source: the connection of the
+	 * driver's metadata, or the connection itself if the driver's metadata
+	 * can't be reached.
+	 *
+	 * @param conn
+	 *            connection returned by the wrapped data source
+	 * @return cache key of the physical connection
+	 */
+	private static Object physicalKey(Connection conn) {
+		try {
+			DatabaseMetaData metaData = conn.getMetaData();
+			Method innermost = metaData == null ? null
+			    : INNERMOST_DELEGATE.get(metaData.getClass());
+			if (innermost != null) {
+				metaData = (DatabaseMetaData) innermost.invoke(metaData);
+			}
+			Connection physical =
+			    metaData == null ? null : metaData.getConnection();
+			return physical == null ? conn : physical;
+		} catch (SQLException | ReflectiveOperationException e) {
+			return conn;
+		}
+	}
+
+	/**
+	 * Find (or create) the statement cache for a physical connection and mark
+	 * it in use. Caches of idle connections beyond
+	 * <code>maxConnections</code> are discarded.
+	 *
+	 * @param physical
+	 *            cache key of the physical connection
+	 * @return its statement cache
+	 */
+	private StatementCache checkOut(Object physical) {
+
+		StatementCache evicted = null;
+		StatementCache cache;
+
+		synchronized (caches) {
+			cache = caches.get(physical);
+			if (cache == null || cache.isInUse()) {
+				cache = new StatementCache(cacheSize);
+				caches.put(physical, cache);
+			}
+			cache.setInUse(true);
+
+			if (caches.size() > maxConnections) {
+				Iterator<StatementCache> it = caches.values().iterator();
+				while (it.hasNext()) {
+					StatementCache candidate = it.next();
+					if (!candidate.isInUse()) {
+						it.remove();
+						evicted = candidate;
+						break;
+					}
+				}
+			}
+		}
+
+		if (evicted != null) {
+			evicted.clear();
+		}
+
+		return cache;
+	}
+
+	/**
+	 * Mark a statement cache as no longer in use. A cache that was replaced
+	 * while it was checked out is closed.
+	 *
+	 * @param physical
+	 *            cache key of the physical connection
+	 * @param cache
+	 *            the statement cache
+	 */
+	private void checkIn(Object physical, StatementCache cache) {
+		boolean orphaned;
+		synchronized (caches) {
+			cache.setInUse(false);
+			orphaned = caches.get(physical) != cache;
+		}
+		if (orphaned) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Return the counters for a SQL statement key.
+	 *
+	 * @param key
+	 *            statement cache key
+	 * @return counters for the statement's SQL
+	 */
+	private StatementCacheStats statsFor(String key) {
+		int suffix = key.indexOf(KEYS_SUFFIX);
+		String sql = suffix < 0 ? key : key.substring(0, suffix);
+		StatementCacheStats stat = stats.get(sql);
+		if (stat == null) {
+			StatementCacheStats created = new StatementCacheStats(sql);
+			stat = stats.putIfAbsent(sql, created);
+			if (stat == null) {
+				stat = created;
+			}
+		}
+		return stat;
+	}
+
+	/**
+	 * Invoke a method on a JDBC object, unwrapping reflection exceptions.
+	 *
+	 * @param target
+	 *            the JDBC object
+	 * @param method
+	 *            method to invoke
+	 * @param args
+	 *            method arguments
+	 * @return the method's result
+	 * @throws Throwable
+	 *             whatever the JDBC object threw
+	 */
+	private static Object invoke(Object target, Method method, Object[] args)
+	        throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Logical connection: caches statements and checks the cache back in on
+	 * close.
+	 */
+	private final class ConnectionHandler implements InvocationHandler {
+
+		/**
+		 * The physical connection.
+		 */
+		private final Connection physical;
+
+		/**
+		 * Cache key of the physical connection.
+		 */
+		private final Object connectionKey;
+
+		/**
+		 * Statement cache of the physical connection.
+		 */
+		private final StatementCache cache;
+
+		/**
+		 * Cached statements currently checked out through this connection.
+		 */
+		private final Set<PreparedStatement> checkedOut = Collections
+		    .newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+
+		/**
+		 * The proxy this handler serves.
+		 */
+		private Connection proxy;
+
+		/**
+		 * True once the logical connection has been closed.
+		 */
+		private boolean closed;
+
+		/**
+		 * Construct a handler for a physical connection.
+		 *
+		 * @param physical
+		 *            the physical connection
+		 * @param key
+		 *            cache key of the physical connection
+		 * @param cache
+		 *            its statement cache
+		 */
+		ConnectionHandler(Connection physical, Object key,
+		    StatementCache cache) {
+			this.physical = physical;
+			this.connectionKey = key;
+			this.cache = cache;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Object invoke(Object proxyObj, Method method, Object[] args)
+		        throws Throwable {
+
+			String name = method.getName();
+
+			if ("prepareStatement".equals(name) && isCacheable(args)) {
+				return prepare(method, args);
+			} else if ("close".equals(name)) {
+				close();
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return closed || physical.isClosed();
+			} else if ("equals".equals(name)) {
+				return proxyObj == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxyObj);
+			} else if ("toString".equals(name)) {
+				return "StatementCaching[" + physical + "]";
+			}
+
+			if (closed) {
+				throw new SQLException("Connection is closed");
+			}
+
+			return StatementCachingDataSource.invoke(physical, method, args);
+		}
+
+		/**
+		 * Return true for the <code>prepareStatement(String)</code> and
+		 * <code>prepareStatement(String, int)</code> overloads.
+		 *
+		 * @param args
+		 *            method arguments
+		 * @return true if the statement can be cached
+		 */
+		private boolean isCacheable(Object[] args) {
+			return args.length == 1
+			    || (args.length == 2 && args[1] instanceof Integer);
+		}
+
+		/**
+		 * Prepare a statement, taking it from the cache when possible.
+		 *
+		 * @param method
+		 *            the prepareStatement method
+		 * @param args
+		 *            method arguments
+		 * @return statement proxy
+		 * @throws Throwable
+		 *             thrown if the driver fails to prepare the statement
+		 */
+		private PreparedStatement prepare(Method method, Object[] args)
+		        throws Throwable {
+
+			if (closed) {
+				throw new SQLException("Connection is closed");
+			}
+
+			String key = args.length == 1 ? (String) args[0]
+			    : args[0] + KEYS_SUFFIX + args[1];
+
+			PreparedStatement stmt = cache.take(key);
+			if (stmt != null && stmt.isClosed()) {
+				// The physical connection was closed behind our back.
+				cache.clear();
+				stmt = null;
+			}
+
+			StatementCacheStats stat = statsFor(key);
+			if (stmt == null) {
+				stat.miss();
+				stmt = (PreparedStatement) StatementCachingDataSource
+				    .invoke(physical, method, args);
+			} else {
+				stat.hit();
+			}
+
+			checkedOut.add(stmt);
+
+			StatementHandler handler = new StatementHandler(this, key, stmt);
+			return (PreparedStatement) Proxy.newProxyInstance(
+			    StatementCachingDataSource.class.getClassLoader(),
+			    new Class<?>[] { PreparedStatement.class }, handler);
+		}
+
+		/**
+		 * Return a statement to the cache when its logical handle is closed.
+		 *
+		 * @param key
+		 *            statement cache key
+		 * @param stmt
+		 *            the physical statement
+		 * @throws SQLException
+		 *             thrown if the statement can't be closed
+		 */
+		private void release(String key, PreparedStatement stmt)
+		        throws SQLException {
+			checkedOut.remove(stmt);
+			if (closed || !cache.offer(key, stmt)) {
+				stmt.close();
+			}
+		}
+
+		/**
+		 * Close the logical connection: close statements the caller leaked,
+		 * check the cache back in and close the physical connection (which
+		 * returns it to its pool).
+		 *
+		 * @throws SQLException
+		 *             thrown if the physical connection can't be closed
+		 */
+		private void close() throws SQLException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			for (PreparedStatement stmt : new ArrayList<PreparedStatement>(
+			    checkedOut)) {
+				stmt.close();
+			}
+			checkedOut.clear();
+			checkIn(connectionKey, cache);
+			physical.close();
+		}
+	}
+
+	/**
+	 * Logical statement: returns the physical statement to the connection's
+	 * cache on close.
+	 */
+	private static final class StatementHandler implements InvocationHandler {
+
+		/**
+		 * The logical connection that prepared the statement.
+		 */
+		private final ConnectionHandler connection;
+
+		/**
+		 * Statement cache key.
+		 */
+		private final String key;
+
+		/**
+		 * The physical statement.
+		 */
+		private final PreparedStatement stmt;
+
+		/**
+		 * True once the logical statement has been closed.
+		 */
+		private boolean closed;
+
+		/**
+		 * Construct a handler for a physical statement.
+		 *
+		 * @param connection
+		 *            the logical connection that prepared the statement
+		 * @param key
+		 *            statement cache key
+		 * @param stmt
+		 *            the physical statement
+		 */
+		StatementHandler(ConnectionHandler connection, String key,
+		    PreparedStatement stmt) {
+			this.connection = connection;
+			this.key = key;
+			this.stmt = stmt;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Object invoke(Object proxyObj, Method method, Object[] args)
+		        throws Throwable {
+
+			String name = method.getName();
+
+			if ("close".equals(name)) {
+				if (!closed) {
+					closed = true;
+					connection.release(key, stmt);
+				}
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return closed;
+			} else if ("getConnection".equals(name)) {
+				return connection.proxy;
+			} else if ("equals".equals(name)) {
+				return proxyObj == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxyObj);
+			} else if ("toString".equals(name)) {
+				return "StatementCaching[" + stmt + "]";
+			}
+
+			if (closed) {
+				throw new SQLException("Statement is closed");
+			}
+
+			return StatementCachingDataSource.invoke(stmt, method, args);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per statement id state of a {@link DbUtilsJdbcDao}: the statement's
+ * settings, its concurrency limit, its adaptive fetch size, its
+ * single-flight group and its execution counters. Executions are also
+ * recorded in the executing thread's {@link DaoProfiler} scope.
+ *
+ * @author drothauser
+ */
+final class StatementContext {
+
+	/**
+	 * DAO properties, or null.
+	 */
+	private final Map<String, String> properties;
+
+	/**
+	 * The statement's JDBC settings.
+	 */
+	private final StatementSettings settings;
+
+	/**
+	 * Concurrency limit or null if the statement is unlimited.
+	 */
+	private final Bulkhead bulkhead;
+
+	/**
+	 * Execution counters.
+	 */
+	private final StatementMetrics metrics;
+
+	/**
+	 * Adaptive fetch size or null if the fetch size is fixed or the driver
+	 * default.
+	 */
+	private final FetchSizer fetchSizer;
+
+	/**
+	 * Coalesces concurrent identical executions, or null if the statement
+	 * doesn't.
+	 */
+	private final SingleFlight singleFlight;
+
+	/**
+	 * Number of executions counted for plan sampling.
+	 */
+	private final AtomicLong sampled = new AtomicLong();
+
+	/**
+	 * Construct the context of a statement from the DAO properties.
+	 *
+	 * @param properties
+	 *            DAO properties
+	 * @param statementId
+	 *            the statement id
+	 * @param configured
+	 *            true if settings should be read for the statement id, false
+	 *            to use only DAO-wide settings
+	 */
+	StatementContext(Map<String, String> properties, String statementId,
+	    boolean configured) {
+		this.properties = properties;
+		this.settings = properties == null ? StatementSettings.DEFAULT
+		    : StatementSettings.fromProperties(properties,
+		        configured ? statementId : null);
+		this.bulkhead = settings.getMaxConcurrent() > 0
+		    ? new Bulkhead(settings.getMaxConcurrent(), settings.getMaxWait())
+		    : null;
+		this.metrics = new StatementMetrics(statementId);
+		this.fetchSizer = properties == null || !configured ? null
+		    : FetchSizer.forStatement(properties, statementId, settings,
+		        metrics);
+		this.singleFlight = properties == null || !configured ? null
+		    : SingleFlight.forStatement(properties, statementId, settings,
+		        metrics);
+	}
+
+	/**
+	 * Take an execution slot.
+	 *
+	 * @throws StatementRejectedException
+	 *             thrown if the statement's concurrency limit is reached
+	 */
+	void acquire() {
+		if (bulkhead != null && !bulkhead.tryAcquire()) {
+			metrics.recordRejection();
+			throw new StatementRejectedException(String.format(
+			    "Statement \"%s\" rejected: %d concurrent executions running",
+			    metrics.getStatementId(), settings.getMaxConcurrent()));
+		}
+	}
+
+	/**
+	 * Give back the execution slot and record the execution.
+	 *
+	 * @param nanos
+	 *            execution time in nanoseconds
+	 * @param failed
+	 *            true if the execution threw an exception
+	 */
+	void release(long nanos, boolean failed) {
+		release(nanos, failed, null);
+	}
+
+	/**
+	 * Give back the execution slot and record the execution, with its
+	 * parameters for the profiler.
+	 *
+	 * @param nanos
+	 *            execution time in nanoseconds
+	 * @param failed
+	 *            true if the execution threw an exception
+	 * @param params
+	 *            statement parameters, or null if not known
+	 */
+	void release(long nanos, boolean failed, Object[] params) {
+		if (bulkhead != null) {
+			bulkhead.release();
+		}
+		metrics.recordExecution(nanos, failed);
+		DaoProfiler.record(properties, metrics.getStatementId(), params,
+		    nanos, failed);
+	}
+
+	/**
+	 * Count an execution and tell whether its plan should be captured.
+	 *
+	 * @return true for every <code>explainEvery</code>-th execution
+	 */
+	boolean sampleExplain() {
+		int every = settings.getExplainEvery();
+		return every > 0 && sampled.incrementAndGet() % every == 0;
+	}
+
+	/**
+	 * Return the settings for the statement's next execution.
+	 *
+	 * @return the statement's JDBC settings, with the current adaptive fetch
+	 *         size
+	 */
+	StatementSettings getSettings() {
+		return fetchSizer == null ? settings : fetchSizer.getSettings();
+	}
+
+	/**
+	 * Accessor for fetchSizer.
+	 *
+	 * @return adaptive fetch size or null if the fetch size isn't adaptive
+	 */
+	FetchSizer getFetchSizer() {
+		return fetchSizer;
+	}
+
+	/**
+	 * Accessor for singleFlight.
+	 *
+	 * @return the statement's single-flight group or null if concurrent
+	 *         executions aren't coalesced
+	 */
+	SingleFlight getSingleFlight() {
+		return singleFlight;
+	}
+
+	/**
+	 * Accessor for metrics.
+	 *
+	 * @return the statement's execution counters
+	 */
+	StatementMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution counters for one statement id of a {@link DbUtilsJdbcDao}.
+ * Counters are cumulative since the DAO was created.
+ *
+ * @author drothauser
+ */
+public final class StatementMetrics {
+
+	/**
+	 * The statement id.
+	 */
+	private final String statementId;
+
+	/**
+	 * Number of completed executions, successful or not.
+	 */
+	private final LongAdder executions = new LongAdder();
+
+	/**
+	 * Number of executions that threw an exception.
+	 */
+	private final LongAdder errors = new LongAdder();
+
+	/**
+	 * Number of executions rejected by the statement's concurrency limit.
+	 */
+	private final LongAdder rejections = new LongAdder();
+
+	/**
+	 * Number of calls that joined another caller's execution.
+	 */
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * Total execution time in nanoseconds.
+	 */
+	private final LongAdder totalNanos = new LongAdder();
+
+	/**
+	 * Longest execution time in nanoseconds.
+	 */
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Most recently captured execution plan.
+	 */
+	private volatile ExecutionPlan lastPlan;
+
+	/**
+	 * Fetch size applied to the statement's queries, 0 for the driver
+	 * default.
+	 */
+	private volatile int fetchSize;
+
+	/**
+	 * Construct counters for a statement.
+	 *
+	 * @param statementId
+	 *            the statement id
+	 */
+	StatementMetrics(String statementId) {
+		this.statementId = statementId;
+	}
+
+	/**
+	 * Record a completed execution.
+	 *
+	 * @param nanos
+	 *            execution time in nanoseconds
+	 * @param failed
+	 *            true if the execution threw an exception
+	 */
+	void recordExecution(long nanos, boolean failed) {
+		executions.increment();
+		if (failed) {
+			errors.increment();
+		}
+		totalNanos.add(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * Record an execution rejected by the statement's concurrency limit.
+	 */
+	void recordRejection() {
+		rejections.increment();
+	}
+
+	/**
+	 * Record a call that joined another caller's execution.
+	 */
+	void recordCoalesced() {
+		coalesced.increment();
+	}
+
+	/**
+	 * Mutator for lastPlan.
+	 *
+	 * @param lastPlan
+	 *            most recently captured execution plan
+	 */
+	void setLastPlan(ExecutionPlan lastPlan) {
+		this.lastPlan = lastPlan;
+	}
+
+	/**
+	 * Mutator for fetchSize.
+	 *
+	 * @param fetchSize
+	 *            fetch size applied to the statement's queries
+	 */
+	void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Accessor for fetchSize.
+	 *
+	 * @return fetch size applied to the statement's queries, fixed or
+	 *         adaptive; 0 for the driver default
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Accessor for lastPlan.
+	 *
+	 * @return most recently captured execution plan or null if none was
+	 *         captured
+	 */
+	public ExecutionPlan getLastPlan() {
+		return lastPlan;
+	}
+
+	/**
+	 * Accessor for statementId.
+	 *
+	 * @return the statement id
+	 */
+	public String getStatementId() {
+		return statementId;
+	}
+
+	/**
+	 * Accessor for executions.
+	 *
+	 * @return number of completed executions
+	 */
+	public long getExecutions() {
+		return executions.sum();
+	}
+
+	/**
+	 * Accessor for errors.
+	 *
+	 * @return number of executions that threw an exception
+	 */
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	/**
+	 * Accessor for rejections.
+	 *
+	 * @return number of executions rejected by the concurrency limit
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * Accessor for coalesced.
+	 *
+	 * @return number of calls that received the result of another caller's
+	 *         execution instead of running the statement
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * Return the mean execution time.
+	 *
+	 * @return mean execution time in milliseconds
+	 */
+	public double getMeanMillis() {
+		long count = executions.sum();
+		return count == 0 ? 0d : nanosToMillis(totalNanos.sum()) / count;
+	}
+
+	/**
+	 * Return the longest execution time.
+	 *
+	 * @return maximum execution time in milliseconds
+	 */
+	public double getMaxMillis() {
+		return nanosToMillis(maxNanos.get());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+		    "%s: executions=%d, errors=%d, rejections=%d, coalesced=%d, "
+		        + "mean=%.3fms, max=%.3fms",
+		    statementId, getExecutions(), getErrors(), getRejections(),
+		    getCoalesced(), getMeanMillis(), getMaxMillis());
+	}
+
+	/**
+	 * Convert nanoseconds to fractional milliseconds.
+	 *
+	 * @param nanos
+	 *            nanoseconds
+	 * @return milliseconds
+	 */
+	private static double nanosToMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
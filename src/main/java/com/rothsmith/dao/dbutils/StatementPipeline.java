@@ -0,0 +1,264 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rothsmith.dao.DaoRuntimeException;
+
+/**
+ * Writes queued across one or more DAOs and executed together on one
+ * connection in one transaction (see {@link DbUtilsJdbcDao#pipeline()}):
+ *
+ * <pre>
+ * int[] counts = partyDao.pipeline()
+ *     .add(partyDao, "query.insert", party)
+ *     .add(presidentDao, "query.update", washington)
+ *     .add(presidentDao, "query.update", adams)
+ *     .add(stateDao, "query.delete", stale)
+ *     .execute();
+ * </pre>
+ *
+ * Consecutive steps of the same DAO and statement id are sent as one JDBC
+ * batch, so the example takes three round trips and one connection checkout
+ * instead of four of each. Parameters are read from the DTOs when they are
+ * added. Every step runs on a connection from the data source of the DAO
+ * that created the pipeline, so the DAOs must use the same database. Change
+ * logs are written in the same transaction and reference caches are
+ * reloaded after it commits.
+ *
+ * A pipeline isn't thread-safe. It is emptied by {@link #execute()} and can
+ * be reused.
+ *
+ * @author drothauser
+ */
+public final class StatementPipeline {
+
+	/**
+	 * SLF4J Logger for StatementPipeline.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(StatementPipeline.class);
+
+	/**
+	 * Data source the steps run on.
+	 */
+	private final DataSource dataSource;
+
+	/**
+	 * Queued steps, grouped into runs of one DAO and statement id.
+	 */
+	private final List<Run<?>> runs = new ArrayList<Run<?>>();
+
+	/**
+	 * Number of queued steps.
+	 */
+	private int size;
+
+	/**
+	 * Construct an empty pipeline.
+	 *
+	 * @param dataSource
+	 *            data source the steps run on
+	 */
+	StatementPipeline(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * Queue a write.
+	 *
+	 * @param <D>
+	 *            DTO class of the DAO
+	 * @param dao
+	 *            the DAO whose statement is run
+	 * @param statementId
+	 *            id of an INSERT, UPDATE or DELETE statement
+	 * @param dto
+	 *            the DTO whose properties are the statement's parameters
+	 * @return this pipeline
+	 * @throws IllegalArgumentException
+	 *             thrown if the statement is missing or a query
+	 */
+	public <D> StatementPipeline add(DbUtilsJdbcDao<D, ?> dao,
+	    String statementId, D dto) {
+
+		if (dao.isQuery(statementId)) {
+			throw new IllegalArgumentException(String.format(
+			    "Statement \"%s\" is a query", statementId));
+		}
+
+		Object[] params = dao.statementParams(statementId, dto);
+
+		Run<?> last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+		@SuppressWarnings("unchecked")
+		Run<D> run = last != null && last.dao == dao
+		    && last.statementId.equals(statementId) ? (Run<D>) last : null;
+		if (run == null) {
+			run = new Run<D>(dao, statementId);
+			runs.add(run);
+		}
+		run.params.add(params);
+		run.dtos.add(dto);
+		size++;
+
+		return this;
+	}
+
+	/**
+	 * Return the number of queued steps.
+	 *
+	 * @return queued steps
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Execute the queued steps in order in one transaction, committed if
+	 * every step succeeds and rolled back otherwise, and empty the pipeline.
+	 *
+	 * @return rows affected by each step, in the order added; a driver may
+	 *         report {@link java.sql.Statement#SUCCESS_NO_INFO} for a step
+	 *         sent in a batch
+	 */
+	public int[] execute() {
+
+		int[] counts = new int[size];
+		if (size == 0) {
+			return counts;
+		}
+
+		List<Run<?>> executed = new ArrayList<Run<?>>(runs);
+		runs.clear();
+		size = 0;
+
+		boolean committed = false;
+		Connection conn = null;
+		try {
+			conn = dataSource.getConnection();
+			conn.setAutoCommit(false);
+			int step = 0;
+			for (Run<?> run : executed) {
+				int[] runCounts = run.execute(conn);
+				System.arraycopy(runCounts, 0, counts, step,
+				    runCounts.length);
+				step += runCounts.length;
+			}
+			conn.commit();
+			committed = true;
+
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			throw new DaoRuntimeException(msg, e);
+		} finally {
+			release(conn, committed);
+		}
+
+		Set<DbUtilsJdbcDao<?, ?>> daos =
+		    new LinkedHashSet<DbUtilsJdbcDao<?, ?>>();
+		for (Run<?> run : executed) {
+			daos.add(run.dao);
+		}
+		for (DbUtilsJdbcDao<?, ?> dao : daos) {
+			dao.reloadReferenceCache();
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Roll back an uncommitted transaction and return its connection.
+	 *
+	 * @param conn
+	 *            the transaction's connection, or null
+	 * @param committed
+	 *            true if the transaction was committed
+	 */
+	private static void release(Connection conn, boolean committed) {
+		if (conn == null) {
+			return;
+		}
+		try {
+			if (!committed) {
+				conn.rollback();
+			}
+			conn.setAutoCommit(true);
+		} catch (SQLException e) {
+			LOGGER.warn("Couldn't reset pipeline connection: " + e);
+		} finally {
+			DbUtils.closeQuietly(conn);
+		}
+	}
+
+	/**
+	 * Consecutive steps of one DAO and statement id, executed as a batch.
+	 *
+	 * @param <D>
+	 *            DTO class of the DAO
+	 */
+	private static final class Run<D> {
+
+		/**
+		 * The DAO.
+		 */
+		private final DbUtilsJdbcDao<D, ?> dao;
+
+		/**
+		 * The statement id.
+		 */
+		private final String statementId;
+
+		/**
+		 * Parameters of each step.
+		 */
+		private final List<Object[]> params = new ArrayList<Object[]>();
+
+		/**
+		 * DTO of each step.
+		 */
+		private final List<D> dtos = new ArrayList<D>();
+
+		/**
+		 * Construct an empty run.
+		 *
+		 * @param dao
+		 *            the DAO
+		 * @param statementId
+		 *            the statement id
+		 */
+		Run(DbUtilsJdbcDao<D, ?> dao, String statementId) {
+			this.dao = dao;
+			this.statementId = statementId;
+		}
+
+		/**
+		 * Execute the run's steps and log their changes on the pipeline's
+		 * connection.
+		 *
+		 * @param conn
+		 *            the pipeline's connection
+		 * @return rows affected by each step
+		 * @throws SQLException
+		 *             thrown if a step fails
+		 */
+		int[] execute(Connection conn) throws SQLException {
+			int[] counts = dao.executeBatch(conn, statementId, params);
+			dao.logChanges(conn, dtos);
+			return counts;
+		}
+	}
+}
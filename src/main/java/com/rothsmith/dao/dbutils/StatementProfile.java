@@ -0,0 +1,221 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executions of one statement shape within a {@link DaoProfiler} scope. A
+ * shape is a DAO's statement id and its number of parameters, so an IN list
+ * of another length is another shape.
+ *
+ * @author drothauser
+ */
+public final class StatementProfile {
+
+	/**
+	 * Most distinct parameter sets counted per shape.
+	 */
+	static final int MAX_DISTINCT = 1024;
+
+	/**
+	 * DTO class name of the DAO, or empty if not known.
+	 */
+	private final String dto;
+
+	/**
+	 * The statement id.
+	 */
+	private final String statementId;
+
+	/**
+	 * Number of parameters.
+	 */
+	private final int parameterCount;
+
+	/**
+	 * Hashes of the distinct parameter sets seen, up to
+	 * {@link #MAX_DISTINCT}.
+	 */
+	private final Set<Integer> parameterHashes = new HashSet<Integer>();
+
+	/**
+	 * Number of executions.
+	 */
+	private int executions;
+
+	/**
+	 * Number of failed executions.
+	 */
+	private int failures;
+
+	/**
+	 * Total execution time in nanoseconds.
+	 */
+	private long nanos;
+
+	/**
+	 * True if the executions suggest an N+1 pattern.
+	 */
+	private boolean suspect;
+
+	/**
+	 * Suggested alternative, or null.
+	 */
+	private String suggestion;
+
+	/**
+	 * Construct the profile of a shape.
+	 *
+	 * @param dto
+	 *            DTO class name of the DAO, or empty
+	 * @param statementId
+	 *            the statement id
+	 * @param parameterCount
+	 *            number of parameters
+	 */
+	StatementProfile(String dto, String statementId, int parameterCount) {
+		this.dto = dto;
+		this.statementId = statementId;
+		this.parameterCount = parameterCount;
+	}
+
+	/**
+	 * Record an execution.
+	 *
+	 * @param params
+	 *            the execution's parameters, or null
+	 * @param executionNanos
+	 *            execution time in nanoseconds
+	 * @param failed
+	 *            true if the execution failed
+	 */
+	void record(Object[] params, long executionNanos, boolean failed) {
+		executions++;
+		nanos += executionNanos;
+		if (failed) {
+			failures++;
+		}
+		if (parameterHashes.size() < MAX_DISTINCT) {
+			parameterHashes.add(Arrays.hashCode(params));
+		}
+	}
+
+	/**
+	 * Flag the shape as a suspected N+1 pattern.
+	 *
+	 * @param alternative
+	 *            suggested alternative, or null
+	 */
+	void flag(String alternative) {
+		this.suspect = true;
+		this.suggestion = alternative;
+	}
+
+	/**
+	 * Accessor for dto.
+	 *
+	 * @return DTO class name of the DAO, or empty if not known
+	 */
+	public String getDto() {
+		return dto;
+	}
+
+	/**
+	 * Accessor for statementId.
+	 *
+	 * @return the statement id
+	 */
+	public String getStatementId() {
+		return statementId;
+	}
+
+	/**
+	 * Accessor for parameterCount.
+	 *
+	 * @return number of parameters
+	 */
+	public int getParameterCount() {
+		return parameterCount;
+	}
+
+	/**
+	 * Accessor for executions.
+	 *
+	 * @return number of executions (round trips)
+	 */
+	public int getExecutions() {
+		return executions;
+	}
+
+	/**
+	 * Return the number of distinct parameter sets, counted up to 1024.
+	 *
+	 * @return distinct parameter sets
+	 */
+	public int getDistinctParameters() {
+		return parameterHashes.size();
+	}
+
+	/**
+	 * Accessor for failures.
+	 *
+	 * @return number of failed executions
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Return the total execution time.
+	 *
+	 * @return total execution time in milliseconds
+	 */
+	public double getMillis() {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Accessor for suspect.
+	 *
+	 * @return true if the executions suggest an N+1 pattern
+	 */
+	public boolean isSuspect() {
+		return suspect;
+	}
+
+	/**
+	 * Accessor for suggestion.
+	 *
+	 * @return suggested alternative, or null
+	 */
+	public String getSuggestion() {
+		return suggestion;
+	}
+
+	/**
+	 * Return the execution time in nanoseconds.
+	 *
+	 * @return total execution time in nanoseconds
+	 */
+	long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s%s(%d params): executions=%d, distinct=%d, "
+		    + "failures=%d, time=%.3fms%s%s",
+		    dto.isEmpty() ? "" : dto + " ", statementId, parameterCount,
+		    executions, getDistinctParameters(), failures, getMillis(),
+		    suspect ? ", SUSPECTED N+1" : "",
+		    suggestion == null ? "" : " - " + suggestion);
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import com.rothsmith.dao.DaoRuntimeException;
+
+/**
+ * Thrown when a statement can't run because its <code>maxConcurrent</code>
+ * executions are already running and no slot became free within its
+ * <code>maxWait</code>.
+ *
+ * @author drothauser
+ */
+public class StatementRejectedException extends DaoRuntimeException {
+
+	/**
+	 * Serial UID.
+	 */
+	private static final long serialVersionUID = 2831057694226615193L;
+
+	/**
+	 * Construct the exception with a message.
+	 *
+	 * @param message
+	 *            the detail message
+	 */
+	public StatementRejectedException(String message) {
+		super(message, null);
+	}
+}
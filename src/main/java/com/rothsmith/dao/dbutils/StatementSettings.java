@@ -0,0 +1,242 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.Map;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * JDBC statement settings and concurrency limit for one statement id, read
+ * from the DAO properties file. Each setting can be given for a single
+ * statement by suffixing the statement id, or for every statement of the DAO
+ * with the bare setting name:
+ *
+ * <pre>
+ * queryTimeout=30
+ * query.selectReport.queryTimeout=5
+ * query.selectReport.maxRows=10000
+ * query.selectReport.maxConcurrent=4
+ * query.selectReport.maxWait=250
+ * query.selectReport.explainEvery=1000
+ * query.selectReport.fetchSize=500
+ * </pre>
+ *
+ * <ul>
+ * <li><code>queryTimeout</code> - seconds, passed to
+ * <code>Statement.setQueryTimeout</code>
+ * <li><code>maxRows</code> - passed to <code>Statement.setMaxRows</code>
+ * <li><code>maxConcurrent</code> - maximum number of concurrent executions of
+ * the statement
+ * <li><code>maxWait</code> - milliseconds to wait for an execution slot when
+ * <code>maxConcurrent</code> executions are running; 0 fails immediately
+ * <li><code>explainEvery</code> - capture the execution plan of every n-th
+ * execution of a query (see {@link DbUtilsJdbcDao#explain})
+ * <li><code>fetchSize</code> - fixed <code>Statement.setFetchSize</code>;
+ * when unset, queries are sized adaptively by a {@link FetchSizer}
+ * </ul>
+ *
+ * <p>
+ * A value of 0 (the default) leaves the setting unset: no timeout, no row cap
+ * and the driver's own fetch size.
+ *
+ * @author drothauser
+ */
+public final class StatementSettings {
+
+	/**
+	 * Settings that leave every statement property at the driver default.
+	 */
+	static final StatementSettings DEFAULT =
+	    new StatementSettings(0, 0, 0, 0L, 0, 0);
+
+	/**
+	 * Query timeout in seconds.
+	 */
+	private final int queryTimeout;
+
+	/**
+	 * Maximum number of rows returned.
+	 */
+	private final int maxRows;
+
+	/**
+	 * Maximum number of concurrent executions.
+	 */
+	private final int maxConcurrent;
+
+	/**
+	 * Milliseconds to wait for an execution slot.
+	 */
+	private final long maxWait;
+
+	/**
+	 * Capture the plan of every n-th execution.
+	 */
+	private final int explainEvery;
+
+	/**
+	 * Rows fetched per round trip.
+	 */
+	private final int fetchSize;
+
+	/**
+	 * Construct statement settings.
+	 *
+	 * @param queryTimeout
+	 *            query timeout in seconds
+	 * @param maxRows
+	 *            maximum number of rows returned
+	 * @param maxConcurrent
+	 *            maximum number of concurrent executions
+	 * @param maxWait
+	 *            milliseconds to wait for an execution slot
+	 * @param explainEvery
+	 *            capture the plan of every n-th execution
+	 * @param fetchSize
+	 *            rows fetched per round trip
+	 */
+	StatementSettings(int queryTimeout, int maxRows, int maxConcurrent,
+	    long maxWait, int explainEvery, int fetchSize) {
+		this.queryTimeout = queryTimeout;
+		this.maxRows = maxRows;
+		this.maxConcurrent = maxConcurrent;
+		this.maxWait = maxWait;
+		this.explainEvery = explainEvery;
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Return a copy of these settings with another fetch size.
+	 *
+	 * @param size
+	 *            rows fetched per round trip
+	 * @return the settings with the fetch size
+	 */
+	StatementSettings withFetchSize(int size) {
+		return new StatementSettings(queryTimeout, maxRows, maxConcurrent,
+		    maxWait, explainEvery, size);
+	}
+
+	/**
+	 * Return a copy of these settings with another row cap.
+	 *
+	 * @param rows
+	 *            maximum number of rows returned
+	 * @return the settings with the row cap
+	 */
+	StatementSettings withMaxRows(int rows) {
+		return new StatementSettings(queryTimeout, rows, maxConcurrent,
+		    maxWait, explainEvery, fetchSize);
+	}
+
+	/**
+	 * Read the settings of a statement from DAO properties.
+	 *
+	 * @param properties
+	 *            DAO properties
+	 * @param statementId
+	 *            statement id or null for DAO-wide settings only
+	 * @return the statement's settings
+	 */
+	static StatementSettings fromProperties(Map<String, String> properties,
+	    String statementId) {
+		return new StatementSettings(
+		    (int) setting(properties, statementId, "queryTimeout"),
+		    (int) setting(properties, statementId, "maxRows"),
+		    (int) setting(properties, statementId, "maxConcurrent"),
+		    setting(properties, statementId, "maxWait"),
+		    (int) setting(properties, statementId, "explainEvery"),
+		    (int) setting(properties, statementId, "fetchSize"));
+	}
+
+	/**
+	 * Look up a setting for a statement, falling back to the DAO-wide value.
+	 *
+	 * @param properties
+	 *            DAO properties
+	 * @param statementId
+	 *            statement id or null
+	 * @param name
+	 *            setting name
+	 * @return the setting's value or 0 if it isn't set
+	 */
+	static long setting(Map<String, String> properties,
+	    String statementId, String name) {
+		String value = null;
+		if (statementId != null) {
+			value = properties.get(statementId + "." + name);
+		}
+		if (value == null) {
+			value = properties.get(name);
+		}
+		return NumberUtils.toLong(value == null ? null : value.trim());
+	}
+
+	/**
+	 * Accessor for queryTimeout.
+	 *
+	 * @return query timeout in seconds, 0 if unset
+	 */
+	public int getQueryTimeout() {
+		return queryTimeout;
+	}
+
+	/**
+	 * Accessor for maxRows.
+	 *
+	 * @return maximum number of rows returned, 0 if unset
+	 */
+	public int getMaxRows() {
+		return maxRows;
+	}
+
+	/**
+	 * Accessor for maxConcurrent.
+	 *
+	 * @return maximum number of concurrent executions, 0 if unlimited
+	 */
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	/**
+	 * Accessor for maxWait.
+	 *
+	 * @return milliseconds to wait for an execution slot
+	 */
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * Accessor for explainEvery.
+	 *
+	 * @return capture the plan of every n-th execution, 0 if never
+	 */
+	public int getExplainEvery() {
+		return explainEvery;
+	}
+
+	/**
+	 * Accessor for fetchSize.
+	 *
+	 * @return rows fetched per round trip, 0 for the driver default
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+		    "queryTimeout=%d, maxRows=%d, maxConcurrent=%d, maxWait=%d, "
+		        + "explainEvery=%d, fetchSize=%d",
+		    queryTimeout, maxRows, maxConcurrent, maxWait, explainEvery,
+		    fetchSize);
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.rothsmith.dao.DaoRuntimeException;
+
+/**
+ * Thrown by {@link WriteBehindWriter#flush()} and
+ * {@link WriteBehindWriter#close()} when batches failed since the last flush.
+ * The writes of the failed batches were rolled back; their DTOs are returned
+ * by {@link #getUnwritten()} so that the caller can retry or report them.
+ *
+ * @author drothauser
+ */
+public class WriteBehindException extends DaoRuntimeException {
+
+	/**
+	 * Serial UID.
+	 */
+	private static final long serialVersionUID = 4417920586353412872L;
+
+	/**
+	 * DTOs of the writes that were not committed.
+	 */
+	private final transient List<?> unwritten;
+
+	/**
+	 * Construct the exception.
+	 *
+	 * @param message
+	 *            the detail message
+	 * @param cause
+	 *            failure of the first failed batch
+	 * @param unwritten
+	 *            DTOs of the writes that were not committed, in queue order
+	 */
+	public WriteBehindException(String message, Throwable cause,
+	    List<?> unwritten) {
+		super(message, cause);
+		this.unwritten = Collections.unmodifiableList(unwritten);
+	}
+
+	/**
+	 * Accessor for unwritten.
+	 *
+	 * @return DTOs of the writes that were not committed, in queue order;
+	 *         empty if the exception was deserialized
+	 */
+	public List<?> getUnwritten() {
+		return unwritten == null ? Collections.emptyList() : unwritten;
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queue and flush counters of a {@link WriteBehindWriter}. Counters are
+ * cumulative since the writer was created.
+ *
+ * @author drothauser
+ */
+public final class WriteBehindMetrics {
+
+	/**
+	 * Number of writes waiting in the queue.
+	 */
+	private final AtomicInteger queueDepth = new AtomicInteger();
+
+	/**
+	 * Number of writes accepted.
+	 */
+	private final LongAdder accepted = new LongAdder();
+
+	/**
+	 * Number of updates merged into a queued update of the same row.
+	 */
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * Number of writes that timed out waiting for queue space.
+	 */
+	private final LongAdder rejections = new LongAdder();
+
+	/**
+	 * Number of JDBC batches written.
+	 */
+	private final LongAdder batches = new LongAdder();
+
+	/**
+	 * Number of rows written.
+	 */
+	private final LongAdder rows = new LongAdder();
+
+	/**
+	 * Number of batches that failed.
+	 */
+	private final LongAdder failures = new LongAdder();
+
+	/**
+	 * Total nanoseconds spent writing batches.
+	 */
+	private final LongAdder flushNanos = new LongAdder();
+
+	/**
+	 * Longest time spent writing a batch, in nanoseconds.
+	 */
+	private final AtomicLong maxFlushNanos = new AtomicLong();
+
+	/**
+	 * Record a write added to the queue.
+	 */
+	void recordQueued() {
+		accepted.increment();
+		queueDepth.incrementAndGet();
+	}
+
+	/**
+	 * Record an update merged into a queued update.
+	 */
+	void recordCoalesced() {
+		accepted.increment();
+		coalesced.increment();
+	}
+
+	/**
+	 * Record writes taken off the queue.
+	 *
+	 * @param count
+	 *            number of writes
+	 */
+	void recordDequeued(int count) {
+		queueDepth.addAndGet(-count);
+	}
+
+	/**
+	 * Record a write that timed out waiting for queue space.
+	 */
+	void recordRejection() {
+		rejections.increment();
+	}
+
+	/**
+	 * Record a written batch.
+	 *
+	 * @param count
+	 *            number of rows in the batch
+	 * @param nanos
+	 *            time spent writing the batch
+	 * @param failed
+	 *            true if the batch failed
+	 */
+	void recordBatch(int count, long nanos, boolean failed) {
+		batches.increment();
+		if (failed) {
+			failures.increment();
+		} else {
+			rows.add(count);
+		}
+		flushNanos.add(nanos);
+		long max = maxFlushNanos.get();
+		while (nanos > max && !maxFlushNanos.compareAndSet(max, nanos)) {
+			max = maxFlushNanos.get();
+		}
+	}
+
+	/**
+	 * Accessor for queueDepth.
+	 *
+	 * @return number of writes waiting in the queue
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * Accessor for accepted.
+	 *
+	 * @return number of writes accepted
+	 */
+	public long getAccepted() {
+		return accepted.sum();
+	}
+
+	/**
+	 * Accessor for coalesced.
+	 *
+	 * @return number of updates merged into a queued update
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * Accessor for rejections.
+	 *
+	 * @return number of writes that timed out waiting for queue space
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * Accessor for batches.
+	 *
+	 * @return number of JDBC batches written
+	 */
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	/**
+	 * Accessor for rows.
+	 *
+	 * @return number of rows written
+	 */
+	public long getRows() {
+		return rows.sum();
+	}
+
+	/**
+	 * Accessor for failures.
+	 *
+	 * @return number of batches that failed
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * Return the mean time spent writing a batch.
+	 *
+	 * @return mean flush time in milliseconds
+	 */
+	public double getMeanFlushMillis() {
+		long count = batches.sum();
+		return count == 0 ? 0d : nanosToMillis(flushNanos.sum()) / count;
+	}
+
+	/**
+	 * Return the longest time spent writing a batch.
+	 *
+	 * @return maximum flush time in milliseconds
+	 */
+	public double getMaxFlushMillis() {
+		return nanosToMillis(maxFlushNanos.get());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+		    "queueDepth=%d, accepted=%d, coalesced=%d, rejections=%d, "
+		        + "batches=%d, rows=%d, failures=%d, meanFlush=%.3fms, "
+		        + "maxFlush=%.3fms",
+		    getQueueDepth(), getAccepted(), getCoalesced(), getRejections(),
+		    getBatches(), getRows(), getFailures(), getMeanFlushMillis(),
+		    getMaxFlushMillis());
+	}
+
+	/**
+	 * Convert nanoseconds to fractional milliseconds.
+	 *
+	 * @param nanos
+	 *            nanoseconds
+	 * @return milliseconds
+	 */
+	private static double nanosToMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
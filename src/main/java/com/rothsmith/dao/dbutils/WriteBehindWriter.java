@@ -0,0 +1,487 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rothsmith.dao.DaoRuntimeException;
+
+/**
+ * Write-behind writer of a {@link DbUtilsJdbcDao}. Inserts and updates are
+ * put on a bounded queue and written by a background flusher in JDBC batches,
+ * one transaction per batch, when <code>writeBehind.batchSize</code> writes
+ * are waiting or every <code>writeBehind.flushInterval</code> milliseconds.
+ * An update of a row that already has an update waiting replaces it (last
+ * write wins); rows are identified by the parameters of the WHERE clause of
+ * <code>query.update</code>.
+ * <p>
+ * When the queue is full, callers wait up to
+ * <code>writeBehind.offerTimeout</code> milliseconds for space and then get a
+ * {@link StatementRejectedException}. {@link #flush()} returns once every
+ * write accepted before the call is committed, or throws a
+ * {@link WriteBehindException} carrying the DTOs of every write whose batch
+ * failed since the last flush. A failed batch is rolled back as a whole and
+ * its writes are not retried, so one bad row can't block the queue; they are
+ * kept until the next flush hands them to the caller. {@link #close()}
+ * flushes and stops the flusher.
+ * <p>
+ * Generated keys of inserts are not returned.
+ *
+ * @param <T>
+ *            DTO class
+ *
+ * @author drothauser
+ */
+public final class WriteBehindWriter<T> implements Closeable {
+
+	/**
+	 * SLF4J Logger for WriteBehindWriter.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(WriteBehindWriter.class);
+
+	/**
+	 * Default queue capacity.
+	 */
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+	/**
+	 * Default number of writes per batch.
+	 */
+	private static final int DEFAULT_BATCH_SIZE = 500;
+
+	/**
+	 * Default milliseconds between flushes.
+	 */
+	private static final long DEFAULT_FLUSH_INTERVAL = 100L;
+
+	/**
+	 * Default milliseconds to wait for queue space.
+	 */
+	private static final long DEFAULT_OFFER_TIMEOUT = 30000L;
+
+	/**
+	 * Number of flusher threads created, for thread names.
+	 */
+	private static final AtomicInteger FLUSHERS = new AtomicInteger();
+
+	/**
+	 * The DAO writing the batches.
+	 */
+	private final DbUtilsJdbcDao<T, ?> dao;
+
+	/**
+	 * Maximum number of writes per batch.
+	 */
+	private final int batchSize;
+
+	/**
+	 * Nanoseconds between flushes.
+	 */
+	private final long flushIntervalNanos;
+
+	/**
+	 * Milliseconds to wait for queue space.
+	 */
+	private final long offerTimeout;
+
+	/**
+	 * Free queue slots. A slot is given back once its write is committed.
+	 */
+	private final Semaphore space;
+
+	/**
+	 * Queued writes in arrival order.
+	 */
+	private final ConcurrentLinkedQueue<Write<T>> queue =
+	    new ConcurrentLinkedQueue<Write<T>>();
+
+	/**
+	 * Latest DTO of each row with a queued update, keyed by row key.
+	 */
+	private final ConcurrentMap<List<Object>, T> pendingUpdates =
+	    new ConcurrentHashMap<List<Object>, T>();
+
+	/**
+	 * Held while writing, so that one flush runs at a time.
+	 */
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	/**
+	 * First batch failure since the last flush; guarded by
+	 * {@link #writeLock}.
+	 */
+	private DaoRuntimeException failure;
+
+	/**
+	 * DTOs of the writes of failed batches since the last flush, in queue
+	 * order; guarded by {@link #writeLock}.
+	 */
+	private final List<T> unwritten = new ArrayList<T>();
+
+	/**
+	 * Queue and flush counters.
+	 */
+	private final WriteBehindMetrics metrics = new WriteBehindMetrics();
+
+	/**
+	 * Background flusher.
+	 */
+	private final Thread flusher;
+
+	/**
+	 * Set by {@link #close()}.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Construct a writer and start its flusher.
+	 *
+	 * @param dao
+	 *            the DAO writing the batches
+	 * @param properties
+	 *            DAO properties
+	 */
+	WriteBehindWriter(DbUtilsJdbcDao<T, ?> dao,
+	    Map<String, String> properties) {
+
+		this.dao = dao;
+		this.batchSize = Math.max(1, NumberUtils.toInt(
+		    properties.get("writeBehind.batchSize"), DEFAULT_BATCH_SIZE));
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+		    NumberUtils.toLong(properties.get("writeBehind.flushInterval"),
+		        DEFAULT_FLUSH_INTERVAL));
+		this.offerTimeout = NumberUtils.toLong(
+		    properties.get("writeBehind.offerTimeout"), DEFAULT_OFFER_TIMEOUT);
+		this.space = new Semaphore(Math.max(1, NumberUtils.toInt(
+		    properties.get("writeBehind.queueSize"), DEFAULT_QUEUE_SIZE)));
+
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!closed) {
+					LockSupport.parkNanos(this, flushIntervalNanos);
+					writeQueued();
+				}
+			}
+		}, "dao-write-behind-" + FLUSHERS.incrementAndGet());
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Queue an insert.
+	 *
+	 * @param dto
+	 *            DTO to insert
+	 */
+	public void insert(T dto) {
+		checkOpen();
+		reserve();
+		queue.offer(new Write<T>(dto, null));
+		queued();
+	}
+
+	/**
+	 * Queue an update, replacing any update of the same row still waiting.
+	 *
+	 * @param dto
+	 *            DTO to update
+	 */
+	public void update(T dto) {
+		checkOpen();
+		List<Object> key = dao.updateKey(dto);
+		while (true) {
+			if (pendingUpdates.replace(key, dto) != null) {
+				metrics.recordCoalesced();
+				return;
+			}
+			reserve();
+			if (pendingUpdates.putIfAbsent(key, dto) == null) {
+				queue.offer(new Write<T>(null, key));
+				queued();
+				return;
+			}
+			// Another caller queued the row in the meantime; merge into it.
+			space.release();
+		}
+	}
+
+	/**
+	 * Write every queued write and wait until they are committed.
+	 *
+	 * @throws WriteBehindException
+	 *             thrown if a batch failed since the last flush; carries the
+	 *             DTOs of the writes that were not committed
+	 */
+	public void flush() {
+		writeQueued();
+
+		DaoRuntimeException cause;
+		List<T> failed;
+		writeLock.lock();
+		try {
+			cause = failure;
+			failed = new ArrayList<T>(unwritten);
+			failure = null;
+			unwritten.clear();
+		} finally {
+			writeLock.unlock();
+		}
+
+		if (cause != null) {
+			throw new WriteBehindException(
+			    String.format("%d write-behind writes failed: %s",
+			        failed.size(), cause.getMessage()),
+			    cause, failed);
+		}
+	}
+
+	/**
+	 * Flush and stop the flusher. Writes are rejected afterwards.
+	 *
+	 * @throws WriteBehindException
+	 *             thrown if a batch failed since the last flush; carries the
+	 *             DTOs of the writes that were not committed
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(flusher);
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	/**
+	 * Accessor for metrics.
+	 *
+	 * @return queue and flush counters
+	 */
+	public WriteBehindMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Reject writes after {@link #close()}.
+	 */
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Write-behind writer is closed");
+		}
+	}
+
+	/**
+	 * Take a queue slot, waiting for one if the queue is full.
+	 *
+	 * @throws StatementRejectedException
+	 *             thrown if no slot became free in time
+	 */
+	private void reserve() {
+		boolean reserved;
+		try {
+			reserved = space.tryAcquire(offerTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DaoRuntimeException(
+			    "Interrupted waiting for write-behind queue space", e);
+		}
+		if (!reserved) {
+			metrics.recordRejection();
+			throw new StatementRejectedException(String.format(
+			    "Write-behind queue full for %d ms", offerTimeout));
+		}
+	}
+
+	/**
+	 * Count a queued write, wake the flusher if a batch is ready and write
+	 * it directly if the writer was closed meanwhile.
+	 */
+	private void queued() {
+		metrics.recordQueued();
+		if (closed) {
+			writeQueued();
+		} else if (metrics.getQueueDepth() >= batchSize) {
+			LockSupport.unpark(flusher);
+		}
+	}
+
+	/**
+	 * Write batches until the queue is empty.
+	 */
+	private void writeQueued() {
+		writeLock.lock();
+		try {
+			while (!queue.isEmpty()) {
+				writeBatch();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Take up to <code>batchSize</code> writes off the queue and write them in
+	 * one transaction, as one JDBC batch per run of inserts or updates. The
+	 * DAO's change log, if it has one, is written in the same transaction. If
+	 * the batch fails, its DTOs are kept for the next {@link #flush()}.
+	 */
+	private void writeBatch() {
+
+		List<Write<T>> writes = new ArrayList<Write<T>>(batchSize);
+		for (Write<T> write = queue.poll(); write != null; write =
+		    writes.size() < batchSize ? queue.poll() : null) {
+			writes.add(write);
+		}
+		metrics.recordDequeued(writes.size());
+
+		List<T> dtos = new ArrayList<T>(writes.size());
+		for (Write<T> write : writes) {
+			dtos.add(write.key == null ? write.dto
+			    : pendingUpdates.remove(write.key));
+		}
+
+		long start = System.nanoTime();
+		boolean failed = true;
+		Connection conn = null;
+		try {
+			List<String> statementIds = new ArrayList<String>();
+			List<List<Object[]>> runs = new ArrayList<List<Object[]>>();
+			for (int i = 0; i < writes.size(); i++) {
+				String statementId = writes.get(i).key == null ? "query.insert"
+				    : "query.update";
+				T dto = dtos.get(i);
+				if (runs.isEmpty() || !statementId
+				    .equals(statementIds.get(statementIds.size() - 1))) {
+					statementIds.add(statementId);
+					runs.add(new ArrayList<Object[]>());
+				}
+				runs.get(runs.size() - 1)
+				    .add(dao.statementParams(statementId, dto));
+			}
+
+			conn = dao.getDataSource().getConnection();
+			conn.setAutoCommit(false);
+			for (int i = 0; i < runs.size(); i++) {
+				dao.executeBatch(conn, statementIds.get(i), runs.get(i));
+			}
+			dao.logChanges(conn, dtos);
+			conn.commit();
+			failed = false;
+
+		} catch (SQLException e) {
+			String msg = "SQLException caught: " + e;
+			LOGGER.error(msg, e);
+			keepUnwritten(new DaoRuntimeException(msg, e), dtos);
+		} catch (RuntimeException e) {
+			LOGGER.error("Write-behind batch failed: " + e, e);
+			keepUnwritten(e instanceof DaoRuntimeException
+			    ? (DaoRuntimeException) e
+			    : new DaoRuntimeException(e.toString(), e), dtos);
+		} finally {
+			release(conn, failed);
+			metrics.recordBatch(writes.size(), System.nanoTime() - start,
+			    failed);
+			space.release(writes.size());
+		}
+	}
+
+	/**
+	 * Keep the DTOs of a failed batch for the next {@link #flush()}. Called
+	 * with {@link #writeLock} held.
+	 *
+	 * @param e
+	 *            the batch's failure
+	 * @param dtos
+	 *            DTOs of the batch's writes
+	 */
+	private void keepUnwritten(DaoRuntimeException e, List<T> dtos) {
+		if (failure == null) {
+			failure = e;
+		}
+		unwritten.addAll(dtos);
+		LOGGER.warn(String.format(
+		    "%d write-behind writes kept for the next flush", dtos.size()));
+	}
+
+	/**
+	 * Roll back a failed batch and return its connection.
+	 *
+	 * @param conn
+	 *            the batch's connection, or null
+	 * @param failed
+	 *            true if the batch failed
+	 */
+	private static void release(Connection conn, boolean failed) {
+		if (conn == null) {
+			return;
+		}
+		try {
+			if (failed) {
+				conn.rollback();
+			}
+			conn.setAutoCommit(true);
+		} catch (SQLException e) {
+			LOGGER.warn("Couldn't reset write-behind connection: " + e);
+		} finally {
+			DbUtils.closeQuietly(conn);
+		}
+	}
+
+	/**
+	 * A queued write: an insert carries its DTO, an update its row key.
+	 *
+	 * @param <T>
+	 *            DTO class
+	 */
+	private static final class Write<T> {
+
+		/**
+		 * DTO to insert, or null for an update.
+		 */
+		private final T dto;
+
+		/**
+		 * Row key of an update, or null for an insert.
+		 */
+		private final List<Object> key;
+
+		/**
+		 * Construct a queued write.
+		 *
+		 * @param dto
+		 *            DTO to insert, or null for an update
+		 * @param key
+		 *            row key of an update, or null for an insert
+		 */
+		Write(T dto, List<Object> key) {
+			this.dto = dto;
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rothsmith.genericdao.PresidentDto;
+
+/**
+ * Tests for association loading with {@link DbUtilsJdbcDao}.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class AssociationTest {
+
+	/**
+	 * SLF4J Logger for AssociationTest.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(AssociationTest.class);
+
+	/**
+	 * STATE.ID of Virginia in the test data.
+	 */
+	private static final int VIRGINIA = 46;
+
+	/**
+	 * {@link DbUtilsJdbcDao} to test.
+	 */
+	private DbUtilsJdbcDao<PresidentDto, PresidentDto> presidentDao;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create a {@link DbUtilsJdbcDao} to test.
+	 */
+	@Before
+	public void setUp() {
+
+		presidentDao = new DbUtilsJdbcDao<PresidentDto, PresidentDto>(
+		    "/presidentdao.properties");
+
+	}
+
+	/**
+	 * Test loading all associations of a result.
+	 */
+	@Test
+	public void testSelectWithAssociations() {
+
+		PresidentDto params = new PresidentDto();
+		params.setStateId(VIRGINIA);
+
+		List<PresidentDto> presidents = presidentDao
+		    .selectWithAssociations("query.selectByStateId", params);
+		assertEquals(4, presidents.size());
+
+		for (PresidentDto president : presidents) {
+			LOGGER.info(president.toString());
+			assertNotNull(president.getState());
+			assertEquals("VA", president.getState().getAbbreviation());
+			assertNotNull(president.getParty());
+			assertEquals(president.getPartyId(), president.getParty().getId());
+		}
+
+		// Presidents sharing a party share one associated DTO.
+		assertSame(presidents.get(1).getParty(), presidents.get(2).getParty());
+		assertEquals("Democratic-Republican Party",
+		    presidents.get(1).getParty().getName());
+	}
+
+	/**
+	 * Test loading a single named association.
+	 */
+	@Test
+	public void testLoadNamedAssociation() {
+
+		PresidentDto params = new PresidentDto();
+		params.setStateId(VIRGINIA);
+
+		List<PresidentDto> presidents =
+		    presidentDao.selectByStatement("query.selectByStateId", params);
+		presidentDao.loadAssociations(presidents, "party");
+
+		for (PresidentDto president : presidents) {
+			assertNotNull(president.getParty());
+			assertNull(president.getState());
+		}
+	}
+
+	/**
+	 * Test that an unknown association name is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownAssociation() {
+
+		PresidentDto params = new PresidentDto();
+		params.setStateId(VIRGINIA);
+
+		List<PresidentDto> presidents =
+		    presidentDao.selectByStatement("query.selectByStateId", params);
+		presidentDao.loadAssociations(presidents, "BOGUS");
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+
+import org.apache.commons.dbutils.QueryLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.dao.DaoRuntimeException;
+import com.rothsmith.genericdao.StateDto;
+
+/**
+ * Tests for {@link ChangeLog}, with two DAO instances standing in for two
+ * nodes caching the same reference table.
+ *
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ChangeLogTest {
+
+	/**
+	 * DAO the writes are made through.
+	 */
+	private DbUtilsJdbcDao<StateDto, StateDto> writer;
+
+	/**
+	 * DAO that learns about the writes from the change log.
+	 */
+	private DbUtilsJdbcDao<StateDto, StateDto> reader;
+
+	/**
+	 * Create database objects for testing.
+	 *
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAOs to test.
+	 */
+	@Before
+	public void setUp() {
+
+		writer = new DbUtilsJdbcDao<StateDto, StateDto>(
+		    "/statechangelogdao.properties");
+		reader = new DbUtilsJdbcDao<StateDto, StateDto>(
+		    "/statechangelogdao.properties");
+
+	}
+
+	/**
+	 * Close the DAOs.
+	 */
+	@After
+	public void tearDown() {
+
+		writer.close();
+		reader.close();
+
+	}
+
+	/**
+	 * Test that inserts, updates and deletes through one DAO reach the other
+	 * DAO's cache at its next poll.
+	 */
+	@Test
+	public void testChangesPropagate() {
+
+		final Set<String> changedKeys = new HashSet<String>();
+		reader.addChangeListener(new ChangeListener() {
+			@Override
+			public void changed(Set<String> keys) {
+				changedKeys.addAll(keys);
+			}
+		});
+		assertEquals(0, reader.pollChanges());
+
+		StateDto dto = new StateDto();
+		dto.setName("Deseret");
+		dto.setAbbreviation("DS");
+		int id = writer.insert(dto);
+		dto.setId(id);
+
+		assertEquals("Deseret", writer.lookup(id).getName());
+		assertNull(reader.lookup(id));
+		assertEquals(1, reader.pollChanges());
+		assertEquals("Deseret", reader.lookup(id).getName());
+		assertEquals(Collections.singleton(String.valueOf(id)), changedKeys);
+
+		dto.setName("State of Deseret");
+		assertEquals(1, writer.update(dto));
+		assertEquals("Deseret", reader.lookup(id).getName());
+		assertEquals(1, reader.pollChanges());
+		assertEquals("State of Deseret", reader.lookup(id).getName());
+
+		assertEquals(1, writer.delete(dto));
+		assertEquals(1, reader.pollChanges());
+		assertNull(reader.lookup(id));
+		assertNull(reader.lookup("ABBREVIATION", "DS"));
+
+		assertEquals(0, reader.pollChanges());
+	}
+
+	/**
+	 * Test that a failed write logs nothing, and that a write changing no
+	 * rows isn't logged.
+	 */
+	@Test
+	public void testFailedWriteNotLogged() {
+
+		StateDto dto = new StateDto();
+		dto.setAbbreviation("NN");
+		try {
+			writer.insert(dto);
+			fail("Expected DaoRuntimeException");
+		} catch (DaoRuntimeException e) {
+			// expected: NAME is NOT NULL
+		}
+
+		dto.setId(0);
+		dto.setName("Nowhere");
+		assertEquals(0, writer.update(dto));
+
+		assertEquals(0, reader.pollChanges());
+	}
+
+	/**
+	 * Test that a DAO with <code>changeLog.pollInterval</code> polls in the
+	 * background until it is closed.
+	 *
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a poll
+	 */
+	@Test(timeout = 10000)
+	public void testCloseStopsPolling()
+	        throws IOException, InterruptedException {
+
+		Map<String, String> properties = new HashMap<String, String>(
+		    QueryLoader.instance().load("/statechangelogdao.properties"));
+		properties.put("changeLog.pollInterval", "20");
+		DbUtilsJdbcDao<StateDto, StateDto> poller =
+		    new DbUtilsJdbcDao<StateDto, StateDto>(properties,
+		        writer.getDataSource());
+		final AtomicInteger changes = new AtomicInteger();
+		poller.addChangeListener(new ChangeListener() {
+			@Override
+			public void changed(Set<String> keys) {
+				changes.addAndGet(keys.size());
+			}
+		});
+
+		StateDto dto = new StateDto();
+		dto.setName("Franklin");
+		dto.setAbbreviation("FR");
+		dto.setId(writer.insert(dto));
+		while (changes.get() == 0) {
+			Thread.sleep(10);
+		}
+
+		poller.close();
+		assertEquals(1, writer.delete(dto));
+		Thread.sleep(200);
+		assertEquals(1, changes.get());
+		assertEquals(1, poller.pollChanges());
+		assertEquals(2, changes.get());
+	}
+
+	/**
+	 * Test that a DAO without <code>changeLog.table</code> can't be polled.
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testNotConfigured() {
+		new DbUtilsJdbcDao<StateDto, StateDto>("/statereferencedao.properties")
+		    .pollChanges();
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.BitSet;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+
+/**
+ * Tests for partial updates of tracked DTOs.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ChangeTrackingTest {
+
+	/**
+	 * DAO with <code>update.trackChanges=true</code>.
+	 */
+	private DbUtilsJdbcDao<PartyDto, PartyDto> trackingDao;
+
+	/**
+	 * DAO without change tracking.
+	 */
+	private DbUtilsJdbcDao<PartyDto, PartyDto> partyDao;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAOs to test.
+	 */
+	@Before
+	public void setUp() {
+
+		trackingDao = new DbUtilsJdbcDao<PartyDto, PartyDto>(
+		    "/partytrackingdao.properties");
+		partyDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>("/partydao.properties");
+
+	}
+
+	/**
+	 * Test that only changed columns are written and unchanged DTOs aren't
+	 * written at all.
+	 */
+	@Test
+	public void testPartialUpdate() {
+
+		PartyDto dto = new PartyDto();
+		dto.setName("Greenback Party");
+		dto.setFoundedYear(1874);
+		dto.setEndYear(1889);
+		dto.setId(trackingDao.insert(dto));
+
+		PartyDto loaded = trackingDao.select(dto).get(0);
+		assertEquals(0, trackingDao.update(loaded));
+		assertEquals(0,
+		    trackingDao.getStatementMetrics("query.update").getExecutions());
+
+		// Another writer changes END_YEAR after the DTO was loaded.
+		dto.setEndYear(1890);
+		assertEquals(1, partyDao.update(dto));
+
+		loaded.setName("Greenback Labor Party");
+		assertEquals(1, trackingDao.update(loaded));
+		assertEquals(0, trackingDao.update(loaded));
+
+		PartyDto reloaded = partyDao.select(dto).get(0);
+		assertEquals("Greenback Labor Party", reloaded.getName());
+		assertEquals(Integer.valueOf(1890), reloaded.getEndYear());
+
+		assertEquals(1, trackingDao.delete(dto));
+	}
+
+	/**
+	 * Test the compact statement built for a set of changed columns.
+	 */
+	@Test
+	public void testStatementShape() {
+
+		ChangeTracker tracker = new ChangeTracker(PartyDto.class,
+		    partyDao.getStatementMap().get("query.update"));
+
+		BitSet changed = new BitSet();
+		changed.set(0);
+		changed.set(2);
+		assertEquals("update TEST.PARTY set NAME = :name , END_YEAR = :endYear"
+		    + " where ID=:id", tracker.statement(changed));
+
+		PartyDto dto = new PartyDto();
+		assertNull(tracker.changes(dto));
+		tracker.track(dto);
+		assertEquals(new BitSet(), tracker.changes(dto));
+		dto.setFoundedYear(1900);
+		assertEquals(1, tracker.changes(dto).nextSetBit(0));
+	}
+
+}
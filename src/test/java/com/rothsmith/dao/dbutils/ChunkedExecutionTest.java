@@ -0,0 +1,180 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+
+/**
+ * Tests for {@link DbUtilsJdbcDao#executeChunked(String, Object, int,
+ * Object, ChunkListener)}.
+ *
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ChunkedExecutionTest {
+
+	/**
+	 * Number of parties inserted by each test.
+	 */
+	private static final int PARTIES = 25;
+
+	/**
+	 * Select of the parties inserted by a test.
+	 */
+	private static final String SELECT_INSERTED =
+	    "select ID , NAME , FOUNDED_YEAR , END_YEAR from TEST.PARTY "
+	        + "where ID > :id order by ID";
+
+	/**
+	 * PARTY DAO.
+	 */
+	private DbUtilsJdbcDao<PartyDto, PartyDto> partyDao;
+
+	/**
+	 * Highest party id before the test.
+	 */
+	private PartyDto teardown;
+
+	/**
+	 * Create database objects for testing.
+	 *
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Insert the parties to write in chunks.
+	 */
+	@Before
+	public void setUp() {
+
+		partyDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>("/partychunkdao.properties");
+
+		teardown = new PartyDto();
+		teardown.setId(
+		    partyDao.selectByStatement("query.selectMaxId").get(0).getId());
+
+		for (int i = 0; i < PARTIES; i++) {
+			PartyDto party = new PartyDto();
+			party.setName("Chunk " + i);
+			party.setFoundedYear(1900 + i);
+			partyDao.insert(party);
+		}
+
+	}
+
+	/**
+	 * Delete the parties left by the test.
+	 */
+	@After
+	public void tearDown() {
+
+		partyDao.executeChunked("query.deleteTeardownId", teardown, PARTIES);
+
+	}
+
+	/**
+	 * Test a chunked update and a chunked delete of the inserted range.
+	 */
+	@Test
+	public void testUpdateAndDelete() {
+
+		final List<Integer> chunks = new ArrayList<Integer>();
+		PartyDto params = new PartyDto();
+		params.setId(teardown.getId());
+		params.setEndYear(2000);
+
+		long rows = partyDao.executeChunked("query.updateEndYearAfterId",
+		    params, 10, null, new ChunkListener() {
+			    @Override
+			    public void chunkCompleted(Object lastKey, int count,
+			        long totalRows) {
+				    chunks.add(count);
+			    }
+		    });
+
+		assertEquals(PARTIES, rows);
+		assertEquals(Arrays.asList(10, 10, 5), chunks);
+		List<PartyDto> parties = partyDao.select(SELECT_INSERTED, teardown);
+		assertEquals(PARTIES, parties.size());
+		for (PartyDto party : parties) {
+			assertEquals(Integer.valueOf(2000), party.getEndYear());
+		}
+
+		assertEquals(PARTIES,
+		    partyDao.executeChunked("query.deleteTeardownId", teardown, 7));
+		assertTrue(partyDao.select(SELECT_INSERTED, teardown).isEmpty());
+	}
+
+	/**
+	 * Test that a failed run keeps its committed chunks and is resumed after
+	 * the last key reported.
+	 */
+	@Test
+	public void testResume() {
+
+		final Object[] lastKey = new Object[1];
+		try {
+			partyDao.executeChunked("query.deleteTeardownId", teardown, 10,
+			    null, new ChunkListener() {
+				    @Override
+				    public void chunkCompleted(Object key, int count,
+				        long totalRows) {
+					    lastKey[0] = key;
+					    throw new IllegalStateException("stop");
+				    }
+			    });
+			fail("Expected the listener to stop the run");
+		} catch (IllegalStateException e) {
+			assertEquals("stop", e.getMessage());
+		}
+
+		List<PartyDto> left = partyDao.select(SELECT_INSERTED, teardown);
+		assertEquals(PARTIES - 10, left.size());
+		assertTrue(((Number) lastKey[0]).intValue() < left.get(0).getId());
+
+		assertEquals(PARTIES - 10, partyDao.executeChunked(
+		    "query.deleteTeardownId", teardown, 10, lastKey[0], null));
+		assertTrue(partyDao.select(SELECT_INSERTED, teardown).isEmpty());
+	}
+
+	/**
+	 * Test that a query isn't run in chunks.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testQueryRejected() {
+
+		partyDao.executeChunked("query.select", teardown, 10);
+
+	}
+}
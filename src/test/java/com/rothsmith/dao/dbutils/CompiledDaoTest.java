@@ -0,0 +1,208 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.naming.NamingException;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+
+/**
+ * Tests for DAOs generated at build time by {@link CompiledDaoProcessor}.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class CompiledDaoTest {
+
+	/**
+	 * Generated DAO.
+	 */
+	private CompiledPartyDaoImpl compiledDao;
+
+	/**
+	 * Reflective DAO over the same properties file.
+	 */
+	private DbUtilsJdbcDao<PartyDto, PartyDto> partyDao;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAOs to test.
+	 */
+	@Before
+	public void setUp() {
+
+		compiledDao = new CompiledPartyDaoImpl();
+		partyDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>("/partydao.properties");
+
+	}
+
+	/**
+	 * Test that the generated DAO inserts, selects, updates and deletes like
+	 * the reflective one.
+	 */
+	@Test
+	public void testCrud() {
+
+		PartyDto dto = new PartyDto();
+		dto.setName("Liberty Party");
+		dto.setFoundedYear(1840);
+		dto.setEndYear(1848);
+		dto.setId(compiledDao.insert(dto));
+
+		List<PartyDto> compiled = compiledDao.select(dto);
+		assertEquals(1, compiled.size());
+		assertEquals(partyDao.select(dto), compiled);
+		assertEquals("Liberty Party", compiled.get(0).getName());
+		assertEquals(Integer.valueOf(1848), compiled.get(0).getEndYear());
+
+		dto.setEndYear(null);
+		assertEquals(1, compiledDao.update(dto));
+		assertNull(partyDao.select(dto).get(0).getEndYear());
+		assertNull(compiledDao.select(dto).get(0).getEndYear());
+
+		assertEquals(1, compiledDao.delete(dto));
+		assertEquals(0, partyDao.select(dto).size());
+	}
+
+	/**
+	 * Test statements selected by id, with and without parameters.
+	 */
+	@Test
+	public void testStatements() {
+
+		assertEquals(partyDao.selectByStatement("query.selectMaxId"),
+		    compiledDao.selectByStatement("query.selectMaxId"));
+
+		PartyDto params = new PartyDto();
+		params.setId(6);
+		PartyDto party =
+		    compiledDao.selectByStatement("query.select", params).get(0);
+		assertEquals("Independent", party.getName());
+	}
+
+	/**
+	 * Test that the processor fails the build when a statement doesn't match
+	 * the DTO, reporting each mismatch.
+	 * 
+	 * @throws IOException
+	 *             thrown if the compiler's output directory can't be created
+	 */
+	@Test
+	public void testInvalidStatementFailsBuild() throws IOException {
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		Assume.assumeTrue(compiler != null);
+
+		JavaFileObject source = new SimpleJavaFileObject(
+		    URI.create("string:///InvalidPartyDao.java"),
+		    JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return "package com.rothsmith.dao.dbutils;\n"
+				    + "@CompiledDao(\"/partyinvaliddao.properties\")\n"
+				    + "public interface InvalidPartyDao {\n}\n";
+			}
+		};
+
+		File output = Files.createTempDirectory("compileddao").toFile();
+		try {
+			DiagnosticCollector<JavaFileObject> diagnostics =
+			    new DiagnosticCollector<JavaFileObject>();
+			boolean compiled = compiler.getTask(null, null, diagnostics,
+			    Arrays.asList("-proc:only", "-processor",
+			        CompiledDaoProcessor.class.getName(), "-classpath",
+			        System.getProperty("java.class.path"), "-d",
+			        output.getPath(), "-s", output.getPath()),
+			    null, Collections.singletonList(source)).call();
+
+			List<String> errors = new ArrayList<String>();
+			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics
+			    .getDiagnostics()) {
+				if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+					errors.add(diagnostic.getMessage(null));
+				}
+			}
+
+			assertFalse(compiled);
+			assertTrue(errors.toString(), errors.contains(
+			    "query.select column MOTTO has no setter in "
+			        + "com.rothsmith.genericdao.PartyDto"));
+			assertTrue(errors.toString(), errors.contains(
+			    "query.selectByNickname parameter :nickname has no getter in "
+			        + "com.rothsmith.genericdao.PartyDto"));
+			assertEquals(0, output.list().length);
+		} finally {
+			FileUtils.deleteQuietly(output);
+		}
+	}
+
+	/**
+	 * Test resolving the output names of SELECT lists.
+	 */
+	@Test
+	public void testSelectColumns() {
+
+		assertEquals(Arrays.asList("ID", "NAME", "FOUNDED_YEAR"),
+		    SqlStatements.selectColumns("select ID , p.NAME , "
+		        + "FOUNDED_YEAR from TEST.PARTY p where ID=:id"));
+		assertEquals(Arrays.asList("ID", "PARTIES"),
+		    SqlStatements.selectColumns("select distinct STATE_ID as ID, "
+		        + "count(PARTY_ID) as parties from TEST.PRESIDENT"));
+		assertEquals(Arrays.asList("ID", "NAME"), SqlStatements
+		    .selectColumns("select ID, coalesce(NAME, 'n/a') as NAME from T"));
+
+		assertNull(SqlStatements.selectColumns("select * from TEST.PARTY"));
+		assertNull(SqlStatements.selectColumns("select p.* from TEST.PARTY p"));
+		assertNull(SqlStatements
+		    .selectColumns("select max(ID) from TEST.PARTY"));
+		assertNull(SqlStatements
+		    .selectColumns("select ID + 1 from TEST.PARTY"));
+		assertNull(SqlStatements.selectColumns("delete from TEST.PARTY"));
+	}
+}
@@ -0,0 +1,17 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import com.rothsmith.dao.JdbcDao;
+import com.rothsmith.genericdao.PartyDto;
+
+/**
+ * PARTY DAO implemented at build time by {@link CompiledDaoProcessor}; see
+ * <code>CompiledPartyDaoImpl</code>.
+ *
+ * @author drothauser
+ */
+@CompiledDao("/partydao.properties")
+public interface CompiledPartyDao extends JdbcDao<PartyDto, PartyDto> {
+}
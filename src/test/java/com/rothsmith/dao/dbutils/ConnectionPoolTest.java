@@ -0,0 +1,359 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rothsmith.genericdao.PartyDto;
+import com.rothsmith.utils.database.JDBCServiceLocator;
+
+/**
+ * Tests for {@link ConnectionPool}.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ConnectionPoolTest {
+
+	/**
+	 * SLF4J Logger for ConnectionPoolTest.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(ConnectionPoolTest.class);
+
+	/**
+	 * JDBC URL of the test database.
+	 */
+	private static final String URL = "jdbc:derby:memory:testdb;create=true";
+
+	/**
+	 * Pools created by a test, closed after it.
+	 */
+	private final List<ConnectionPool> pools = new ArrayList<ConnectionPool>();
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Close the pools created by a test.
+	 */
+	@After
+	public void tearDown() {
+		for (ConnectionPool pool : pools) {
+			pool.close();
+		}
+	}
+
+	/**
+	 * Test that a returned connection is reused by the next borrow.
+	 * 
+	 * @throws SQLException
+	 *             possible SQL error
+	 */
+	@Test
+	public void testBorrowReturn() throws SQLException {
+
+		ConnectionPool pool = newPool(2, false, 1000);
+
+		Connection conn1 = pool.getConnection();
+		assertEquals(1, pool.getActiveConnections());
+		conn1.setAutoCommit(false);
+		conn1.close();
+		assertTrue(conn1.isClosed());
+
+		try (Connection conn2 = pool.getConnection()) {
+			assertTrue(conn2.getAutoCommit());
+			assertEquals(conn1, conn2);
+			assertNotSame(conn1, conn2);
+		}
+
+		assertEquals(1, pool.getTotalConnections());
+		assertEquals(1, pool.getIdleConnections());
+		assertEquals(2, pool.getMetrics().getBorrows());
+	}
+
+	/**
+	 * Test that an exhausted fail-fast pool rejects a borrow immediately.
+	 * 
+	 * @throws SQLException
+	 *             possible SQL error
+	 */
+	@Test
+	public void testFailFast() throws SQLException {
+
+		ConnectionPool pool = newPool(1, true, 10000);
+
+		try (Connection conn = pool.getConnection()) {
+			pool.getConnection();
+			fail("Expected exhausted pool to fail fast");
+		} catch (SQLTransientConnectionException e) {
+			LOGGER.info("Expected: " + e);
+		}
+
+		assertEquals(1, pool.getMetrics().getRejections());
+		assertEquals(0, pool.getMetrics().getTimeouts());
+	}
+
+	/**
+	 * Test that a borrow from an exhausted pool times out.
+	 * 
+	 * @throws SQLException
+	 *             possible SQL error
+	 */
+	@Test
+	public void testBorrowTimeout() throws SQLException {
+
+		ConnectionPool pool = newPool(1, false, 50);
+
+		try (Connection conn = pool.getConnection()) {
+			pool.getConnection();
+			fail("Expected borrow to time out");
+		} catch (SQLTransientConnectionException e) {
+			LOGGER.info("Expected: " + e);
+		}
+
+		assertEquals(1, pool.getMetrics().getTimeouts());
+		assertTrue(pool.getMetrics().getMaxWaitMillis() < 50);
+	}
+
+	/**
+	 * Test that a connection returned by one thread is handed to a thread
+	 * waiting on an exhausted pool.
+	 * 
+	 * @throws Exception
+	 *             possible error in the waiting thread
+	 */
+	@Test
+	public void testHandoff() throws Exception {
+
+		final ConnectionPool pool = newPool(1, false, 5000);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			Future<Boolean> waiter;
+			try (Connection conn = pool.getConnection()) {
+				waiter = executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws SQLException {
+						try (Connection conn2 = pool.getConnection()) {
+							return conn2.isValid(1);
+						}
+					}
+				});
+				Thread.sleep(100);
+				assertEquals(1, pool.getThreadsAwaitingConnection());
+			}
+			assertTrue(waiter.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, pool.getTotalConnections());
+	}
+
+	/**
+	 * Test a DAO configured with a <code>pool:</code> data source.
+	 */
+	@Test
+	public void testDaoPoolDataSource() {
+
+		DbUtilsJdbcDao<PartyDto, PartyDto> partyDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>("/pooldao.properties");
+		assertTrue(partyDao.getDataSource() instanceof ConnectionPool);
+
+		PartyDto partyDtoParam = new PartyDto();
+		partyDtoParam.setId(1);
+		assertEquals(1, partyDao.select(partyDtoParam).size());
+
+		DbUtilsJdbcDao<PartyDto, PartyDto> partyDao2 =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>("/pooldao.properties");
+		assertTrue(partyDao.getDataSource() == partyDao2.getDataSource());
+
+		ConnectionPool pool = (ConnectionPool) partyDao.getDataSource();
+		assertFalse(pool.getMetrics().getCreated() == 0);
+		LOGGER.info(pool + ": " + pool.getMetrics());
+	}
+
+	/**
+	 * Test that a pool can't be shared by configurations with different
+	 * settings.
+	 * 
+	 * @throws SQLException
+	 *             possible SQL error
+	 */
+	@Test
+	public void testSharedPoolSettingsMismatch() throws SQLException {
+
+		ConnectionPoolConfig config = new ConnectionPoolConfig();
+		config.setUrl(URL);
+		config.setUser("mismatch");
+		config.setMaxSize(2);
+		pools.add(ConnectionPool.getPool(config));
+
+		ConnectionPoolConfig same = new ConnectionPoolConfig();
+		same.setUrl(URL);
+		same.setUser("mismatch");
+		same.setMaxSize(2);
+		assertTrue(ConnectionPool.getPool(same) == pools.get(0));
+
+		same.setMaxSize(5);
+		try {
+			ConnectionPool.getPool(same);
+			fail("Expected the settings mismatch to be rejected");
+		} catch (IllegalArgumentException e) {
+			LOGGER.info("Expected: " + e);
+		}
+	}
+
+	/**
+	 * Compare borrow-and-query throughput of the built-in pool with the DBCP
+	 * pool configured for the test JNDI data source. Skipped unless the
+	 * <code>loadtest</code> system property is true; run it with
+	 * <code>mvn test -Ploadtest</code>.
+	 * 
+	 * @throws Exception
+	 *             possible error in a worker thread
+	 */
+	@Test
+	public void testThroughputVersusDbcp() throws Exception {
+
+		Assume.assumeTrue(Boolean.getBoolean("loadtest"));
+
+		DataSource dbcp = JDBCServiceLocator.getInstance()
+		    .getDataSource("java:/comp/env/jdbc/TestDS");
+		ConnectionPool pool = newPool(20, false, 30000);
+
+		// Warm up both pools before measuring.
+		runWorkload(dbcp, 8, 200);
+		runWorkload(pool, 8, 200);
+
+		double dbcpOps = runWorkload(dbcp, 8, 2000);
+		double poolOps = runWorkload(pool, 8, 2000);
+
+		LOGGER.info(String.format(
+		    "Throughput (ops/s): DBCP=%.0f, ConnectionPool=%.0f", dbcpOps,
+		    poolOps));
+		LOGGER.info("ConnectionPool metrics: " + pool.getMetrics());
+
+		assertEquals(0, pool.getMetrics().getTimeouts());
+	}
+
+	/**
+	 * Borrow a connection and run a trivial query repeatedly from several
+	 * threads.
+	 * 
+	 * @param dataSource
+	 *            data source to exercise
+	 * @param threads
+	 *            number of threads
+	 * @param iterations
+	 *            borrows per thread
+	 * @return operations per second
+	 * @throws Exception
+	 *             possible error in a worker thread
+	 */
+	private double runWorkload(final DataSource dataSource, int threads,
+	    final int iterations) throws Exception {
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws SQLException {
+					for (int i = 0; i < iterations; i++) {
+						try (Connection conn = dataSource.getConnection();
+						    PreparedStatement stmt = conn.prepareStatement(
+						        "values current_timestamp");
+						    ResultSet rs = stmt.executeQuery()) {
+							rs.next();
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+
+		return threads * iterations / (elapsed / 1e9);
+	}
+
+	/**
+	 * Create a pool on the test database.
+	 * 
+	 * @param maxSize
+	 *            maximum number of connections
+	 * @param failFast
+	 *            true if an exhausted pool should fail immediately
+	 * @param borrowTimeout
+	 *            milliseconds to wait for a connection
+	 * @return the pool
+	 * @throws SQLException
+	 *             thrown if the pool can't connect
+	 */
+	private ConnectionPool newPool(int maxSize, boolean failFast,
+	    long borrowTimeout) throws SQLException {
+
+		ConnectionPoolConfig config = new ConnectionPoolConfig();
+		config.setUrl(URL);
+		config.setUser("test");
+		config.setPassword("test");
+		config.setMaxSize(maxSize);
+		config.setFailFast(failFast);
+		config.setBorrowTimeout(borrowTimeout);
+
+		ConnectionPool pool = new ConnectionPool(config);
+		pools.add(pool);
+		return pool;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PresidentDto;
+import com.rothsmith.genericdao.StateDto;
+
+/**
+ * Tests for {@link DaoProfiler}.
+ *
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class DaoProfilerTest {
+
+	/**
+	 * STATE DAO.
+	 */
+	private DbUtilsJdbcDao<StateDto, StateDto> stateDao;
+
+	/**
+	 * PRESIDENT DAO.
+	 */
+	private DbUtilsJdbcDao<PresidentDto, PresidentDto> presidentDao;
+
+	/**
+	 * Create database objects for testing.
+	 *
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAOs to test.
+	 */
+	@Before
+	public void setUp() {
+
+		stateDao =
+		    new DbUtilsJdbcDao<StateDto, StateDto>("/statedao.properties");
+		presidentDao = new DbUtilsJdbcDao<PresidentDto, PresidentDto>(
+		    "/presidentdao.properties");
+
+	}
+
+	/**
+	 * End any scope a failed test left open.
+	 */
+	@After
+	public void tearDown() {
+
+		while (DaoProfiler.isActive()) {
+			DaoProfiler.end();
+		}
+
+	}
+
+	/**
+	 * Test that a select per key is flagged and that the DAO's unfiltered
+	 * select of the same table is suggested.
+	 */
+	@Test
+	public void testSelectPerKey() {
+
+		DaoProfiler.begin("states");
+		StateDto params = new StateDto();
+		for (int id = 1; id <= 20; id++) {
+			params.setId(id);
+			assertEquals(1, stateDao.selectByStatement("query.select", params)
+			    .size());
+		}
+		stateDao.selectByStatement("query.selectMaxId");
+		ProfileReport report = DaoProfiler.end();
+
+		assertEquals("states", report.getName());
+		assertEquals(21, report.getRoundTrips());
+		assertEquals(2, report.getStatements().size());
+		assertTrue(report.getDbMillis() <= report.getElapsedMillis());
+
+		List<StatementProfile> suspects = report.getSuspects();
+		assertEquals(1, suspects.size());
+		StatementProfile suspect = suspects.get(0);
+		assertEquals("StateDto", suspect.getDto());
+		assertEquals("query.select", suspect.getStatementId());
+		assertEquals(1, suspect.getParameterCount());
+		assertEquals(20, suspect.getExecutions());
+		assertEquals(20, suspect.getDistinctParameters());
+		assertEquals(0, suspect.getFailures());
+		assertTrue(suspect.getSuggestion(),
+		    suspect.getSuggestion().contains("query.selectAll"));
+		assertFalse(report.getStatements().get(1).isSuspect());
+	}
+
+	/**
+	 * Test that a select per foreign key without an alternative statement
+	 * suggests an IN list or an association, and that identical parameters
+	 * suggest hoisting the call.
+	 */
+	@Test
+	public void testSuggestions() {
+
+		DaoProfiler.begin("presidents", 5);
+		PresidentDto params = new PresidentDto();
+		for (int stateId = 40; stateId <= 50; stateId++) {
+			params.setStateId(stateId);
+			presidentDao.selectByStatement("query.selectByStateId", params);
+		}
+		StateDto state = new StateDto();
+		state.setId(46);
+		for (int i = 0; i < 5; i++) {
+			stateDao.selectByStatement("query.select", state);
+		}
+		ProfileReport report = DaoProfiler.end();
+
+		assertEquals(16, report.getRoundTrips());
+		List<StatementProfile> suspects = report.getSuspects();
+		assertEquals(2, suspects.size());
+		assertEquals("query.selectByStateId",
+		    suspects.get(0).getStatementId());
+		assertTrue(suspects.get(0).getSuggestion(),
+		    suspects.get(0).getSuggestion().contains("STATE_ID in"));
+		assertEquals(1, suspects.get(1).getDistinctParameters());
+		assertTrue(suspects.get(1).getSuggestion(),
+		    suspects.get(1).getSuggestion().contains("hoist"));
+	}
+
+	/**
+	 * Test that nothing is recorded outside a scope, that a nested scope is
+	 * part of its outer scope and that a scope under the threshold has no
+	 * suspects.
+	 */
+	@Test
+	public void testScopes() {
+
+		assertNull(DaoProfiler.end());
+		stateDao.selectByStatement("query.selectMaxId");
+		assertFalse(DaoProfiler.isActive());
+
+		DaoProfiler.begin("outer");
+		stateDao.selectByStatement("query.selectMaxId");
+		DaoProfiler.begin("inner");
+		stateDao.selectByStatement("query.selectMaxId");
+		assertNull(DaoProfiler.end());
+		assertTrue(DaoProfiler.isActive());
+		ProfileReport report = DaoProfiler.end();
+
+		assertNotNull(report);
+		assertEquals("outer", report.getName());
+		assertEquals(2, report.getRoundTrips());
+		assertTrue(report.getSuspects().isEmpty());
+		assertFalse(DaoProfiler.isActive());
+
+		assertFalse(DaoProfiler.sample("never", 0));
+		assertTrue(DaoProfiler.sample("always", 1));
+		assertEquals("always", DaoProfiler.end().getName());
+	}
+}
@@ -10,8 +10,12 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import javax.naming.NamingException;
@@ -46,7 +50,9 @@ public final class DbUtilsTestSetup {
 	}
 
 	/**
-	 * Create test Derby database for testing.
+	 * Create test Derby database for testing. Tables and views left by a
+	 * previous test class in the same JVM are dropped first, so every test
+	 * class starts with freshly created and populated tables.
 	 * 
 	 * @param propsFile
 	 *            derby/daogen.properties
@@ -77,6 +83,8 @@ public final class DbUtilsTestSetup {
 
 		try (Connection conn = dataSource.getConnection()) {
 
+			dropTables(conn);
+
 			String createSql = fetchSql(props, "db.create.sql");
 
 			String populateSql = fetchSql(props, "db.populate.sql");
@@ -102,6 +110,69 @@ public final class DbUtilsTestSetup {
 
 	}
 
+	/**
+	 * Drop the views, foreign keys and tables of the test database.
+	 * 
+	 * @param conn
+	 *            connection to the test database
+	 * @throws SQLException
+	 *             thrown if an object can't be dropped
+	 */
+	private static void dropTables(Connection conn) throws SQLException {
+
+		DatabaseMetaData metaData = conn.getMetaData();
+		List<String> views = new ArrayList<String>();
+		List<String[]> tables = new ArrayList<String[]>();
+		try (ResultSet rs = metaData.getTables(null, null, "%",
+		    new String[] { "TABLE", "VIEW" })) {
+			while (rs.next()) {
+				String[] table = { rs.getString("TABLE_SCHEM"),
+				    rs.getString("TABLE_NAME") };
+				if ("VIEW".equals(rs.getString("TABLE_TYPE"))) {
+					views.add(quote(table));
+				} else {
+					tables.add(table);
+				}
+			}
+		}
+
+		List<String> drops = new ArrayList<String>();
+		for (String view : views) {
+			drops.add("DROP VIEW " + view);
+		}
+		for (String[] table : tables) {
+			try (ResultSet rs =
+			    metaData.getImportedKeys(null, table[0], table[1])) {
+				while (rs.next()) {
+					drops.add("ALTER TABLE " + quote(table)
+					    + " DROP CONSTRAINT \"" + rs.getString("FK_NAME")
+					    + "\"");
+				}
+			}
+		}
+		for (String[] table : tables) {
+			drops.add("DROP TABLE " + quote(table));
+		}
+
+		for (String sql : drops) {
+			try (Statement stmt = conn.createStatement()) {
+				LOGGER.info(String.format("%nExecuting %s", sql));
+				stmt.executeUpdate(sql);
+			}
+		}
+	}
+
+	/**
+	 * Quote a table's schema and name.
+	 * 
+	 * @param table
+	 *            schema and name
+	 * @return the quoted, qualified name
+	 */
+	private static String quote(String[] table) {
+		return "\"" + table[0] + "\".\"" + table[1] + "\"";
+	}
+
 	/**
 	 * Method to read the sql files specified in the given property of the
 	 * properties file and concatenate their contents into a string.
@@ -0,0 +1,130 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rothsmith.genericdao.PresidentDto;
+
+/**
+ * Tests for {@link DbUtilsJdbcDao#explain(String, Object)} and sampled plan
+ * capture.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ExecutionPlanTest {
+
+	/**
+	 * SLF4J Logger for ExecutionPlanTest.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(ExecutionPlanTest.class);
+
+	/**
+	 * {@link DbUtilsJdbcDao} to test.
+	 */
+	private DbUtilsJdbcDao<PresidentDto, PresidentDto> presidentDao;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create a {@link DbUtilsJdbcDao} to test.
+	 */
+	@Before
+	public void setUp() {
+
+		presidentDao = new DbUtilsJdbcDao<PresidentDto, PresidentDto>(
+		    "/presidentplandao.properties");
+
+	}
+
+	/**
+	 * Test capturing a Derby plan on demand.
+	 */
+	@Test
+	public void testExplain() {
+
+		PresidentDto params = new PresidentDto();
+		params.setStateId(46);
+
+		ExecutionPlan plan =
+		    presidentDao.explain("query.selectByStateId", params);
+		LOGGER.info(plan + "\n" + plan.getText());
+
+		assertEquals("Apache Derby", plan.getDatabase());
+		assertTrue(plan.getText().contains("PRESIDENT"));
+		assertEquals(1,
+		    plan.getTableScans().size() + plan.getIndexScans().size());
+		assertTrue(plan.getRowsExamined() >= 4);
+		assertSame(plan, presidentDao
+		    .getStatementMetrics("query.selectByStateId").getLastPlan());
+	}
+
+	/**
+	 * Test that a statement with <code>explainEvery=1</code> has its plan
+	 * captured in the background.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testSampledCapture() throws InterruptedException {
+
+		presidentDao.selectByStatement("query.selectMaxId");
+
+		StatementMetrics metrics =
+		    presidentDao.getStatementMetrics("query.selectMaxId");
+		long deadline = System.currentTimeMillis() + 10000;
+		while (metrics.getLastPlan() == null
+		    && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		ExecutionPlan plan = metrics.getLastPlan();
+		assertNotNull(plan);
+		LOGGER.info(plan.toString());
+		assertTrue(plan.getText().contains("PRESIDENT"));
+	}
+
+	/**
+	 * Test that only queries can be explained.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testExplainUpdate() {
+
+		presidentDao.explain("query.update", new PresidentDto());
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.naming.NamingException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+import com.rothsmith.genericdao.PresidentDto;
+
+/**
+ * Tests for adaptive and fixed fetch sizes.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class FetchSizeTest {
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Test that the fetch size follows the rows returned, within its bounds.
+	 */
+	@Test
+	public void testAdaptiveSize() {
+
+		StatementMetrics metrics = new StatementMetrics("query.select");
+		FetchSizer sizer = new FetchSizer(StatementSettings.DEFAULT, metrics,
+		    1, 1000, 1024L * 1024L);
+		assertEquals(0, sizer.getSettings().getFetchSize());
+
+		for (int i = 0; i < 20; i++) {
+			sizer.record(1);
+		}
+		assertEquals(3, sizer.getSettings().getFetchSize());
+		assertEquals(3, metrics.getFetchSize());
+
+		for (int i = 0; i < 50; i++) {
+			sizer.record(5000);
+		}
+		assertEquals(1000, sizer.getSettings().getFetchSize());
+	}
+
+	/**
+	 * Test that a fixed fetch size or a disabled sizer leaves no sizer.
+	 */
+	@Test
+	public void testFixedAndDisabled() {
+
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("fetchSize.memory", "65536");
+		properties.put("query.select.fetchSize", "10");
+		StatementSettings fixed =
+		    StatementSettings.fromProperties(properties, "query.select");
+		assertNull(FetchSizer.forStatement(properties, "query.select", fixed,
+		    new StatementMetrics("query.select")));
+		properties.put("fetchSize.adaptive", "false");
+		assertNull(FetchSizer.forStatement(properties, "query.selectAll",
+		    StatementSettings.DEFAULT,
+		    new StatementMetrics("query.selectAll")));
+	}
+
+	/**
+	 * Test the DAO's adaptive and fixed fetch sizes.
+	 */
+	@Test
+	public void testDaoFetchSize() {
+
+		DbUtilsJdbcDao<PresidentDto, PresidentDto> presidentDao =
+		    new DbUtilsJdbcDao<PresidentDto, PresidentDto>(
+		        "/presidentdao.properties");
+		PresidentDto params = new PresidentDto();
+		params.setStateId(46);
+		presidentDao.selectByStatement("query.selectByStateId", params);
+
+		// 4 rows: mean 4, deviation 2, so 4 + 2 * 2 + 1 rows.
+		assertEquals(9, presidentDao
+		    .getStatementMetrics("query.selectByStateId").getFetchSize());
+
+		DbUtilsJdbcDao<PartyDto, PartyDto> limitsDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>(
+		        "/partylimitsdao.properties");
+		assertEquals(2, limitsDao.selectByStatement("query.selectAll").size());
+		assertEquals(25, limitsDao.getStatementMetrics("query.selectAll")
+		    .getFetchSize());
+	}
+}
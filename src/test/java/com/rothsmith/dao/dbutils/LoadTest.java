@@ -0,0 +1,263 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+import com.rothsmith.genericdao.PresidentDto;
+import com.rothsmith.genericdao.StateDto;
+
+/**
+ * Load test of mixed PARTY, STATE and PRESIDENT workloads at 1, 4, 16 and 64
+ * threads against the <code>TestDS</code> DBCP pool
+ * (<code>dbcpMaxActive=20</code>). Skipped unless the <code>loadtest</code>
+ * system property is true; run it with <code>mvn test -Ploadtest</code>. The
+ * report is written to <code>target/loadtest-report.json</code>.
+ * <p>
+ * System properties: <code>loadtest.levels</code> (default
+ * <code>1,4,16,64</code>), <code>loadtest.seconds</code> (default 10) and
+ * <code>loadtest.warmup</code> (default 2).
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class LoadTest {
+
+	/**
+	 * Name of the parties written by the load test.
+	 */
+	private static final String PARTY_NAME = "Load Test Party";
+
+	/**
+	 * STATE.IDs of states with presidents.
+	 */
+	private static final int[] PRESIDENT_STATES = { 46, 21, 42 };
+
+	/**
+	 * PARTY DAO.
+	 */
+	private DbUtilsJdbcDao<PartyDto, PartyDto> partyDao;
+
+	/**
+	 * STATE DAO.
+	 */
+	private DbUtilsJdbcDao<StateDto, StateDto> stateDao;
+
+	/**
+	 * PRESIDENT DAO.
+	 */
+	private DbUtilsJdbcDao<PresidentDto, PresidentDto> presidentDao;
+
+	/**
+	 * Harness timing the DAOs' connection checkouts.
+	 */
+	private LoadTestHarness harness;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		Assume.assumeTrue(Boolean.getBoolean("loadtest"));
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAOs with timed data sources.
+	 */
+	@Before
+	public void setUp() {
+
+		harness = new LoadTestHarness(Integer.getInteger("loadtest.warmup", 2),
+		    Integer.getInteger("loadtest.seconds", 10));
+
+		partyDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>("/partydao.properties");
+		stateDao =
+		    new DbUtilsJdbcDao<StateDto, StateDto>("/statedao.properties");
+		presidentDao = new DbUtilsJdbcDao<PresidentDto, PresidentDto>(
+		    "/presidentdao.properties");
+
+		partyDao.setDataSource(harness.timed(partyDao.getDataSource()));
+		stateDao.setDataSource(harness.timed(stateDao.getDataSource()));
+		presidentDao
+		    .setDataSource(harness.timed(presidentDao.getDataSource()));
+
+	}
+
+	/**
+	 * Delete the parties written by the load test.
+	 * 
+	 * @throws SQLException
+	 *             possible SQL error
+	 */
+	@After
+	public void tearDown() throws SQLException {
+
+		try (Connection conn = partyDao.getDataSource().getConnection();
+		    Statement stmt = conn.createStatement();) {
+			stmt.executeUpdate("delete from TEST.PARTY where NAME = '"
+			    + PARTY_NAME + "'");
+		}
+
+	}
+
+	/**
+	 * Run the read-heavy (80% reads, 20% updates and inserts) and insert-heavy
+	 * (20% reads, 80% inserts) workloads and write the report.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the load threads
+	 * @throws IOException
+	 *             if the report can't be written
+	 */
+	@Test
+	public void testScaling() throws InterruptedException, IOException {
+
+		int[] levels =
+		    levels(System.getProperty("loadtest.levels", "1,4,16,64"));
+		final PartyDto[] ownParties = new PartyDto[maxOf(levels)];
+
+		LoadTestHarness.Workload readHeavy = new LoadTestHarness.Workload() {
+			@Override
+			public String getName() {
+				return "read-heavy";
+			}
+
+			@Override
+			public void run(int thread, double random) {
+				if (random < 0.8) {
+					read(random / 0.8);
+				} else if (random < 0.9 || ownParties[thread] == null) {
+					ownParties[thread] = insertParty(thread);
+				} else {
+					ownParties[thread].setEndYear(1900 + (int) (random * 100));
+					partyDao.update(ownParties[thread]);
+				}
+			}
+		};
+
+		LoadTestHarness.Workload insertHeavy = new LoadTestHarness.Workload() {
+			@Override
+			public String getName() {
+				return "insert-heavy";
+			}
+
+			@Override
+			public void run(int thread, double random) {
+				if (random < 0.2) {
+					read(random / 0.2);
+				} else {
+					insertParty(thread);
+				}
+			}
+		};
+
+		List<String> workloads = new ArrayList<String>();
+		for (LoadTestHarness.Workload workload : Arrays.asList(readHeavy,
+		    insertHeavy)) {
+			workloads.add(LoadTestHarness.workloadJson(workload.getName(),
+			    harness.run(workload, levels)));
+		}
+
+		LoadTestHarness.writeReport(new File("target/loadtest-report.json"),
+		    workloads);
+	}
+
+	/**
+	 * Run one of the read statements.
+	 * 
+	 * @param random
+	 *            a number between 0 and 1 picking the statement
+	 */
+	private void read(double random) {
+		if (random < 0.4) {
+			PartyDto party = new PartyDto();
+			party.setId(1 + (int) (random / 0.4 * 6));
+			partyDao.select(party);
+		} else if (random < 0.7) {
+			StateDto state = new StateDto();
+			state.setId(1 + (int) ((random - 0.4) / 0.3 * 50));
+			stateDao.select(state);
+		} else {
+			PresidentDto president = new PresidentDto();
+			president.setStateId(PRESIDENT_STATES[(int) ((random - 0.7) / 0.3
+			    * PRESIDENT_STATES.length)]);
+			presidentDao.selectByStatement("query.selectByStateId", president);
+		}
+	}
+
+	/**
+	 * Insert a party.
+	 * 
+	 * @param thread
+	 *            index of the load thread
+	 * @return the inserted party
+	 */
+	private PartyDto insertParty(int thread) {
+		PartyDto party = new PartyDto();
+		party.setName(PARTY_NAME);
+		party.setFoundedYear(1900 + thread);
+		party.setId(partyDao.insert(party));
+		return party;
+	}
+
+	/**
+	 * Parse the concurrency levels.
+	 * 
+	 * @param value
+	 *            comma separated numbers of threads
+	 * @return numbers of threads
+	 */
+	private static int[] levels(String value) {
+		String[] parts = value.split(",");
+		int[] levels = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			levels[i] = Integer.parseInt(parts[i].trim());
+		}
+		return levels;
+	}
+
+	/**
+	 * Return the largest of some numbers.
+	 * 
+	 * @param values
+	 *            the numbers
+	 * @return the largest number
+	 */
+	private static int maxOf(int... values) {
+		int max = 0;
+		for (int value : values) {
+			max = Math.max(max, value);
+		}
+		return max;
+	}
+
+}
@@ -0,0 +1,382 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a workload at increasing numbers of threads and reports throughput,
+ * latency percentiles, connection checkout time and GC activity per
+ * concurrency level as JSON.
+ * 
+ * @author drothauser
+ */
+public final class LoadTestHarness {
+
+	/**
+	 * SLF4J Logger for LoadTestHarness.
+	 */
+	private static final Logger LOGGER =
+	    LoggerFactory.getLogger(LoadTestHarness.class);
+
+	/**
+	 * Nanoseconds per millisecond.
+	 */
+	private static final double NANOS_PER_MILLI = 1000000d;
+
+	/**
+	 * One operation of a workload, run repeatedly by every load thread.
+	 */
+	public interface Workload {
+
+		/**
+		 * Return the workload's name for the report.
+		 * 
+		 * @return workload name
+		 */
+		String getName();
+
+		/**
+		 * Run one operation.
+		 * 
+		 * @param thread
+		 *            index of the calling load thread
+		 * @param random
+		 *            a number between 0 (inclusive) and 1 (exclusive) to pick
+		 *            the operation with
+		 */
+		void run(int thread, double random);
+	}
+
+	/**
+	 * Connection checkout counters.
+	 */
+	private final LongAdder checkouts = new LongAdder();
+
+	/**
+	 * Total connection checkout time in nanoseconds.
+	 */
+	private final LongAdder checkoutNanos = new LongAdder();
+
+	/**
+	 * Longest connection checkout time in nanoseconds.
+	 */
+	private final AtomicLong maxCheckoutNanos = new AtomicLong();
+
+	/**
+	 * Seconds of warm-up before each measured level.
+	 */
+	private final int warmupSeconds;
+
+	/**
+	 * Seconds measured per concurrency level.
+	 */
+	private final int seconds;
+
+	/**
+	 * Construct a harness.
+	 * 
+	 * @param warmupSeconds
+	 *            seconds of warm-up before each measured level
+	 * @param seconds
+	 *            seconds measured per concurrency level
+	 */
+	public LoadTestHarness(int warmupSeconds, int seconds) {
+		this.warmupSeconds = warmupSeconds;
+		this.seconds = seconds;
+	}
+
+	/**
+	 * Wrap a data source so that connection checkouts are timed.
+	 * 
+	 * @param dataSource
+	 *            the pool
+	 * @return data source timing <code>getConnection</code>
+	 */
+	public DataSource timed(final DataSource dataSource) {
+		return (DataSource) Proxy.newProxyInstance(
+		    DataSource.class.getClassLoader(),
+		    new Class<?>[] { DataSource.class }, new InvocationHandler() {
+			    @Override
+			    public Object invoke(Object proxy, Method method,
+			        Object[] args) throws Throwable {
+				    long start = System.nanoTime();
+				    try {
+					    return method.invoke(dataSource, args);
+				    } catch (InvocationTargetException e) {
+					    throw e.getCause();
+				    } finally {
+					    if ("getConnection".equals(method.getName())) {
+						    recordCheckout(System.nanoTime() - start);
+					    }
+				    }
+			    }
+		    });
+	}
+
+	/**
+	 * Run a workload at each concurrency level.
+	 * 
+	 * @param workload
+	 *            the workload
+	 * @param levels
+	 *            numbers of threads
+	 * @return one JSON object per level
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the load threads
+	 */
+	public List<String> run(Workload workload, int... levels)
+	        throws InterruptedException {
+
+		List<String> results = new ArrayList<String>();
+		for (int threads : levels) {
+			runLevel(workload, threads, warmupSeconds, false);
+			results.add(runLevel(workload, threads, seconds, true));
+		}
+		return results;
+	}
+
+	/**
+	 * Write a report.
+	 * 
+	 * @param file
+	 *            report file
+	 * @param workloads
+	 *            JSON of each workload, as returned by
+	 *            {@link #workloadJson(String, List)}
+	 * @throws IOException
+	 *             if the report can't be written
+	 */
+	public static void writeReport(File file, List<String> workloads)
+	        throws IOException {
+		String json = String.format(Locale.ROOT,
+		    "{%n  \"timestamp\": %d,%n  \"processors\": %d,%n"
+		        + "  \"workloads\": [%n%s%n  ]%n}%n",
+		    System.currentTimeMillis(),
+		    Runtime.getRuntime().availableProcessors(),
+		    StringUtils.join(workloads, ",\n"));
+		FileUtils.writeStringToFile(file, json, StandardCharsets.UTF_8);
+		LOGGER.info("Load test report written to " + file + ":\n" + json);
+	}
+
+	/**
+	 * Return the JSON of one workload's levels.
+	 * 
+	 * @param name
+	 *            workload name
+	 * @param levels
+	 *            JSON of each level
+	 * @return workload JSON
+	 */
+	public static String workloadJson(String name, List<String> levels) {
+		return String.format(Locale.ROOT,
+		    "    {%n      \"workload\": \"%s\",%n      \"levels\": [%n%s%n"
+		        + "      ]%n    }",
+		    name, StringUtils.join(levels, ",\n"));
+	}
+
+	/**
+	 * Run a workload at one concurrency level for a number of seconds.
+	 * 
+	 * @param workload
+	 *            the workload
+	 * @param threads
+	 *            number of load threads
+	 * @param duration
+	 *            seconds to run
+	 * @param measure
+	 *            false for a warm-up run
+	 * @return JSON of the level's results, or null for a warm-up run
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the load threads
+	 */
+	private String runLevel(final Workload workload, int threads,
+	    int duration, boolean measure) throws InterruptedException {
+
+		final long[][] latencies = new long[threads][];
+		final int[] counts = new int[threads];
+		final LongAdder errors = new LongAdder();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long durationNanos = TimeUnit.SECONDS.toNanos(duration);
+
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			Thread loadThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long[] samples = new long[1024];
+					int count = 0;
+					Random random = new Random(thread);
+					try {
+						start.await();
+						long end = System.nanoTime() + durationNanos;
+						long now = System.nanoTime();
+						while (now < end) {
+							try {
+								workload.run(thread, random.nextDouble());
+							} catch (RuntimeException e) {
+								errors.increment();
+								LOGGER.debug("Operation failed: " + e);
+							}
+							long finished = System.nanoTime();
+							if (count == samples.length) {
+								samples = Arrays.copyOf(samples, count * 2);
+							}
+							samples[count++] = finished - now;
+							now = finished;
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						latencies[thread] = samples;
+						counts[thread] = count;
+						done.countDown();
+					}
+				}
+			}, "load-" + workload.getName() + "-" + t);
+			loadThread.setDaemon(true);
+			loadThread.start();
+		}
+
+		resetCheckouts();
+		long gcCount = gcCount();
+		long gcMillis = gcMillis();
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+
+		if (!measure) {
+			return null;
+		}
+
+		int total = 0;
+		for (int count : counts) {
+			total += count;
+		}
+		long[] all = new long[total];
+		int offset = 0;
+		for (int t = 0; t < threads; t++) {
+			System.arraycopy(latencies[t], 0, all, offset, counts[t]);
+			offset += counts[t];
+		}
+		Arrays.sort(all);
+
+		long checkoutCount = checkouts.sum();
+		String json = String.format(Locale.ROOT,
+		    "        {\"threads\": %d, \"operations\": %d, \"errors\": %d, "
+		        + "\"throughputPerSecond\": %.1f, \"p50Ms\": %.3f, "
+		        + "\"p99Ms\": %.3f, \"p999Ms\": %.3f, \"maxMs\": %.3f, "
+		        + "\"checkouts\": %d, \"meanCheckoutMs\": %.3f, "
+		        + "\"maxCheckoutMs\": %.3f, \"gcCount\": %d, "
+		        + "\"gcTimeMs\": %d}",
+		    threads, total, errors.sum(),
+		    total / (elapsed / (NANOS_PER_MILLI * 1000d)),
+		    percentile(all, 0.5), percentile(all, 0.99),
+		    percentile(all, 0.999),
+		    all.length == 0 ? 0d : all[all.length - 1] / NANOS_PER_MILLI,
+		    checkoutCount,
+		    checkoutCount == 0 ? 0d
+		        : checkoutNanos.sum() / NANOS_PER_MILLI / checkoutCount,
+		    maxCheckoutNanos.get() / NANOS_PER_MILLI, gcCount() - gcCount,
+		    gcMillis() - gcMillis);
+		LOGGER.info(workload.getName() + ": " + json.trim());
+
+		return json;
+	}
+
+	/**
+	 * Record a connection checkout.
+	 * 
+	 * @param nanos
+	 *            checkout time
+	 */
+	private void recordCheckout(long nanos) {
+		checkouts.increment();
+		checkoutNanos.add(nanos);
+		long max = maxCheckoutNanos.get();
+		while (nanos > max && !maxCheckoutNanos.compareAndSet(max, nanos)) {
+			max = maxCheckoutNanos.get();
+		}
+	}
+
+	/**
+	 * Reset the connection checkout counters.
+	 */
+	private void resetCheckouts() {
+		checkouts.reset();
+		checkoutNanos.reset();
+		maxCheckoutNanos.set(0L);
+	}
+
+	/**
+	 * Return a percentile of sorted latencies.
+	 * 
+	 * @param sorted
+	 *            sorted latencies in nanoseconds
+	 * @param fraction
+	 *            percentile as a fraction
+	 * @return the percentile in milliseconds
+	 */
+	private static double percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0d;
+		}
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * Return the number of garbage collections so far.
+	 * 
+	 * @return collection count of all collectors
+	 */
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+		    .getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * Return the time spent in garbage collection so far.
+	 * 
+	 * @return collection time of all collectors in milliseconds
+	 */
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+		    .getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+}
@@ -0,0 +1,357 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.DocumentDto;
+
+/**
+ * Tests for streamed BLOB and CLOB properties and {@link Lobs}.
+ *
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class LobStreamingTest {
+
+	/**
+	 * Bytes of the large document (3 MiB).
+	 */
+	private static final int DOCUMENT_BYTES = 3 * 1024 * 1024;
+
+	/**
+	 * Characters of the large document's notes.
+	 */
+	private static final int NOTES_CHARS = 1024 * 1024 + 7;
+
+	/**
+	 * DOCUMENT DAO.
+	 */
+	private DbUtilsJdbcDao<DocumentDto, DocumentDto> documentDao;
+
+	/**
+	 * Create database objects for testing.
+	 *
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAO to test.
+	 */
+	@Before
+	public void setUp() {
+
+		documentDao = new DbUtilsJdbcDao<DocumentDto, DocumentDto>(
+		    "/documentdao.properties");
+
+	}
+
+	/**
+	 * Test that a large BLOB and CLOB are written from streams and read back
+	 * as streams over the LOB locators, copied in chunks.
+	 */
+	@Test
+	public void testStreamedRoundTrip() {
+
+		DocumentDto document = new DocumentDto();
+		document.setName("large");
+		document.setContent(new PatternStream(DOCUMENT_BYTES));
+		document.setNotes(new PatternReader(NOTES_CHARS));
+		int id = documentDao.insert(document);
+
+		final CRC32 expected = new CRC32();
+		InputStream pattern = new PatternStream(DOCUMENT_BYTES);
+		try {
+			for (int b = pattern.read(); b >= 0; b = pattern.read()) {
+				expected.update(b);
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+
+		final CrcChannel content = new CrcChannel();
+		final StringWriter notes = new StringWriter();
+		DocumentDto params = new DocumentDto();
+		params.setId(id);
+		int rows = documentDao.streamByStatement("query.select", params,
+		    new RowCallback<DocumentDto>() {
+			    @Override
+			    public void process(DocumentDto row) throws IOException {
+				    assertEquals("large", row.getName());
+				    try (InputStream in = row.getContent();
+				            Reader reader = row.getNotes()) {
+					    assertEquals(DOCUMENT_BYTES, Lobs.copy(in, content));
+					    assertEquals(NOTES_CHARS, Lobs.copy(reader, notes));
+				    }
+			    }
+		    });
+
+		assertEquals(1, rows);
+		assertEquals(expected.getValue(), content.crc.getValue());
+		assertEquals(DOCUMENT_BYTES, content.bytes);
+		assertTrue(notes.toString()
+		    .contentEquals(patternString(NOTES_CHARS)));
+
+		documentDao.delete(params);
+	}
+
+	/**
+	 * Test that a list select reads LOBs into memory, so the DTOs outlive
+	 * the query, and that a channel property is written and read.
+	 *
+	 * @throws IOException
+	 *             test failure
+	 */
+	@Test
+	public void testMaterializedAndChannel() throws IOException {
+
+		DocumentDto document = new DocumentDto();
+		document.setName("small");
+		document.setContent(new PatternStream(1000));
+		int id = documentDao.insert(document);
+
+		DocumentDto params = new DocumentDto();
+		params.setId(id);
+		List<DocumentDto> documents =
+		    documentDao.selectByStatement("query.select", params);
+		assertEquals(1, documents.size());
+		assertNull(documents.get(0).getNotes());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertEquals(1000, Lobs.copy(documents.get(0).getContent(),
+		    Channels.newChannel(bytes)));
+
+		document.setId(id);
+		document.setName("replaced");
+		document.setChannel(Channels.newChannel(new StringInputStream(
+		    "replacement")));
+		assertEquals(1, documentDao.update(document));
+
+		DocumentDto replaced = documentDao
+		    .selectByStatement("query.selectChannel", params).get(0);
+		bytes.reset();
+		Lobs.copy(replaced.getChannel(), Channels.newChannel(bytes));
+		assertEquals("replacement",
+		    new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+
+		assertEquals(1, documentDao.delete(params));
+	}
+
+	/**
+	 * Test the chunked copies with inputs larger than a chunk.
+	 *
+	 * @throws IOException
+	 *             test failure
+	 */
+	@Test
+	public void testCopy() throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int size = Lobs.CHUNK_SIZE * 2 + 3;
+		assertEquals(size, Lobs.copy(new PatternStream(size),
+		    Channels.newChannel(bytes)));
+		assertEquals(size, bytes.size());
+
+		Writer writer = new StringWriter();
+		assertEquals(size,
+		    Lobs.copy(new StringReader(patternString(size)), writer));
+		assertEquals(patternString(size), writer.toString());
+	}
+
+	/**
+	 * Return the characters of a {@link PatternReader}.
+	 *
+	 * @param length
+	 *            number of characters
+	 * @return the characters
+	 */
+	private static String patternString(int length) {
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			builder.append(PatternReader.charAt(i));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Stream generating bytes without holding them.
+	 */
+	private static final class PatternStream extends InputStream {
+
+		/**
+		 * Bytes left.
+		 */
+		private int remaining;
+
+		/**
+		 * Construct the stream.
+		 *
+		 * @param length
+		 *            number of bytes
+		 */
+		PatternStream(int length) {
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() {
+			if (remaining == 0) {
+				return -1;
+			}
+			remaining--;
+			return (remaining * 31 + remaining / 251) & 0xFF;
+		}
+	}
+
+	/**
+	 * Reader generating characters without holding them.
+	 */
+	private static final class PatternReader extends Reader {
+
+		/**
+		 * Number of characters.
+		 */
+		private final int length;
+
+		/**
+		 * Characters read.
+		 */
+		private int position;
+
+		/**
+		 * Construct the reader.
+		 *
+		 * @param length
+		 *            number of characters
+		 */
+		PatternReader(int length) {
+			this.length = length;
+		}
+
+		/**
+		 * Return a character of the pattern.
+		 *
+		 * @param i
+		 *            position
+		 * @return the character
+		 */
+		static char charAt(int i) {
+			return (char) ('a' + i % 26);
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) {
+			if (position == length) {
+				return -1;
+			}
+			int count = Math.min(len, length - position);
+			for (int i = 0; i < count; i++) {
+				cbuf[off + i] = charAt(position++);
+			}
+			return count;
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
+	}
+
+	/**
+	 * Stream over the UTF-8 bytes of a string.
+	 */
+	private static final class StringInputStream extends InputStream {
+
+		/**
+		 * The bytes.
+		 */
+		private final ByteBuffer bytes;
+
+		/**
+		 * Construct the stream.
+		 *
+		 * @param value
+		 *            the string
+		 */
+		StringInputStream(String value) {
+			this.bytes =
+			    ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public int read() {
+			return bytes.hasRemaining() ? bytes.get() & 0xFF : -1;
+		}
+	}
+
+	/**
+	 * Channel computing the CRC of the bytes written to it.
+	 */
+	private static final class CrcChannel implements WritableByteChannel {
+
+		/**
+		 * CRC of the bytes written.
+		 */
+		private final CRC32 crc = new CRC32();
+
+		/**
+		 * Number of bytes written.
+		 */
+		private long bytes;
+
+		@Override
+		public int write(ByteBuffer src) {
+			int count = src.remaining();
+			while (src.hasRemaining()) {
+				crc.update(src.get());
+			}
+			bytes += count;
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
+	}
+}
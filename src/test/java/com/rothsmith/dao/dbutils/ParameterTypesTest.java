@@ -0,0 +1,249 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+
+/**
+ * Tests for {@link ParameterTypes} and typed parameter binding.
+ *
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ParameterTypesTest {
+
+	/**
+	 * Create database objects for testing.
+	 *
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Test that declarations are moved out of the statements and that types
+	 * are declared, inferred from the DTO or unknown.
+	 */
+	@Test
+	public void testTypes() {
+
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("query.update", "update TEST.PARTY set END_YEAR ="
+		    + ":endYear{integer} , NOTE =:note{CLOB} where ID=:id");
+		properties.put("parameterType.id", "BIGINT");
+		ParameterTypes.extractDeclarations(properties);
+
+		assertEquals("update TEST.PARTY set END_YEAR =:endYear , NOTE =:note"
+		    + " where ID=:id", properties.get("query.update"));
+		assertEquals("INTEGER", properties.get("parameterType.endYear"));
+		assertEquals("CLOB", properties.get("parameterType.note"));
+
+		ParameterTypes types = new ParameterTypes(properties, PartyDto.class);
+		assertArrayEquals(
+		    new int[] { Types.INTEGER, Types.CLOB, Types.BIGINT },
+		    types.of(properties.get("query.update")));
+		assertArrayEquals(
+		    new int[] { Types.VARCHAR, Types.INTEGER, Types.NULL,
+		        Types.DATE },
+		    types.of("select * from TEST.PARTY where NAME = :name and "
+		        + "FOUNDED_YEAR = :foundedYear and X = :unknown and "
+		        + "Y = :day{DATE}"));
+		assertEquals("select * from T where A = ? and B = ?",
+		    ParameterTypes.positional(
+		        "select * from T where A = :a and B = :b{DATE}"));
+	}
+
+	/**
+	 * Test that a parameter declared with two types is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testConflictingDeclarations() {
+
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("query.a", "select * from T where A = :a{INTEGER}");
+		properties.put("query.b", "select * from T where A = :a{VARCHAR}");
+		ParameterTypes.extractDeclarations(properties);
+
+	}
+
+	/**
+	 * Test that an unknown type name is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownType() {
+
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("query.a", "select * from T where A = :a{NUMBERISH}");
+		ParameterTypes.extractDeclarations(properties);
+
+	}
+
+	/**
+	 * Test that null values are inserted, updated and selected without
+	 * reading parameter metadata.
+	 */
+	@Test
+	public void testNullsWithoutMetadata() {
+
+		DbUtilsJdbcDao<PartyDto, PartyDto> partyDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>("/partytypesdao.properties");
+		AtomicInteger metadataCalls = new AtomicInteger();
+		partyDao.setDataSource(
+		    countingMetadata(partyDao.getDataSource(), metadataCalls));
+
+		PartyDto party = new PartyDto();
+		party.setName("Typed Party");
+		party.setFoundedYear(2015);
+		party.setEndYear(2016);
+		party.setId(partyDao.insert(party));
+
+		party.setEndYear(null);
+		assertEquals(1, partyDao.update(party));
+		PartyDto selected =
+		    partyDao.selectByStatement("query.select", party).get(0);
+		assertNull(selected.getEndYear());
+		assertEquals(1, partyDao.delete(party));
+
+		assertEquals(0, metadataCalls.get());
+	}
+
+	/**
+	 * Test that a null is bound through the compact statement of a tracked
+	 * update with its declared type, without reading parameter metadata.
+	 */
+	@Test
+	public void testTrackedUpdateNullWithoutMetadata() {
+
+		DbUtilsJdbcDao<PartyDto, PartyDto> trackingDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>(
+		        "/partytrackingdao.properties");
+		AtomicInteger metadataCalls = new AtomicInteger();
+		trackingDao.setDataSource(
+		    countingMetadata(trackingDao.getDataSource(), metadataCalls));
+
+		PartyDto party = new PartyDto();
+		party.setName("Tracked Party");
+		party.setFoundedYear(2015);
+		party.setEndYear(2016);
+		party.setId(trackingDao.insert(party));
+
+		PartyDto loaded = trackingDao.select(party).get(0);
+		loaded.setEndYear(null);
+		assertEquals(1, trackingDao.update(loaded));
+		assertNull(trackingDao.select(party).get(0).getEndYear());
+		assertEquals(1, trackingDao.delete(party));
+
+		assertEquals(0, metadataCalls.get());
+	}
+
+	/**
+	 * Wrap a data source to count the calls of
+	 * <code>PreparedStatement.getParameterMetaData</code>.
+	 *
+	 * @param dataSource
+	 *            the data source
+	 * @param calls
+	 *            counter of the calls
+	 * @return the counting data source
+	 */
+	private static DataSource countingMetadata(DataSource dataSource,
+	    final AtomicInteger calls) {
+		return proxy(DataSource.class, dataSource, new Counter() {
+			@Override
+			public Object wrap(Method method, Object result) {
+				if (result instanceof Connection) {
+					return proxy(Connection.class, result, this);
+				}
+				if (result instanceof PreparedStatement) {
+					return proxy(PreparedStatement.class, result, this);
+				}
+				if ("getParameterMetaData".equals(method.getName())) {
+					calls.incrementAndGet();
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Create a proxy passing calls to a target and wrapping their results.
+	 *
+	 * @param <I>
+	 *            interface proxied
+	 * @param type
+	 *            interface proxied
+	 * @param target
+	 *            the target
+	 * @param counter
+	 *            wraps the results
+	 * @return the proxy
+	 */
+	private static <I> I proxy(Class<I> type, final Object target,
+	    final Counter counter) {
+		return type.cast(Proxy.newProxyInstance(
+		    ParameterTypesTest.class.getClassLoader(), new Class<?>[] { type },
+		    new InvocationHandler() {
+			    @Override
+			    public Object invoke(Object proxy, Method method,
+			        Object[] args) throws Throwable {
+				    try {
+					    return counter.wrap(method,
+					        method.invoke(target, args));
+				    } catch (InvocationTargetException e) {
+					    throw e.getCause();
+				    }
+			    }
+		    }));
+	}
+
+	/**
+	 * Wraps the results of proxied calls.
+	 */
+	private interface Counter {
+
+		/**
+		 * Wrap a result.
+		 *
+		 * @param method
+		 *            the method called
+		 * @param result
+		 *            its result
+		 * @return the wrapped result
+		 */
+		Object wrap(Method method, Object result);
+	}
+}
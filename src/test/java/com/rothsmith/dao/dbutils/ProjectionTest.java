@@ -0,0 +1,189 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.beans.ConstructorProperties;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PresidentDto;
+
+/**
+ * Tests for {@link DbUtilsJdbcDao#selectProjection}.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ProjectionTest {
+
+	/**
+	 * STATE.ID of Virginia in the test data.
+	 */
+	private static final int VIRGINIA = 46;
+
+	/**
+	 * Interface projection of a president's name.
+	 */
+	public interface PresidentName {
+
+		/**
+		 * @return first name
+		 */
+		String getFirstname();
+
+		/**
+		 * @return last name
+		 */
+		String getLastname();
+	}
+
+	/**
+	 * Constructor projection of a president's term.
+	 */
+	public static final class PresidentTerm {
+
+		/**
+		 * Last name.
+		 */
+		private final String lastname;
+
+		/**
+		 * Year of inauguration.
+		 */
+		private final int year;
+
+		/**
+		 * Years in office.
+		 */
+		private final double years;
+
+		/**
+		 * Construct the projection.
+		 * 
+		 * @param lastname
+		 *            last name
+		 * @param year
+		 *            year of inauguration
+		 * @param years
+		 *            years in office
+		 */
+		@ConstructorProperties({ "lastname", "inauguratedYear", "years" })
+		public PresidentTerm(String lastname, int year, double years) {
+			this.lastname = lastname;
+			this.year = year;
+			this.years = years;
+		}
+	}
+
+	/**
+	 * {@link DbUtilsJdbcDao} to test.
+	 */
+	private DbUtilsJdbcDao<PresidentDto, PresidentDto> presidentDao;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create a {@link DbUtilsJdbcDao} to test.
+	 */
+	@Before
+	public void setUp() {
+
+		presidentDao = new DbUtilsJdbcDao<PresidentDto, PresidentDto>(
+		    "/presidentdao.properties");
+
+	}
+
+	/**
+	 * Test selecting into an interface projection.
+	 */
+	@Test
+	public void testInterfaceProjection() {
+
+		PresidentDto params = new PresidentDto();
+		params.setStateId(VIRGINIA);
+
+		List<PresidentName> names = presidentDao.selectProjection(
+		    "query.selectByStateId", params, PresidentName.class);
+
+		assertEquals(4, names.size());
+		assertEquals("George", names.get(0).getFirstname());
+		assertEquals("Washington", names.get(0).getLastname());
+		assertTrue(names.get(0).toString().contains("LASTNAME=Washington"));
+	}
+
+	/**
+	 * Test selecting into a constructor projection with numeric conversion.
+	 */
+	@Test
+	public void testConstructorProjection() {
+
+		PresidentDto params = new PresidentDto();
+		params.setStateId(VIRGINIA);
+
+		List<PresidentTerm> terms = presidentDao.selectProjection(
+		    "query.selectByStateId", params, PresidentTerm.class);
+
+		assertEquals(4, terms.size());
+		assertEquals("Jefferson", terms.get(1).lastname);
+		assertEquals(1801, terms.get(1).year);
+		assertEquals(8d, terms.get(1).years, 0d);
+	}
+
+	/**
+	 * Test trimming a SELECT list to a projection's columns.
+	 */
+	@Test
+	public void testTrimSelectList() {
+
+		String sql = presidentDao.getStatementMap()
+		    .get("query.selectByStateId");
+		assertEquals(
+		    "select FIRSTNAME , LASTNAME from TEST.PRESIDENT"
+		        + " where STATE_ID=:stateId order by ID",
+		    SqlStatements.trimSelectList(sql,
+		        Arrays.asList("FIRSTNAME", "LASTNAME")).trim());
+
+		assertEquals("select p.ID , p.YEARS as TERM from PRESIDENT p",
+		    SqlStatements.trimSelectList(
+		        "select p.ID, p.LASTNAME, p.YEARS as TERM from PRESIDENT p",
+		        Arrays.asList("ID", "TERM")));
+
+		String distinct = "select distinct STATE_ID from TEST.PRESIDENT";
+		assertEquals(distinct, SqlStatements.trimSelectList(distinct,
+		    Arrays.asList("STATE_ID")));
+
+		String parameter = "select ID , :year - YEARS as SINCE , LASTNAME"
+		    + " from TEST.PRESIDENT where STATE_ID=:stateId";
+		assertEquals(parameter, SqlStatements.trimSelectList(parameter,
+		    Arrays.asList("ID", "LASTNAME")));
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.StateDto;
+
+/**
+ * Tests for reference-mode DAOs (<code>cache=reference</code>).
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ReferenceCacheTest {
+
+	/**
+	 * STATE DAO in reference mode.
+	 */
+	private DbUtilsJdbcDao<StateDto, StateDto> stateDao;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAO to test.
+	 */
+	@Before
+	public void setUp() {
+
+		stateDao = new DbUtilsJdbcDao<StateDto, StateDto>(
+		    "/statereferencedao.properties");
+
+	}
+
+	/**
+	 * Close the DAO.
+	 */
+	@After
+	public void tearDown() {
+
+		stateDao.close();
+
+	}
+
+	/**
+	 * Test lookups by key and by index column, and that a select by key
+	 * doesn't go to the database and returns a copy the caller may change.
+	 */
+	@Test
+	public void testLookup() {
+
+		StateDto virginia = stateDao.lookup(46);
+		assertEquals("Virginia", virginia.getName());
+		assertSame(virginia, stateDao.lookup("ABBREVIATION", "VA"));
+		assertSame(virginia, stateDao.lookup("name", "Virginia"));
+		assertNull(stateDao.lookup(0));
+		assertNull(stateDao.lookup("ABBREVIATION", "XX"));
+		assertEquals(50, stateDao.lookupAll().size());
+
+		StateDto params = new StateDto();
+		params.setId(21);
+		StateDto massachusetts = stateDao.select(params).get(0);
+		assertEquals("Massachusetts", massachusetts.getName());
+		assertNotSame(stateDao.lookup(21), massachusetts);
+		massachusetts.setName("Changed");
+		assertEquals("Massachusetts", stateDao.lookup(21).getName());
+		params.setId(999);
+		assertEquals(0, stateDao.select(params).size());
+		assertEquals(0,
+		    stateDao.getStatementMetrics("query.select").getExecutions());
+		assertEquals(1,
+		    stateDao.getStatementMetrics("cache.reference").getExecutions());
+	}
+
+	/**
+	 * Test that writes through the DAO reload the cache.
+	 */
+	@Test
+	public void testReloadOnWrite() {
+
+		StateDto dto = new StateDto();
+		dto.setName("Jefferson");
+		dto.setAbbreviation("JF");
+		int id = stateDao.insert(dto);
+		dto.setId(id);
+
+		assertEquals("Jefferson", stateDao.lookup(id).getName());
+		assertEquals(id, stateDao.lookup("ABBREVIATION", "JF").getId()
+		    .intValue());
+
+		dto.setName("State of Jefferson");
+		assertEquals(1, stateDao.update(dto));
+		assertEquals("State of Jefferson", stateDao.lookup(id).getName());
+
+		assertEquals(1, stateDao.delete(dto));
+		assertNull(stateDao.lookup(id));
+		assertNull(stateDao.lookup("ABBREVIATION", "JF"));
+	}
+
+	/**
+	 * Test that closing a cache stops its periodic reloads.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for reloads
+	 */
+	@Test(timeout = 5000)
+	public void testCloseStopsRefresh() throws InterruptedException {
+
+		final AtomicInteger loads = new AtomicInteger();
+		ReferenceCache<StateDto> cache = new ReferenceCache<StateDto>(
+		    Collections.singletonMap("cache.refreshInterval", "10"),
+		    new ReferenceCache.Loader<StateDto>() {
+			    @Override
+			    public List<StateDto> load() {
+				    loads.incrementAndGet();
+				    return Collections.emptyList();
+			    }
+		    });
+		while (loads.get() < 3) {
+			Thread.sleep(10);
+		}
+
+		cache.close();
+		int closedLoads = loads.get();
+		Thread.sleep(100);
+		assertTrue(loads.get() <= closedLoads + 1);
+	}
+
+	/**
+	 * Test the open-addressing map with colliding, negative and 0 keys.
+	 */
+	@Test
+	public void testIntObjectMap() {
+
+		IntObjectMap<String> map = new IntObjectMap<String>(1000);
+		for (int key = -500; key < 500; key++) {
+			assertNull(map.put(key * 1024, "v" + key));
+		}
+		assertEquals(1000, map.size());
+		assertEquals("v0", map.put(0, "zero"));
+		assertEquals(1000, map.size());
+
+		for (int key = -500; key < 500; key++) {
+			assertEquals(key == 0 ? "zero" : "v" + key, map.get(key * 1024));
+		}
+		assertNull(map.get(1));
+		assertNull(map.get(500 * 1024));
+	}
+
+	/**
+	 * Test that a full map is rejected rather than looping forever.
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testIntObjectMapFull() {
+
+		IntObjectMap<String> map = new IntObjectMap<String>(2);
+		for (int key = 1; key <= 3; key++) {
+			map.put(key, "v" + key);
+		}
+	}
+}
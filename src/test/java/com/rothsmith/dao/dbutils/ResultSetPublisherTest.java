@@ -0,0 +1,245 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.rothsmith.genericdao.StateDto;
+
+/**
+ * Tests for the Reactive Streams publishers of {@link DbUtilsJdbcDao}.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ResultSetPublisherTest {
+
+	/**
+	 * Seconds to wait for a stream signal.
+	 */
+	private static final long TIMEOUT = 10;
+
+	/**
+	 * Query of all states.
+	 */
+	private static final String ALL_STATES =
+	    "select ID, NAME, ABBREVIATION from TEST.STATE order by ID";
+
+	/**
+	 * {@link DbUtilsJdbcDao} to test.
+	 */
+	private DbUtilsJdbcDao<StateDto, Object[]> stateDao;
+
+	/**
+	 * Subscriber recording the signals it receives.
+	 * 
+	 * @param <R>
+	 *            row type
+	 */
+	private static final class RecordingSubscriber<R>
+	        implements Subscriber<R> {
+
+		/**
+		 * Rows received.
+		 */
+		private final List<R> rows = new CopyOnWriteArrayList<R>();
+
+		/**
+		 * Counted down when the subscription arrives.
+		 */
+		private final CountDownLatch subscribed = new CountDownLatch(1);
+
+		/**
+		 * Counted down on completion or error.
+		 */
+		private final CountDownLatch terminated = new CountDownLatch(1);
+
+		/**
+		 * The subscription.
+		 */
+		private volatile Subscription subscription;
+
+		/**
+		 * Error received, if any.
+		 */
+		private volatile Throwable error;
+
+		/**
+		 * Counted down when the expected number of rows arrived.
+		 */
+		private volatile CountDownLatch received = new CountDownLatch(0);
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			subscription = s;
+			subscribed.countDown();
+		}
+
+		@Override
+		public void onNext(R row) {
+			rows.add(row);
+			received.countDown();
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			error = t;
+			terminated.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			terminated.countDown();
+		}
+
+		/**
+		 * Request rows and wait for them.
+		 * 
+		 * @param n
+		 *            number of rows
+		 * @throws InterruptedException
+		 *             if interrupted while waiting
+		 */
+		void requestAndAwait(int n) throws InterruptedException {
+			received = new CountDownLatch(n);
+			subscription.request(n);
+			assertTrue(received.await(TIMEOUT, TimeUnit.SECONDS));
+		}
+	}
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create a {@link DbUtilsJdbcDao} to test.
+	 */
+	@Before
+	public void setUp() {
+
+		stateDao = new DbUtilsJdbcDao<StateDto, Object[]>(
+		    "/statedao.properties");
+
+	}
+
+	/**
+	 * Test that rows are only emitted as they are requested.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testBackpressure() throws InterruptedException {
+
+		RecordingSubscriber<StateDto> subscriber =
+		    new RecordingSubscriber<StateDto>();
+		stateDao.publish(ALL_STATES, new Object[0]).subscribe(subscriber);
+		assertTrue(subscriber.subscribed.await(TIMEOUT, TimeUnit.SECONDS));
+
+		subscriber.requestAndAwait(3);
+		Thread.sleep(100);
+		assertEquals(3, subscriber.rows.size());
+		assertEquals(1, subscriber.terminated.getCount());
+
+		subscriber.requestAndAwait(47);
+		assertEquals(50, subscriber.rows.size());
+
+		subscriber.subscription.request(1);
+		assertTrue(subscriber.terminated.await(TIMEOUT, TimeUnit.SECONDS));
+		assertNull(subscriber.error);
+		assertEquals("Wyoming", subscriber.rows.get(49).getName());
+	}
+
+	/**
+	 * Test that cancelling releases the cursor before the end of the result.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testCancel() throws InterruptedException {
+
+		RecordingSubscriber<StateDto> subscriber =
+		    new RecordingSubscriber<StateDto>();
+		stateDao.publishByStatement("query.select", new Object[] { 46 })
+		    .subscribe(subscriber);
+		subscriber.requestAndAwait(1);
+		assertEquals("Virginia", subscriber.rows.get(0).getName());
+
+		subscriber.subscription.cancel();
+
+		StatementMetrics metrics =
+		    stateDao.getStatementMetrics("query.select");
+		long deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+		while (metrics.getExecutions() == 0
+		    && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, metrics.getExecutions());
+		assertEquals(0, metrics.getErrors());
+		assertEquals(1, subscriber.terminated.getCount());
+	}
+
+	/**
+	 * Test publishing rows as maps and signalling SQL errors.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testPublishAsMap() throws InterruptedException {
+
+		RecordingSubscriber<Map<String, Object>> subscriber =
+		    new RecordingSubscriber<Map<String, Object>>();
+		stateDao.publishAsMap(
+		    "select NAME from TEST.STATE where ABBREVIATION = 'TN'")
+		    .subscribe(subscriber);
+		subscriber.requestAndAwait(1);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertTrue(subscriber.terminated.await(TIMEOUT, TimeUnit.SECONDS));
+		assertEquals("Tennessee", subscriber.rows.get(0).get("NAME"));
+
+		RecordingSubscriber<Map<String, Object>> failing =
+		    new RecordingSubscriber<Map<String, Object>>();
+		stateDao.publishAsMap("select BOGUS from TEST.STATE")
+		    .subscribe(failing);
+		failing.subscription.request(1);
+		assertTrue(failing.terminated.await(TIMEOUT, TimeUnit.SECONDS));
+		assertNotNull(failing.error);
+	}
+
+}
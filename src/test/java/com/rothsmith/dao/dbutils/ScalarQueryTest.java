@@ -0,0 +1,200 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PresidentDto;
+
+/**
+ * Tests for the primitive scalar, count and exists queries.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ScalarQueryTest {
+
+	/**
+	 * Virginia's STATE id.
+	 */
+	private static final int VIRGINIA = 46;
+
+	/**
+	 * Wyoming's STATE id; no president was born there.
+	 */
+	private static final int WYOMING = 50;
+
+	/**
+	 * PRESIDENT DAO.
+	 */
+	private DbUtilsJdbcDao<PresidentDto, PresidentDto> presidentDao;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAO to test.
+	 */
+	@Before
+	public void setUp() {
+
+		presidentDao = new DbUtilsJdbcDao<PresidentDto, PresidentDto>(
+		    "/presidentdao.properties");
+
+	}
+
+	/**
+	 * Test single values and arrays read into primitives.
+	 */
+	@Test
+	public void testSelectPrimitives() {
+
+		PresidentDto params = new PresidentDto();
+		params.setPartyId(2);
+		assertEquals(4, presidentDao.selectInt("query.countByPartyId", params));
+		assertEquals(4L,
+		    presidentDao.selectLong("query.countByPartyId", params));
+
+		params.setStateId(VIRGINIA);
+		assertArrayEquals(new int[] { 1, 3, 4, 5 },
+		    presidentDao.selectIntArray("query.selectIdsByStateId", params));
+		assertArrayEquals(new long[] { 1, 3, 4, 5 },
+		    presidentDao.selectLongArray("query.selectIdsByStateId", params));
+
+		params.setStateId(WYOMING);
+		assertEquals(0,
+		    presidentDao.selectInt("query.selectIdsByStateId", params));
+		assertEquals(0, presidentDao
+		    .selectIntArray("query.selectIdsByStateId", params).length);
+	}
+
+	/**
+	 * Test counting and checking for the rows of a DTO query.
+	 */
+	@Test
+	public void testCountAndExists() {
+
+		PresidentDto params = new PresidentDto();
+		params.setStateId(VIRGINIA);
+		assertEquals(4, presidentDao.count("query.selectByStateId", params));
+		assertTrue(presidentDao.exists("query.selectByStateId", params));
+
+		params.setStateId(WYOMING);
+		assertEquals(0, presidentDao.count("query.selectByStateId", params));
+		assertFalse(presidentDao.exists("query.selectByStateId", params));
+
+		assertEquals(4, presidentDao
+		    .getStatementMetrics("query.selectByStateId").getExecutions());
+	}
+
+	/**
+	 * Test the SQL the count and exists queries are derived with.
+	 */
+	@Test
+	public void testStripOrderBy() {
+
+		assertEquals("select ID from T where A=?", SqlStatements
+		    .stripOrderBy("select ID from T where A=? order by ID"));
+		assertEquals("select ID from T",
+		    SqlStatements.stripOrderBy("select ID from T"));
+		assertEquals("select ID from T order by coalesce(A, B)", SqlStatements
+		    .stripOrderBy("select ID from T order by coalesce(A, B)"));
+		assertEquals("select ID LIMIT 1",
+		    SqlDialect.MYSQL.limitToFirstRow("select ID"));
+		assertEquals("select ID FETCH FIRST 1 ROWS ONLY",
+		    SqlDialect.STANDARD.limitToFirstRow("select ID"));
+		assertEquals("select * from ( select ID ) where ROWNUM <= 1",
+		    SqlDialect.ORACLE_ROWNUM.limitToFirstRow("select ID"));
+		assertEquals("select ID",
+		    SqlDialect.GENERIC.limitToFirstRow("select ID"));
+	}
+
+	/**
+	 * Test that the dialect is chosen by database product and, for Oracle,
+	 * version.
+	 * 
+	 * @throws SQLException
+	 *             possible SQL error
+	 */
+	@Test
+	public void testDialectForConnection() throws SQLException {
+
+		assertEquals(SqlDialect.STANDARD,
+		    SqlDialect.forConnection(connection("Apache Derby", 10)));
+		assertEquals(SqlDialect.MYSQL,
+		    SqlDialect.forConnection(connection("MariaDB", 10)));
+		assertEquals(SqlDialect.STANDARD,
+		    SqlDialect.forConnection(connection("Oracle", 19)));
+		assertEquals(SqlDialect.ORACLE_ROWNUM,
+		    SqlDialect.forConnection(connection("Oracle", 11)));
+		assertEquals(SqlDialect.GENERIC, SqlDialect
+		    .forConnection(connection("Microsoft SQL Server", 15)));
+	}
+
+	/**
+	 * Create a connection stub reporting a database product and version.
+	 * 
+	 * @param product
+	 *            database product name
+	 * @param majorVersion
+	 *            database major version
+	 * @return the connection stub
+	 */
+	private static Connection connection(final String product,
+	    final int majorVersion) {
+		final DatabaseMetaData metaData = (DatabaseMetaData) Proxy
+		    .newProxyInstance(ScalarQueryTest.class.getClassLoader(),
+		        new Class<?>[] { DatabaseMetaData.class },
+		        new InvocationHandler() {
+			        @Override
+			        public Object invoke(Object proxy, Method method,
+			            Object[] args) {
+				        return "getDatabaseProductName"
+				            .equals(method.getName()) ? product
+				                : majorVersion;
+			        }
+		        });
+		return (Connection) Proxy.newProxyInstance(
+		    ScalarQueryTest.class.getClassLoader(),
+		    new Class<?>[] { Connection.class }, new InvocationHandler() {
+			    @Override
+			    public Object invoke(Object proxy, Method method,
+			        Object[] args) {
+				    return metaData;
+			    }
+		    });
+	}
+}
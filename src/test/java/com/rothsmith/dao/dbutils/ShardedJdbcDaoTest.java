@@ -0,0 +1,233 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PresidentDto;
+
+/**
+ * Tests for {@link ShardedJdbcDao} over three in-memory Derby databases.
+ *
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class ShardedJdbcDaoTest {
+
+	/**
+	 * Sharded PRESIDENT DAO.
+	 */
+	private static ShardedJdbcDao<PresidentDto, Object> dao;
+
+	/**
+	 * Create the shard databases and spread the presidents over them.
+	 *
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		for (int shard = 0; shard < 3; shard++) {
+			DbUtilsTestSetup
+			    .setup("classpath:derby/shard" + shard + "-derby.properties");
+		}
+
+		dao = new ShardedJdbcDao<PresidentDto, Object>(
+		    "/presidentshardeddao.properties");
+
+		dao.insert(president("George", "Washington", 46, 6, 1789));
+		dao.insert(president("John", "Adams", 21, 1, 1797));
+		dao.insert(president("Thomas", "Jefferson", 46, 2, 1801));
+		dao.insert(president("James", "Madison", 46, 2, 1809));
+		dao.insert(president("James", "Monroe", 46, 2, 1817));
+		dao.insert(president("John Quincy", "Adams", 21, 2, 1825));
+		dao.insert(president("Andrew", "Jackson", 42, 3, 1829));
+	}
+
+	/**
+	 * Test that every row is stored on the shard of its key.
+	 */
+	@Test
+	public void testRowsPlacedByKey() {
+
+		assertEquals(3, dao.getShardCount());
+
+		int rows = 0;
+		for (int shard = 0; shard < dao.getShardCount(); shard++) {
+			for (PresidentDto president : dao.getShard(shard)
+			    .selectByStatement("query.selectAll")) {
+				assertEquals(shard, dao.shardFor(president.getStateId()));
+				rows++;
+			}
+		}
+		assertEquals(7, rows);
+	}
+
+	/**
+	 * Test that a query without the shard key is gathered from all shards in
+	 * its ORDER BY order.
+	 */
+	@Test
+	public void testScatterGatherMergeSort() {
+
+		List<PresidentDto> presidents =
+		    dao.selectByStatement("query.selectAll");
+
+		List<String> names = new ArrayList<String>();
+		for (PresidentDto president : presidents) {
+			names.add(president.getFirstname() + " " + president.getLastname());
+		}
+		assertEquals(Arrays.asList("John Quincy Adams", "John Adams",
+		    "Andrew Jackson", "Thomas Jefferson", "James Madison",
+		    "James Monroe", "George Washington"), names);
+
+		PresidentDto params = new PresidentDto();
+		params.setPartyId(2);
+		assertEquals(4, dao.selectByStatement("query.selectByPartyId", params)
+		    .size());
+	}
+
+	/**
+	 * Test that maxRows is pushed down to the shards and applied to the
+	 * gathered rows.
+	 */
+	@Test
+	public void testLimitPushDown() {
+
+		List<PresidentDto> first =
+		    dao.selectByStatement("query.selectFirstInaugurated");
+		assertEquals(3, first.size());
+		assertEquals(1789, first.get(0).getInauguratedYear().intValue());
+		assertEquals(1797, first.get(1).getInauguratedYear().intValue());
+		assertEquals(1801, first.get(2).getInauguratedYear().intValue());
+
+		int virginia = dao.shardFor(46);
+		assertEquals(3, dao.getShard(virginia)
+		    .selectByStatement("query.selectFirstInaugurated").size());
+	}
+
+	/**
+	 * Test that a query pinned to a shard key runs on that key's shard only.
+	 */
+	@Test
+	public void testKeyRouting() {
+
+		int virginia = dao.shardFor(46);
+		long[] executions = new long[dao.getShardCount()];
+		for (int shard = 0; shard < executions.length; shard++) {
+			executions[shard] = dao.getShard(shard)
+			    .getStatementMetrics("query.selectByStateId").getExecutions();
+		}
+
+		PresidentDto params = new PresidentDto();
+		params.setStateId(46);
+		assertEquals(4,
+		    dao.selectByStatement("query.selectByStateId", params).size());
+		assertEquals(4, dao.selectByStatement("query.selectByStateId",
+		    new Object[] { 46L }).size());
+
+		for (int shard = 0; shard < executions.length; shard++) {
+			assertEquals(shard == virginia ? 2L : 0L,
+			    dao.getShard(shard)
+			        .getStatementMetrics("query.selectByStateId")
+			        .getExecutions() - executions[shard]);
+		}
+	}
+
+	/**
+	 * Test writes on the shard of the row's key.
+	 */
+	@Test
+	public void testInsertUpdateDelete() {
+
+		PresidentDto president = president("Test", "Wyoming", 50, 6, 2017);
+		president.setId(dao.insert(president));
+
+		PresidentDto params = new PresidentDto();
+		params.setStateId(50);
+		assertEquals("Wyoming", dao
+		    .selectByStatement("query.selectByStateId", params).get(0)
+		    .getLastname());
+
+		president.setLastname("Cheyenne");
+		assertEquals(1, dao.update(president));
+		assertEquals("Cheyenne", dao
+		    .selectByStatement("query.selectByStateId", params).get(0)
+		    .getLastname());
+
+		assertEquals(1, dao.delete(president));
+		assertTrue(
+		    dao.selectByStatement("query.selectByStateId", params).isEmpty());
+	}
+
+	/**
+	 * Test that adding a shard moves only keys to the new shard, and about a
+	 * quarter of them.
+	 */
+	@Test
+	public void testConsistentHashing() {
+
+		List<String> names = new ArrayList<String>(
+		    Arrays.asList("shard0", "shard1", "shard2"));
+		ShardRing ring = new ShardRing(names, 128);
+		names.add("shard3");
+		ShardRing grown = new ShardRing(names, 128);
+
+		int moved = 0;
+		for (int key = 0; key < 10000; key++) {
+			assertEquals(ring.shardFor(key), ring.shardFor((long) key));
+			if (ring.shardFor(key) != grown.shardFor(key)) {
+				assertEquals(3, grown.shardFor(key));
+				moved++;
+			}
+		}
+		assertTrue("moved " + moved, moved > 1500 && moved < 3500);
+	}
+
+	/**
+	 * Create a president.
+	 *
+	 * @param firstname
+	 *            first name
+	 * @param lastname
+	 *            last name
+	 * @param stateId
+	 *            state id
+	 * @param partyId
+	 *            party id
+	 * @param inauguratedYear
+	 *            year of inauguration
+	 * @return the president
+	 */
+	private static PresidentDto president(String firstname, String lastname,
+	    int stateId, int partyId, int inauguratedYear) {
+		PresidentDto president = new PresidentDto();
+		president.setFirstname(firstname);
+		president.setLastname(lastname);
+		president.setStateId(stateId);
+		president.setPartyId(partyId);
+		president.setInauguratedYear(inauguratedYear);
+		president.setYears(new BigDecimal("4"));
+		return president;
+	}
+}
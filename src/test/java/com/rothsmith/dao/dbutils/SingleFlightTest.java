@@ -0,0 +1,427 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+
+/**
+ * Tests for {@link SingleFlight}.
+ *
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class SingleFlightTest {
+
+	/**
+	 * Number of concurrent callers.
+	 */
+	private static final int CALLERS = 8;
+
+	/**
+	 * Runs the callers.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Counters of the statement under test.
+	 */
+	private StatementMetrics metrics;
+
+	/**
+	 * Create database objects for testing.
+	 *
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the caller threads.
+	 */
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(CALLERS);
+		metrics = new StatementMetrics("query.select");
+	}
+
+	/**
+	 * Stop the caller threads.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Test that concurrent identical calls run the query once and share its
+	 * unmodifiable result.
+	 *
+	 * @throws Exception
+	 *             test failure
+	 */
+	@Test
+	public void testSharedResult() throws Exception {
+
+		SingleFlight singleFlight = new SingleFlight(false, 0L, metrics);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger executions = new AtomicInteger();
+
+		List<Future<List<PartyDto>>> results = callConcurrently(singleFlight,
+		    blockingQuery(release, executions, null));
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+
+		List<PartyDto> first = results.get(0).get();
+		for (Future<List<PartyDto>> result : results) {
+			assertSame(first, result.get());
+		}
+		assertEquals(1, executions.get());
+		assertEquals(CALLERS - 1, metrics.getCoalesced());
+
+		try {
+			first.clear();
+			fail("Shared result must be unmodifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		// Once complete, nothing is kept: the next call runs the query.
+		singleFlight.execute("select", new Object[] { 1 },
+		    blockingQuery(new CountDownLatch(0), executions, null));
+		assertEquals(2, executions.get());
+	}
+
+	/**
+	 * Test that every caller, including the one that ran the query, receives
+	 * its own copies in copy mode.
+	 *
+	 * @throws Exception
+	 *             test failure
+	 */
+	@Test
+	public void testCopies() throws Exception {
+
+		SingleFlight singleFlight = new SingleFlight(true, 0L, metrics);
+		CountDownLatch release = new CountDownLatch(1);
+
+		List<Future<List<PartyDto>>> results = callConcurrently(singleFlight,
+		    blockingQuery(release, new AtomicInteger(), null));
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+
+		Set<Object> rows =
+		    Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		for (Future<List<PartyDto>> result : results) {
+			List<PartyDto> copies = result.get();
+			assertEquals("Whig Party", copies.get(0).getName());
+			rows.add(copies);
+			rows.add(copies.get(0));
+		}
+		assertEquals(2 * CALLERS, rows.size());
+	}
+
+	/**
+	 * Test that callers changing their results as soon as they receive them
+	 * don't change the results of the other callers.
+	 *
+	 * @throws Exception
+	 *             test failure
+	 */
+	@Test
+	public void testCallerChangesResult() throws Exception {
+
+		final SingleFlight singleFlight = new SingleFlight(true, 0L, metrics);
+		CountDownLatch release = new CountDownLatch(1);
+		final Callable<List<PartyDto>> query =
+		    blockingQuery(release, new AtomicInteger(), null);
+
+		List<Future<String>> names = new ArrayList<Future<String>>();
+		for (int i = 0; i < CALLERS; i++) {
+			names.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws SQLException {
+					List<PartyDto> rows =
+					    singleFlight.execute("select", new Object[] { 1 },
+					        query);
+					String name = rows.get(0).getName();
+					rows.get(0).setName("Changed");
+					rows.clear();
+					return name;
+				}
+			}));
+		}
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+
+		for (Future<String> name : names) {
+			assertEquals("Whig Party", name.get());
+		}
+	}
+
+	/**
+	 * Test that waiting callers receive copies of map rows in copy mode.
+	 *
+	 * @throws Exception
+	 *             test failure
+	 */
+	@Test
+	public void testMapCopies() throws Exception {
+
+		final SingleFlight singleFlight = new SingleFlight(true, 0L, metrics);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<List<Map<String, Object>>> query =
+		    new Callable<List<Map<String, Object>>>() {
+			    @Override
+			    public List<Map<String, Object>> call() throws Exception {
+				    release.await();
+				    Map<String, Object> row = new HashMap<String, Object>();
+				    row.put("NAME", "Whig Party");
+				    List<Map<String, Object>> rows =
+				        new ArrayList<Map<String, Object>>();
+				    rows.add(row);
+				    return rows;
+			    }
+		    };
+
+		List<Future<List<Map<String, Object>>>> results =
+		    new ArrayList<Future<List<Map<String, Object>>>>();
+		for (int i = 0; i < 2; i++) {
+			results.add(executor
+			    .submit(new Callable<List<Map<String, Object>>>() {
+				    @Override
+				    public List<Map<String, Object>> call()
+				            throws SQLException {
+					    return singleFlight.execute("select",
+					        new Object[] { 1 }, query);
+				    }
+			    }));
+		}
+		awaitCoalesced(1);
+		release.countDown();
+
+		Map<String, Object> first = results.get(0).get().get(0);
+		Map<String, Object> second = results.get(1).get().get(0);
+		assertNotSame(first, second);
+		assertEquals(first, second);
+		second.put("NAME", "Know Nothing");
+		assertEquals("Whig Party", first.get("NAME"));
+	}
+
+	/**
+	 * Test that an execution's failure reaches every waiting caller.
+	 *
+	 * @throws Exception
+	 *             test failure
+	 */
+	@Test
+	public void testFailurePropagation() throws Exception {
+
+		SingleFlight singleFlight = new SingleFlight(false, 0L, metrics);
+		CountDownLatch release = new CountDownLatch(1);
+		SQLException failure = new SQLException("boom", "42X05", 30000);
+
+		List<Future<List<PartyDto>>> results = callConcurrently(singleFlight,
+		    blockingQuery(release, new AtomicInteger(), failure));
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+
+		for (Future<List<PartyDto>> result : results) {
+			try {
+				result.get();
+				fail("Expected the execution's SQLException");
+			} catch (ExecutionException e) {
+				SQLException thrown = (SQLException) e.getCause();
+				assertEquals("42X05", thrown.getSQLState());
+				assertTrue(thrown == failure || thrown.getCause() == failure);
+			}
+		}
+	}
+
+	/**
+	 * Test that a waiting caller gives up after the timeout while the
+	 * execution keeps running.
+	 *
+	 * @throws Exception
+	 *             test failure
+	 */
+	@Test
+	public void testWaitTimeout() throws Exception {
+
+		final SingleFlight singleFlight = new SingleFlight(false, 50L, metrics);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger executions = new AtomicInteger();
+		final Callable<List<PartyDto>> query =
+		    blockingQuery(release, executions, null);
+
+		Future<List<PartyDto>> leader =
+		    executor.submit(new Callable<List<PartyDto>>() {
+			    @Override
+			    public List<PartyDto> call() throws SQLException {
+				    return singleFlight.execute("select",
+				        new Object[] { 1 }, query);
+			    }
+		    });
+		while (executions.get() == 0) {
+			Thread.sleep(5);
+		}
+
+		try {
+			singleFlight.execute("select", new Object[] { 1 }, query);
+			fail("Expected SQLTimeoutException");
+		} catch (SQLTimeoutException e) {
+			// expected
+		} finally {
+			release.countDown();
+		}
+		assertEquals(1, leader.get().size());
+		assertEquals(1, executions.get());
+		assertEquals(1, metrics.getCoalesced());
+	}
+
+	/**
+	 * Test the singleFlight property and a DAO statement using it.
+	 */
+	@Test
+	public void testDaoStatement() {
+
+		Map<String, String> properties = new HashMap<String, String>();
+		assertNull(SingleFlight.forStatement(properties, "query.select",
+		    StatementSettings.DEFAULT, metrics));
+		properties.put("query.select.singleFlight", "sometimes");
+		try {
+			SingleFlight.forStatement(properties, "query.select",
+			    StatementSettings.DEFAULT, metrics);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		DbUtilsJdbcDao<PartyDto, PartyDto> partyDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>(
+		        "/partylimitsdao.properties");
+		PartyDto params = new PartyDto();
+		params.setName("Independent");
+		List<PartyDto> parties =
+		    partyDao.selectByStatement("query.selectByName", params);
+		assertEquals(1, parties.size());
+		assertEquals(6, parties.get(0).getId().intValue());
+	}
+
+	/**
+	 * Start {@link #CALLERS} identical calls.
+	 *
+	 * @param singleFlight
+	 *            single-flight group
+	 * @param query
+	 *            the query
+	 * @return the calls' results
+	 */
+	private List<Future<List<PartyDto>>> callConcurrently(
+	    final SingleFlight singleFlight, final Callable<List<PartyDto>> query) {
+
+		List<Future<List<PartyDto>>> results =
+		    new ArrayList<Future<List<PartyDto>>>();
+		for (int i = 0; i < CALLERS; i++) {
+			results.add(executor.submit(new Callable<List<PartyDto>>() {
+				@Override
+				public List<PartyDto> call() throws SQLException {
+					return singleFlight.execute("select", new Object[] { 1 },
+					    query);
+				}
+			}));
+		}
+		return results;
+	}
+
+	/**
+	 * Wait until callers have joined the running execution.
+	 *
+	 * @param callers
+	 *            number of callers
+	 * @throws InterruptedException
+	 *             test interrupted
+	 */
+	private void awaitCoalesced(int callers) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (metrics.getCoalesced() < callers) {
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * Return a query that blocks until released.
+	 *
+	 * @param release
+	 *            released to let the query complete
+	 * @param executions
+	 *            counts executions
+	 * @param failure
+	 *            exception to throw or null to return a row
+	 * @return the query
+	 */
+	private static Callable<List<PartyDto>> blockingQuery(
+	    final CountDownLatch release, final AtomicInteger executions,
+	    final SQLException failure) {
+		return new Callable<List<PartyDto>>() {
+			@Override
+			public List<PartyDto> call() throws Exception {
+				executions.incrementAndGet();
+				release.await();
+				if (failure != null) {
+					throw failure;
+				}
+				PartyDto party = new PartyDto();
+				party.setId(4);
+				party.setName("Whig Party");
+				List<PartyDto> rows = new ArrayList<PartyDto>();
+				rows.add(party);
+				return rows;
+			}
+		};
+	}
+}
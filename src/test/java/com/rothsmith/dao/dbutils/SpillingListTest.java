@@ -0,0 +1,180 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+import com.rothsmith.genericdao.PresidentDto;
+import com.rothsmith.genericdao.StateDto;
+
+/**
+ * Tests for {@link SpillingList} and {@link RowCodec}.
+ *
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class SpillingListTest {
+
+	/**
+	 * STATE DAO whose query.selectAll has a 2 KB buffer budget.
+	 */
+	private DbUtilsJdbcDao<StateDto, StateDto> stateDao;
+
+	/**
+	 * Create database objects for testing.
+	 *
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAO to test.
+	 */
+	@Before
+	public void setUp() {
+
+		stateDao =
+		    new DbUtilsJdbcDao<StateDto, StateDto>("/statedao.properties");
+
+	}
+
+	/**
+	 * Test that rows past the budget are spilled, read back in order and
+	 * the file is deleted on close.
+	 */
+	@Test
+	public void testSpillToDisk() {
+
+		List<StateDto> expected = stateDao.selectByStatement("query.selectAll");
+
+		Path file;
+		try (SpillingList<StateDto> states =
+		    stateDao.selectBuffered("query.selectAll", null)) {
+
+			assertEquals(50, states.size());
+			assertTrue(states.getSpilledRows() > 0);
+			assertTrue(states.getSpilledRows() < 50);
+			assertTrue(states.getSpilledBytes() > 0);
+			file = states.getFile();
+			assertTrue(Files.exists(file));
+
+			int i = 0;
+			for (StateDto state : states) {
+				assertEquals(expected.get(i).getId(), state.getId());
+				assertEquals(expected.get(i).getName(), state.getName());
+				assertEquals(expected.get(i).getAbbreviation(),
+				    state.getAbbreviation());
+				i++;
+			}
+			assertEquals(50, i);
+
+			StateDto wyoming = states.get(49);
+			assertEquals("Wyoming", wyoming.getName());
+			assertNotSame(wyoming, states.get(49));
+
+			states.close();
+			assertFalse(Files.exists(file));
+			try {
+				states.get(0);
+				fail("Expected IllegalStateException");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Test that a result within the budget stays on the heap.
+	 */
+	@Test
+	public void testWithinBudget() {
+
+		StateDto params = new StateDto();
+		params.setId(46);
+		try (SpillingList<StateDto> states =
+		    stateDao.selectBuffered("query.select", params)) {
+			assertEquals(1, states.size());
+			assertEquals(0, states.getSpilledRows());
+			assertNull(states.getFile());
+			assertEquals("Virginia", states.get(0).getName());
+		}
+	}
+
+	/**
+	 * Test that the codec restores every kind of property, including nulls,
+	 * negative numbers, decimals and serialized beans.
+	 */
+	@Test
+	public void testCodecRoundTrip() {
+
+		PartyDto party = new PartyDto();
+		party.setId(4);
+		party.setName("Whig Party");
+
+		PresidentDto president = new PresidentDto();
+		president.setId(-300000);
+		president.setFirstname("Zachary \u00e9\u4e2d");
+		president.setStateId(46);
+		president.setInauguratedYear(1849);
+		president.setYears(new BigDecimal("-1.25"));
+		president.setParty(party);
+
+		RowCodec<PresidentDto> codec =
+		    new RowCodec<PresidentDto>(PresidentDto.class);
+		assertTrue(codec.heapSize(president) > 0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.encode(president, out);
+		codec.encode(new PresidentDto(), out);
+		ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+
+		PresidentDto copy = codec.decode(in);
+		assertEquals(-300000, copy.getId().intValue());
+		assertEquals("Zachary \u00e9\u4e2d", copy.getFirstname());
+		assertNull(copy.getLastname());
+		assertEquals(46, copy.getStateId().intValue());
+		assertNull(copy.getPartyId());
+		assertEquals(1849, copy.getInauguratedYear().intValue());
+		assertEquals(new BigDecimal("-1.25"), copy.getYears());
+		assertEquals("Whig Party", copy.getParty().getName());
+		assertNull(copy.getState());
+
+		PresidentDto empty = codec.decode(in);
+		assertNull(empty.getId());
+		assertNull(empty.getYears());
+		assertFalse(in.hasRemaining());
+	}
+}
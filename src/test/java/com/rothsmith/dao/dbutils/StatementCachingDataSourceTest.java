@@ -0,0 +1,199 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+import com.rothsmith.utils.database.JDBCServiceLocator;
+
+/**
+ * Tests for {@link StatementCachingDataSource}.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class StatementCachingDataSourceTest {
+
+	/**
+	 * SQL statement used by the tests.
+	 */
+	private static final String SQL =
+	    "select ID , NAME from TEST.PARTY where ID = ?";
+
+	/**
+	 * {@link StatementCachingDataSource} to test.
+	 */
+	private StatementCachingDataSource dataSource;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Wrap the test JNDI data source.
+	 * 
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@Before
+	public void setUp() throws NamingException {
+
+		DataSource jndiDataSource = JDBCServiceLocator.getInstance()
+		    .getDataSource("java:/comp/env/jdbc/TestDS");
+		dataSource = new StatementCachingDataSource(jndiDataSource, 2);
+
+	}
+
+	/**
+	 * Test that closing a statement returns it to the cache and that the next
+	 * prepare of the same SQL reuses it with its parameters cleared.
+	 * 
+	 * @throws SQLException
+	 *             possible SQL error
+	 */
+	@Test
+	public void testStatementReused() throws SQLException {
+
+		try (Connection conn = dataSource.getConnection()) {
+
+			try (PreparedStatement stmt = conn.prepareStatement(SQL)) {
+				stmt.setInt(1, 1);
+				try (ResultSet rs = stmt.executeQuery()) {
+					assertTrue(rs.next());
+				}
+			}
+
+			PreparedStatement stmt = conn.prepareStatement(SQL);
+			assertFalse(stmt.isClosed());
+			stmt.setInt(1, 2);
+			try (ResultSet rs = stmt.executeQuery()) {
+				assertTrue(rs.next());
+				assertEquals(2, rs.getInt(1));
+			}
+			stmt.close();
+			assertTrue(stmt.isClosed());
+		}
+
+		StatementCacheStats stats =
+		    dataSource.getStatementCacheStats().get(SQL);
+		assertEquals(1, stats.getMisses());
+		assertEquals(1, stats.getHits());
+		assertEquals(0.5d, stats.getHitRate(), 0d);
+	}
+
+	/**
+	 * Test that a statement taken from the cache doesn't keep the settings
+	 * of its previous caller.
+	 * 
+	 * @throws SQLException
+	 *             possible SQL error
+	 */
+	@Test
+	public void testStatementSettingsReset() throws SQLException {
+
+		try (Connection conn = dataSource.getConnection()) {
+
+			try (PreparedStatement stmt = conn.prepareStatement(SQL)) {
+				stmt.setQueryTimeout(5);
+				stmt.setMaxRows(1);
+				stmt.setFetchSize(25);
+			}
+
+			try (PreparedStatement stmt = conn.prepareStatement(SQL)) {
+				assertEquals(0, stmt.getQueryTimeout());
+				assertEquals(0, stmt.getMaxRows());
+				assertEquals(0, stmt.getFetchSize());
+			}
+		}
+
+		assertEquals(1, dataSource.getStatementCacheStats().get(SQL)
+		    .getHits());
+	}
+
+	/**
+	 * Test that a statement still checked out isn't handed to a second
+	 * caller.
+	 * 
+	 * @throws SQLException
+	 *             possible SQL error
+	 */
+	@Test
+	public void testCheckedOutStatementNotShared() throws SQLException {
+
+		try (Connection conn = dataSource.getConnection();
+		    PreparedStatement stmt1 = conn.prepareStatement(SQL);
+		    PreparedStatement stmt2 = conn.prepareStatement(SQL)) {
+
+			stmt1.setInt(1, 1);
+			stmt2.setInt(1, 2);
+
+			try (ResultSet rs = stmt1.executeQuery()) {
+				assertTrue(rs.next());
+				assertEquals(1, rs.getInt(1));
+			}
+		}
+
+		assertEquals(2, dataSource.getStatementCacheStats().get(SQL)
+		    .getMisses());
+	}
+
+	/**
+	 * Test a DAO configured with <code>statementCache.size</code> reports hits
+	 * for repeated statements, each run on its own checkout of a pooled
+	 * connection.
+	 */
+	@Test
+	public void testDaoStatementCache() {
+
+		DbUtilsJdbcDao<PartyDto, PartyDto> partyDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>("/partycachedao.properties");
+
+		PartyDto partyDtoParam = new PartyDto();
+		partyDtoParam.setId(1);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(1, partyDao.select(partyDtoParam).size());
+		}
+
+		long prepares = 0;
+		long hits = 0;
+		for (StatementCacheStats stats : partyDao.getStatementCacheStats()
+		    .values()) {
+			prepares += stats.getHits() + stats.getMisses();
+			hits += stats.getHits();
+		}
+		assertEquals(3, prepares);
+		assertTrue("Expected hits across checkouts, got " + hits, hits >= 2);
+	}
+
+}
@@ -0,0 +1,326 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+
+/**
+ * Tests for per-statement timeouts, row caps and concurrency limits.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class StatementLimitsTest {
+
+	/**
+	 * {@link DbUtilsJdbcDao} to test.
+	 */
+	private DbUtilsJdbcDao<PartyDto, PartyDto> partyDao;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create a {@link DbUtilsJdbcDao} to test.
+	 */
+	@Before
+	public void setUp() {
+
+		partyDao = new DbUtilsJdbcDao<PartyDto, PartyDto>(
+		    "/partylimitsdao.properties");
+
+	}
+
+	/**
+	 * Test that statement and DAO-wide settings are read from the properties
+	 * file.
+	 */
+	@Test
+	public void testSettings() {
+
+		StatementSettings settings = StatementSettings
+		    .fromProperties(partyDao.getStatementMap(), "query.selectAll");
+		assertEquals(5, settings.getQueryTimeout());
+		assertEquals(2, settings.getMaxRows());
+		assertEquals(0, settings.getMaxConcurrent());
+
+		settings = StatementSettings
+		    .fromProperties(partyDao.getStatementMap(), "query.select");
+		assertEquals(30, settings.getQueryTimeout());
+		assertEquals(1, settings.getMaxConcurrent());
+	}
+
+	/**
+	 * Test that <code>maxRows</code> caps the rows returned.
+	 */
+	@Test
+	public void testMaxRows() {
+
+		List<PartyDto> partyList =
+		    partyDao.selectByStatement("query.selectAll");
+		assertEquals(2, partyList.size());
+		assertEquals(1, partyDao.getStatementMetrics("query.selectAll")
+		    .getExecutions());
+	}
+
+	/**
+	 * Test that a saturated statement fails fast and the rejection is
+	 * counted.
+	 */
+	@Test
+	public void testBulkheadRejects() {
+
+		StatementContext context =
+		    new StatementContext(partyDao.getStatementMap(), "query.select",
+		        true);
+
+		context.acquire();
+		try {
+			context.acquire();
+			fail("Expected second execution to be rejected");
+		} catch (StatementRejectedException e) {
+			assertEquals(1, context.getMetrics().getRejections());
+		} finally {
+			context.release(0L, false);
+		}
+
+		context.acquire();
+		context.release(0L, false);
+		assertEquals(2, context.getMetrics().getExecutions());
+	}
+
+	/**
+	 * Test that a limited statement runs normally when a slot is free.
+	 */
+	@Test
+	public void testBulkheadAllows() {
+
+		PartyDto partyDtoParam = new PartyDto();
+		partyDtoParam.setId(1);
+		assertEquals(1, partyDao.select(partyDtoParam).size());
+
+		StatementMetrics metrics = partyDao.getStatementMetrics("query.select");
+		assertEquals(1, metrics.getExecutions());
+		assertEquals(0, metrics.getRejections());
+		assertNull(partyDao.getStatementMetrics().get("query.delete"));
+	}
+
+	/**
+	 * Test that the query timeout of a statement is applied to an insert
+	 * prepared to return generated keys.
+	 */
+	@Test
+	public void testInsertQueryTimeout() {
+
+		final List<Integer> timeouts = new ArrayList<Integer>();
+		final DataSource dataSource = partyDao.getDataSource();
+		partyDao.setDataSource(proxy(DataSource.class, dataSource,
+		    new InvocationHandler() {
+			    @Override
+			    public Object invoke(Object proxyObj, Method method,
+			        Object[] args) throws Throwable {
+				    Object result = invokeOn(dataSource, method, args);
+				    return result instanceof Connection
+				        ? recordTimeouts((Connection) result, timeouts)
+				        : result;
+			    }
+		    }));
+
+		PartyDto party = new PartyDto();
+		party.setName("Timed Party");
+		party.setFoundedYear(2015);
+		party.setId(partyDao.insert(party));
+		assertEquals(1, partyDao.delete(party));
+
+		assertEquals(Integer.valueOf(7), timeouts.get(0));
+		assertEquals(Integer.valueOf(30), timeouts.get(1));
+	}
+
+	/**
+	 * Test that a statement reused from the statement cache doesn't keep the
+	 * row cap of its previous execution: <code>exists()</code> caps the
+	 * statement at one row on a database without a row-limiting clause, and
+	 * a select of the same SQL must still return every row.
+	 */
+	@Test
+	public void testCachedStatementSettingsReset() {
+
+		DbUtilsJdbcDao<PartyDto, PartyDto> cachedDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>(
+		        "/partycachedao.properties");
+		final DataSource dataSource = cachedDao.getDataSource();
+		cachedDao.setDataSource(proxy(DataSource.class, dataSource,
+		    new InvocationHandler() {
+			    @Override
+			    public Object invoke(Object proxyObj, Method method,
+			        Object[] args) throws Throwable {
+				    Object result = invokeOn(dataSource, method, args);
+				    return result instanceof Connection
+				        ? genericDatabase((Connection) result) : result;
+			    }
+		    }));
+
+		PartyDto params = new PartyDto();
+		assertTrue(cachedDao.exists("query.selectAll", params));
+		assertTrue(
+		    cachedDao.selectByStatement("query.selectAll", params).size() > 1);
+
+		StatementCacheStats stats =
+		    ((StatementCachingDataSource) dataSource).getStatementCacheStats()
+		        .get(cachedDao.getStatementMap().get("query.selectAll"));
+		assertTrue(stats.getHits() >= 1);
+	}
+
+	/**
+	 * Wrap a connection to report a database without a row-limiting clause.
+	 *
+	 * @param conn
+	 *            the connection
+	 * @return the wrapped connection
+	 */
+	private static Connection genericDatabase(final Connection conn) {
+		return proxy(Connection.class, conn, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxyObj, Method method,
+			    Object[] args) throws Throwable {
+				final Object result = invokeOn(conn, method, args);
+				if (!(result instanceof DatabaseMetaData)) {
+					return result;
+				}
+				return proxy(DatabaseMetaData.class, result,
+				    new InvocationHandler() {
+					    @Override
+					    public Object invoke(Object metaDataProxy,
+					        Method metaDataMethod, Object[] metaDataArgs)
+					            throws Throwable {
+						    return "getDatabaseProductName"
+						        .equals(metaDataMethod.getName())
+						            ? "Generic Database"
+						            : invokeOn(result, metaDataMethod,
+						                metaDataArgs);
+					    }
+				    });
+			}
+		});
+	}
+
+	/**
+	 * Wrap a connection to record the query timeouts set on the statements
+	 * it prepares.
+	 *
+	 * @param conn
+	 *            the connection
+	 * @param timeouts
+	 *            receives the timeouts
+	 * @return the recording connection
+	 */
+	private static Connection recordTimeouts(final Connection conn,
+	    final List<Integer> timeouts) {
+		return proxy(Connection.class, conn, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxyObj, Method method,
+			    Object[] args) throws Throwable {
+				final Object result = invokeOn(conn, method, args);
+				if (!(result instanceof PreparedStatement)) {
+					return result;
+				}
+				return proxy(PreparedStatement.class, result,
+				    new InvocationHandler() {
+					    @Override
+					    public Object invoke(Object stmtProxy,
+					        Method stmtMethod, Object[] stmtArgs)
+					            throws Throwable {
+						    if ("setQueryTimeout"
+						        .equals(stmtMethod.getName())) {
+							    timeouts.add((Integer) stmtArgs[0]);
+						    }
+						    return invokeOn(result, stmtMethod, stmtArgs);
+					    }
+				    });
+			}
+		});
+	}
+
+	/**
+	 * Create a proxy of a JDBC interface.
+	 *
+	 * @param <I>
+	 *            interface proxied
+	 * @param type
+	 *            interface proxied
+	 * @param target
+	 *            object the proxy stands for
+	 * @param handler
+	 *            handler of the proxy's calls
+	 * @return the proxy
+	 */
+	private static <I> I proxy(Class<I> type, Object target,
+	    InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(
+		    StatementLimitsTest.class.getClassLoader(),
+		    new Class<?>[] { type }, handler));
+	}
+
+	/**
+	 * Invoke a method, unwrapping reflection exceptions.
+	 *
+	 * @param target
+	 *            the object invoked
+	 * @param method
+	 *            the method
+	 * @param args
+	 *            its arguments
+	 * @return its result
+	 * @throws Throwable
+	 *             whatever the method threw
+	 */
+	private static Object invokeOn(Object target, Method method,
+	    Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.dao.DaoRuntimeException;
+import com.rothsmith.genericdao.PartyDto;
+import com.rothsmith.genericdao.PresidentDto;
+import com.rothsmith.genericdao.StateDto;
+
+/**
+ * Tests for {@link StatementPipeline}.
+ *
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class StatementPipelineTest {
+
+	/**
+	 * Id of Virginia, the state of 4 presidents.
+	 */
+	private static final int VIRGINIA = 46;
+
+	/**
+	 * Select of a party by name.
+	 */
+	private static final String SELECT_PARTY_BY_NAME =
+	    "select ID , NAME , FOUNDED_YEAR , END_YEAR from TEST.PARTY "
+	        + "where NAME = :name";
+
+	/**
+	 * PARTY DAO.
+	 */
+	private DbUtilsJdbcDao<PartyDto, PartyDto> partyDao;
+
+	/**
+	 * PRESIDENT DAO.
+	 */
+	private DbUtilsJdbcDao<PresidentDto, PresidentDto> presidentDao;
+
+	/**
+	 * STATE DAO.
+	 */
+	private DbUtilsJdbcDao<StateDto, StateDto> stateDao;
+
+	/**
+	 * Create database objects for testing.
+	 *
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAOs to test.
+	 */
+	@Before
+	public void setUp() {
+
+		partyDao =
+		    new DbUtilsJdbcDao<PartyDto, PartyDto>("/partydao.properties");
+		presidentDao = new DbUtilsJdbcDao<PresidentDto, PresidentDto>(
+		    "/presidentdao.properties");
+		stateDao =
+		    new DbUtilsJdbcDao<StateDto, StateDto>("/statedao.properties");
+
+	}
+
+	/**
+	 * Test that an insert, several updates and a delete across three DAOs
+	 * are executed in one transaction, with the updates in one batch.
+	 */
+	@Test
+	public void testMixedWrites() {
+
+		StateDto stale = new StateDto();
+		stale.setName("Stale");
+		stale.setAbbreviation("ZZ");
+		stale.setId(stateDao.insert(stale));
+
+		PartyDto party = new PartyDto();
+		party.setName("Pipeline Party");
+		party.setFoundedYear(2015);
+
+		List<PresidentDto> virginians = virginians();
+		assertEquals(4, virginians.size());
+		List<String> firstnames = new ArrayList<String>();
+
+		StatementPipeline pipeline =
+		    partyDao.pipeline().add(partyDao, "query.insert", party);
+		for (PresidentDto president : virginians) {
+			firstnames.add(president.getFirstname());
+			president.setFirstname(president.getFirstname().toUpperCase());
+			pipeline.add(presidentDao, "query.update", president);
+		}
+		pipeline.add(stateDao, "query.delete", stale);
+		assertEquals(6, pipeline.size());
+
+		assertArrayEquals(new int[] { 1, 1, 1, 1, 1, 1 }, pipeline.execute());
+		assertEquals(0, pipeline.size());
+		assertEquals(1, presidentDao.getStatementMetrics("query.update")
+		    .getExecutions());
+
+		List<PresidentDto> updated = virginians();
+		for (int i = 0; i < updated.size(); i++) {
+			assertEquals(firstnames.get(i).toUpperCase(),
+			    updated.get(i).getFirstname());
+		}
+		assertTrue(stateDao.selectByStatement("query.select", stale)
+		    .isEmpty());
+		List<PartyDto> inserted =
+		    partyDao.select(SELECT_PARTY_BY_NAME, party);
+		assertEquals(1, inserted.size());
+
+		for (int i = 0; i < updated.size(); i++) {
+			updated.get(i).setFirstname(firstnames.get(i));
+			pipeline.add(presidentDao, "query.update", updated.get(i));
+		}
+		pipeline.add(partyDao, "query.delete", inserted.get(0));
+		assertArrayEquals(new int[] { 1, 1, 1, 1, 1 }, pipeline.execute());
+	}
+
+	/**
+	 * Test that a failed step rolls back the steps before it.
+	 */
+	@Test
+	public void testRollback() {
+
+		PresidentDto president = virginians().get(0);
+		String firstname = president.getFirstname();
+		president.setFirstname("Changed");
+
+		PartyDto nameless = new PartyDto();
+		nameless.setFoundedYear(2015);
+
+		StatementPipeline pipeline = presidentDao.pipeline()
+		    .add(presidentDao, "query.update", president)
+		    .add(partyDao, "query.insert", nameless);
+		try {
+			pipeline.execute();
+			fail("Expected the insert without a name to fail");
+		} catch (DaoRuntimeException e) {
+			assertEquals(firstname, virginians().get(0).getFirstname());
+		}
+	}
+
+	/**
+	 * Test that a query can't be added.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testQueryRejected() {
+
+		stateDao.pipeline().add(stateDao, "query.select", new StateDto());
+
+	}
+
+	/**
+	 * Select the presidents from Virginia.
+	 *
+	 * @return presidents ordered by id
+	 */
+	private List<PresidentDto> virginians() {
+		PresidentDto params = new PresidentDto();
+		params.setStateId(VIRGINIA);
+		return presidentDao.selectByStatement("query.selectByStateId",
+		    params);
+	}
+}
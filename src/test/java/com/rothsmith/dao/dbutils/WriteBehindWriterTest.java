@@ -0,0 +1,245 @@
+/*
+ * (c) 2015 Rothsmith, LLC All Rights Reserved.
+ */
+package com.rothsmith.dao.dbutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rothsmith.genericdao.PartyDto;
+
+/**
+ * Tests for {@link WriteBehindWriter}. The test DAO's flush interval and
+ * batch size are large, so writes only reach the database on
+ * {@link WriteBehindWriter#flush()}.
+ * 
+ * @author drothauser
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class WriteBehindWriterTest {
+
+	/**
+	 * Name prefix of the parties written by the tests.
+	 */
+	private static final String PREFIX = "Write-behind Party ";
+
+	/**
+	 * Query of the parties written by the tests.
+	 */
+	private static final String SELECT_WRITTEN =
+	    "select * from TEST.PARTY where NAME like :name order by ID";
+
+	/**
+	 * {@link DbUtilsJdbcDao} to test.
+	 */
+	private DbUtilsJdbcDao<PartyDto, PartyDto> partyDao;
+
+	/**
+	 * The DAO's write-behind writer.
+	 */
+	private WriteBehindWriter<PartyDto> writer;
+
+	/**
+	 * Create database objects for testing.
+	 * 
+	 * @throws IOException
+	 *             possible problem loading the properties file
+	 * @throws SQLException
+	 *             possible SQL error
+	 * @throws NamingException
+	 *             thrown if DB JNDI name isn't found
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass()
+	        throws IOException, SQLException, NamingException {
+
+		DbUtilsTestSetup.setup("classpath:derby/daogen-derby.properties");
+
+	}
+
+	/**
+	 * Create the DAO and writer to test.
+	 */
+	@Before
+	public void setUp() {
+
+		partyDao = new DbUtilsJdbcDao<PartyDto, PartyDto>(
+		    "/partywritebehinddao.properties");
+		writer = partyDao.writeBehind();
+
+	}
+
+	/**
+	 * Close the writer and delete the parties written by the test.
+	 */
+	@After
+	public void tearDown() {
+
+		writer.close();
+		for (PartyDto dto : written()) {
+			partyDao.delete(dto);
+		}
+
+	}
+
+	/**
+	 * Test that queued inserts are written in one batch on flush.
+	 */
+	@Test
+	public void testInsertBatch() {
+
+		for (int i = 0; i < 25; i++) {
+			writer.insert(party(PREFIX + i, 1900 + i));
+		}
+		assertEquals(25, writer.getMetrics().getQueueDepth());
+		assertEquals(0, written().size());
+
+		writer.flush();
+
+		assertEquals(25, written().size());
+		assertEquals(0, writer.getMetrics().getQueueDepth());
+		assertEquals(1, writer.getMetrics().getBatches());
+		assertEquals(25, writer.getMetrics().getRows());
+	}
+
+	/**
+	 * Test that updates of the same row are merged, last write winning.
+	 */
+	@Test
+	public void testCoalescedUpdates() {
+
+		PartyDto dto = party(PREFIX + "coalesced", 1800);
+		dto.setId(partyDao.insert(dto));
+
+		for (int i = 1; i <= 100; i++) {
+			writer.update(party(PREFIX + "coalesced", 1800 + i, dto.getId()));
+		}
+		writer.flush();
+
+		assertEquals(99, writer.getMetrics().getCoalesced());
+		assertEquals(1, writer.getMetrics().getRows());
+		assertEquals(Integer.valueOf(1900),
+		    partyDao.select(dto).get(0).getFoundedYear());
+	}
+
+	/**
+	 * Test that writers are rejected when the queue stays full.
+	 */
+	@Test
+	public void testBackpressure() {
+
+		for (int i = 0; i < 50; i++) {
+			writer.insert(party(PREFIX + i, 1700));
+		}
+
+		try {
+			writer.insert(party(PREFIX + "rejected", 1700));
+			fail("Expected StatementRejectedException");
+		} catch (StatementRejectedException e) {
+			assertEquals(1, writer.getMetrics().getRejections());
+		}
+
+		writer.flush();
+		writer.insert(party(PREFIX + "accepted", 1700));
+		writer.flush();
+		assertEquals(51, written().size());
+	}
+
+	/**
+	 * Test that the writes of a failed batch are rolled back and handed to
+	 * the caller by the next flush, and can be retried.
+	 */
+	@Test
+	public void testFailedBatchKept() {
+
+		for (int i = 0; i < 3; i++) {
+			writer.insert(party(PREFIX + i, 1500 + i));
+		}
+		writer.insert(party(null, 1500));
+
+		List<?> unwritten = null;
+		try {
+			writer.flush();
+			fail("Expected the insert without a name to fail the batch");
+		} catch (WriteBehindException e) {
+			unwritten = e.getUnwritten();
+		}
+
+		assertEquals(4, unwritten.size());
+		assertEquals(0, written().size());
+		assertEquals(1, writer.getMetrics().getFailures());
+
+		for (Object dto : unwritten) {
+			PartyDto party = (PartyDto) dto;
+			if (party.getName() != null) {
+				writer.insert(party);
+			}
+		}
+		writer.flush();
+		assertEquals(3, written().size());
+	}
+
+	/**
+	 * Test that a closed writer rejects writes.
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testClosed() {
+
+		writer.close();
+		writer.insert(party(PREFIX + "closed", 1600));
+	}
+
+	/**
+	 * Return the parties written by the test.
+	 * 
+	 * @return parties whose name starts with {@link #PREFIX}
+	 */
+	private List<PartyDto> written() {
+		return partyDao.select(SELECT_WRITTEN, party(PREFIX + "%", null));
+	}
+
+	/**
+	 * Create a party DTO.
+	 * 
+	 * @param name
+	 *            party name
+	 * @param foundedYear
+	 *            year founded
+	 * @return the DTO
+	 */
+	private static PartyDto party(String name, Integer foundedYear) {
+		return party(name, foundedYear, null);
+	}
+
+	/**
+	 * Create a party DTO.
+	 * 
+	 * @param name
+	 *            party name
+	 * @param foundedYear
+	 *            year founded
+	 * @param id
+	 *            party id
+	 * @return the DTO
+	 */
+	private static PartyDto party(String name, Integer foundedYear,
+	    Integer id) {
+		PartyDto dto = new PartyDto();
+		dto.setId(id);
+		dto.setName(name);
+		dto.setFoundedYear(foundedYear);
+		return dto;
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015 Rothsmith, LLC, All rights reserved.
+ */
+package com.rothsmith.genericdao;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.channels.ReadableByteChannel;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * DTO with streamed large objects.
+ *
+ * select ID , NAME , CONTENT , NOTES from TEST.DOCUMENT .
+ *
+ * @author drothauser
+ */
+public final class DocumentDto {
+
+	/**
+	 * Member variable represents database field ID.
+	 */
+	private Integer id;
+
+	/**
+	 * Member variable represents database field NAME.
+	 */
+	private String name;
+
+	/**
+	 * Member variable represents database field CONTENT (BLOB).
+	 */
+	private InputStream content;
+
+	/**
+	 * Member variable represents database field NOTES (CLOB).
+	 */
+	private Reader notes;
+
+	/**
+	 * Member variable represents database field CONTENT (BLOB) selected as
+	 * CHANNEL.
+	 */
+	private ReadableByteChannel channel;
+
+	/**
+	 * Accessor for id.
+	 *
+	 * @return id the id
+	 */
+	public Integer getId() {
+		return id;
+	}
+
+	/**
+	 * Mutator for id.
+	 *
+	 * @param id
+	 *            the id
+	 */
+	public void setId(Integer id) {
+		this.id = id;
+	}
+
+	/**
+	 * Accessor for name.
+	 *
+	 * @return name the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Mutator for name.
+	 *
+	 * @param name
+	 *            the name
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Accessor for content.
+	 *
+	 * @return content the content
+	 */
+	public InputStream getContent() {
+		return content;
+	}
+
+	/**
+	 * Mutator for content.
+	 *
+	 * @param content
+	 *            the content
+	 */
+	public void setContent(InputStream content) {
+		this.content = content;
+	}
+
+	/**
+	 * Accessor for notes.
+	 *
+	 * @return notes the notes
+	 */
+	public Reader getNotes() {
+		return notes;
+	}
+
+	/**
+	 * Mutator for notes.
+	 *
+	 * @param notes
+	 *            the notes
+	 */
+	public void setNotes(Reader notes) {
+		this.notes = notes;
+	}
+
+	/**
+	 * Accessor for channel.
+	 *
+	 * @return channel the channel
+	 */
+	public ReadableByteChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Mutator for channel.
+	 *
+	 * @param channel
+	 *            the channel
+	 */
+	public void setChannel(ReadableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this,
+		    ToStringStyle.MULTI_LINE_STYLE);
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2015 Rothsmith, LLC, All rights reserved.
+ */
+package com.rothsmith.genericdao;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * DTO generated from SQL statement.
+ *
+ * select ID , FIRSTNAME , LASTNAME , STATE_ID , PARTY_ID , INAUGURATED_YEAR ,
+ * YEARS from TEST.PRESIDENT .
+ *
+ * @author drothauser
+ */
+public final class PresidentDto implements Serializable {
+
+	/**
+	 * Serial UID.
+	 */
+	private static final long serialVersionUID = -2059153316281384707L;
+
+	/**
+	 * Member variable represents database field ID.
+	 */
+	private Integer id;
+
+	/**
+	 * Member variable represents database field FIRSTNAME.
+	 */
+	private String firstname;
+
+	/**
+	 * Member variable represents database field LASTNAME.
+	 */
+	private String lastname;
+
+	/**
+	 * Member variable represents database field STATE_ID.
+	 */
+	private Integer stateId;
+
+	/**
+	 * Member variable represents database field PARTY_ID.
+	 */
+	private Integer partyId;
+
+	/**
+	 * Member variable represents database field INAUGURATED_YEAR.
+	 */
+	private Integer inauguratedYear;
+
+	/**
+	 * Member variable represents database field YEARS.
+	 */
+	private BigDecimal years;
+
+	/**
+	 * Associated PARTY row, loaded through the "party" association.
+	 */
+	private PartyDto party;
+
+	/**
+	 * Associated STATE row, loaded through the "state" association.
+	 */
+	private StateDto state;
+
+	/**
+	 * Default constructor.
+	 */
+	public PresidentDto() {
+		// Default constructor
+	}
+
+	/**
+	 * Accessor for id.
+	 *
+	 * @return id Integer to get
+	 */
+	public Integer getId() {
+		return id;
+	}
+
+	/**
+	 * Mutator for id.
+	 *
+	 * @param varId
+	 *            Integer to set
+	 */
+	public void setId(final Integer varId) {
+		id = varId;
+	}
+
+	/**
+	 * Accessor for firstname.
+	 *
+	 * @return firstname String to get
+	 */
+	public String getFirstname() {
+		return firstname;
+	}
+
+	/**
+	 * Mutator for firstname.
+	 *
+	 * @param varFirstname
+	 *            String to set
+	 */
+	public void setFirstname(final String varFirstname) {
+		firstname = varFirstname;
+	}
+
+	/**
+	 * Accessor for lastname.
+	 *
+	 * @return lastname String to get
+	 */
+	public String getLastname() {
+		return lastname;
+	}
+
+	/**
+	 * Mutator for lastname.
+	 *
+	 * @param varLastname
+	 *            String to set
+	 */
+	public void setLastname(final String varLastname) {
+		lastname = varLastname;
+	}
+
+	/**
+	 * Accessor for stateId.
+	 *
+	 * @return stateId Integer to get
+	 */
+	public Integer getStateId() {
+		return stateId;
+	}
+
+	/**
+	 * Mutator for stateId.
+	 *
+	 * @param varStateId
+	 *            Integer to set
+	 */
+	public void setStateId(final Integer varStateId) {
+		stateId = varStateId;
+	}
+
+	/**
+	 * Accessor for partyId.
+	 *
+	 * @return partyId Integer to get
+	 */
+	public Integer getPartyId() {
+		return partyId;
+	}
+
+	/**
+	 * Mutator for partyId.
+	 *
+	 * @param varPartyId
+	 *            Integer to set
+	 */
+	public void setPartyId(final Integer varPartyId) {
+		partyId = varPartyId;
+	}
+
+	/**
+	 * Accessor for inauguratedYear.
+	 *
+	 * @return inauguratedYear Integer to get
+	 */
+	public Integer getInauguratedYear() {
+		return inauguratedYear;
+	}
+
+	/**
+	 * Mutator for inauguratedYear.
+	 *
+	 * @param varInauguratedYear
+	 *            Integer to set
+	 */
+	public void setInauguratedYear(final Integer varInauguratedYear) {
+		inauguratedYear = varInauguratedYear;
+	}
+
+	/**
+	 * Accessor for years.
+	 *
+	 * @return years BigDecimal to get
+	 */
+	public BigDecimal getYears() {
+		return years;
+	}
+
+	/**
+	 * Mutator for years.
+	 *
+	 * @param varYears
+	 *            BigDecimal to set
+	 */
+	public void setYears(final BigDecimal varYears) {
+		years = varYears;
+	}
+
+	/**
+	 * Accessor for party.
+	 *
+	 * @return party PartyDto to get
+	 */
+	public PartyDto getParty() {
+		return party;
+	}
+
+	/**
+	 * Mutator for party.
+	 *
+	 * @param varParty
+	 *            PartyDto to set
+	 */
+	public void setParty(final PartyDto varParty) {
+		party = varParty;
+	}
+
+	/**
+	 * Accessor for state.
+	 *
+	 * @return state StateDto to get
+	 */
+	public StateDto getState() {
+		return state;
+	}
+
+	/**
+	 * Mutator for state.
+	 *
+	 * @param varState
+	 *            StateDto to set
+	 */
+	public void setState(final StateDto varState) {
+		state = varState;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this,
+		    ToStringStyle.MULTI_LINE_STYLE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		return EqualsBuilder.reflectionEquals(this, obj);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 Rothsmith, LLC, All rights reserved.
+ */
+package com.rothsmith.genericdao;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * DTO generated from SQL statement.
+ *
+ * select ID , NAME , ABBREVIATION from TEST.STATE .
+ *
+ * @author drothauser
+ */
+public final class StateDto implements Serializable {
+
+	/**
+	 * Serial UID.
+	 */
+	private static final long serialVersionUID = 5120894423917763542L;
+
+	/**
+	 * Member variable represents database field ID.
+	 */
+	private Integer id;
+
+	/**
+	 * Member variable represents database field NAME.
+	 */
+	private String name;
+
+	/**
+	 * Member variable represents database field ABBREVIATION.
+	 */
+	private String abbreviation;
+
+	/**
+	 * Default constructor.
+	 */
+	public StateDto() {
+		// Default constructor
+	}
+
+	/**
+	 * Accessor for id.
+	 *
+	 * @return id Integer to get
+	 */
+	public Integer getId() {
+		return id;
+	}
+
+	/**
+	 * Mutator for id.
+	 *
+	 * @param varId
+	 *            Integer to set
+	 */
+	public void setId(final Integer varId) {
+		id = varId;
+	}
+
+	/**
+	 * Accessor for name.
+	 *
+	 * @return name String to get
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Mutator for name.
+	 *
+	 * @param varName
+	 *            String to set
+	 */
+	public void setName(final String varName) {
+		name = varName;
+	}
+
+	/**
+	 * Accessor for abbreviation.
+	 *
+	 * @return abbreviation String to get
+	 */
+	public String getAbbreviation() {
+		return abbreviation;
+	}
+
+	/**
+	 * Mutator for abbreviation.
+	 *
+	 * @param varAbbreviation
+	 *            String to set
+	 */
+	public void setAbbreviation(final String varAbbreviation) {
+		abbreviation = varAbbreviation;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this,
+		    ToStringStyle.MULTI_LINE_STYLE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		return EqualsBuilder.reflectionEquals(this, obj);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+}
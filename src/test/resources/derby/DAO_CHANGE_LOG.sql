@@ -0,0 +1,11 @@
+--  Change log of writes made through DAOs with changeLog.table set
+
+CREATE TABLE DAO_CHANGE_LOG ( 
+	seq BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1),
+	entity VARCHAR(128) NOT NULL,
+	entity_key VARCHAR(255)
+)
+;
+ALTER TABLE DAO_CHANGE_LOG ADD CONSTRAINT PK_DAO_CHANGE_LOG 
+	PRIMARY KEY (seq)
+;
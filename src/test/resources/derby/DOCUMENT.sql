@@ -0,0 +1,12 @@
+--  Documents with large objects, for LOB streaming tests
+
+CREATE TABLE DOCUMENT ( 
+	id INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1),
+	name VARCHAR(255) NOT NULL,
+	content BLOB(64M),
+	notes CLOB(64M)
+)
+;
+ALTER TABLE DOCUMENT ADD CONSTRAINT PK_DOCUMENT 
+	PRIMARY KEY (id)
+;